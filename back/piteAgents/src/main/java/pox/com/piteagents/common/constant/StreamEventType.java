@@ -0,0 +1,37 @@
+package pox.com.piteagents.common.constant;
+
+/**
+ * SSE 事件类型常量
+ * <p>
+ * 定义流式接口中除普通增量数据外的具名事件。
+ * 普通增量数据块不设置事件名（即默认的 message 事件）。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public final class StreamEventType {
+
+    /**
+     * 工具开始执行
+     * <p>
+     * 数据为 ToolCallRecord，包含工具调用 ID、名称和参数
+     * </p>
+     */
+    public static final String TOOL_START = "tool_start";
+
+    /**
+     * 工具执行完成
+     * <p>
+     * 数据为 ToolCallRecord，额外包含执行结果
+     * </p>
+     */
+    public static final String TOOL_RESULT = "tool_result";
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private StreamEventType() {
+        throw new UnsupportedOperationException("This is a constants class and cannot be instantiated");
+    }
+}
@@ -0,0 +1,101 @@
+package pox.com.piteagents.common.enums;
+
+import lombok.Getter;
+
+/**
+ * 异步对话任务状态枚举
+ * <p>
+ * 定义异步对话任务的生命周期状态。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Getter
+public enum ChatJobStatusEnum {
+
+    /**
+     * 待执行
+     * <p>
+     * 等待工作线程领取，失败后等待重试的任务也处于此状态
+     * </p>
+     */
+    PENDING("PENDING", "待执行", false),
+
+    /**
+     * 执行中
+     * <p>
+     * 已被某个节点领取，租约到期前由该节点负责完成
+     * </p>
+     */
+    RUNNING("RUNNING", "执行中", false),
+
+    /**
+     * 执行成功
+     */
+    SUCCEEDED("SUCCEEDED", "执行成功", true),
+
+    /**
+     * 执行失败
+     * <p>
+     * 不可重试的错误，或重试次数已用尽
+     * </p>
+     */
+    FAILED("FAILED", "执行失败", true);
+
+    /**
+     * 状态代码
+     */
+    private final String code;
+
+    /**
+     * 状态名称
+     */
+    private final String name;
+
+    /**
+     * 是否为终止状态
+     */
+    private final boolean terminal;
+
+    /**
+     * 构造函数
+     *
+     * @param code     状态代码
+     * @param name     状态名称
+     * @param terminal 是否为终止状态
+     */
+    ChatJobStatusEnum(String code, String name, boolean terminal) {
+        this.code = code;
+        this.name = name;
+        this.terminal = terminal;
+    }
+
+    /**
+     * 根据代码获取枚举实例
+     *
+     * @param code 状态代码
+     * @return 对应的枚举实例，如果不存在则返回null
+     */
+    public static ChatJobStatusEnum fromCode(String code) {
+        if (code == null || code.trim().isEmpty()) {
+            return null;
+        }
+        for (ChatJobStatusEnum status : values()) {
+            if (status.code.equalsIgnoreCase(code)) {
+                return status;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 检查状态代码是否有效
+     *
+     * @param code 状态代码
+     * @return true 表示有效，false 表示无效
+     */
+    public static boolean isValidCode(String code) {
+        return fromCode(code) != null;
+    }
+}
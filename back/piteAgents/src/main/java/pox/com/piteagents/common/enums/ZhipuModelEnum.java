@@ -22,7 +22,7 @@ public enum ZhipuModelEnum {
      * 适用场景：复杂推理、深度分析、专业内容生成
      * </p>
      */
-    GLM_4_5("glm-4.5", "GLM-4.5", "高性能模型，适合复杂任务和深度分析"),
+    GLM_4_5("glm-4.5", "GLM-4.5", "高性能模型，适合复杂任务和深度分析", 128_000, 96_000),
 
     /**
      * GLM-4.6 模型
@@ -32,7 +32,7 @@ public enum ZhipuModelEnum {
      * 推荐：作为默认模型使用
      * </p>
      */
-    GLM_4_6("glm-4.6", "GLM-4.6", "最新版本，性能优化，推荐使用");
+    GLM_4_6("glm-4.6", "GLM-4.6", "最新版本，性能优化，推荐使用", 200_000, 128_000);
 
     /**
      * 模型代码（API调用时使用的标识）
@@ -49,17 +49,31 @@ public enum ZhipuModelEnum {
      */
     private final String description;
 
+    /**
+     * 上下文窗口长度（输入与输出 token 数之和的上限）
+     */
+    private final int contextLength;
+
+    /**
+     * 单次生成的最大 token 数
+     */
+    private final int maxOutputTokens;
+
     /**
      * 构造函数
      *
-     * @param code        模型代码
-     * @param name        模型名称
-     * @param description 模型描述
+     * @param code            模型代码
+     * @param name            模型名称
+     * @param description     模型描述
+     * @param contextLength   上下文窗口长度
+     * @param maxOutputTokens 单次生成的最大 token 数
      */
-    ZhipuModelEnum(String code, String name, String description) {
+    ZhipuModelEnum(String code, String name, String description, int contextLength, int maxOutputTokens) {
         this.code = code;
         this.name = name;
         this.description = description;
+        this.contextLength = contextLength;
+        this.maxOutputTokens = maxOutputTokens;
     }
 
     /**
@@ -0,0 +1,94 @@
+package pox.com.piteagents.common.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.ZhipuConfig;
+import pox.com.piteagents.entity.dto.common.Message;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对话请求摘要工具类
+ * <p>
+ * 将对话请求规范化后计算 SHA-256 摘要，用于识别内容完全相同的请求：
+ * - 未指定的参数先用配置的默认值补全，使"未指定"与"显式指定默认值"得到相同的摘要
+ * - 按固定字段顺序序列化为 JSON
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatRequestDigester {
+
+    private final ZhipuConfig zhipuConfig;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 计算请求摘要
+     *
+     * @param request   对话请求
+     * @param scope     摘要用途（不同用途的摘要互不相同）
+     * @param streaming 是否为流式请求（流式请求的增量合并设置会影响输出帧）
+     * @return 十六进制摘要
+     */
+    public String digest(ChatRequest request, String scope, boolean streaming) {
+        Map<String, Object> canonical = new LinkedHashMap<>();
+        canonical.put("scope", scope);
+        canonical.put("agentId", request.getAgentId());
+        canonical.put("model", resolveModel(request));
+        canonical.put("temperature", resolveTemperature(request));
+        canonical.put("maxTokens", request.getMaxTokens() != null
+                ? request.getMaxTokens() : zhipuConfig.getMaxTokens());
+        canonical.put("topP", request.getTopP());
+        if (streaming) {
+            canonical.put("coalesce", !Boolean.FALSE.equals(request.getCoalesce()));
+        }
+        canonical.put("messages", request.getMessages().stream()
+                .map(this::canonicalMessage)
+                .toList());
+
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(canonical);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("计算请求摘要失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解析请求实际使用的模型
+     *
+     * @param request 对话请求
+     * @return 模型代码
+     */
+    public String resolveModel(ChatRequest request) {
+        return request.getModel() != null && !request.getModel().isBlank()
+                ? request.getModel() : zhipuConfig.getDefaultModel();
+    }
+
+    /**
+     * 解析请求实际使用的温度
+     *
+     * @param request 对话请求
+     * @return 温度参数
+     */
+    public double resolveTemperature(ChatRequest request) {
+        return request.getTemperature() != null
+                ? request.getTemperature() : zhipuConfig.getDefaultTemperature();
+    }
+
+    private List<String> canonicalMessage(Message message) {
+        return Arrays.asList(message.getRole(), message.getContent());
+    }
+}
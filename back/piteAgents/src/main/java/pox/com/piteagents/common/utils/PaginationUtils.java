@@ -8,7 +8,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import pox.com.piteagents.config.PaginationProperties;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -159,4 +163,59 @@ public class PaginationUtils {
     public boolean isValidPage(IPage<?> page) {
         return page != null && page.getCurrent() > 0 && page.getSize() > 0;
     }
+
+    /**
+     * 获取游标分页的每页大小
+     *
+     * @param pageSize 用户指定的页面大小（null时使用配置的默认值）
+     * @return 安全的页面大小
+     */
+    public int getSafeCursorPageSize(Integer pageSize) {
+        return paginationProperties.getSafePageSize(pageSize);
+    }
+
+    /**
+     * 生成游标
+     * <p>
+     * 游标由排序键（时间, ID）编码而成，对客户端不透明。
+     * </p>
+     *
+     * @param sortValue 最后一条记录的排序时间
+     * @param id        最后一条记录的 ID
+     * @return 游标字符串
+     */
+    public String encodeCursor(LocalDateTime sortValue, Long id) {
+        String raw = sortValue + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标
+     *
+     * @param cursor 游标字符串（null 或空表示第一页）
+     * @return 排序键，第一页返回 null
+     * @throws IllegalArgumentException 当游标无法解析时抛出
+     */
+    public SeekKey decodeCursor(String cursor) {
+        if (stringConversionUtils.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new SeekKey(LocalDateTime.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+            log.warn("无效的分页游标: {}", cursor);
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+    }
+
+    /**
+     * 游标分页的排序键
+     *
+     * @param sortValue 排序时间
+     * @param id        记录 ID（排序时间相同时的次序）
+     */
+    public record SeekKey(LocalDateTime sortValue, Long id) {
+    }
 }
@@ -0,0 +1,48 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 批量对话配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.batch 配置，
+ * 控制批量对话接口的请求数上限和并行度。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.batch")
+public class BatchProperties {
+
+    /**
+     * 单个批量请求最多包含的对话数
+     */
+    private int maxRequests = 5000;
+
+    /**
+     * 默认并行度
+     */
+    private int defaultParallelism = 8;
+
+    /**
+     * 最大并行度
+     * <p>
+     * 所有调用仍受上游并发限制器和调用配额约束，这里只限制单个批量请求占用的线程数
+     * </p>
+     */
+    private int maxParallelism = 32;
+
+    /**
+     * 单个批量请求的最长持续时间（秒）
+     * <p>
+     * 响应超时按批次规模计算：执行轮数（请求数 / 并行度，向上取整）乘以单次调用超时，不超过此值。
+     * 到达上限时结束响应，已输出的结果仍然有效；预计更久的批次应逐条提交为异步任务（/api/chat/jobs）
+     * </p>
+     */
+    private int maxDurationSeconds = 3600;
+}
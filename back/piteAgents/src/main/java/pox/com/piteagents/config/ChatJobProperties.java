@@ -0,0 +1,84 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 异步对话任务配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.chat-job 配置，
+ * 控制任务工作线程数、领取间隔、执行租约和重试策略。
+ * 只提供接口、不执行任务的节点可将 workerEnabled 设为 false，使工作线程与 Web 层独立扩缩容。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.chat-job")
+public class ChatJobProperties {
+
+    /**
+     * 当前节点是否执行任务
+     */
+    private boolean workerEnabled = true;
+
+    /**
+     * 工作线程数
+     */
+    private int workerThreads = 4;
+
+    /**
+     * 没有可领取的任务时的轮询间隔（毫秒）
+     */
+    private long pollIntervalMs = 500;
+
+    /**
+     * 执行租约时长（秒）
+     * <p>
+     * 执行期间每隔 leaseRenewIntervalSeconds 续期一次，因此不必覆盖单个任务的最长执行时间，
+     * 只决定节点失联后多久由其他节点重新执行；应是续期间隔的数倍，容忍偶发的续期失败
+     * </p>
+     */
+    private int leaseSeconds = 90;
+
+    /**
+     * 租约续期间隔（秒）
+     */
+    private int leaseRenewIntervalSeconds = 30;
+
+    /**
+     * 租约到期检查间隔（秒）
+     */
+    private int leaseCheckIntervalSeconds = 30;
+
+    /**
+     * 最大执行次数（含首次执行）
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 可重试错误的重试延迟（秒）
+     */
+    private int retryDelaySeconds = 30;
+
+    /**
+     * SSE 订阅的状态检查间隔（毫秒）
+     */
+    private long watchIntervalMs = 1000;
+
+    /**
+     * 节点关闭时等待执行中任务结束的最长时间（秒），超时未结束的任务立即放回队列
+     */
+    private int shutdownWaitSeconds = 5;
+
+    /**
+     * SSE 订阅的最长持续时间（秒）
+     * <p>
+     * 实际不超过 spring.mvc.async.request-timeout，超过时按异步请求超时截断
+     * </p>
+     */
+    private int watchTimeoutSeconds = 290;
+}
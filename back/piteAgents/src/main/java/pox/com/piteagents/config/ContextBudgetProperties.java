@@ -0,0 +1,54 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 上下文预算配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.context-budget 配置，
+ * 控制发送给上游的提示词长度和最大生成 token 数。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.context-budget")
+public class ContextBudgetProperties {
+
+    /**
+     * 是否启用上下文裁剪
+     * <p>
+     * 关闭后仍会按模型上下文窗口收紧 maxTokens
+     * </p>
+     */
+    private boolean enabled = true;
+
+    /**
+     * 提示词 token 预算
+     * <p>
+     * 超出时从最早的历史消息开始裁剪，系统提示词和最新一条消息始终保留。
+     * 取 0 表示只受模型上下文窗口限制
+     * </p>
+     */
+    private int maxPromptTokens = 32_000;
+
+    /**
+     * 估算误差余量比例
+     * <p>
+     * 计算剩余生成空间时，提示词估算值按此比例放大
+     * </p>
+     */
+    private double safetyMarginRatio = 0.1;
+
+    /**
+     * 最小生成 token 数
+     * <p>
+     * 保留系统提示词和最新消息后剩余空间仍不足此值时，直接拒绝请求
+     * </p>
+     */
+    private int minCompletionTokens = 256;
+}
@@ -0,0 +1,50 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话历史缓存配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.history-cache 配置，
+ * 控制活跃会话最近消息的本地缓存容量和过期时间。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.history-cache")
+public class HistoryCacheProperties {
+
+    /**
+     * 是否启用会话历史缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 缓存占用内存上限（字节，按消息内容长度估算）
+     * <p>
+     * 超出后淘汰最久未访问的会话
+     * </p>
+     */
+    private long maxBytes = 64L * 1024 * 1024;
+
+    /**
+     * 单个会话缓存的内存上限（字节）
+     * <p>
+     * 超出的会话不缓存（加载时）或移出缓存（追加后），避免个别超长会话挤占整个缓存
+     * </p>
+     */
+    private long maxEntryBytes = 1024L * 1024;
+
+    /**
+     * 缓存过期时间（秒，从加载时算起）
+     * <p>
+     * 缓存只感知本节点的写入，多节点部署时其他节点写入的消息最多在这么久之后可见
+     * </p>
+     */
+    private int ttlSeconds = 300;
+}
@@ -0,0 +1,73 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 调用配额配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.quota 配置，
+ * 控制全局和每个 Agent 的每分钟请求数（RPM）和每分钟 token 数（TPM）。
+ * Agent 可在 extra_params 中通过 rpmLimit、tpmLimit 覆盖默认值。
+ * 所有上限取 0 表示不限制。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.quota")
+public class QuotaProperties {
+
+    /**
+     * 是否启用
+     */
+    private boolean enabled = true;
+
+    /**
+     * 全局每分钟请求数上限
+     */
+    private int globalRpm = 600;
+
+    /**
+     * 全局每分钟 token 数上限
+     * <p>
+     * 应略低于账号在智谱AI的 TPM 额度，为估算误差留出余量
+     * </p>
+     */
+    private long globalTpm = 1_000_000;
+
+    /**
+     * 每个 Agent 默认的每分钟请求数上限
+     */
+    private int agentRpm = 120;
+
+    /**
+     * 每个 Agent 默认的每分钟 token 数上限
+     */
+    private long agentTpm = 200_000;
+
+    /**
+     * 尚无生成长度样本时预留的生成 token 数
+     * <p>
+     * 启动后第一批调用按此值预留，而不是模型的最大生成长度（如 glm-4.6 的 128000），
+     * 否则单次调用就会占满 Agent 的 TPM；实际用量在结算时多退少补
+     * </p>
+     */
+    private int defaultCompletionEstimate = 1024;
+
+    /**
+     * 配额不足时最多等待的时间（毫秒）
+     * <p>
+     * 预计在该时间内可补足配额时短暂等待，否则立即拒绝，不进入长时间排队
+     * </p>
+     */
+    private long maxDeferMs = 1000;
+
+    /**
+     * Agent 配额配置的刷新间隔（秒）
+     */
+    private int policyRefreshSeconds = 30;
+}
@@ -0,0 +1,58 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话响应缓存配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.response-cache 配置。
+ * 缓存需要 Agent 通过 agent_config.extra_params 中的 responseCache=true 主动开启，
+ * 这里的配置只控制全局开关、容量和默认过期时间。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.response-cache")
+public class ResponseCacheProperties {
+
+    /**
+     * 全局开关
+     */
+    private boolean enabled = true;
+
+    /**
+     * 最大缓存条目数
+     */
+    private int maxEntries = 10000;
+
+    /**
+     * 最大缓存字节数
+     */
+    private long maxBytes = 32L * 1024 * 1024;
+
+    /**
+     * 默认过期时间（秒）
+     * <p>
+     * Agent 可通过 extra_params 中的 responseCacheTtlSeconds 覆盖
+     * </p>
+     */
+    private int defaultTtlSeconds = 600;
+
+    /**
+     * 可缓存请求的最高温度
+     * <p>
+     * 温度越高输出越随机，超过该值的请求不走缓存
+     * </p>
+     */
+    private double maxTemperature = 0.3;
+
+    /**
+     * Agent 缓存配置的刷新间隔（秒）
+     */
+    private int policyRefreshSeconds = 30;
+}
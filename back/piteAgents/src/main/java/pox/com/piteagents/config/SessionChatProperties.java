@@ -0,0 +1,76 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话对话配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.session-chat 配置，
+ * 控制会话对话加载的历史长度，以及对话完成后消息的组提交写入。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.session-chat")
+public class SessionChatProperties {
+
+    /**
+     * 加载的最近历史消息数
+     * <p>
+     * 取 0 表示加载摘要水位线之后的全部消息，超出上下文预算的部分由上下文预算器裁剪
+     * </p>
+     */
+    private int historyLimit = 0;
+
+    /**
+     * 消息写入等待队列容量（按提交次数计，一轮对话为一次）
+     * <p>
+     * 队列满说明数据库写入跟不上，此时提交线程等待队列空位（背压），不绕过队列直接写入
+     * </p>
+     */
+    private int writerQueueCapacity = 2000;
+
+    /**
+     * 队列满时提交线程等待空位的最长时间（毫秒），超时后本次提交以 503 失败
+     */
+    private long writerEnqueueTimeoutMs = 5000;
+
+    /**
+     * 组装上下文前等待同一会话上一轮消息写入的最长时间（毫秒）
+     * <p>
+     * 写入在响应之后完成，紧接着的下一轮对话先等待上一轮写入，保证历史中包含上一轮；超时后按已写入的历史继续
+     * </p>
+     */
+    private long pendingTurnWaitMs = 3000;
+
+    /**
+     * 组提交时间窗口（毫秒）
+     * <p>
+     * 写入线程取到第一条待写消息后最多再等待这么久，收集同一批次的其他消息
+     * </p>
+     */
+    private long flushIntervalMs = 5;
+
+    /**
+     * 单批次最大消息行数
+     * <p>
+     * 攒满即写入，不再等待时间窗口结束
+     * </p>
+     */
+    private int maxBatchRows = 200;
+
+    /**
+     * 关闭应用时等待队列中消息写完的最长时间（秒）
+     */
+    private int shutdownTimeoutSeconds = 30;
+
+    /**
+     * 写入线程名称
+     */
+    private String writerThreadName = "session-writer";
+}
@@ -0,0 +1,68 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话计数器配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.session-counter 配置，
+ * 控制会话 message_count / total_tokens 增量的批量刷新，以及按消息表重新核对计数的对账任务。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.session-counter")
+public class SessionCounterProperties {
+
+    /**
+     * 增量刷新间隔（毫秒）
+     * <p>
+     * 会话列表中的消息数、Token 数和更新时间最多滞后这么久
+     * </p>
+     */
+    private long flushIntervalMs = 1000;
+
+    /**
+     * 单条 UPDATE 语句最多更新的会话数
+     */
+    private int maxSessionsPerUpdate = 500;
+
+    /**
+     * 空闲计数器回收时间（秒）
+     * <p>
+     * 会话在这段时间内没有新消息时回收其内存中的计数器
+     * </p>
+     */
+    private int idleEvictSeconds = 60;
+
+    /**
+     * 对账任务间隔（分钟，0 表示不定时执行）
+     */
+    private int reconcileIntervalMinutes = 360;
+
+    /**
+     * 对账时每批核对的会话数
+     */
+    private int reconcileBatchSize = 500;
+
+    /**
+     * 对账时跳过的活跃窗口（秒）
+     * <p>
+     * 这段时间内有新消息的会话可能还有未刷新的增量（包括其他节点上的），本次不核对
+     * </p>
+     */
+    private int reconcileSettleSeconds = 60;
+
+    /**
+     * 定时对账发现偏差时是否修正
+     * <p>
+     * 关闭后只记录偏差（日志和指标），用于先观察再修正
+     * </p>
+     */
+    private boolean reconcileFix = true;
+}
@@ -0,0 +1,34 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 请求合并（single-flight）配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.single-flight 配置。
+ * 启用后，同时到达的完全相同的对话请求共享一次上游调用。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.single-flight")
+public class SingleFlightProperties {
+
+    /**
+     * 是否启用同步对话的请求合并
+     */
+    private boolean chatEnabled = true;
+
+    /**
+     * 是否启用流式对话的请求合并
+     * <p>
+     * 后加入的请求会先收到已生成的部分，再继续接收后续内容
+     * </p>
+     */
+    private boolean streamEnabled = true;
+}
@@ -0,0 +1,158 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 流式对话配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.streaming 配置，
+ * 控制流式请求调度线程池的容量、排队长度、拒绝策略、增量合并和断线续传。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.streaming")
+public class StreamingProperties {
+
+    /**
+     * 线程模式
+     * <p>
+     * AUTO: JDK 21+ 使用虚拟线程，否则使用平台线程池
+     * VIRTUAL: 强制使用虚拟线程（JDK 21 以下启动失败）
+     * PLATFORM: 强制使用固定大小的平台线程池
+     * </p>
+     */
+    private ThreadMode threadMode = ThreadMode.AUTO;
+
+    /**
+     * 平台线程池大小
+     * <p>
+     * 平台线程模式下同时处理的最大流式请求数
+     * </p>
+     */
+    private int platformPoolSize = 200;
+
+    /**
+     * 虚拟线程模式下的最大并发流数
+     * <p>
+     * 虚拟线程开销很小，但仍需上限保护上游和内存
+     * </p>
+     */
+    private int maxActiveStreams = 5000;
+
+    /**
+     * 等待队列容量
+     * <p>
+     * 并发流数达到上限后，新请求在此队列中排队；队列满时触发拒绝策略
+     * </p>
+     */
+    private int queueCapacity = 1000;
+
+    /**
+     * 空闲线程存活时间（秒）
+     */
+    private int keepAliveSeconds = 60;
+
+    /**
+     * 拒绝策略
+     * <p>
+     * ABORT: 直接拒绝新请求
+     * WAIT: 请求线程最多等待 rejectionWaitMs 直到队列有空位，仍无空位则拒绝
+     * DISCARD_OLDEST: 丢弃队列中等待最久的请求，接收新请求
+     * </p>
+     * <p>
+     * 流式任务不会在请求线程上执行：SseEmitter 返回给 MVC 之前推送的帧都停留在发射器的缓冲区，
+     * 在请求线程上生成会把流式响应变成一次性返回。
+     * </p>
+     */
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+    /**
+     * WAIT 策略下请求线程等待队列空位的最长时间（毫秒）
+     */
+    private long rejectionWaitMs = 1000;
+
+    /**
+     * 线程名称前缀
+     */
+    private String threadNamePrefix = "sse-stream-";
+
+    /**
+     * 增量合并时间窗口（毫秒）
+     * <p>
+     * 窗口内连续到达的增量合并为一个数据块推送，0 表示关闭合并。
+     * 请求可通过 coalesce=false 单独关闭
+     * </p>
+     */
+    private long coalesceWindowMs = 30;
+
+    /**
+     * 增量合并字节阈值
+     * <p>
+     * 缓冲内容达到该字节数时不等窗口到期，立即推送
+     * </p>
+     */
+    private int coalesceMaxBytes = 1024;
+
+    /**
+     * 是否启用流式响应续传
+     * <p>
+     * 启用后每个数据帧携带序号（SSE id），客户端断线后可通过 Last-Event-ID 续传
+     * </p>
+     */
+    private boolean replayEnabled = true;
+
+    /**
+     * 每个响应保留的最大帧数
+     */
+    private int replayMaxFramesPerStream = 4096;
+
+    /**
+     * 重放缓冲区总字节上限
+     * <p>
+     * 超出后优先淘汰最早结束的响应
+     * </p>
+     */
+    private long replayMaxBytes = 64L * 1024 * 1024;
+
+    /**
+     * 响应结束后保留的时间（秒）
+     */
+    private int replayTtlSeconds = 300;
+
+    /**
+     * 断线重连宽限期（秒）
+     * <p>
+     * 生成过程中所有客户端都断开后，宽限期内无人重连才取消上游生成
+     * </p>
+     */
+    private int resumeGraceSeconds = 15;
+
+    /**
+     * 流式指标中单独打 agent 标签的 Agent 数上限
+     * <p>
+     * 最先出现的这些 Agent 使用各自的 ID 作为标签，其余归入 other；
+     * agent 标签只用于计数器，不用于直方图。0 表示不按 Agent 区分
+     * </p>
+     */
+    private int metricsMaxAgents = 50;
+
+    /**
+     * 线程模式枚举
+     */
+    public enum ThreadMode {
+        AUTO, VIRTUAL, PLATFORM
+    }
+
+    /**
+     * 拒绝策略枚举
+     */
+    public enum RejectionPolicy {
+        ABORT, WAIT, DISCARD_OLDEST
+    }
+}
@@ -0,0 +1,70 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话摘要配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.summary 配置，
+ * 控制何时将较早的消息折叠进会话摘要，以及后台摘要线程池。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.summary")
+public class SummaryProperties {
+
+    /**
+     * 是否启用
+     */
+    private boolean enabled = true;
+
+    /**
+     * 触发摘要的 token 阈值
+     * <p>
+     * 水位线之后的消息预估 token 数超过此值时触发摘要
+     * </p>
+     */
+    private int triggerTokens = 6000;
+
+    /**
+     * 保留原文的最近消息数
+     * <p>
+     * 最近的若干条消息不折叠进摘要，保证最新几轮对话的细节完整
+     * </p>
+     */
+    private int keepRecentMessages = 6;
+
+    /**
+     * 生成摘要使用的模型（为空时使用默认模型）
+     */
+    private String model;
+
+    /**
+     * 摘要最大生成 token 数
+     */
+    private int maxSummaryTokens = 1024;
+
+    /**
+     * 摘要线程池大小
+     */
+    private int poolSize = 2;
+
+    /**
+     * 摘要任务等待队列容量
+     * <p>
+     * 队列满时放弃本次摘要，下一条消息写入后会再次触发
+     * </p>
+     */
+    private int queueCapacity = 200;
+
+    /**
+     * 线程名称前缀
+     */
+    private String threadNamePrefix = "summary-";
+}
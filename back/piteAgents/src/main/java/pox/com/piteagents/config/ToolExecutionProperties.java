@@ -0,0 +1,58 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 工具调用执行配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.tool-execution 配置，
+ * 控制工具调用循环的轮数上限、请求截止时间和并行执行线程池。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.tool-execution")
+public class ToolExecutionProperties {
+
+    /**
+     * 默认最大工具调用轮数
+     * <p>
+     * Agent 可通过 agent_config.extra_params 中的 maxToolRounds 覆盖
+     * </p>
+     */
+    private int defaultMaxRounds = 5;
+
+    /**
+     * 单个请求的截止时间（毫秒）
+     * <p>
+     * 覆盖从第一次调用 AI 到工具执行完毕的全部时间，超时后不再发起新的工具调用轮次
+     * </p>
+     */
+    private long requestTimeoutMs = 60000;
+
+    /**
+     * 工具执行线程池大小
+     * <p>
+     * 同一轮中相互独立的工具调用并行执行，所有请求共享该线程池
+     * </p>
+     */
+    private int poolSize = 32;
+
+    /**
+     * 工具执行等待队列容量
+     * <p>
+     * 队列满时新的工具调用直接按超时返回给 AI，不在调用线程上执行
+     * </p>
+     */
+    private int queueCapacity = 500;
+
+    /**
+     * 线程名称前缀
+     */
+    private String threadNamePrefix = "tool-exec-";
+}
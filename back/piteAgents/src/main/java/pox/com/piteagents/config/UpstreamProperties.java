@@ -0,0 +1,235 @@
+package pox.com.piteagents.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 上游调用配置属性类
+ * <p>
+ * 从 application.yml 读取 pite-agents.upstream 配置，
+ * 控制所有发往智谱AI的调用的并发限制、重试、熔断、模型降级和同步对话的对冲请求。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "pite-agents.upstream")
+public class UpstreamProperties {
+
+    /**
+     * 自适应并发限制配置
+     */
+    private Limiter limiter = new Limiter();
+
+    /**
+     * 对冲请求配置
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 重试配置
+     */
+    private Retry retry = new Retry();
+
+    /**
+     * 熔断配置
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * 模型降级路由
+     * <p>
+     * 键为原模型，值为原模型熔断时改用的模型，例如 glm-4.6 → glm-4.5。
+     * 降级模型同样可以配置自己的降级目标，按链路依次尝试
+     * </p>
+     */
+    private Map<String, String> fallbackModels = new LinkedHashMap<>();
+
+    /**
+     * 自适应并发限制配置（AIMD）
+     * <p>
+     * 每个模型独立维护并发上限和等待队列：
+     * - 调用成功且延迟正常时，上限每轮约增加 1（加性增）
+     * - 上游返回限流（429 等）时，上限乘以 backoffRatio（乘性减）
+     * - 延迟超过基线的 latencyTolerance 倍时，上限小幅下调
+     * </p>
+     */
+    @Data
+    public static class Limiter {
+
+        /**
+         * 是否启用
+         */
+        private boolean enabled = true;
+
+        /**
+         * 初始并发上限
+         */
+        private int initialLimit = 20;
+
+        /**
+         * 最小并发上限
+         */
+        private int minLimit = 1;
+
+        /**
+         * 最大并发上限
+         */
+        private int maxLimit = 200;
+
+        /**
+         * 收到限流响应时的下调比例
+         */
+        private double backoffRatio = 0.5;
+
+        /**
+         * 延迟容忍倍数
+         * <p>
+         * 延迟样本超过基线（指数移动平均）的该倍数时视为拥塞
+         * </p>
+         */
+        private double latencyTolerance = 2.0;
+
+        /**
+         * 延迟拥塞时的下调比例
+         */
+        private double latencyBackoffRatio = 0.9;
+
+        /**
+         * 每个模型的最大排队数
+         */
+        private int maxQueueSize = 500;
+
+        /**
+         * 最长排队时间（毫秒）
+         */
+        private long maxQueueWaitMs = 30000;
+    }
+
+    /**
+     * 对冲请求配置
+     * <p>
+     * 同步对话在等待时间超过该模型近期延迟的指定分位数后，再发出一个相同的请求，
+     * 采用先返回的结果并取消另一个。对冲次数受预算限制，避免上游变慢时成倍放大负载。
+     * </p>
+     */
+    @Data
+    public static class Hedge {
+
+        /**
+         * 是否启用
+         */
+        private boolean enabled = false;
+
+        /**
+         * 触发对冲的延迟分位数
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 对冲预算：对冲请求数占总请求数的最大比例
+         */
+        private double budgetRatio = 0.05;
+
+        /**
+         * 预算最多累积的对冲次数
+         * <p>
+         * 允许短时间内集中使用积累的预算，但不会因长时间空闲而无限累积
+         * </p>
+         */
+        private int maxBurst = 10;
+
+        /**
+         * 每个模型保留的最近延迟样本数
+         */
+        private int sampleWindow = 512;
+
+        /**
+         * 样本数达到该值之前不进行对冲
+         */
+        private int minSamples = 50;
+
+        /**
+         * 最短对冲等待时间（毫秒）
+         */
+        private long minDelayMs = 200;
+
+        /**
+         * 执行对冲调用的线程池大小
+         */
+        private int poolSize = 64;
+
+        /**
+         * 线程名称前缀
+         */
+        private String threadNamePrefix = "upstream-hedge-";
+    }
+
+    /**
+     * 重试配置
+     * <p>
+     * 仅对可重试的错误（上游 5xx、限流、网络异常）重试，
+     * 等待时间按指数增长并加入随机抖动；流式调用只在收到首个数据块之前重试
+     * </p>
+     */
+    @Data
+    public static class Retry {
+
+        /**
+         * 最大尝试次数（含首次调用），1 表示不重试
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * 首次重试前的等待时间（毫秒）
+         */
+        private long initialBackoffMs = 200;
+
+        /**
+         * 最长等待时间（毫秒）
+         */
+        private long maxBackoffMs = 2000;
+
+        /**
+         * 等待时间增长倍数
+         */
+        private double multiplier = 2.0;
+    }
+
+    /**
+     * 熔断配置
+     * <p>
+     * 每个模型独立熔断：连续失败达到阈值后打开，期间直接失败或降级；
+     * 打开时长结束后进入半开状态，放行少量探测请求，成功则关闭，失败则重新打开
+     * </p>
+     */
+    @Data
+    public static class CircuitBreaker {
+
+        /**
+         * 是否启用
+         */
+        private boolean enabled = true;
+
+        /**
+         * 连续失败多少次后打开
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * 打开状态持续时间（毫秒）
+         */
+        private long openDurationMs = 30000;
+
+        /**
+         * 半开状态下允许同时进行的探测请求数
+         */
+        private int halfOpenMaxCalls = 1;
+    }
+}
@@ -1,12 +1,19 @@
 package pox.com.piteagents.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import ai.z.openapi.ZhipuAiClient;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * 智谱AI配置类
  * <p>
@@ -37,6 +44,7 @@ public class ZhipuConfig {
      * <p>
      * 智谱AI API的基础URL。
      * 默认值：https://open.bigmodel.cn/api/paas/v4
+     * 压测时可指向本地模拟服务，如 http://localhost:18080/api/paas/v4
      * </p>
      */
     private String baseUrl;
@@ -53,8 +61,8 @@ public class ZhipuConfig {
     /**
      * 请求超时时间（秒）
      * <p>
-     * API调用的最大等待时间。
-     * 默认值：60秒
+     * 单次API调用的最大总时长，包含流式响应的完整生成时间。
+     * 默认值：300秒
      * </p>
      */
     private Integer timeout;
@@ -77,6 +85,11 @@ public class ZhipuConfig {
      */
     private Integer maxTokens;
 
+    /**
+     * HTTP 传输层配置
+     */
+    private Transport transport = new Transport();
+
     /**
      * 创建智谱AI客户端Bean
      * <p>
@@ -89,7 +102,7 @@ public class ZhipuConfig {
      * @throws IllegalStateException 如果API Key未配置
      */
     @Bean
-    public ZhipuAiClient zhipuAiClient() {
+    public ZhipuAiClient zhipuAiClient(MeterRegistry meterRegistry) {
         // 验证API Key是否已配置
         if (apiKey == null || apiKey.trim().isEmpty()) {
             log.error("智谱AI API Key未配置，请在application.yml中配置zhipu.api-key");
@@ -106,14 +119,89 @@ public class ZhipuConfig {
 
         // 创建并返回智谱AI客户端实例
         // 使用Builder模式创建客户端，符合官方SDK规范
-        ZhipuAiClient client = ZhipuAiClient.builder()
+        var builder = ZhipuAiClient.builder()
                 .apiKey(apiKey)
-                .build();
+                .networkConfig(
+                        timeout != null ? timeout : 0,
+                        transport.getConnectTimeoutSeconds(),
+                        transport.getReadTimeoutSeconds(),
+                        transport.getWriteTimeoutSeconds(),
+                        TimeUnit.SECONDS)
+                .connectionPool(
+                        transport.getMaxIdleConnections(),
+                        transport.getKeepAliveSeconds(),
+                        TimeUnit.SECONDS);
+
+        // 未配置时使用SDK内置的官方地址
+        if (baseUrl != null && !baseUrl.trim().isEmpty()) {
+            builder.baseUrl(normalizeBaseUrl(baseUrl.trim()));
+        }
+
+        ZhipuAiClient client = builder.build();
+        configureTransport(client, meterRegistry);
 
         log.info("智谱AI客户端初始化成功");
         return client;
     }
 
+    /**
+     * 调整SDK内部的 OkHttp 客户端
+     * <p>
+     * SDK 不对外暴露调度器配置，通过 Retrofit 取得其 OkHttpClient 后调整并发上限（调度器可在运行时修改），
+     * 并注册连接池和调度器指标。
+     * OkHttp 默认通过 ALPN 协商 HTTP/2，服务端支持时多个请求复用同一连接。
+     * </p>
+     *
+     * @param client        智谱AI客户端
+     * @param meterRegistry 指标注册表
+     */
+    private void configureTransport(ZhipuAiClient client, MeterRegistry meterRegistry) {
+        if (!(client.retrofit().callFactory() instanceof OkHttpClient httpClient)) {
+            log.warn("无法获取智谱AI客户端的 OkHttpClient，跳过调度器配置和连接池指标");
+            return;
+        }
+
+        Dispatcher dispatcher = httpClient.dispatcher();
+        dispatcher.setMaxRequests(transport.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(transport.getMaxRequestsPerHost());
+
+        ConnectionPool pool = httpClient.connectionPool();
+        Gauge.builder("pite.upstream.http.connections", pool, ConnectionPool::connectionCount)
+                .description("上游HTTP连接池中的连接数")
+                .tag("state", "total")
+                .register(meterRegistry);
+        Gauge.builder("pite.upstream.http.connections", pool, ConnectionPool::idleConnectionCount)
+                .description("上游HTTP连接池中的连接数")
+                .tag("state", "idle")
+                .register(meterRegistry);
+        Gauge.builder("pite.upstream.http.calls", dispatcher, Dispatcher::runningCallsCount)
+                .description("上游HTTP调用数（同步调用和异步调用）")
+                .tag("state", "running")
+                .register(meterRegistry);
+        Gauge.builder("pite.upstream.http.calls", dispatcher, Dispatcher::queuedCallsCount)
+                .description("上游HTTP调用数（同步调用和异步调用）")
+                .tag("state", "queued")
+                .register(meterRegistry);
+
+        log.info("HTTP传输层: 协议 {}, 连接超时 {}s, 读取超时 {}s, 写入超时 {}s, 空闲连接 {}, 最大并发请求 {}（单主机 {}）",
+                httpClient.protocols(), transport.getConnectTimeoutSeconds(), transport.getReadTimeoutSeconds(),
+                transport.getWriteTimeoutSeconds(), transport.getMaxIdleConnections(),
+                transport.getMaxRequests(), transport.getMaxRequestsPerHost());
+    }
+
+    /**
+     * 规范化 Base URL
+     * <p>
+     * Retrofit 要求 Base URL 以 / 结尾。
+     * </p>
+     *
+     * @param url 配置的 Base URL
+     * @return 以 / 结尾的 Base URL
+     */
+    private String normalizeBaseUrl(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
     /**
      * 隐藏API Key的敏感信息
      * <p>
@@ -133,5 +221,55 @@ public class ZhipuConfig {
         String suffix = apiKey.substring(apiKey.length() - 4);
         return prefix + "****" + suffix;
     }
-}
 
+    /**
+     * HTTP 传输层配置
+     * <p>
+     * 对应 zhipu.transport 配置项，作用于SDK内部的 OkHttp 客户端。
+     * </p>
+     */
+    @Data
+    public static class Transport {
+
+        /**
+         * 连接超时（秒）
+         */
+        private int connectTimeoutSeconds = 10;
+
+        /**
+         * 读取超时（秒）
+         * <p>
+         * 两次读取之间的最大间隔；流式响应中模型思考时可能较长时间没有数据
+         * </p>
+         */
+        private int readTimeoutSeconds = 120;
+
+        /**
+         * 写入超时（秒）
+         */
+        private int writeTimeoutSeconds = 30;
+
+        /**
+         * 连接池最大空闲连接数
+         */
+        private int maxIdleConnections = 32;
+
+        /**
+         * 空闲连接保活时间（秒）
+         */
+        private long keepAliveSeconds = 300;
+
+        /**
+         * 异步调用的最大并发请求数
+         */
+        private int maxRequests = 256;
+
+        /**
+         * 异步调用的单主机最大并发请求数
+         * <p>
+         * OkHttp 默认值为 5，所有调用都发往同一主机时会成为瓶颈
+         * </p>
+         */
+        private int maxRequestsPerHost = 256;
+    }
+}
@@ -4,14 +4,19 @@ import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import pox.com.piteagents.entity.dto.common.ApiResponse;
+import pox.com.piteagents.entity.dto.request.BatchChatRequest;
 import pox.com.piteagents.entity.dto.request.ChatRequest;
 import pox.com.piteagents.entity.dto.response.ChatResponse;
 import pox.com.piteagents.entity.dto.response.ModelInfoResponse;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
 import pox.com.piteagents.common.enums.ZhipuModelEnum;
 import pox.com.piteagents.service.IZhipuService;
+import reactor.core.publisher.Flux;
 
 import java.util.Arrays;
 import java.util.List;
@@ -70,6 +75,7 @@ public class ChatController {
      * - Content-Type: text/event-stream
      * - 数据格式：每条消息为一个JSON对象
      * - 最后一条消息的done字段为true，表示生成结束
+     * - 每条消息的SSE id为帧序号，断线后可通过 GET /stream/{responseId} 续传
      * </p>
      *
      * @param request 对话请求，包含消息列表、模型选择等参数
@@ -86,6 +92,72 @@ public class ChatController {
         return zhipuService.streamChat(request);
     }
 
+    /**
+     * 续传流式对话接口
+     * <p>
+     * /stream 的每个数据帧都带有序号（SSE id 字段）。
+     * 客户端断线后携带 Last-Event-ID 请求头访问此接口，
+     * 服务端补发缺失的数据帧后继续推送仍在生成中的内容，无需重新生成。
+     * </p>
+     *
+     * @param responseId  响应ID（数据帧中的 id 字段）
+     * @param lastEventId 客户端最后收到的帧序号
+     * @return SSE发射器
+     */
+    @GetMapping(value = "/stream/{responseId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter resumeStream(@PathVariable String responseId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        log.info("收到流式对话续传请求，响应ID: {}", responseId);
+        return zhipuService.resumeStream(responseId, lastEventId);
+    }
+
+    /**
+     * 响应式流式对话接口
+     * <p>
+     * 与 /stream 返回相同格式的数据，但基于 Reactor 实现：
+     * 生成过程中不占用任何工作线程，客户端断开时自动取消上游请求。
+     * 适用于需要同时保持大量长连接的场景。
+     * </p>
+     *
+     * @param request 对话请求，包含消息列表、模型选择等参数
+     * @return SSE事件流
+     */
+    @PostMapping(value = "/stream/reactive", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<StreamChatResponse>> streamChatReactive(@Valid @RequestBody ChatRequest request) {
+        log.info("收到响应式流式对话请求");
+
+        // 强制设置为流式模式
+        request.setStream(true);
+
+        return zhipuService.streamChatReactive(request);
+    }
+
+    /**
+     * 批量对话接口
+     * <p>
+     * 一次提交多个相互独立的对话请求，服务端以有限的并行度执行，
+     * 所有调用仍受上游并发限制和调用配额约束。
+     * </p>
+     * <p>
+     * 响应格式：
+     * - Content-Type: application/x-ndjson
+     * - 每行一个 JSON 对象，按完成顺序输出，index 字段为请求在列表中的下标
+     * - 单个请求失败时该行 success 为 false，并带有 errorCode 和 errorMessage
+     * </p>
+     * <p>
+     * 响应超时按批次规模计算（执行轮数 x 单次调用超时），上限为 pite-agents.batch.max-duration-seconds，
+     * 超时后响应结束，未输出的请求被取消。预计更久的批次应逐条提交为异步任务（/api/chat/jobs）。
+     * </p>
+     *
+     * @param request 批量对话请求
+     * @return NDJSON 发射器
+     */
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseBodyEmitter chatBatch(@Valid @RequestBody BatchChatRequest request) {
+        log.info("收到批量对话请求，请求数: {}", request.getRequests().size());
+        return zhipuService.chatBatch(request);
+    }
+
     /**
      * 获取支持的模型列表
      * <p>
@@ -133,5 +205,26 @@ public class ChatController {
         ChatResponse response = zhipuService.chatWithTools(request);
         return ApiResponse.success(response);
     }
-}
 
+    /**
+     * 带工具调用的流式对话接口
+     * <p>
+     * 与 /with-tools 相同的工具调用流程，但以 SSE 实时推送：
+     * - 默认事件：文本增量（StreamChatResponse）
+     * - tool_start 事件：工具开始执行（ToolCallRecord）
+     * - tool_result 事件：工具执行结果（ToolCallRecord）
+     * </p>
+     *
+     * @param request 对话请求（可包含agentId）
+     * @return SSE发射器
+     */
+    @PostMapping(value = "/with-tools/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChatWithTools(@Valid @RequestBody ChatRequest request) {
+        log.info("收到流式工具调用对话请求");
+
+        // 强制设置为流式模式
+        request.setStream(true);
+
+        return zhipuService.streamChatWithTools(request);
+    }
+}
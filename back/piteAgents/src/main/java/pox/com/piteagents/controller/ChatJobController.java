@@ -0,0 +1,81 @@
+package pox.com.piteagents.controller;
+
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import pox.com.piteagents.entity.dto.common.ApiResponse;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatJobDTO;
+import pox.com.piteagents.service.IChatJobService;
+import reactor.core.publisher.Flux;
+
+/**
+ * 异步对话任务控制器
+ * <p>
+ * 提交对话任务后立即返回任务ID，由任意节点的工作线程执行。
+ * 适用于耗时较长的工具调用对话，客户端无需保持连接等待结果。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/chat/jobs")
+@RequiredArgsConstructor
+public class ChatJobController {
+
+    /**
+     * 异步对话任务服务
+     */
+    private final IChatJobService chatJobService;
+
+    /**
+     * 提交异步对话任务
+     *
+     * @param request 对话请求
+     * @param tools   是否启用工具调用
+     * @return 新建的任务（状态为 PENDING）
+     */
+    @PostMapping
+    public ApiResponse<ChatJobDTO> submitJob(@Valid @RequestBody ChatRequest request,
+                                             @RequestParam(defaultValue = "false") boolean tools) {
+        log.info("收到异步对话任务提交请求，工具调用: {}", tools);
+
+        // 异步任务不支持流式输出
+        request.setStream(false);
+
+        ChatJobDTO job = chatJobService.submitJob(request, tools);
+        return ApiResponse.success(job);
+    }
+
+    /**
+     * 查询任务状态和结果
+     *
+     * @param id 任务ID
+     * @return 任务详情，执行成功时包含对话结果
+     */
+    @GetMapping("/{id}")
+    public ApiResponse<ChatJobDTO> getJob(@PathVariable Long id) {
+        log.debug("查询异步对话任务，ID: {}", id);
+        return ApiResponse.success(chatJobService.getJob(id));
+    }
+
+    /**
+     * 订阅任务状态变化
+     * <p>
+     * 每次状态变化推送一条 SSE 事件（事件名为任务状态），任务结束后关闭连接。
+     * </p>
+     *
+     * @param id 任务ID
+     * @return SSE事件流
+     */
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatJobDTO>> watchJob(@PathVariable Long id) {
+        log.info("订阅异步对话任务状态，ID: {}", id);
+        return chatJobService.watchJob(id);
+    }
+}
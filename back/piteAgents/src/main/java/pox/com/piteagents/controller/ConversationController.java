@@ -1,14 +1,25 @@
 package pox.com.piteagents.controller;
 
+import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import com.baomidou.mybatisplus.core.metadata.IPage;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import pox.com.piteagents.entity.dto.common.ApiResponse;
+import pox.com.piteagents.entity.dto.request.SessionChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
 import pox.com.piteagents.entity.dto.response.ConversationMessageDTO;
 import pox.com.piteagents.entity.dto.response.ConversationSessionDTO;
+import pox.com.piteagents.entity.dto.response.CursorPage;
+import pox.com.piteagents.entity.dto.response.SessionCounterReconcileResult;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
 import pox.com.piteagents.service.IConversationService;
+import pox.com.piteagents.service.ISessionChatService;
+import pox.com.piteagents.service.session.SessionCounterReconciler;
 import pox.com.piteagents.common.utils.PaginationUtils;
+import reactor.core.publisher.Flux;
 
 /**
  * 对话历史控制器
@@ -26,7 +37,9 @@ import pox.com.piteagents.common.utils.PaginationUtils;
 public class ConversationController {
 
     private final IConversationService conversationService;
+    private final ISessionChatService sessionChatService;
     private final PaginationUtils paginationUtils;
+    private final SessionCounterReconciler sessionCounterReconciler;
 
     /**
      * 获取会话列表
@@ -59,6 +72,30 @@ public class ConversationController {
         return ApiResponse.success(sessions);
     }
 
+    /**
+     * 按游标获取会话列表
+     * <p>
+     * 按更新时间倒序，传入上一页返回的 nextCursor 取下一页，不统计总数时每页只需一次索引范围扫描。
+     * 翻页期间有更新的会话会移到列表最前面，后续页中不再出现，需要时从第一页重新加载。
+     * </p>
+     *
+     * @param agentId Agent ID（可选）
+     * @param cursor 上一页返回的 nextCursor（可选，为空时取第一页）
+     * @param size 每页大小（使用配置的默认值）
+     * @param withTotal 是否统计总数（默认不统计）
+     * @return 会话游标分页结果
+     */
+    @GetMapping("/cursor")
+    public ApiResponse<CursorPage<ConversationSessionDTO>> listSessionsByCursor(
+            @RequestParam(required = false) Long agentId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        log.info("按游标查询会话列表，agentId: {}, size: {}, withTotal: {}", agentId, size, withTotal);
+        int safeSize = paginationUtils.getSafeCursorPageSize(size);
+        return ApiResponse.success(conversationService.listSessionsByCursor(agentId, cursor, safeSize, withTotal));
+    }
+
     /**
      * 获取会话详情
      *
@@ -104,6 +141,34 @@ public class ConversationController {
         return ApiResponse.success(messages);
     }
 
+    /**
+     * 按游标获取会话消息历史
+     * <p>
+     * 默认按创建时间升序；sortDirection=DESC 时从最新的消息开始向前翻页。
+     * 传入上一页返回的 nextCursor 取下一页，翻页深度不影响查询耗时。
+     * </p>
+     *
+     * @param id 会话 ID
+     * @param cursor 上一页返回的 nextCursor（可选，为空时取第一页）
+     * @param size 每页大小（使用配置的默认值）
+     * @param sortDirection 排序方向（ASC/DESC，默认 ASC）
+     * @param withTotal 是否统计总数（默认不统计）
+     * @return 消息游标分页结果
+     */
+    @GetMapping("/{id}/messages/cursor")
+    public ApiResponse<CursorPage<ConversationMessageDTO>> getSessionMessagesByCursor(
+            @PathVariable Long id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(required = false) String sortDirection,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        log.info("按游标查询会话消息，会话ID: {}, size: {}, sortDirection: {}, withTotal: {}",
+                id, size, sortDirection, withTotal);
+        int safeSize = paginationUtils.getSafeCursorPageSize(size);
+        boolean descending = "DESC".equalsIgnoreCase(sortDirection);
+        return ApiResponse.success(conversationService.getSessionMessagesByCursor(id, cursor, safeSize, descending, withTotal));
+    }
+
     /**
      * 删除会话
      *
@@ -132,6 +197,56 @@ public class ConversationController {
         return ApiResponse.success("标题更新成功");
     }
 
+    /**
+     * 会话同步对话
+     * <p>
+     * 只需提交本轮的用户消息，历史消息、系统提示词和模型参数由服务端按会话及其 Agent 组装。
+     * 本轮消息在响应返回后异步写入会话。
+     * </p>
+     *
+     * @param id 会话 ID
+     * @param request 会话对话请求
+     * @return AI 的完整回复
+     */
+    @PostMapping("/{id}/chat")
+    public ApiResponse<ChatResponse> chat(@PathVariable Long id, @Valid @RequestBody SessionChatRequest request) {
+        log.info("收到会话同步对话请求，会话ID: {}", id);
+        return ApiResponse.success(sessionChatService.chat(id, request));
+    }
+
+    /**
+     * 会话流式对话
+     * <p>
+     * 帧格式与 /api/chat/stream/reactive 相同，流正常结束后本轮消息异步写入会话。
+     * </p>
+     *
+     * @param id 会话 ID
+     * @param request 会话对话请求
+     * @return SSE事件流
+     */
+    @PostMapping(value = "/{id}/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<StreamChatResponse>> streamChat(@PathVariable Long id,
+                                                                @Valid @RequestBody SessionChatRequest request) {
+        log.info("收到会话流式对话请求，会话ID: {}", id);
+        return sessionChatService.streamChat(id, request);
+    }
+
+    /**
+     * 会话计数对账
+     * <p>
+     * 按消息表重新统计各会话的消息数和 Token 总数并与会话中的计数比较，默认只核对不修正。
+     * </p>
+     *
+     * @param fix 是否修正有偏差的计数
+     * @return 对账结果
+     */
+    @PostMapping("/counters/reconcile")
+    public ApiResponse<SessionCounterReconcileResult> reconcileCounters(
+            @RequestParam(defaultValue = "false") boolean fix) {
+        log.info("收到会话计数对账请求，修正: {}", fix);
+        return ApiResponse.success(sessionCounterReconciler.reconcile(fix));
+    }
+
     /**
      * 标题更新请求对象
      */
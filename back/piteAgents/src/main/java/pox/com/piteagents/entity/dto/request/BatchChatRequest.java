@@ -0,0 +1,47 @@
+package pox.com.piteagents.entity.dto.request;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量对话请求对象
+ * <p>
+ * 一次提交多个相互独立的对话请求，服务端并行执行，
+ * 按完成顺序以 NDJSON 逐行返回结果。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchChatRequest {
+
+    /**
+     * 对话请求列表
+     * <p>
+     * 每个结果通过 index 字段对应到此列表中的位置
+     * </p>
+     */
+    @NotEmpty(message = "请求列表不能为空")
+    @Valid
+    private List<ChatRequest> requests;
+
+    /**
+     * 并行度（可选）
+     * <p>
+     * 同时执行的请求数，不指定时使用配置的默认值，且不超过配置的上限
+     * </p>
+     */
+    @Min(value = 1, message = "并行度不能小于1")
+    private Integer parallelism;
+}
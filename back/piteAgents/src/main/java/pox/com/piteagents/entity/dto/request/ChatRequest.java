@@ -102,5 +102,14 @@ public class ChatRequest {
     @Min(value = 0, message = "topP参数不能小于0")
     @Max(value = 1, message = "topP参数不能大于1")
     private Double topP;
-}
 
+    /**
+     * 是否合并流式增量
+     * <p>
+     * true 或不指定: 按服务端配置的时间窗口合并增量后推送，减少帧数
+     * false: 每个增量立即推送（最低延迟模式）
+     * 仅对流式接口生效
+     * </p>
+     */
+    private Boolean coalesce;
+}
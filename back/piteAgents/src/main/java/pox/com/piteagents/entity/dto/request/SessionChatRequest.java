@@ -0,0 +1,63 @@
+package pox.com.piteagents.entity.dto.request;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 会话对话请求对象
+ * <p>
+ * 只需提供本轮的用户消息，历史消息由服务端从会话中加载，
+ * 系统提示词和模型参数取自会话所属 Agent 的配置。
+ * 模型参数字段不为空时覆盖 Agent 配置。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionChatRequest {
+
+    /**
+     * 用户消息内容
+     */
+    @NotBlank(message = "消息内容不能为空")
+    private String content;
+
+    /**
+     * 模型代码（可选，覆盖 Agent 配置）
+     */
+    private String model;
+
+    /**
+     * 温度参数（可选，覆盖 Agent 配置）
+     */
+    @Min(value = 0, message = "温度参数不能小于0")
+    @Max(value = 1, message = "温度参数不能大于1")
+    private Double temperature;
+
+    /**
+     * 最大生成token数（可选，覆盖 Agent 配置）
+     */
+    @Min(value = 1, message = "最大token数不能小于1")
+    private Integer maxTokens;
+
+    /**
+     * 核采样参数（可选，覆盖 Agent 配置）
+     */
+    @Min(value = 0, message = "topP参数不能小于0")
+    @Max(value = 1, message = "topP参数不能大于1")
+    private Double topP;
+
+    /**
+     * 是否合并流式增量（可选，仅流式接口生效）
+     */
+    private Boolean coalesce;
+}
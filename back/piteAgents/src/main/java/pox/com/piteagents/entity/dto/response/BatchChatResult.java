@@ -0,0 +1,80 @@
+package pox.com.piteagents.entity.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量对话的单条结果
+ * <p>
+ * 批量接口以 NDJSON 格式每行返回一条，按完成顺序输出，
+ * 通过 index 对应到请求列表中的位置。单条失败不影响其他请求。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchChatResult {
+
+    /**
+     * 请求在批量请求列表中的下标（从 0 开始）
+     */
+    private Integer index;
+
+    /**
+     * 是否成功
+     */
+    private Boolean success;
+
+    /**
+     * 对话响应（成功时）
+     */
+    private ChatResponse response;
+
+    /**
+     * 错误码（失败时）
+     */
+    private Integer errorCode;
+
+    /**
+     * 错误信息（失败时）
+     */
+    private String errorMessage;
+
+    /**
+     * 创建成功结果
+     *
+     * @param index    请求下标
+     * @param response 对话响应
+     * @return 批量结果
+     */
+    public static BatchChatResult success(int index, ChatResponse response) {
+        return BatchChatResult.builder()
+                .index(index)
+                .success(true)
+                .response(response)
+                .build();
+    }
+
+    /**
+     * 创建失败结果
+     *
+     * @param index        请求下标
+     * @param errorCode    错误码
+     * @param errorMessage 错误信息
+     * @return 批量结果
+     */
+    public static BatchChatResult failure(int index, Integer errorCode, String errorMessage) {
+        return BatchChatResult.builder()
+                .index(index)
+                .success(false)
+                .errorCode(errorCode)
+                .errorMessage(errorMessage)
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package pox.com.piteagents.entity.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 异步对话任务数据传输对象
+ * <p>
+ * 用于返回异步对话任务的状态和结果。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatJobDTO {
+
+    /**
+     * 任务ID
+     */
+    private Long id;
+
+    /**
+     * Agent ID
+     */
+    private Long agentId;
+
+    /**
+     * 是否启用工具调用
+     */
+    private Boolean withTools;
+
+    /**
+     * 状态（PENDING/RUNNING/SUCCEEDED/FAILED）
+     */
+    private String status;
+
+    /**
+     * 已执行次数
+     */
+    private Integer attempts;
+
+    /**
+     * 对话响应（执行成功时）
+     */
+    private ChatResponse result;
+
+    /**
+     * 错误码（执行失败或等待重试时）
+     */
+    private Integer errorCode;
+
+    /**
+     * 错误信息（执行失败或等待重试时）
+     */
+    private String errorMessage;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createdAt;
+
+    /**
+     * 最近一次开始执行的时间
+     */
+    private LocalDateTime startedAt;
+
+    /**
+     * 结束时间
+     */
+    private LocalDateTime finishedAt;
+}
@@ -73,5 +73,13 @@ public class ChatResponse {
      * </p>
      */
     private List<ToolCallRecord> toolCalls;
-}
 
+    /**
+     * 是否来自响应缓存
+     * <p>
+     * true: 命中缓存，未调用上游模型
+     * 非缓存响应时为null
+     * </p>
+     */
+    private Boolean cached;
+}
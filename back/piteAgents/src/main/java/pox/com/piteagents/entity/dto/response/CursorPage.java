@@ -0,0 +1,51 @@
+package pox.com.piteagents.entity.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果
+ * <p>
+ * 按排序键定位下一页（WHERE 排序键 &lt; 上一页最后一条），不使用 OFFSET，翻到多深都只扫描一页的数据。
+ * 客户端把 nextCursor 原样传回即可取下一页，游标内容不保证兼容，不应解析。
+ * </p>
+ *
+ * @param <T> 记录类型
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPage<T> {
+
+    /**
+     * 当前页记录
+     */
+    private List<T> records;
+
+    /**
+     * 每页大小
+     */
+    private Integer size;
+
+    /**
+     * 是否还有下一页
+     */
+    private Boolean hasMore;
+
+    /**
+     * 下一页游标（没有下一页时为 null）
+     */
+    private String nextCursor;
+
+    /**
+     * 总记录数（仅在请求 withTotal=true 时统计，否则为 null）
+     */
+    private Long total;
+}
@@ -0,0 +1,54 @@
+package pox.com.piteagents.entity.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 会话计数对账结果
+ * <p>
+ * 按 conversation_message 重新统计每个会话的消息数和 Token 总数，与 conversation_session 中的计数比较。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SessionCounterReconcileResult {
+
+    /**
+     * 核对的会话数
+     */
+    private Integer checked;
+
+    /**
+     * 因最近有新消息而跳过的会话数
+     */
+    private Integer skippedActive;
+
+    /**
+     * 计数有偏差的会话数
+     */
+    private Integer drifted;
+
+    /**
+     * 已修正的会话数（只核对不修正时为 0）
+     */
+    private Integer fixed;
+
+    /**
+     * 有偏差的会话 ID（最多返回 100 个）
+     */
+    private List<Long> driftedSessionIds;
+
+    /**
+     * 耗时（毫秒）
+     */
+    private Long durationMs;
+}
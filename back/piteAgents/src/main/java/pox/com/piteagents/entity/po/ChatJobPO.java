@@ -0,0 +1,134 @@
+package pox.com.piteagents.entity.po;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 异步对话任务实体类
+ * <p>
+ * 记录异步提交的对话请求、执行状态和执行结果。
+ * 任务由任意节点的工作线程领取，执行期间持有租约，租约到期未完成的任务会被重新执行。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@TableName("chat_job")
+public class ChatJobPO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 关联的 Agent ID
+     */
+    @TableField("agent_id")
+    private Long agentId;
+
+    /**
+     * 是否启用工具调用
+     */
+    @TableField("with_tools")
+    @Builder.Default
+    private Boolean withTools = false;
+
+    /**
+     * 状态（PENDING/RUNNING/SUCCEEDED/FAILED）
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 对话请求（JSON）
+     */
+    @TableField("request_json")
+    private String requestJson;
+
+    /**
+     * 对话响应（JSON）
+     */
+    @TableField("result_json")
+    private String resultJson;
+
+    /**
+     * 错误码
+     */
+    @TableField("error_code")
+    private Integer errorCode;
+
+    /**
+     * 错误信息
+     */
+    @TableField("error_message")
+    private String errorMessage;
+
+    /**
+     * 已执行次数
+     */
+    @TableField("attempts")
+    @Builder.Default
+    private Integer attempts = 0;
+
+    /**
+     * 最大执行次数
+     */
+    @TableField("max_attempts")
+    private Integer maxAttempts;
+
+    /**
+     * 当前执行节点
+     */
+    @TableField("worker_id")
+    private String workerId;
+
+    /**
+     * 可被领取的时间
+     */
+    @TableField("available_at")
+    private LocalDateTime availableAt;
+
+    /**
+     * 执行租约到期时间
+     */
+    @TableField("lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    /**
+     * 最近一次开始执行的时间
+     */
+    @TableField("started_at")
+    private LocalDateTime startedAt;
+
+    /**
+     * 结束时间
+     */
+    @TableField("finished_at")
+    private LocalDateTime finishedAt;
+
+    /**
+     * 创建时间
+     */
+    @TableField(value = "created_at", fill = FieldFill.INSERT)
+    private LocalDateTime createdAt;
+
+    /**
+     * 更新时间
+     */
+    @TableField(value = "updated_at", fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updatedAt;
+}
@@ -54,29 +54,44 @@ public class ConversationSessionPO implements Serializable {
     /**
      * 会话摘要
      * <p>
-     * 对会话内容的简要概括
+     * 对会话内容的简要概括，由后台摘要任务维护
      * </p>
      */
-    @TableField("summary")
+    @TableField(value = "summary", updateStrategy = FieldStrategy.NEVER)
     private String summary;
 
+    /**
+     * 摘要水位线
+     * <p>
+     * 摘要覆盖到的最后一条消息 ID，之后的消息尚未折叠进摘要
+     * </p>
+     */
+    @TableField(value = "summary_message_id", updateStrategy = FieldStrategy.NEVER)
+    private Long summaryMessageId;
+
+    /**
+     * 摘要更新时间
+     */
+    @TableField(value = "summarized_at", updateStrategy = FieldStrategy.NEVER)
+    private LocalDateTime summarizedAt;
+
     /**
      * 消息数量
      * <p>
-     * 通过触发器自动维护
+     * 由应用按会话累加增量后批量更新（SessionCounterAggregator），实体更新时不写入，避免覆盖并发刷新的增量
      * </p>
      */
-    @TableField("message_count")
+    @TableField(value = "message_count", updateStrategy = FieldStrategy.NEVER)
     @Builder.Default
     private Integer messageCount = 0;
 
     /**
      * 总 Token 消耗
      * <p>
-     * 通过触发器自动维护
+     * 与 messageCount 一起由应用批量更新，实体更新时不写入
      * </p>
      */
-    @TableField("total_tokens")
+    @TableField(value = "total_tokens", updateStrategy = FieldStrategy.NEVER)
     @Builder.Default
     private Integer totalTokens = 0;
 
@@ -0,0 +1,118 @@
+package pox.com.piteagents.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import pox.com.piteagents.entity.po.ChatJobPO;
+
+import java.util.List;
+
+/**
+ * 异步对话任务 Mapper 接口
+ * <p>
+ * 提供 ChatJob 实体的数据访问功能，包括基于 SKIP LOCKED 的任务领取。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public interface ChatJobMapper extends BaseMapper<ChatJobPO> {
+
+    /**
+     * 锁定可领取的任务（使用 XML 配置）
+     * <p>
+     * 使用 FOR UPDATE SKIP LOCKED，多个节点同时领取时互不阻塞，也不会领取到同一个任务。
+     * 必须在事务中调用，并在同一事务中调用 {@link #markRunning}。
+     * </p>
+     *
+     * @param limit 最多领取数量
+     * @return 任务 ID 列表
+     */
+    List<Long> lockClaimableIds(@Param("limit") Integer limit);
+
+    /**
+     * 将任务标记为执行中（使用 XML 配置）
+     *
+     * @param ids          任务 ID 列表
+     * @param workerId     执行节点
+     * @param leaseSeconds 租约时长（秒）
+     * @return 影响行数
+     */
+    int markRunning(@Param("ids") List<Long> ids,
+                    @Param("workerId") String workerId,
+                    @Param("leaseSeconds") Integer leaseSeconds);
+
+    /**
+     * 续期执行中任务的租约（使用 XML 配置）
+     * <p>
+     * 仅续期仍由该节点持有的任务，已被回收或已结束的任务不受影响
+     * </p>
+     *
+     * @param ids          任务 ID 列表
+     * @param workerId     执行节点
+     * @param leaseSeconds 租约时长（秒）
+     * @return 影响行数
+     */
+    int renewLeases(@Param("ids") List<Long> ids,
+                    @Param("workerId") String workerId,
+                    @Param("leaseSeconds") Integer leaseSeconds);
+
+    /**
+     * 将任务标记为成功（使用 XML 配置）
+     * <p>
+     * 仅当任务仍由该节点持有时生效，租约已被回收的任务不会被覆盖
+     * </p>
+     *
+     * @param id         任务 ID
+     * @param workerId   执行节点
+     * @param resultJson 对话响应（JSON）
+     * @return 影响行数
+     */
+    int markSucceeded(@Param("id") Long id,
+                      @Param("workerId") String workerId,
+                      @Param("resultJson") String resultJson);
+
+    /**
+     * 将任务标记为失败（使用 XML 配置）
+     *
+     * @param id           任务 ID
+     * @param workerId     执行节点
+     * @param errorCode    错误码
+     * @param errorMessage 错误信息
+     * @return 影响行数
+     */
+    int markFailed(@Param("id") Long id,
+                   @Param("workerId") String workerId,
+                   @Param("errorCode") Integer errorCode,
+                   @Param("errorMessage") String errorMessage);
+
+    /**
+     * 将任务放回队列，延迟后重试（使用 XML 配置）
+     *
+     * @param id           任务 ID
+     * @param workerId     执行节点
+     * @param errorCode    错误码
+     * @param errorMessage 错误信息
+     * @param delaySeconds 重试延迟（秒）
+     * @return 影响行数
+     */
+    int requeue(@Param("id") Long id,
+                @Param("workerId") String workerId,
+                @Param("errorCode") Integer errorCode,
+                @Param("errorMessage") String errorMessage,
+                @Param("delaySeconds") Integer delaySeconds);
+
+    /**
+     * 回收租约已到期、仍有重试次数的任务（使用 XML 配置）
+     *
+     * @return 影响行数
+     */
+    int requeueExpiredLeases();
+
+    /**
+     * 将租约已到期、重试次数已用尽的任务标记为失败（使用 XML 配置）
+     *
+     * @param errorMessage 错误信息
+     * @return 影响行数
+     */
+    int failExpiredLeases(@Param("errorMessage") String errorMessage);
+}
@@ -3,7 +3,10 @@ package pox.com.piteagents.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Param;
 import pox.com.piteagents.entity.po.ConversationMessagePO;
+import pox.com.piteagents.entity.po.ConversationSessionPO;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -37,6 +40,39 @@ public interface ConversationMessageMapper extends BaseMapper<ConversationMessag
             @Param("limit") Integer limit
     );
 
+    /**
+     * 查询会话中指定消息 ID 之后的消息（使用 XML 配置）
+     *
+     * @param sessionId 会话 ID
+     * @param afterId 起始消息 ID（不含），为 null 时返回全部消息
+     * @return 消息列表（按 ID 升序）
+     */
+    List<ConversationMessagePO> selectAfterId(
+            @Param("sessionId") Long sessionId,
+            @Param("afterId") Long afterId
+    );
+
+    /**
+     * 按 (created_at, id) 游标查询会话消息（使用 XML 配置）
+     * <p>
+     * 升序时返回排序键大于游标的前 limit 条，倒序时返回小于游标的前 limit 条，游标为空时从第一条开始
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @param cursorCreatedAt 上一页最后一条的创建时间（可选）
+     * @param cursorId 上一页最后一条的 ID（可选）
+     * @param descending 是否倒序（从最新的消息开始）
+     * @param limit 限制数量
+     * @return 消息列表
+     */
+    List<ConversationMessagePO> selectMessagesBySeek(
+            @Param("sessionId") Long sessionId,
+            @Param("cursorCreatedAt") LocalDateTime cursorCreatedAt,
+            @Param("cursorId") Long cursorId,
+            @Param("descending") boolean descending,
+            @Param("limit") Integer limit
+    );
+
     /**
      * 统计会话的 Token 使用量（使用 XML 配置）
      *
@@ -45,8 +81,31 @@ public interface ConversationMessageMapper extends BaseMapper<ConversationMessag
      */
     Long sumTokensBySessionId(@Param("sessionId") Long sessionId);
 
+    /**
+     * 按会话统计消息数量和 Token 总数（使用 XML 配置）
+     *
+     * @param sessionIds 会话 ID 列表
+     * @return 统计结果（复用会话实体：id 为会话 ID，messageCount / totalTokens 为统计值），没有消息的会话不返回
+     */
+    List<ConversationSessionPO> selectCounterStats(@Param("sessionIds") Collection<Long> sessionIds);
+
+    /**
+     * 查询最近有新消息的会话（使用 XML 配置）
+     *
+     * @param sessionIds 会话 ID 列表
+     * @param seconds 时间窗口（秒）
+     * @return 窗口内有新消息的会话 ID
+     */
+    List<Long> selectRecentlyActiveSessionIds(
+            @Param("sessionIds") Collection<Long> sessionIds,
+            @Param("seconds") Integer seconds
+    );
+
     /**
      * 批量插入消息（使用 XML 配置）
+     * <p>
+     * 插入后回填各消息的自增 ID
+     * </p>
      *
      * @param messages 消息列表
      * @return 影响行数
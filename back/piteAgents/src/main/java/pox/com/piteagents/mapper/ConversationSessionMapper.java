@@ -40,6 +40,25 @@ public interface ConversationSessionMapper extends BaseMapper<ConversationSessio
             @Param("limit") Integer limit
     );
 
+    /**
+     * 按更新时间倒序游标查询会话列表（带 Agent 名称，使用 XML 配置）
+     * <p>
+     * 返回排序键 (updated_at, id) 小于游标的前 limit 条，游标为空时从第一条开始
+     * </p>
+     *
+     * @param agentId Agent ID（可选）
+     * @param cursorUpdatedAt 上一页最后一条的更新时间（可选）
+     * @param cursorId 上一页最后一条的 ID（可选）
+     * @param limit 限制数量
+     * @return 会话列表
+     */
+    List<ConversationSessionPO> selectSessionsBySeek(
+            @Param("agentId") Long agentId,
+            @Param("cursorUpdatedAt") LocalDateTime cursorUpdatedAt,
+            @Param("cursorId") Long cursorId,
+            @Param("limit") Integer limit
+    );
+
     /**
      * 统计会话的 Token 使用总量（使用 XML 配置）
      *
@@ -48,6 +67,66 @@ public interface ConversationSessionMapper extends BaseMapper<ConversationSessio
      */
     Long sumTotalTokensByAgentId(@Param("agentId") Long agentId);
 
+    /**
+     * 更新会话摘要及水位线（使用 XML 配置）
+     * <p>
+     * 仅当当前水位线仍为 expectedMessageId 时更新，避免并发摘要互相覆盖
+     * </p>
+     *
+     * @param id 会话 ID
+     * @param summary 摘要内容
+     * @param summaryMessageId 新的水位线
+     * @param expectedMessageId 读取时的水位线
+     * @return 影响行数
+     */
+    int updateSummary(
+            @Param("id") Long id,
+            @Param("summary") String summary,
+            @Param("summaryMessageId") Long summaryMessageId,
+            @Param("expectedMessageId") Long expectedMessageId
+    );
+
+    /**
+     * 批量累加会话计数（使用 XML 配置）
+     * <p>
+     * 一条 UPDATE 语句更新多个会话：message_count、total_tokens 加上各自的增量，updated_at 置为当前时间
+     * </p>
+     *
+     * @param deltas 会话计数增量（id 为会话 ID，messageCount / totalTokens 为增量）
+     * @return 影响行数
+     */
+    int addCounters(@Param("list") List<ConversationSessionPO> deltas);
+
+    /**
+     * 按 ID 顺序分页查询会话计数（使用 XML 配置）
+     *
+     * @param afterId 上一页最后一个会话 ID（首页传 0）
+     * @param limit 每页数量
+     * @return 会话列表（仅 id、message_count、total_tokens）
+     */
+    List<ConversationSessionPO> selectCounterPage(@Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * 修正会话计数（使用 XML 配置）
+     * <p>
+     * 仅当计数仍为核对时读到的值时更新，避免覆盖期间刷新的增量；不改变会话的更新时间
+     * </p>
+     *
+     * @param id 会话 ID
+     * @param expectedMessageCount 核对时读到的消息数量
+     * @param expectedTotalTokens 核对时读到的 Token 总数
+     * @param messageCount 按消息表重新计算的消息数量
+     * @param totalTokens 按消息表重新计算的 Token 总数
+     * @return 影响行数
+     */
+    int updateCountersIfUnchanged(
+            @Param("id") Long id,
+            @Param("expectedMessageCount") Integer expectedMessageCount,
+            @Param("expectedTotalTokens") Integer expectedTotalTokens,
+            @Param("messageCount") Integer messageCount,
+            @Param("totalTokens") Integer totalTokens
+    );
+
     /**
      * 软删除会话（使用 XML 配置）
      *
@@ -7,6 +7,8 @@ import pox.com.piteagents.entity.dto.response.AgentConfigDTO;
 import pox.com.piteagents.entity.dto.response.AgentDTO;
 import pox.com.piteagents.entity.po.AgentConfigPO;
 
+import java.util.Map;
+
 /**
  * Agent 服务接口
  * <p>
@@ -85,5 +87,16 @@ public interface IAgentService {
      * @return Agent 配置
      */
     AgentConfigPO getAgentConfig(Long agentId);
-}
 
+    /**
+     * 获取 Agent 的扩展参数
+     * <p>
+     * 解析 agent_config.extra_params 中的 JSON 对象。
+     * Agent 未配置或解析失败时返回空 Map，不抛出异常。
+     * </p>
+     *
+     * @param agentId Agent ID（可为 null）
+     * @return 扩展参数
+     */
+    Map<String, Object> getAgentExtraParams(Long agentId);
+}
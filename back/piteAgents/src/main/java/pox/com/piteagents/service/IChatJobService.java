@@ -0,0 +1,103 @@
+package pox.com.piteagents.service;
+
+import org.springframework.http.codec.ServerSentEvent;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatJobDTO;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ChatJobPO;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 异步对话任务服务接口
+ * <p>
+ * 提供异步对话任务的提交、查询、订阅，以及工作线程使用的领取和结果回写功能。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public interface IChatJobService {
+
+    /**
+     * 提交异步对话任务
+     *
+     * @param request   对话请求
+     * @param withTools 是否启用工具调用
+     * @return 任务信息
+     */
+    ChatJobDTO submitJob(ChatRequest request, boolean withTools);
+
+    /**
+     * 查询任务
+     *
+     * @param jobId 任务ID
+     * @return 任务信息
+     * @throws pox.com.piteagents.exception.ZhipuApiException 任务不存在（404）
+     */
+    ChatJobDTO getJob(Long jobId);
+
+    /**
+     * 订阅任务状态
+     * <p>
+     * 每次状态变化推送一个事件（事件名为状态代码），任务结束后关闭。
+     * </p>
+     *
+     * @param jobId 任务ID
+     * @return SSE事件流
+     * @throws pox.com.piteagents.exception.ZhipuApiException 任务不存在（404）
+     */
+    Flux<ServerSentEvent<ChatJobDTO>> watchJob(Long jobId);
+
+    /**
+     * 领取待执行的任务
+     *
+     * @param workerId 执行节点
+     * @param limit    最多领取数量
+     * @return 已标记为执行中的任务
+     */
+    List<ChatJobPO> claimJobs(String workerId, int limit);
+
+    /**
+     * 续期执行中任务的租约
+     *
+     * @param jobIds   任务ID列表
+     * @param workerId 执行节点
+     * @return 续期成功的任务数
+     */
+    int renewLeases(List<Long> jobIds, String workerId);
+
+    /**
+     * 释放执行中的任务，立即放回队列（节点关闭时调用）
+     *
+     * @param job      任务
+     * @param workerId 执行节点
+     */
+    void releaseJob(ChatJobPO job, String workerId);
+
+    /**
+     * 记录任务执行成功
+     *
+     * @param job      任务
+     * @param workerId 执行节点
+     * @param response 对话响应
+     */
+    void completeJob(ChatJobPO job, String workerId, ChatResponse response);
+
+    /**
+     * 记录任务执行失败，可重试的错误在重试次数内放回队列
+     *
+     * @param job       任务
+     * @param workerId  执行节点
+     * @param error     异常
+     */
+    void failJob(ChatJobPO job, String workerId, Throwable error);
+
+    /**
+     * 回收执行节点失联的任务
+     *
+     * @return 回收的任务数
+     */
+    int recoverExpiredJobs();
+}
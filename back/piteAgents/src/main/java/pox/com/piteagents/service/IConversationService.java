@@ -4,8 +4,11 @@ import com.baomidou.mybatisplus.core.metadata.IPage;
 import pox.com.piteagents.entity.dto.common.Message;
 import pox.com.piteagents.entity.dto.response.ConversationMessageDTO;
 import pox.com.piteagents.entity.dto.response.ConversationSessionDTO;
+import pox.com.piteagents.entity.dto.response.CursorPage;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * 对话服务接口
@@ -42,8 +45,25 @@ public interface IConversationService {
                                        Integer promptTokens, Integer completionTokens,
                                        Integer totalTokens);
 
+    /**
+     * 批量保存消息（组提交）
+     * <p>
+     * 所有消息在同一事务中通过一条多行 INSERT 写入。会话只按批次校验一次（一条 IN 查询），
+     * 不存在或已删除的会话的消息不写入，由返回值告知调用方。
+     * titleSessionIds 中的会话仍是默认标题时，用该会话在本批中的第一条用户消息生成标题。
+     * </p>
+     *
+     * @param messages 待写入的消息（按写入顺序）
+     * @param titleSessionIds 需要生成标题的会话 ID
+     * @return 不存在或已删除、因而未写入的会话 ID
+     */
+    Set<Long> saveMessageBatch(List<ConversationMessagePO> messages, Set<Long> titleSessionIds);
+
     /**
      * 获取会话历史消息
+     * <p>
+     * 会话已生成摘要时，返回摘要（作为第一条 system 消息）+ 摘要水位线之后的消息。
+     * </p>
      *
      * @param sessionId 会话 ID
      * @param limit 限制数量（获取最近 N 条）
@@ -60,6 +80,20 @@ public interface IConversationService {
      */
     IPage<ConversationSessionDTO> listSessions(Long agentId, IPage<ConversationSessionDTO> page);
 
+    /**
+     * 按游标获取会话列表
+     * <p>
+     * 按更新时间倒序，以上一页最后一条的 (updated_at, id) 定位下一页，翻页深度不影响查询耗时
+     * </p>
+     *
+     * @param agentId Agent ID（可选）
+     * @param cursor 上一页返回的 nextCursor（为空时取第一页）
+     * @param size 每页大小
+     * @param withTotal 是否统计总数
+     * @return 会话游标分页结果
+     */
+    CursorPage<ConversationSessionDTO> listSessionsByCursor(Long agentId, String cursor, int size, boolean withTotal);
+
     /**
      * 获取会话详情
      *
@@ -77,6 +111,22 @@ public interface IConversationService {
      */
     IPage<ConversationMessageDTO> getSessionMessages(Long sessionId, IPage<ConversationMessageDTO> page);
 
+    /**
+     * 按游标获取会话消息列表
+     * <p>
+     * 以上一页最后一条的 (created_at, id) 定位下一页，翻页深度不影响查询耗时
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @param cursor 上一页返回的 nextCursor（为空时取第一页）
+     * @param size 每页大小
+     * @param descending 是否从最新的消息开始倒序翻页
+     * @param withTotal 是否统计总数
+     * @return 消息游标分页结果
+     */
+    CursorPage<ConversationMessageDTO> getSessionMessagesByCursor(Long sessionId, String cursor, int size,
+                                                                  boolean descending, boolean withTotal);
+
     /**
      * 删除会话
      *
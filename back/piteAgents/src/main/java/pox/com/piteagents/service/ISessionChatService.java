@@ -0,0 +1,41 @@
+package pox.com.piteagents.service;
+
+import org.springframework.http.codec.ServerSentEvent;
+import pox.com.piteagents.entity.dto.request.SessionChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+import reactor.core.publisher.Flux;
+
+/**
+ * 会话对话服务接口
+ * <p>
+ * 在已有会话中继续对话：历史消息从会话加载，系统提示词和模型参数取自会话所属的 Agent，
+ * 本轮的用户消息和助手回复在响应返回后异步写入会话。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public interface ISessionChatService {
+
+    /**
+     * 会话同步对话
+     *
+     * @param sessionId 会话 ID
+     * @param request 会话对话请求
+     * @return 对话响应
+     */
+    ChatResponse chat(Long sessionId, SessionChatRequest request);
+
+    /**
+     * 会话流式对话
+     * <p>
+     * 流正常结束后才写入本轮消息；客户端中途断开或生成失败时不写入。
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @param request 会话对话请求
+     * @return SSE事件流
+     */
+    Flux<ServerSentEvent<StreamChatResponse>> streamChat(Long sessionId, SessionChatRequest request);
+}
@@ -1,8 +1,16 @@
 package pox.com.piteagents.service;
 
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pox.com.piteagents.entity.dto.common.TokenUsage;
+import pox.com.piteagents.entity.dto.request.BatchChatRequest;
 import pox.com.piteagents.entity.dto.request.ChatRequest;
 import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+import reactor.core.publisher.Flux;
+
+import java.util.function.Consumer;
 
 /**
  * 智谱 AI 服务接口
@@ -31,6 +39,43 @@ public interface IZhipuService {
      */
     SseEmitter streamChat(ChatRequest request);
 
+    /**
+     * 续传流式对话
+     * <p>
+     * 客户端断线重连时，根据 Last-Event-ID 补发缺失的数据帧并继续推送。
+     * </p>
+     *
+     * @param responseId  响应ID
+     * @param lastEventId 客户端最后收到的帧序号，为 null 时从头补发
+     * @return SSE发射器
+     * @throws pox.com.piteagents.exception.ZhipuApiException 响应不存在（404）或缺失的帧已淘汰（410）
+     */
+    SseEmitter resumeStream(String responseId, Long lastEventId);
+
+    /**
+     * 响应式流式对话接口
+     * <p>
+     * 直接桥接 SDK 的流式数据，不占用工作线程，
+     * 支持背压，客户端断开时取消上游订阅。
+     * </p>
+     *
+     * @param request 对话请求对象
+     * @return SSE事件流
+     */
+    Flux<ServerSentEvent<StreamChatResponse>> streamChatReactive(ChatRequest request);
+
+    /**
+     * 响应式流式对话接口（回调上游返回的 Token 用量）
+     * <p>
+     * 用量随最后一个数据块返回，在该数据块推送给客户端之前回调；上游未返回用量时不回调。
+     * </p>
+     *
+     * @param request       对话请求对象
+     * @param usageListener Token 用量回调
+     * @return SSE事件流
+     */
+    Flux<ServerSentEvent<StreamChatResponse>> streamChatReactive(ChatRequest request, Consumer<TokenUsage> usageListener);
+
     /**
      * 带工具调用的对话接口
      * <p>
@@ -41,5 +86,31 @@ public interface IZhipuService {
      * @return 对话响应对象
      */
     ChatResponse chatWithTools(ChatRequest request);
-}
 
+    /**
+     * 带工具调用的流式对话接口
+     * <p>
+     * 以 SSE 方式推送文本增量、工具开始（tool_start）和工具结果（tool_result）事件。
+     * </p>
+     *
+     * @param request 对话请求对象
+     * @return SSE发射器
+     */
+    SseEmitter streamChatWithTools(ChatRequest request);
+
+    /**
+     * 批量对话接口
+     * <p>
+     * 以有限的并行度逐个执行同步对话，结果按完成顺序输出，
+     * 每条结果带有其在请求列表中的下标。单条失败以失败结果输出，不中断整个批次。
+     * </p>
+     * <p>
+     * 响应超时按批次规模计算，不受 spring.mvc.async.request-timeout 限制，
+     * 上限为 pite-agents.batch.max-duration-seconds；超时后未完成的请求被取消。
+     * </p>
+     *
+     * @param request 批量对话请求
+     * @return NDJSON 发射器（每行一个结果）
+     */
+    ResponseBodyEmitter chatBatch(BatchChatRequest request);
+}
@@ -0,0 +1,315 @@
+package pox.com.piteagents.service.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.constant.FinishReason;
+import pox.com.piteagents.common.utils.ChatRequestDigester;
+import pox.com.piteagents.config.ResponseCacheProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.service.IAgentService;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 对话响应缓存
+ * <p>
+ * 面向 FAQ 类、低温度的 Agent，相同请求直接返回缓存的回答：
+ * - 键为模型、消息、温度、topP、maxTokens、Agent 的规范化摘要
+ * - 按最近最少使用（LRU）淘汰，同时受条目数和总字节数约束
+ * - 条目按 TTL 过期
+ * - 需要 Agent 在 extra_params 中设置 responseCache=true 开启，
+ *   可通过 responseCacheTtlSeconds 设置过期时间
+ * </p>
+ * <p>
+ * 缓存的是序列化后的 JSON，命中时反序列化出新对象并标记 cached=true，
+ * 调用方修改返回值不会影响缓存内容。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatResponseCache {
+
+    /**
+     * extra_params 中开启缓存的参数名
+     */
+    private static final String CACHE_ENABLED_PARAM = "responseCache";
+
+    /**
+     * extra_params 中缓存过期时间的参数名
+     */
+    private static final String CACHE_TTL_PARAM = "responseCacheTtlSeconds";
+
+    /**
+     * 每个条目除响应 JSON 外的估算开销（键、对象头、链表节点）
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 192;
+
+    private final ResponseCacheProperties responseCacheProperties;
+    private final ChatRequestDigester chatRequestDigester;
+    private final IAgentService agentService;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 缓存条目（访问顺序，最久未访问的在前）
+     */
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * Agent 缓存配置
+     */
+    private final Map<Long, AgentCachePolicy> policies = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存占用的字节数
+     */
+    private long residentBytes;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter evictionCounter;
+
+    /**
+     * 注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        hitCounter = Counter.builder("pite.chat.cache.requests")
+                .description("响应缓存查询次数")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        missCounter = Counter.builder("pite.chat.cache.requests")
+                .description("响应缓存查询次数")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        evictionCounter = Counter.builder("pite.chat.cache.evictions")
+                .description("因容量或过期被淘汰的缓存条目数")
+                .register(meterRegistry);
+        Gauge.builder("pite.chat.cache.entries", this, ChatResponseCache::size)
+                .description("响应缓存条目数")
+                .register(meterRegistry);
+        Gauge.builder("pite.chat.cache.bytes", this, ChatResponseCache::getResidentBytes)
+                .description("响应缓存占用的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查询缓存，未命中时调用 loader 并缓存结果
+     * <p>
+     * 请求不满足缓存条件（未开启、温度过高）时直接调用 loader。
+     * 只缓存正常结束（finish_reason=stop）的响应。
+     * </p>
+     *
+     * @param request 对话请求
+     * @param loader  实际的对话调用
+     * @return 对话响应
+     */
+    public ChatResponse getOrLoad(ChatRequest request, Supplier<ChatResponse> loader) {
+        AgentCachePolicy policy = resolvePolicy(request);
+        if (policy == null) {
+            return loader.get();
+        }
+
+        String key = chatRequestDigester.digest(request, "response-cache", false);
+        ChatResponse cached = get(key);
+        if (cached != null) {
+            hitCounter.increment();
+            log.info("命中响应缓存，Agent ID: {}, 响应ID: {}", request.getAgentId(), cached.getId());
+            return cached;
+        }
+
+        missCounter.increment();
+        ChatResponse response = loader.get();
+        if (response != null && FinishReason.STOP.equals(response.getFinishReason())) {
+            put(key, response, policy.ttlSeconds);
+        }
+        return response;
+    }
+
+    /**
+     * 获取缓存条目数
+     *
+     * @return 条目数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 获取缓存占用的字节数
+     *
+     * @return 字节数
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        entries.clear();
+        residentBytes = 0;
+        policies.clear();
+    }
+
+    private ChatResponse get(String key) {
+        byte[] json;
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+                removeEntry(key, entry);
+                return null;
+            }
+            json = entry.json;
+        }
+
+        try {
+            ChatResponse response = objectMapper.readValue(json, ChatResponse.class);
+            response.setCached(true);
+            return response;
+        } catch (IOException e) {
+            log.warn("反序列化缓存的响应失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void put(String key, ChatResponse response, int ttlSeconds) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(response);
+        } catch (IOException e) {
+            log.warn("序列化响应失败，不写入缓存: {}", e.getMessage());
+            return;
+        }
+
+        long size = json.length + ENTRY_OVERHEAD_BYTES;
+        if (size > responseCacheProperties.getMaxBytes()) {
+            return;
+        }
+
+        synchronized (this) {
+            CacheEntry previous = entries.remove(key);
+            if (previous != null) {
+                residentBytes -= previous.size;
+            }
+            entries.put(key, new CacheEntry(json, size,
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlSeconds)));
+            residentBytes += size;
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * 超出条目数或字节数上限时，从最久未访问的条目开始淘汰；顺带清理遇到的过期条目
+     */
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next().getValue();
+            boolean overCapacity = entries.size() > responseCacheProperties.getMaxEntries()
+                    || residentBytes > responseCacheProperties.getMaxBytes();
+            if (!overCapacity && entry.expiresAtMillis > now) {
+                break;
+            }
+            iterator.remove();
+            residentBytes -= entry.size;
+            evictionCounter.increment();
+        }
+    }
+
+    private void removeEntry(String key, CacheEntry entry) {
+        if (entries.remove(key, entry)) {
+            residentBytes -= entry.size;
+            evictionCounter.increment();
+        }
+    }
+
+    /**
+     * 解析请求对应的缓存策略
+     *
+     * @param request 对话请求
+     * @return 缓存策略，不可缓存时返回 null
+     */
+    private AgentCachePolicy resolvePolicy(ChatRequest request) {
+        if (!responseCacheProperties.isEnabled() || request.getAgentId() == null
+                || chatRequestDigester.resolveTemperature(request) > responseCacheProperties.getMaxTemperature()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        AgentCachePolicy policy = policies.get(request.getAgentId());
+        if (policy == null || now - policy.loadedAtMillis
+                > TimeUnit.SECONDS.toMillis(responseCacheProperties.getPolicyRefreshSeconds())) {
+            policy = loadPolicy(request.getAgentId(), now);
+            policies.put(request.getAgentId(), policy);
+        }
+        return policy.enabled ? policy : null;
+    }
+
+    private AgentCachePolicy loadPolicy(Long agentId, long now) {
+        Map<String, Object> extraParams = agentService.getAgentExtraParams(agentId);
+        boolean enabled = Boolean.TRUE.equals(extraParams.get(CACHE_ENABLED_PARAM))
+                || "true".equals(String.valueOf(extraParams.get(CACHE_ENABLED_PARAM)));
+        int ttlSeconds = responseCacheProperties.getDefaultTtlSeconds();
+        Object ttl = extraParams.get(CACHE_TTL_PARAM);
+        if (ttl instanceof Number number && number.intValue() > 0) {
+            ttlSeconds = number.intValue();
+        }
+        return new AgentCachePolicy(enabled, ttlSeconds, now);
+    }
+
+    /**
+     * 缓存条目
+     */
+    private static class CacheEntry {
+
+        private final byte[] json;
+        private final long size;
+        private final long expiresAtMillis;
+
+        CacheEntry(byte[] json, long size, long expiresAtMillis) {
+            this.json = json;
+            this.size = size;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Agent 的缓存策略
+     */
+    private static class AgentCachePolicy {
+
+        private final boolean enabled;
+        private final int ttlSeconds;
+        private final long loadedAtMillis;
+
+        AgentCachePolicy(boolean enabled, int ttlSeconds, long loadedAtMillis) {
+            this.enabled = enabled;
+            this.ttlSeconds = ttlSeconds;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+}
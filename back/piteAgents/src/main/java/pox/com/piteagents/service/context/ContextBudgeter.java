@@ -0,0 +1,225 @@
+package pox.com.piteagents.service.context;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.enums.ZhipuModelEnum;
+import pox.com.piteagents.config.ContextBudgetProperties;
+import pox.com.piteagents.config.ZhipuConfig;
+import pox.com.piteagents.entity.dto.common.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上下文预算器
+ * <p>
+ * 在调用上游之前让请求适配模型的上下文窗口：
+ * - 提示词超出预算时，保留系统提示词和最新一条消息，从最早的历史消息开始裁剪
+ * - 保留的历史始终是连续的最近若干轮，且从用户消息开始，不会留下孤立的助手回复
+ * - 按剩余空间收紧 maxTokens，不超过模型的最大生成长度
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContextBudgeter {
+
+    private static final String ROLE_SYSTEM = "system";
+    private static final String ROLE_USER = "user";
+
+    private final GlmTokenEstimator glmTokenEstimator;
+    private final ContextBudgetProperties contextBudgetProperties;
+    private final ZhipuConfig zhipuConfig;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 裁剪消息列表并计算最大生成 token 数
+     *
+     * @param model              模型代码
+     * @param messages           原始消息列表
+     * @param requestedMaxTokens 请求指定的最大生成 token 数，可为 null
+     * @return 裁剪结果
+     * @throws IllegalArgumentException 系统提示词和最新消息已超出上下文窗口时抛出
+     */
+    public Budget fit(String model, List<Message> messages, Integer requestedMaxTokens) {
+        ZhipuModelEnum modelEnum = ZhipuModelEnum.fromCode(model);
+        int contextLength = modelEnum != null ? modelEnum.getContextLength() : Integer.MAX_VALUE;
+
+        int size = messages.size();
+        int[] costs = new int[size];
+        int totalTokens = GlmTokenEstimator.TOKENS_PER_REQUEST;
+        for (int i = 0; i < size; i++) {
+            costs[i] = glmTokenEstimator.estimateMessage(messages.get(i));
+            totalTokens += costs[i];
+        }
+
+        int budget = promptBudget(contextLength);
+        if (!contextBudgetProperties.isEnabled() || totalTokens <= budget || size <= 1) {
+            recordPromptTokens(model, totalTokens);
+            return new Budget(messages, totalTokens, 0, resolveMaxTokens(modelEnum, contextLength, totalTokens, requestedMaxTokens));
+        }
+
+        // 必须保留的部分：系统提示词和最新一条消息
+        int last = size - 1;
+        int pinnedTokens = GlmTokenEstimator.TOKENS_PER_REQUEST + costs[last];
+        for (int i = 0; i < last; i++) {
+            if (isSystem(messages.get(i))) {
+                pinnedTokens += costs[i];
+            }
+        }
+
+        // 从新到旧累加历史消息，直到超出预算
+        int keepFrom = last;
+        int usedTokens = pinnedTokens;
+        for (int i = last - 1; i >= 0; i--) {
+            if (isSystem(messages.get(i))) {
+                continue;
+            }
+            if (usedTokens + costs[i] > budget) {
+                break;
+            }
+            usedTokens += costs[i];
+            keepFrom = i;
+        }
+
+        // 保留的历史从用户消息开始，避免以孤立的助手回复或工具结果开头
+        while (keepFrom < last && (isSystem(messages.get(keepFrom)) || !ROLE_USER.equals(messages.get(keepFrom).getRole()))) {
+            if (!isSystem(messages.get(keepFrom))) {
+                usedTokens -= costs[keepFrom];
+            }
+            keepFrom++;
+        }
+
+        List<Message> kept = new ArrayList<>(size);
+        int dropped = 0;
+        for (int i = 0; i < size; i++) {
+            if (i >= keepFrom || isSystem(messages.get(i))) {
+                kept.add(messages.get(i));
+            } else {
+                dropped++;
+            }
+        }
+
+        if (dropped > 0) {
+            Counter.builder("pite.context.trimmed.messages")
+                    .description("超出提示词预算而被裁剪的历史消息数")
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .increment(dropped);
+            log.info("提示词超出预算，裁剪最早的 {} 条历史消息，模型: {}, 预估 token: {} -> {}, 预算: {}",
+                    dropped, model, totalTokens, usedTokens, budget);
+        }
+
+        recordPromptTokens(model, usedTokens);
+        return new Budget(kept, usedTokens, dropped, resolveMaxTokens(modelEnum, contextLength, usedTokens, requestedMaxTokens));
+    }
+
+    /**
+     * 按当前上下文计算最大生成 token 数
+     * <p>
+     * 用于工具调用过程中上下文不断增长的场景，每轮调用前重新计算。
+     * </p>
+     *
+     * @param model              模型代码
+     * @param promptTokens       当前上下文的预估 token 数
+     * @param requestedMaxTokens 请求指定的最大生成 token 数，可为 null
+     * @return 最大生成 token 数
+     * @throws IllegalArgumentException 剩余空间不足时抛出
+     */
+    public int clampMaxTokens(String model, int promptTokens, Integer requestedMaxTokens) {
+        ZhipuModelEnum modelEnum = ZhipuModelEnum.fromCode(model);
+        int contextLength = modelEnum != null ? modelEnum.getContextLength() : Integer.MAX_VALUE;
+        return resolveMaxTokens(modelEnum, contextLength, promptTokens, requestedMaxTokens);
+    }
+
+    /**
+     * 计算不考虑上下文长度时的最大生成 token 数
+     * <p>
+     * 取请求指定值（未指定时取默认配置），且不超过模型的最大生成长度。
+     * </p>
+     *
+     * @param model              模型代码
+     * @param requestedMaxTokens 请求指定的最大生成 token 数，可为 null
+     * @return 最大生成 token 数
+     */
+    public int maxCompletionTokens(String model, Integer requestedMaxTokens) {
+        ZhipuModelEnum modelEnum = ZhipuModelEnum.fromCode(model);
+        return modelEnum != null ? Math.min(requestedOrDefault(requestedMaxTokens), modelEnum.getMaxOutputTokens())
+                : requestedOrDefault(requestedMaxTokens);
+    }
+
+    private int promptBudget(int contextLength) {
+        // 上下文窗口中至少为生成部分留出 minCompletionTokens
+        int windowBudget = (int) ((contextLength - contextBudgetProperties.getMinCompletionTokens())
+                / (1 + contextBudgetProperties.getSafetyMarginRatio()));
+        int configured = contextBudgetProperties.getMaxPromptTokens();
+        return configured > 0 ? Math.min(configured, windowBudget) : windowBudget;
+    }
+
+    private int resolveMaxTokens(ZhipuModelEnum modelEnum, int contextLength, int promptTokens, Integer requestedMaxTokens) {
+        long reservedPrompt = (long) Math.ceil(promptTokens * (1 + contextBudgetProperties.getSafetyMarginRatio()));
+        long remaining = contextLength - reservedPrompt;
+        if (remaining < contextBudgetProperties.getMinCompletionTokens()) {
+            meterRegistry.counter("pite.context.rejected").increment();
+            throw new IllegalArgumentException("上下文过长：预估提示词 " + promptTokens
+                    + " tokens，超出模型上下文窗口 " + contextLength + " tokens");
+        }
+
+        int maxTokens = modelEnum != null ? Math.min(requestedOrDefault(requestedMaxTokens), modelEnum.getMaxOutputTokens())
+                : requestedOrDefault(requestedMaxTokens);
+        return (int) Math.min(maxTokens, remaining);
+    }
+
+    private int requestedOrDefault(Integer requestedMaxTokens) {
+        return requestedMaxTokens != null ? requestedMaxTokens : zhipuConfig.getMaxTokens();
+    }
+
+    private void recordPromptTokens(String model, int promptTokens) {
+        DistributionSummary.builder("pite.context.prompt.tokens")
+                .description("发送给上游的提示词预估 token 数（裁剪后）")
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(promptTokens);
+    }
+
+    private boolean isSystem(Message message) {
+        return ROLE_SYSTEM.equals(message.getRole());
+    }
+
+    /**
+     * 裁剪结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Budget {
+
+        /**
+         * 裁剪后的消息列表
+         */
+        private final List<Message> messages;
+
+        /**
+         * 裁剪后提示词的预估 token 数
+         */
+        private final int promptTokens;
+
+        /**
+         * 被裁剪的历史消息数
+         */
+        private final int droppedMessages;
+
+        /**
+         * 最大生成 token 数
+         */
+        private final int maxTokens;
+    }
+}
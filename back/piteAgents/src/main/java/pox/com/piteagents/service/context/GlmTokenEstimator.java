@@ -0,0 +1,183 @@
+package pox.com.piteagents.service.context;
+
+import ai.z.openapi.service.model.ChatMessage;
+import ai.z.openapi.service.model.ToolCalls;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.entity.dto.common.Message;
+
+import java.util.List;
+
+/**
+ * GLM 模型的本地 token 估算器
+ * <p>
+ * 在调用上游之前估算提示词长度，用于上下文裁剪和调用配额预扣。
+ * 按字符类别累加权重（单位为 1/100 token），逐个码点遍历字符串，不产生任何中间对象：
+ * - 中日韩文字：每字约 1 个 token
+ * - ASCII 字母：约 4 个字符 1 个 token；数字约 3 个字符 1 个 token
+ * - ASCII 标点和空白：标点约 2 个字符 1 个 token，空白通常与相邻单词合并
+ * - 其他字符（emoji、特殊符号等）：每个字符约 1.5 个 token
+ * </p>
+ * <p>
+ * 权重整体略偏高：估算偏低会导致上游拒绝超长请求，偏高只会略微多裁剪一些历史消息。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+public class GlmTokenEstimator {
+
+    /**
+     * 每条消息的格式开销（角色标记、分隔符等）
+     */
+    public static final int TOKENS_PER_MESSAGE = 4;
+
+    /**
+     * 每次请求的回复引导开销（助手角色标记）
+     */
+    public static final int TOKENS_PER_REQUEST = 3;
+
+    /**
+     * 每个工具调用的格式开销（调用ID、函数名标记等）
+     */
+    private static final int TOKENS_PER_TOOL_CALL = 8;
+
+    private static final int WEIGHT_CJK = 100;
+    private static final int WEIGHT_LETTER = 25;
+    private static final int WEIGHT_DIGIT = 35;
+    private static final int WEIGHT_PUNCTUATION = 50;
+    private static final int WEIGHT_WHITESPACE = 10;
+    private static final int WEIGHT_OTHER = 150;
+
+    /**
+     * 估算一段文本的 token 数
+     *
+     * @param text 文本
+     * @return 预估 token 数
+     */
+    public int estimateText(CharSequence text) {
+        return toTokens(estimateWeight(text));
+    }
+
+    /**
+     * 估算一段文本的权重（以 1/100 token 为单位）
+     * <p>
+     * 逐段累计的场景（如流式增量）先累加权重，最后用 {@link #toTokens(long)} 换算一次，
+     * 避免每段都向上取整带来的偏差。
+     * </p>
+     *
+     * @param text 文本
+     * @return 权重
+     */
+    public long estimateWeight(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int length = text.length();
+        long weight = 0;
+        for (int i = 0; i < length; ) {
+            int codePoint = Character.codePointAt(text, i);
+            weight += weightOf(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return weight;
+    }
+
+    /**
+     * 将累计的权重换算为 token 数
+     *
+     * @param weight 权重（{@link #estimateWeight(CharSequence)} 之和）
+     * @return 预估 token 数
+     */
+    public int toTokens(long weight) {
+        return (int) ((weight + 99) / 100);
+    }
+
+    /**
+     * 估算一条业务消息的 token 数（含格式开销）
+     *
+     * @param message 消息
+     * @return 预估 token 数
+     */
+    public int estimateMessage(Message message) {
+        return TOKENS_PER_MESSAGE + estimateText(message.getRole()) + estimateText(message.getContent());
+    }
+
+    /**
+     * 估算业务消息列表的提示词 token 数
+     *
+     * @param messages 消息列表
+     * @return 预估 token 数
+     */
+    public int estimateMessages(List<Message> messages) {
+        int tokens = TOKENS_PER_REQUEST;
+        if (messages != null) {
+            for (Message message : messages) {
+                tokens += estimateMessage(message);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 估算 SDK 消息列表的提示词 token 数
+     * <p>
+     * 用于工具调用过程中不断增长的上下文，包含工具调用请求和工具结果。
+     * </p>
+     *
+     * @param messages SDK 消息列表
+     * @return 预估 token 数
+     */
+    public int estimateChatMessages(List<ChatMessage> messages) {
+        int tokens = TOKENS_PER_REQUEST;
+        if (messages == null) {
+            return tokens;
+        }
+        for (ChatMessage message : messages) {
+            tokens += TOKENS_PER_MESSAGE + estimateText(message.getRole());
+            if (message.getContent() instanceof CharSequence content) {
+                tokens += estimateText(content);
+            }
+            if (message.getToolCalls() != null) {
+                for (ToolCalls toolCall : message.getToolCalls()) {
+                    tokens += TOKENS_PER_TOOL_CALL;
+                    if (toolCall.getFunction() != null) {
+                        tokens += estimateText(toolCall.getFunction().getName());
+                        if (toolCall.getFunction().getArguments() != null) {
+                            tokens += estimateText(toolCall.getFunction().getArguments().toString());
+                        }
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static int weightOf(int codePoint) {
+        if (codePoint < 0x80) {
+            if (Character.isLetter(codePoint)) {
+                return WEIGHT_LETTER;
+            }
+            if (Character.isDigit(codePoint)) {
+                return WEIGHT_DIGIT;
+            }
+            if (Character.isWhitespace(codePoint)) {
+                return WEIGHT_WHITESPACE;
+            }
+            return WEIGHT_PUNCTUATION;
+        }
+        if (Character.isIdeographic(codePoint) || isKanaOrHangul(codePoint)) {
+            return WEIGHT_CJK;
+        }
+        // 全角标点与中文标点通常单独成 token
+        if (codePoint >= 0x3000 && codePoint <= 0x303F || codePoint >= 0xFF00 && codePoint <= 0xFFEF) {
+            return WEIGHT_CJK;
+        }
+        return WEIGHT_OTHER;
+    }
+
+    private static boolean isKanaOrHangul(int codePoint) {
+        return codePoint >= 0x3040 && codePoint <= 0x30FF
+                || codePoint >= 0xAC00 && codePoint <= 0xD7AF;
+    }
+}
@@ -5,9 +5,12 @@ import ai.z.openapi.service.model.ChatTool;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClientException;
@@ -15,9 +18,11 @@ import org.springframework.web.client.RestTemplate;
 import pox.com.piteagents.common.utils.JsonUtils;
 import pox.com.piteagents.common.utils.StringConversionUtils;
 import pox.com.piteagents.common.utils.ToolCallPropertyExtractor;
+import pox.com.piteagents.config.ToolExecutionProperties;
 import pox.com.piteagents.entity.dto.response.AgentToolDTO;
 import pox.com.piteagents.entity.po.FunctionToolDefinitionPO;
 import pox.com.piteagents.exception.FunctionToolExecutionException;
+import pox.com.piteagents.service.IAgentService;
 import pox.com.piteagents.service.IFunctionToolService;
 
 import java.net.URI;
@@ -26,6 +31,15 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -36,6 +50,7 @@ import java.util.stream.Collectors;
  * - HTTP工具调用
  * - 内置工具调用
  * - 基本的错误处理和日志
+ * - 同一轮工具调用的并行执行
  * </p>
  *
  * @author piteAgents
@@ -54,6 +69,51 @@ public class FunctionToolExecutor {
     private final JsonUtils jsonUtils;
     private final StringConversionUtils stringConversionUtils;
     private final ToolCallPropertyExtractor toolCallPropertyExtractor;
+    private final IAgentService agentService;
+    private final ToolExecutionProperties toolExecutionProperties;
+
+    /**
+     * extra_params 中最大工具调用轮数的参数名
+     */
+    private static final String MAX_TOOL_ROUNDS_PARAM = "maxToolRounds";
+
+    /**
+     * HTTP 工具的连接超时上限（毫秒），与共享 RestTemplate 一致
+     */
+    private static final int HTTP_CONNECT_TIMEOUT_MS = 10000;
+
+    /**
+     * 工具并行执行线程池
+     */
+    private ThreadPoolExecutor toolExecutor;
+
+    /**
+     * 初始化工具执行线程池
+     */
+    @PostConstruct
+    public void initialize() {
+        AtomicInteger counter = new AtomicInteger();
+        toolExecutor = new ThreadPoolExecutor(
+                toolExecutionProperties.getPoolSize(),
+                toolExecutionProperties.getPoolSize(),
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(toolExecutionProperties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, toolExecutionProperties.getThreadNamePrefix() + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        toolExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 关闭工具执行线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        toolExecutor.shutdownNow();
+    }
 
     /**
      * 执行工具调用（新的统一接口）
@@ -180,7 +240,7 @@ public class FunctionToolExecutor {
             log.debug("🌐 HTTP请求: {} {}, 参数: {}", method, finalUrl, arguments);
             
             // 执行HTTP调用
-            ResponseEntity<String> response = restTemplate.exchange(
+            ResponseEntity<String> response = restTemplateFor(tool).exchange(
                     URI.create(finalUrl),
                     HttpMethod.valueOf(method),
                     entity,
@@ -202,6 +262,27 @@ public class FunctionToolExecutor {
         }
     }
 
+    /**
+     * 获取按工具超时时间配置的 RestTemplate
+     * <p>
+     * 工具未设置超时时间时使用共享实例；否则复用共享实例的消息转换器，
+     * 连接超时和读取超时都不超过工具的超时时间。
+     * </p>
+     */
+    private RestTemplate restTemplateFor(FunctionToolDefinitionPO tool) {
+        Integer timeoutMs = tool.getTimeout();
+        if (timeoutMs == null || timeoutMs <= 0) {
+            return restTemplate;
+        }
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setConnectTimeout(Math.min(timeoutMs, HTTP_CONNECT_TIMEOUT_MS));
+        factory.setReadTimeout(timeoutMs);
+        RestTemplate timed = new RestTemplate(restTemplate.getMessageConverters());
+        timed.setRequestFactory(factory);
+        timed.setErrorHandler(restTemplate.getErrorHandler());
+        return timed;
+    }
+
     /**
      * 解析参数JSON
      */
@@ -362,8 +443,8 @@ public class FunctionToolExecutor {
     /**
      * 批量执行工具调用
      * <p>
-     * 遍历 AI 返回的 tool_calls 列表，逐个执行工具调用，
-     * 并将结果封装为 ChatMessage 格式返回给 AI。
+     * 使用默认的请求截止时间，等价于
+     * {@code executeToolCalls(toolCalls, agentId, now + requestTimeoutMs)}。
      * </p>
      *
      * @param toolCalls AI 返回的工具调用列表（SDK 的 ToolCall 类型）
@@ -371,58 +452,172 @@ public class FunctionToolExecutor {
      * @return 工具调用结果消息列表
      */
     public List<ChatMessage> executeToolCalls(List<?> toolCalls, Long agentId) {
-        List<ChatMessage> toolResults = new ArrayList<>();
+        return executeToolCalls(toolCalls, agentId,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(toolExecutionProperties.getRequestTimeoutMs()));
+    }
 
+    /**
+     * 批量执行工具调用
+     * <p>
+     * 同一轮返回的 tool_calls 相互独立，在有界线程池上并行执行，
+     * 总耗时约等于最慢的一个工具。结果消息按原始 tool_calls 的顺序返回，
+     * 与 tool_call_id 一一对应。
+     * </p>
+     * <p>
+     * 单个工具调用同样提交到线程池执行，调用线程只等待到截止时间。
+     * 到达截止时间仍未完成的工具会被取消，并以超时错误信息返回给 AI；
+     * 调用时已超过截止时间（如上游调用耗尽了时间）则不再执行任何工具；
+     * 线程池队列已满时被拒绝的工具同样按超时返回，不在调用线程上执行。
+     * 取消无法中断进行中的 HTTP 调用，因此 HTTP 工具的超时时间不超过剩余时间。
+     * </p>
+     *
+     * @param toolCalls     AI 返回的工具调用列表（SDK 的 ToolCall 类型）
+     * @param agentId       Agent ID（可为 null）
+     * @param deadlineNanos 截止时间（{@link System#nanoTime()} 基准）
+     * @return 工具调用结果消息列表
+     */
+    public List<ChatMessage> executeToolCalls(List<?> toolCalls, Long agentId, long deadlineNanos) {
         log.info("开始批量执行工具调用，数量: {}", toolCalls.size());
 
+        if (System.nanoTime() - deadlineNanos >= 0) {
+            log.warn("已超过工具调用截止时间，跳过本轮 {} 个工具", toolCalls.size());
+            return toolCalls.stream()
+                    .map(toolCallObj -> buildErrorResultMessage(toolCallObj, "工具执行超时"))
+                    .collect(Collectors.toList());
+        }
+
+        List<Future<ChatMessage>> futures = new ArrayList<>(toolCalls.size());
         for (Object toolCallObj : toolCalls) {
-            // 使用反射获取工具调用信息（兼容不同版本的 SDK）
             try {
-                String toolName = toolCallPropertyExtractor.getProperty(toolCallObj, "name");
-                String arguments = toolCallPropertyExtractor.getProperty(toolCallObj, "arguments");
-                String toolCallId = toolCallPropertyExtractor.getProperty(toolCallObj, "id");
+                futures.add(toolExecutor.submit(() -> executeToolCall(toolCallObj, agentId, deadlineNanos)));
+            } catch (RejectedExecutionException e) {
+                // 不在调用线程上执行：调用线程上的工具既不受截止时间约束，也会让本轮其余工具串行等待
+                log.warn("工具执行队列已满，按超时处理: {}", toolCallPropertyExtractor.getProperty(toolCallObj, "name"));
+                futures.add(CompletableFuture.completedFuture(
+                        buildErrorResultMessage(toolCallObj, "工具执行超时（执行队列已满）")));
+            }
+        }
 
-                log.info("执行工具调用: {}, ID: {}, 参数: {}", toolName, toolCallId, stringConversionUtils.truncate(arguments, 200));
+        List<ChatMessage> toolResults = new ArrayList<>(toolCalls.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<ChatMessage> future = futures.get(i);
+            Object toolCallObj = toolCalls.get(i);
+            try {
+                long remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
+                toolResults.add(future.get(remainingNanos, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                log.warn("工具执行超时，已取消: {}", toolCallPropertyExtractor.getProperty(toolCallObj, "name"));
+                toolResults.add(buildErrorResultMessage(toolCallObj, "工具执行超时"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new FunctionToolExecutionException(
+                        toolCallPropertyExtractor.getProperty(toolCallObj, "name"), "工具执行被中断", e);
+            } catch (ExecutionException e) {
+                // executeToolCall 内部已处理异常，这里只做兜底
+                toolResults.add(buildErrorResultMessage(toolCallObj, e.getCause().getMessage()));
+            }
+        }
 
-                // 执行工具
-                String toolResult = executeToolByName(toolName, arguments, agentId);
+        log.info("批量工具调用完成，数量: {}", toolResults.size());
+        return toolResults;
+    }
 
-                // 构建工具结果消息
-                ChatMessage resultMessage = buildToolResultMessage(toolCallId, toolResult);
-                toolResults.add(resultMessage);
+    /**
+     * 执行单个工具调用
+     * <p>
+     * 执行失败时不抛出异常，而是将错误信息作为工具结果返回给 AI。
+     * </p>
+     *
+     * @param toolCallObj   AI 返回的单个工具调用
+     * @param agentId       Agent ID（可为 null）
+     * @param deadlineNanos 截止时间（{@link System#nanoTime()} 基准）
+     * @return 工具结果消息
+     */
+    private ChatMessage executeToolCall(Object toolCallObj, Long agentId, long deadlineNanos) {
+        // 使用反射获取工具调用信息（兼容不同版本的 SDK）
+        try {
+            String toolName = toolCallPropertyExtractor.getProperty(toolCallObj, "name");
+            String arguments = toolCallPropertyExtractor.getProperty(toolCallObj, "arguments");
+            String toolCallId = toolCallPropertyExtractor.getProperty(toolCallObj, "id");
 
-                log.info("工具 {} 执行成功，ID: {}", toolName, toolCallId);
+            log.info("执行工具调用: {}, ID: {}, 参数: {}", toolName, toolCallId, stringConversionUtils.truncate(arguments, 200));
 
-            } catch (Exception e) {
-                log.error("工具执行失败，错误: {}", e.getMessage(), e);
+            // 执行工具
+            String toolResult = executeToolByName(toolName, arguments, agentId, deadlineNanos);
 
-                // 即使工具执行失败，也要返回错误信息给 AI
-                String errorToolCallId = toolCallPropertyExtractor.getProperty(toolCallObj, "id");
-                if (errorToolCallId == null) {
-                    errorToolCallId = "unknown";
-                }
-                
-                ChatMessage errorMessage = buildToolResultMessage(
-                        errorToolCallId,
-                        "工具执行失败: " + e.getMessage()
-                );
-                toolResults.add(errorMessage);
+            log.info("工具 {} 执行成功，ID: {}", toolName, toolCallId);
+
+            // 构建工具结果消息
+            return buildToolResultMessage(toolCallId, toolResult);
+
+        } catch (Exception e) {
+            log.error("工具执行失败，错误: {}", e.getMessage(), e);
+
+            // 即使工具执行失败，也要返回错误信息给 AI
+            return buildErrorResultMessage(toolCallObj, e.getMessage());
+        }
+    }
+
+    /**
+     * 构建工具执行失败的结果消息
+     *
+     * @param toolCallObj AI 返回的单个工具调用
+     * @param error       错误信息
+     * @return 工具结果消息
+     */
+    private ChatMessage buildErrorResultMessage(Object toolCallObj, String error) {
+        String errorToolCallId = toolCallPropertyExtractor.getProperty(toolCallObj, "id");
+        if (errorToolCallId == null) {
+            errorToolCallId = "unknown";
+        }
+        return buildToolResultMessage(errorToolCallId, "工具执行失败: " + error);
+    }
+
+    /**
+     * 解析 Agent 允许的最大工具调用轮数
+     * <p>
+     * 读取 agent_config.extra_params 中的 maxToolRounds，未配置时使用全局默认值。
+     * </p>
+     *
+     * @param agentId Agent ID（可为 null）
+     * @return 最大轮数（至少为 1）
+     */
+    public int resolveMaxRounds(Long agentId) {
+        Object value = agentService.getAgentExtraParams(agentId).get(MAX_TOOL_ROUNDS_PARAM);
+        if (value instanceof Number number) {
+            return Math.max(1, number.intValue());
+        }
+        if (value instanceof String text && StringUtils.hasText(text)) {
+            try {
+                return Math.max(1, Integer.parseInt(text.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("Agent {} 的 {} 配置无效: {}", agentId, MAX_TOOL_ROUNDS_PARAM, text);
             }
         }
+        return toolExecutionProperties.getDefaultMaxRounds();
+    }
 
-        log.info("批量工具调用完成，成功: {}", toolResults.size());
-        return toolResults;
+    /**
+     * 计算新请求的截止时间
+     *
+     * @return 截止时间（{@link System#nanoTime()} 基准）
+     */
+    public long newRequestDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(toolExecutionProperties.getRequestTimeoutMs());
     }
 
     /**
      * 根据工具名称执行工具
      *
-     * @param toolName  工具名称
-     * @param arguments 参数 JSON
-     * @param agentId   Agent ID（可为 null）
+     * @param toolName      工具名称
+     * @param arguments     参数 JSON
+     * @param agentId       Agent ID（可为 null）
+     * @param deadlineNanos 截止时间（{@link System#nanoTime()} 基准）
      * @return 工具执行结果
      */
-    private String executeToolByName(String toolName, String arguments, Long agentId) {
+    private String executeToolByName(String toolName, String arguments, Long agentId, long deadlineNanos) {
         // 1. 优先尝试内置工具
         if (functionToolRegistry.hasTool(toolName)) {
             log.debug("执行内置工具: {}", toolName);
@@ -441,6 +636,9 @@ public class FunctionToolExecutor {
                 log.debug("执行 HTTP 工具: {}", toolName);
                 // 构建 FunctionToolDefinitionPO 用于 HTTP 调用
                 FunctionToolDefinitionPO toolDef = buildToolDefinitionFromDTO(targetTool);
+                // HTTP 调用不响应中断，超时时间不能超过请求剩余的时间
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                toolDef.setTimeout((int) Math.max(1, Math.min(toolDef.getTimeout(), remainingMs)));
                 return execute(toolDef, arguments);
             }
         }
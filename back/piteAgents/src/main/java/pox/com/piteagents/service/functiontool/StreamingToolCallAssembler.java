@@ -0,0 +1,152 @@
+package pox.com.piteagents.service.functiontool;
+
+import ai.z.openapi.service.model.ChatFunctionCall;
+import ai.z.openapi.service.model.ChatMessage;
+import ai.z.openapi.service.model.Delta;
+import ai.z.openapi.service.model.ToolCalls;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import pox.com.piteagents.common.constant.MessageRole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式工具调用组装器
+ * <p>
+ * 从流式响应的增量数据中拼装出完整的 tool_calls 和助手文本。
+ * GLM 通常在一个数据块中返回完整的工具调用；若参数被拆分到多个数据块，
+ * 后续不带 ID 的片段会追加到上一个工具调用上。
+ * </p>
+ * <p>
+ * 非线程安全，每个流式请求创建一个实例。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public class StreamingToolCallAssembler {
+
+    /**
+     * 已组装的工具调用
+     */
+    private final List<PartialToolCall> toolCalls = new ArrayList<>();
+
+    /**
+     * 助手返回的文本内容
+     */
+    private final StringBuilder content = new StringBuilder();
+
+    /**
+     * 处理一个增量数据
+     *
+     * @param delta SDK 增量数据
+     */
+    public void accept(Delta delta) {
+        if (delta == null) {
+            return;
+        }
+
+        if (delta.getContent() != null) {
+            content.append(delta.getContent());
+        }
+
+        if (delta.getTool_calls() == null) {
+            return;
+        }
+
+        for (ToolCalls fragment : delta.getTool_calls()) {
+            boolean continuation = fragment.getId() == null || fragment.getId().isEmpty();
+            if (continuation && !toolCalls.isEmpty()) {
+                toolCalls.get(toolCalls.size() - 1).append(fragment);
+            } else {
+                toolCalls.add(new PartialToolCall(fragment));
+            }
+        }
+    }
+
+    /**
+     * 是否包含工具调用
+     *
+     * @return true 表示模型请求调用工具
+     */
+    public boolean hasToolCalls() {
+        return !toolCalls.isEmpty();
+    }
+
+    /**
+     * 获取组装完成的工具调用列表
+     *
+     * @return 工具调用列表
+     */
+    public List<ToolCalls> getToolCalls() {
+        return toolCalls.stream()
+                .map(PartialToolCall::build)
+                .toList();
+    }
+
+    /**
+     * 构建助手消息（包含工具调用请求），用于下一轮对话上下文
+     *
+     * @return 助手消息
+     */
+    public ChatMessage toAssistantMessage() {
+        return ChatMessage.builder()
+                .role(MessageRole.ASSISTANT)
+                .content(content.toString())
+                .toolCalls(getToolCalls())
+                .build();
+    }
+
+    /**
+     * 单个工具调用的拼装状态
+     */
+    private static class PartialToolCall {
+
+        private final ToolCalls first;
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+        private boolean fragmented;
+
+        PartialToolCall(ToolCalls first) {
+            this.first = first;
+            if (first.getFunction() != null) {
+                this.name = first.getFunction().getName();
+                appendArguments(first.getFunction().getArguments());
+            }
+        }
+
+        void append(ToolCalls fragment) {
+            fragmented = true;
+            if (fragment.getFunction() == null) {
+                return;
+            }
+            if (name == null || name.isEmpty()) {
+                name = fragment.getFunction().getName();
+            }
+            appendArguments(fragment.getFunction().getArguments());
+        }
+
+        private void appendArguments(JsonNode node) {
+            if (node == null || node.isNull()) {
+                return;
+            }
+            arguments.append(node.isTextual() ? node.asText() : node.toString());
+        }
+
+        ToolCalls build() {
+            // 未被拆分时直接复用 SDK 原始对象，保持参数的原始类型
+            if (!fragmented) {
+                return first;
+            }
+            return ToolCalls.builder()
+                    .id(first.getId())
+                    .type(first.getType() != null ? first.getType() : "function")
+                    .function(ChatFunctionCall.builder()
+                            .name(name)
+                            .arguments(TextNode.valueOf(arguments.toString()))
+                            .build())
+                    .build();
+        }
+    }
+}
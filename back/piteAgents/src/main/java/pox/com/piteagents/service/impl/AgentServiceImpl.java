@@ -8,6 +8,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import pox.com.piteagents.common.utils.JsonUtils;
 import pox.com.piteagents.entity.dto.request.AgentCreateRequest;
 import pox.com.piteagents.entity.dto.request.AgentUpdateRequest;
 import pox.com.piteagents.entity.dto.response.AgentConfigDTO;
@@ -19,6 +20,8 @@ import pox.com.piteagents.mapper.AgentConfigMapper;
 import pox.com.piteagents.mapper.AgentMapper;
 import pox.com.piteagents.service.IAgentService;
 
+import java.util.Map;
+
 /**
  * Agent 服务实现类
  * <p>
@@ -36,6 +39,7 @@ public class AgentServiceImpl implements IAgentService {
 
     private final AgentMapper agentMapper;
     private final AgentConfigMapper agentConfigMapper;
+    private final JsonUtils jsonUtils;
 
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -290,6 +294,20 @@ public class AgentServiceImpl implements IAgentService {
         return config;
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, Object> getAgentExtraParams(Long agentId) {
+        if (agentId == null) {
+            return Map.of();
+        }
+        AgentConfigPO config = agentConfigMapper.selectByAgentId(agentId);
+        if (config == null) {
+            return Map.of();
+        }
+        Map<String, Object> extraParams = jsonUtils.fromJsonToObjectMap(config.getExtraParams());
+        return extraParams != null ? extraParams : Map.of();
+    }
+
     /**
      * 将 Agent 实体转换为 DTO
      *
@@ -0,0 +1,238 @@
+package pox.com.piteagents.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcProperties;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import pox.com.piteagents.common.enums.ChatJobStatusEnum;
+import pox.com.piteagents.common.utils.JsonUtils;
+import pox.com.piteagents.config.ChatJobProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatJobDTO;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ChatJobPO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.mapper.ChatJobMapper;
+import pox.com.piteagents.service.IChatJobService;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 异步对话任务服务实现类
+ * <p>
+ * 任务持久化在 chat_job 表中，任意节点的工作线程都可以领取执行：
+ * - 领取时使用 SELECT ... FOR UPDATE SKIP LOCKED，多个节点并发领取互不阻塞
+ * - 领取后持有租约，执行期间由工作线程定期续期；节点失联时租约到期，任务重新回到待执行状态
+ * - 结果回写时校验执行节点，已被回收的任务不会被旧节点覆盖
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatJobServiceImpl implements IChatJobService {
+
+    /**
+     * 可重试的错误码（限流、上游故障、超时、熔断）
+     */
+    private static final Set<Integer> RETRYABLE_CODES = Set.of(429, 500, 502, 503, 504);
+
+    /**
+     * 错误信息最大长度（与表字段一致）
+     */
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 1000;
+
+    /**
+     * 订阅结束时间相对异步请求超时的提前量
+     */
+    private static final Duration WATCH_TIMEOUT_MARGIN = Duration.ofSeconds(5);
+
+    private final ChatJobMapper chatJobMapper;
+    private final ChatJobProperties chatJobProperties;
+    private final JsonUtils jsonUtils;
+    private final WebMvcProperties webMvcProperties;
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public ChatJobDTO submitJob(ChatRequest request, boolean withTools) {
+        ChatJobPO job = ChatJobPO.builder()
+                .agentId(request.getAgentId())
+                .withTools(withTools)
+                .status(ChatJobStatusEnum.PENDING.getCode())
+                .requestJson(jsonUtils.toJson(request))
+                .maxAttempts(chatJobProperties.getMaxAttempts())
+                .build();
+
+        chatJobMapper.insert(job);
+        log.info("异步对话任务已提交，任务ID: {}, AgentID: {}, 工具调用: {}", job.getId(), request.getAgentId(), withTools);
+
+        // 重新查询以获取数据库生成的默认值
+        return convertToDTO(chatJobMapper.selectById(job.getId()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ChatJobDTO getJob(Long jobId) {
+        ChatJobPO job = chatJobMapper.selectById(jobId);
+        if (job == null) {
+            throw new ZhipuApiException(404, "任务不存在，ID: " + jobId);
+        }
+        return convertToDTO(job);
+    }
+
+    @Override
+    public Flux<ServerSentEvent<ChatJobDTO>> watchJob(Long jobId) {
+        // 立即查询一次，任务不存在时直接返回 404
+        ChatJobDTO initial = getJob(jobId);
+
+        return Flux.interval(Duration.ofMillis(chatJobProperties.getWatchIntervalMs()))
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.fromCallable(() -> getJob(jobId)).subscribeOn(Schedulers.boundedElastic()))
+                .startWith(initial)
+                .distinctUntilChanged(job -> job.getStatus() + ":" + job.getAttempts())
+                .takeUntil(job -> isTerminal(job.getStatus()))
+                .take(watchTimeout())
+                .map(job -> ServerSentEvent.builder(job)
+                        .id(String.valueOf(job.getId()))
+                        .event(job.getStatus())
+                        .build());
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public List<ChatJobPO> claimJobs(String workerId, int limit) {
+        List<Long> ids = chatJobMapper.lockClaimableIds(limit);
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        chatJobMapper.markRunning(ids, workerId, chatJobProperties.getLeaseSeconds());
+        log.debug("领取异步对话任务，执行节点: {}, 任务ID: {}", workerId, ids);
+        return chatJobMapper.selectBatchIds(ids);
+    }
+
+    @Override
+    public int renewLeases(List<Long> jobIds, String workerId) {
+        if (jobIds.isEmpty()) {
+            return 0;
+        }
+        int renewed = chatJobMapper.renewLeases(jobIds, workerId, chatJobProperties.getLeaseSeconds());
+        if (renewed < jobIds.size()) {
+            log.warn("部分任务租约续期失败（已被回收或已结束），执行节点: {}, 任务数: {}, 续期数: {}",
+                    workerId, jobIds.size(), renewed);
+        }
+        return renewed;
+    }
+
+    @Override
+    public void releaseJob(ChatJobPO job, String workerId) {
+        int updated = chatJobMapper.requeue(job.getId(), workerId, null, "执行节点关闭，任务重新排队", 0);
+        if (updated > 0) {
+            log.info("节点关闭，任务已放回队列，任务ID: {}, 执行节点: {}", job.getId(), workerId);
+        }
+    }
+
+    @Override
+    public void completeJob(ChatJobPO job, String workerId, ChatResponse response) {
+        int updated = chatJobMapper.markSucceeded(job.getId(), workerId, jsonUtils.toJson(response));
+        if (updated == 0) {
+            log.warn("任务已不由当前节点持有，丢弃执行结果，任务ID: {}, 执行节点: {}", job.getId(), workerId);
+            return;
+        }
+        log.info("异步对话任务执行成功，任务ID: {}, 第 {} 次执行", job.getId(), job.getAttempts());
+    }
+
+    @Override
+    public void failJob(ChatJobPO job, String workerId, Throwable error) {
+        int code = error instanceof ZhipuApiException apiException && apiException.getCode() != null
+                ? apiException.getCode()
+                : error instanceof IllegalArgumentException ? 400 : 500;
+        String message = truncate(error.getMessage());
+        boolean retry = RETRYABLE_CODES.contains(code) && job.getAttempts() < job.getMaxAttempts();
+
+        int updated = retry
+                ? chatJobMapper.requeue(job.getId(), workerId, code, message, chatJobProperties.getRetryDelaySeconds())
+                : chatJobMapper.markFailed(job.getId(), workerId, code, message);
+        if (updated == 0) {
+            log.warn("任务已不由当前节点持有，丢弃执行结果，任务ID: {}, 执行节点: {}", job.getId(), workerId);
+            return;
+        }
+
+        if (retry) {
+            log.warn("异步对话任务执行失败，{} 秒后重试，任务ID: {}, 第 {}/{} 次执行, 错误: {}",
+                    chatJobProperties.getRetryDelaySeconds(), job.getId(), job.getAttempts(), job.getMaxAttempts(), message);
+        } else {
+            log.error("异步对话任务执行失败，任务ID: {}, 第 {} 次执行, 错误: {}", job.getId(), job.getAttempts(), message);
+        }
+    }
+
+    @Override
+    public int recoverExpiredJobs() {
+        int requeued = chatJobMapper.requeueExpiredLeases();
+        int failed = chatJobMapper.failExpiredLeases("执行节点失联且重试次数已用尽");
+        if (requeued > 0 || failed > 0) {
+            log.warn("回收执行租约已到期的任务，重新排队: {}, 标记失败: {}", requeued, failed);
+        }
+        return requeued + failed;
+    }
+
+    /**
+     * 将任务实体转换为 DTO
+     *
+     * @param job 任务实体
+     * @return 任务 DTO
+     */
+    private ChatJobDTO convertToDTO(ChatJobPO job) {
+        return ChatJobDTO.builder()
+                .id(job.getId())
+                .agentId(job.getAgentId())
+                .withTools(job.getWithTools())
+                .status(job.getStatus())
+                .attempts(job.getAttempts())
+                .result(jsonUtils.fromJson(job.getResultJson(), ChatResponse.class))
+                .errorCode(job.getErrorCode())
+                .errorMessage(job.getErrorMessage())
+                .createdAt(job.getCreatedAt())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .build();
+    }
+
+    /**
+     * 订阅的最长持续时间
+     * <p>
+     * 不超过 Spring MVC 的异步请求超时，在容器超时前正常结束事件流，客户端可按最后状态重新订阅
+     * </p>
+     *
+     * @return 最长持续时间
+     */
+    private Duration watchTimeout() {
+        Duration configured = Duration.ofSeconds(chatJobProperties.getWatchTimeoutSeconds());
+        Duration asyncTimeout = webMvcProperties.getAsync().getRequestTimeout();
+        if (asyncTimeout == null || asyncTimeout.compareTo(WATCH_TIMEOUT_MARGIN.multipliedBy(2)) <= 0) {
+            return configured;
+        }
+        Duration limit = asyncTimeout.minus(WATCH_TIMEOUT_MARGIN);
+        return configured.compareTo(limit) > 0 ? limit : configured;
+    }
+
+    private boolean isTerminal(String status) {
+        ChatJobStatusEnum value = ChatJobStatusEnum.fromCode(status);
+        return value != null && value.isTerminal();
+    }
+
+    private String truncate(String message) {
+        if (message == null || message.length() <= MAX_ERROR_MESSAGE_LENGTH) {
+            return message;
+        }
+        return message.substring(0, MAX_ERROR_MESSAGE_LENGTH);
+    }
+}
@@ -8,10 +8,15 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pox.com.piteagents.common.constant.MessageRole;
+import pox.com.piteagents.common.utils.PaginationUtils;
 import pox.com.piteagents.common.utils.StringConversionUtils;
 import pox.com.piteagents.entity.dto.common.Message;
 import pox.com.piteagents.entity.dto.response.ConversationMessageDTO;
 import pox.com.piteagents.entity.dto.response.ConversationSessionDTO;
+import pox.com.piteagents.entity.dto.response.CursorPage;
 import pox.com.piteagents.entity.po.AgentPO;
 import pox.com.piteagents.entity.po.ConversationMessagePO;
 import pox.com.piteagents.entity.po.ConversationSessionPO;
@@ -20,10 +25,18 @@ import pox.com.piteagents.mapper.AgentMapper;
 import pox.com.piteagents.mapper.ConversationMessageMapper;
 import pox.com.piteagents.mapper.ConversationSessionMapper;
 import pox.com.piteagents.service.IConversationService;
+import pox.com.piteagents.service.session.SessionCounterAggregator;
+import pox.com.piteagents.service.session.SessionHistoryCache;
+import pox.com.piteagents.service.summary.ConversationSummarizer;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -40,10 +53,16 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ConversationServiceImpl implements IConversationService {
 
+    private static final String DEFAULT_SESSION_TITLE = "新对话";
+
     private final ConversationSessionMapper sessionMapper;
     private final ConversationMessageMapper messageMapper;
     private final AgentMapper agentMapper;
     private final StringConversionUtils stringConversionUtils;
+    private final PaginationUtils paginationUtils;
+    private final ConversationSummarizer conversationSummarizer;
+    private final SessionCounterAggregator sessionCounterAggregator;
+    private final SessionHistoryCache sessionHistoryCache;
 
     @Override
     @Transactional(rollbackFor = Exception.class)
@@ -59,7 +78,7 @@ public class ConversationServiceImpl implements IConversationService {
         // 创建会话
         ConversationSessionPO session = ConversationSessionPO.builder()
                 .agentId(agentId)
-                .title(title != null ? title : "新对话")
+                .title(title != null ? title : DEFAULT_SESSION_TITLE)
                 .build();
 
         sessionMapper.insert(session);
@@ -94,41 +113,119 @@ public class ConversationServiceImpl implements IConversationService {
         messageMapper.insert(message);
         log.debug("消息保存成功，ID: {}", message.getId());
 
+        // 事务提交后累加会话计数、追加历史缓存，并在后台检查是否需要摘要，不阻塞当前请求
+        afterMessagesCommitted(sessionId, List.of(message));
+
         return convertMessageToDTO(message);
     }
 
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Set<Long> saveMessageBatch(List<ConversationMessagePO> messages, Set<Long> titleSessionIds) {
+        if (messages.isEmpty()) {
+            return Set.of();
+        }
+
+        // 整批只校验一次会话（逻辑删除的会话不会被查出）
+        Set<Long> sessionIds = messages.stream()
+                .map(ConversationMessagePO::getSessionId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        Set<Long> existing = sessionMapper.selectByIds(sessionIds).stream()
+                .map(ConversationSessionPO::getId)
+                .collect(Collectors.toSet());
+        Set<Long> missing = new HashSet<>(sessionIds);
+        missing.removeAll(existing);
+
+        List<ConversationMessagePO> rows = missing.isEmpty() ? messages : messages.stream()
+                .filter(m -> existing.contains(m.getSessionId()))
+                .collect(Collectors.toList());
+        if (!rows.isEmpty()) {
+            messageMapper.batchInsert(rows);
+        }
+
+        for (Long sessionId : titleSessionIds) {
+            if (!existing.contains(sessionId)) {
+                continue;
+            }
+            rows.stream()
+                    .filter(m -> sessionId.equals(m.getSessionId()) && MessageRole.USER.equals(m.getRole()))
+                    .findFirst()
+                    // 只更新仍是默认标题的会话
+                    .ifPresent(m -> sessionMapper.update(null, Wrappers.<ConversationSessionPO>lambdaUpdate()
+                            .set(ConversationSessionPO::getTitle, generateSessionTitle(m.getContent()))
+                            .eq(ConversationSessionPO::getId, sessionId)
+                            .eq(ConversationSessionPO::getTitle, DEFAULT_SESSION_TITLE)));
+        }
+
+        // 事务提交后按会话累加计数、追加历史缓存，并在后台检查是否需要摘要
+        rows.stream()
+                .collect(Collectors.groupingBy(ConversationMessagePO::getSessionId))
+                .forEach(this::afterMessagesCommitted);
+
+        log.debug("批量保存消息完成，消息数: {}, 会话数: {}, 跳过的会话: {}", rows.size(), existing.size(), missing);
+        return missing;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Message> getSessionHistory(Long sessionId, Integer limit) {
         log.debug("获取会话历史，会话ID: {}, 限制数量: {}", sessionId, limit);
 
-        // 验证会话是否存在
-        Long count = sessionMapper.selectCount(
-                Wrappers.<ConversationSessionPO>lambdaQuery().eq(ConversationSessionPO::getId, sessionId)
-        );
-        if (count == 0) {
+        // 活跃会话直接使用缓存的历史
+        SessionHistoryCache.HistorySnapshot cached = sessionHistoryCache.get(sessionId, limit);
+        if (cached != null) {
+            List<Message> history = new ArrayList<>(cached.messages().size() + 1);
+            addSummary(history, cached.watermark(), cached.summary());
+            for (SessionHistoryCache.CachedMessage m : cached.messages()) {
+                history.add(Message.builder()
+                        .role(m.role())
+                        .content(m.content())
+                        .build());
+            }
+            return history;
+        }
+        // 查库前取版本号，查库期间有写入时不放入缓存
+        long stamp = sessionHistoryCache.stamp(sessionId);
+
+        // 验证会话是否存在（同时读取摘要水位线）
+        ConversationSessionPO session = sessionMapper.selectById(sessionId);
+        if (session == null) {
             throw new ZhipuApiException(404, "会话不存在，ID: " + sessionId);
         }
+        Long watermark = session.getSummaryMessageId();
 
         List<ConversationMessagePO> messages;
+        boolean complete = true;
         if (limit != null && limit > 0) {
             // 获取最近的 N 条消息
             messages = messageMapper.selectRecentMessages(sessionId, limit);
-            // 反转顺序，按时间升序
+            // 不足 N 条或已读到水位线，说明取到了水位线之后的全部消息
+            complete = messages.size() < limit
+                    || messages.stream().anyMatch(m -> watermark != null && m.getId() <= watermark);
+            // 反转顺序，按写入顺序升序（同一轮的两条消息创建时间可能相同）；已折叠进摘要的消息不再返回
             messages = messages.stream()
-                    .sorted((m1, m2) -> m1.getCreatedAt().compareTo(m2.getCreatedAt()))
+                    .filter(m -> watermark == null || m.getId() > watermark)
+                    .sorted(Comparator.comparing(ConversationMessagePO::getId))
                     .collect(Collectors.toList());
+        } else if (watermark != null) {
+            // 获取水位线之后的消息
+            messages = messageMapper.selectAfterId(sessionId, watermark);
         } else {
             // 获取全部消息
             messages = messageMapper.selectBySessionId(sessionId);
         }
 
-        return messages.stream()
-                .map(m -> Message.builder()
-                        .role(m.getRole())
-                        .content(m.getContent())
-                        .build())
-                .collect(Collectors.toList());
+        sessionHistoryCache.put(sessionId, stamp, session.getSummary(), watermark, messages, complete);
+
+        List<Message> history = new ArrayList<>(messages.size() + 1);
+        addSummary(history, watermark, session.getSummary());
+        for (ConversationMessagePO m : messages) {
+            history.add(Message.builder()
+                    .role(m.getRole())
+                    .content(m.getContent())
+                    .build());
+        }
+        return history;
     }
 
     @Override
@@ -181,6 +278,41 @@ public class ConversationServiceImpl implements IConversationService {
         return resultPage;
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<ConversationSessionDTO> listSessionsByCursor(Long agentId, String cursor, int size, boolean withTotal) {
+        log.info("按游标查询会话列表，Agent ID: {}, 每页: {}", agentId, size);
+
+        PaginationUtils.SeekKey seek = paginationUtils.decodeCursor(cursor);
+        // 多取一条判断是否还有下一页
+        List<ConversationSessionPO> sessions = sessionMapper.selectSessionsBySeek(agentId,
+                seek != null ? seek.sortValue() : null, seek != null ? seek.id() : null, size + 1);
+        boolean hasMore = sessions.size() > size;
+        if (hasMore) {
+            sessions = sessions.subList(0, size);
+        }
+
+        Long total = null;
+        if (withTotal) {
+            LambdaQueryWrapper<ConversationSessionPO> queryWrapper = Wrappers.lambdaQuery();
+            if (agentId != null) {
+                queryWrapper.eq(ConversationSessionPO::getAgentId, agentId);
+            }
+            total = sessionMapper.selectCount(queryWrapper);
+        }
+
+        ConversationSessionPO last = sessions.isEmpty() ? null : sessions.get(sessions.size() - 1);
+        return CursorPage.<ConversationSessionDTO>builder()
+                .records(sessions.stream()
+                        .map(session -> convertSessionToDTO(session, session.getAgentName()))
+                        .collect(Collectors.toList()))
+                .size(size)
+                .hasMore(hasMore)
+                .nextCursor(hasMore ? paginationUtils.encodeCursor(last.getUpdatedAt(), last.getId()) : null)
+                .total(total)
+                .build();
+    }
+
     @Override
     @Transactional(readOnly = true)
     public ConversationSessionDTO getSession(Long sessionId) {
@@ -237,6 +369,47 @@ public class ConversationServiceImpl implements IConversationService {
         return resultPage;
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<ConversationMessageDTO> getSessionMessagesByCursor(Long sessionId, String cursor, int size,
+                                                                         boolean descending, boolean withTotal) {
+        log.info("按游标查询会话消息，会话ID: {}, 每页: {}, 倒序: {}", sessionId, size, descending);
+
+        // 验证会话是否存在
+        Long count = sessionMapper.selectCount(
+                Wrappers.<ConversationSessionPO>lambdaQuery().eq(ConversationSessionPO::getId, sessionId)
+        );
+        if (count == 0) {
+            throw new ZhipuApiException(404, "会话不存在，ID: " + sessionId);
+        }
+
+        PaginationUtils.SeekKey seek = paginationUtils.decodeCursor(cursor);
+        // 多取一条判断是否还有下一页
+        List<ConversationMessagePO> messages = messageMapper.selectMessagesBySeek(sessionId,
+                seek != null ? seek.sortValue() : null, seek != null ? seek.id() : null, descending, size + 1);
+        boolean hasMore = messages.size() > size;
+        if (hasMore) {
+            messages = messages.subList(0, size);
+        }
+
+        Long total = null;
+        if (withTotal) {
+            total = messageMapper.selectCount(
+                    Wrappers.<ConversationMessagePO>lambdaQuery().eq(ConversationMessagePO::getSessionId, sessionId));
+        }
+
+        ConversationMessagePO last = messages.isEmpty() ? null : messages.get(messages.size() - 1);
+        return CursorPage.<ConversationMessageDTO>builder()
+                .records(messages.stream()
+                        .map(this::convertMessageToDTO)
+                        .collect(Collectors.toList()))
+                .size(size)
+                .hasMore(hasMore)
+                .nextCursor(hasMore ? paginationUtils.encodeCursor(last.getCreatedAt(), last.getId()) : null)
+                .total(total)
+                .build();
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public void deleteSession(Long sessionId) {
@@ -249,6 +422,7 @@ public class ConversationServiceImpl implements IConversationService {
 
         // MyBatis-Plus 会自动执行逻辑删除
         sessionMapper.deleteById(sessionId);
+        runAfterCommit(() -> sessionHistoryCache.invalidate(sessionId));
         log.info("会话删除成功");
     }
 
@@ -270,13 +444,65 @@ public class ConversationServiceImpl implements IConversationService {
     @Override
     public String generateSessionTitle(String content) {
         if (stringConversionUtils.isBlank(content)) {
-            return "新对话";
+            return DEFAULT_SESSION_TITLE;
         }
 
         // 取前 30 个字符作为标题
         return stringConversionUtils.truncate(content.trim(), 30);
     }
 
+    /**
+     * 较早的对话以摘要形式放在历史最前面
+     *
+     * @param history 历史消息
+     * @param watermark 摘要水位线
+     * @param summary 会话摘要
+     */
+    private void addSummary(List<Message> history, Long watermark, String summary) {
+        if (watermark != null && !stringConversionUtils.isBlank(summary)) {
+            history.add(Message.builder()
+                    .role("system")
+                    .content("以下是此前对话的摘要：\n" + summary)
+                    .build());
+        }
+    }
+
+    /**
+     * 在当前事务提交后累加会话计数、追加历史缓存并请求会话摘要
+     * <p>
+     * 回滚的消息不能计入会话计数或进入缓存，摘要需要读取刚写入的消息，都必须等事务提交。
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @param messages 新写入的消息
+     */
+    private void afterMessagesCommitted(Long sessionId, List<ConversationMessagePO> messages) {
+        long tokens = messages.stream().mapToLong(ConversationMessagePO::getTotalTokens).sum();
+        runAfterCommit(() -> {
+            sessionCounterAggregator.record(sessionId, messages.size(), tokens);
+            sessionHistoryCache.append(sessionId, messages);
+            conversationSummarizer.requestSummary(sessionId);
+        });
+    }
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     *
+     * @param action 要执行的操作
+     */
+    private void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
     /**
      * 将会话实体转换为 DTO
      *
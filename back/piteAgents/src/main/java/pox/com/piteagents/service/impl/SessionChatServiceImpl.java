@@ -0,0 +1,182 @@
+package pox.com.piteagents.service.impl;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import pox.com.piteagents.common.enums.AgentStatusEnum;
+import pox.com.piteagents.config.SessionChatProperties;
+import pox.com.piteagents.entity.dto.common.Message;
+import pox.com.piteagents.entity.dto.common.TokenUsage;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.request.SessionChatRequest;
+import pox.com.piteagents.entity.dto.response.AgentConfigDTO;
+import pox.com.piteagents.entity.dto.response.AgentDTO;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.dto.response.ConversationSessionDTO;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IAgentService;
+import pox.com.piteagents.service.IConversationService;
+import pox.com.piteagents.service.ISessionChatService;
+import pox.com.piteagents.service.IZhipuService;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
+import pox.com.piteagents.service.session.SessionMessageWriter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 会话对话服务实现类
+ * <p>
+ * 请求的组装顺序：
+ * - Agent 的系统提示词和角色提示词合并为第一条 system 消息
+ * - 会话历史（已生成摘要时为摘要 + 水位线之后的消息）
+ * - 本轮的用户消息
+ * 模型参数以 Agent 配置为准，请求中指定的字段覆盖 Agent 配置。
+ * </p>
+ * <p>
+ * 加载历史是读操作，在请求线程上完成；本轮消息的写入交给 {@link SessionMessageWriter}，
+ * 同步接口在提交后立即返回，流式接口在流结束后提交，用户不等待数据库写入。
+ * 加载历史前先等待同一会话上一轮尚未完成的写入，连续的两轮对话不会丢失上一轮的上下文。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SessionChatServiceImpl implements ISessionChatService {
+
+    private final IConversationService conversationService;
+    private final IAgentService agentService;
+    private final IZhipuService zhipuService;
+    private final SessionMessageWriter sessionMessageWriter;
+    private final GlmTokenEstimator glmTokenEstimator;
+    private final SessionChatProperties sessionChatProperties;
+
+    @Override
+    public ChatResponse chat(Long sessionId, SessionChatRequest request) {
+        PreparedTurn turn = prepareTurn(sessionId, request, false);
+
+        ChatResponse response = zhipuService.chat(turn.request());
+
+        TokenUsage usage = response.getUsage();
+        sessionMessageWriter.submitTurn(sessionId, request.getContent(), response.getContent(),
+                usage != null ? usage.getPromptTokens() : null,
+                usage != null ? usage.getCompletionTokens() : null,
+                turn.firstTurn());
+        return response;
+    }
+
+    @Override
+    public Flux<ServerSentEvent<StreamChatResponse>> streamChat(Long sessionId, SessionChatRequest request) {
+        PreparedTurn turn = prepareTurn(sessionId, request, true);
+
+        StringBuilder content = new StringBuilder();
+        AtomicReference<TokenUsage> usage = new AtomicReference<>();
+        return zhipuService.streamChatReactive(turn.request(), usage::set)
+                .doOnNext(event -> {
+                    StreamChatResponse data = event.data();
+                    if (data != null && data.getDelta() != null) {
+                        content.append(data.getDelta());
+                    }
+                })
+                // 最后一帧已发出后再提交写入；中途断开或失败的轮次不写入。
+                // 写入队列满时提交会等待，切换到可阻塞的线程上提交，不占用 Reactor 的非阻塞线程
+                .concatWith(Mono.<ServerSentEvent<StreamChatResponse>>fromRunnable(() -> {
+                    TokenUsage resolved = usage.get() != null ? usage.get()
+                            : estimateUsage(turn.request().getMessages(), content);
+                    sessionMessageWriter.submitTurn(sessionId, request.getContent(), content.toString(),
+                            resolved.getPromptTokens(), resolved.getCompletionTokens(), turn.firstTurn());
+                }).subscribeOn(Schedulers.boundedElastic()))
+                .doFinally(signal -> {
+                    if (signal != SignalType.ON_COMPLETE) {
+                        log.info("会话流式对话未正常结束，不保存本轮消息，会话ID: {}, 信号: {}", sessionId, signal);
+                    }
+                });
+    }
+
+    /**
+     * 组装对话请求
+     *
+     * @param sessionId 会话 ID
+     * @param request 会话对话请求
+     * @param stream 是否流式
+     * @return 对话请求及是否为第一轮对话
+     */
+    private PreparedTurn prepareTurn(Long sessionId, SessionChatRequest request, boolean stream) {
+        ConversationSessionDTO session = conversationService.getSession(sessionId);
+        AgentDTO agent = agentService.getAgent(session.getAgentId());
+        if (!AgentStatusEnum.ACTIVE.getCode().equals(agent.getStatus())) {
+            throw new ZhipuApiException(409, "Agent 未激活，无法对话，Agent ID: " + agent.getId());
+        }
+
+        // 上一轮的消息可能仍在写入队列中，等它写入后再加载历史
+        sessionMessageWriter.awaitPending(sessionId, sessionChatProperties.getPendingTurnWaitMs());
+        int historyLimit = sessionChatProperties.getHistoryLimit();
+        List<Message> history = conversationService.getSessionHistory(sessionId, historyLimit > 0 ? historyLimit : null);
+
+        List<Message> messages = new ArrayList<>(history.size() + 2);
+        String systemPrompt = joinPrompts(agent.getSystemPrompt(), agent.getRolePrompt());
+        if (systemPrompt != null) {
+            messages.add(Message.system(systemPrompt));
+        }
+        messages.addAll(history);
+        messages.add(Message.user(request.getContent()));
+
+        AgentConfigDTO config = agent.getConfig() != null ? agent.getConfig() : new AgentConfigDTO();
+        log.info("会话对话，会话ID: {}, Agent ID: {}, 历史消息数: {}", sessionId, agent.getId(), history.size());
+
+        ChatRequest chatRequest = ChatRequest.builder()
+                .agentId(agent.getId())
+                .messages(messages)
+                .model(request.getModel() != null ? request.getModel() : config.getModel())
+                .temperature(request.getTemperature() != null ? request.getTemperature() : config.getTemperature())
+                .maxTokens(request.getMaxTokens() != null ? request.getMaxTokens() : config.getMaxTokens())
+                .topP(request.getTopP() != null ? request.getTopP() : config.getTopP())
+                .stream(stream)
+                .coalesce(request.getCoalesce())
+                .build();
+        return new PreparedTurn(chatRequest, history.isEmpty());
+    }
+
+    /**
+     * 合并系统提示词和角色提示词
+     *
+     * @return 合并后的提示词，两者都为空时返回 null
+     */
+    private String joinPrompts(String systemPrompt, String rolePrompt) {
+        boolean hasSystem = systemPrompt != null && !systemPrompt.isBlank();
+        boolean hasRole = rolePrompt != null && !rolePrompt.isBlank();
+        if (hasSystem && hasRole) {
+            return systemPrompt.trim() + "\n\n" + rolePrompt.trim();
+        }
+        if (hasSystem) {
+            return systemPrompt.trim();
+        }
+        return hasRole ? rolePrompt.trim() : null;
+    }
+
+    /**
+     * 上游未返回用量时按本地估算值记录
+     */
+    private TokenUsage estimateUsage(List<Message> messages, CharSequence content) {
+        return TokenUsage.of(glmTokenEstimator.estimateMessages(messages), glmTokenEstimator.estimateText(content));
+    }
+
+    /**
+     * 组装好的对话请求
+     *
+     * @param request   对话请求
+     * @param firstTurn 是否为会话的第一轮对话
+     */
+    private record PreparedTurn(ChatRequest request, boolean firstTurn) {
+    }
+}
@@ -1,29 +1,63 @@
 package pox.com.piteagents.service.impl;
 
-import ai.z.openapi.ZhipuAiClient;
 import ai.z.openapi.service.model.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pox.com.piteagents.common.utils.JsonUtils;
 import pox.com.piteagents.common.utils.ToolCallPropertyExtractor;
+import pox.com.piteagents.config.BatchProperties;
 import pox.com.piteagents.config.ZhipuConfig;
 import pox.com.piteagents.common.constant.FinishReason;
+import pox.com.piteagents.common.constant.StreamEventType;
 import pox.com.piteagents.entity.dto.common.Message;
 import pox.com.piteagents.entity.dto.common.TokenUsage;
+import pox.com.piteagents.entity.dto.request.BatchChatRequest;
 import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.BatchChatResult;
 import pox.com.piteagents.entity.dto.response.ChatResponse;
 import pox.com.piteagents.entity.dto.response.StreamChatResponse;
 import pox.com.piteagents.common.enums.ZhipuModelEnum;
 import pox.com.piteagents.entity.dto.response.ToolCallRecord;
 import pox.com.piteagents.exception.ZhipuApiException;
 import pox.com.piteagents.service.IZhipuService;
+import pox.com.piteagents.service.cache.ChatResponseCache;
+import pox.com.piteagents.service.context.ContextBudgeter;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
 import pox.com.piteagents.service.functiontool.FunctionToolExecutor;
+import pox.com.piteagents.service.functiontool.StreamingToolCallAssembler;
+import pox.com.piteagents.service.singleflight.ChatSingleFlight;
+import pox.com.piteagents.service.streaming.EmitterFrameSubscriber;
+import pox.com.piteagents.service.streaming.SseFrame;
+import pox.com.piteagents.service.streaming.SseFrameEncoder;
+import pox.com.piteagents.service.streaming.StreamCancellationTracker;
+import pox.com.piteagents.service.streaming.StreamCoalescer;
+import pox.com.piteagents.service.streaming.StreamDispatcher;
+import pox.com.piteagents.service.streaming.StreamMetrics;
+import pox.com.piteagents.service.streaming.StreamReplayBuffer;
+import pox.com.piteagents.service.upstream.HedgedChatExecutor;
+import pox.com.piteagents.service.upstream.TokenQuotaManager;
+import pox.com.piteagents.service.upstream.UpstreamGateway;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -41,11 +75,6 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ZhipuServiceImpl implements IZhipuService {
 
-    /**
-     * 智谱AI客户端
-     */
-    private final ZhipuAiClient zhipuAiClient;
-
     /**
      * 智谱AI配置
      */
@@ -61,8 +90,92 @@ public class ZhipuServiceImpl implements IZhipuService {
      */
     private final ToolCallPropertyExtractor toolCallPropertyExtractor;
 
+    /**
+     * 流式请求调度器
+     */
+    private final StreamDispatcher streamDispatcher;
+
+    /**
+     * 流式增量合并器
+     */
+    private final StreamCoalescer streamCoalescer;
+
+    /**
+     * JSON 工具
+     */
+    private final JsonUtils jsonUtils;
+
+    /**
+     * 流式请求取消跟踪器
+     */
+    private final StreamCancellationTracker streamCancellationTracker;
+
+    /**
+     * 流式响应重放缓冲区
+     */
+    private final StreamReplayBuffer streamReplayBuffer;
+
+    /**
+     * 对话请求合并器
+     */
+    private final ChatSingleFlight chatSingleFlight;
+
+    /**
+     * 对话响应缓存
+     */
+    private final ChatResponseCache chatResponseCache;
+
+    /**
+     * 上游调用网关
+     */
+    private final UpstreamGateway upstreamGateway;
+
+    /**
+     * 调用配额管理器
+     */
+    private final TokenQuotaManager tokenQuotaManager;
+
+    /**
+     * 对冲请求执行器
+     */
+    private final HedgedChatExecutor hedgedChatExecutor;
+
+    /**
+     * 批量对话配置
+     */
+    private final BatchProperties batchProperties;
+
+    /**
+     * 上下文预算器
+     */
+    private final ContextBudgeter contextBudgeter;
+
+    /**
+     * Token 估算器
+     */
+    private final GlmTokenEstimator glmTokenEstimator;
+
+    /**
+     * 流式对话延迟指标
+     */
+    private final StreamMetrics streamMetrics;
+
     @Override
     public ChatResponse chat(ChatRequest request) {
+        // 开启缓存的 Agent 优先返回缓存；未命中时，相同的请求正在进行则共享同一次调用
+        return chatResponseCache.getOrLoad(request,
+                () -> chatSingleFlight.execute(request, () -> doChat(request)));
+    }
+
+    /**
+     * 执行同步对话调用
+     *
+     * @param request 对话请求对象
+     * @return 对话响应对象
+     */
+    private ChatResponse doChat(ChatRequest request) {
+        // 缓存命中和合并的请求不占用配额，只有真正调用上游时才申请
+        TokenQuotaManager.QuotaTicket ticket = tokenQuotaManager.admit(request);
         try {
             // 记录请求日志
             log.info("开始同步对话请求，模型: {}, 消息数: {}",
@@ -72,13 +185,9 @@ public class ZhipuServiceImpl implements IZhipuService {
             // 构建API请求参数
             ChatCompletionCreateParams apiRequest = buildChatRequest(request, false);
 
-            // 调用智谱AI SDK
-            ChatCompletionResponse apiResponse = zhipuAiClient.chat().createChatCompletion(apiRequest);
-
-            // 检查响应是否成功
-            if (!apiResponse.isSuccess()) {
-                throw new ZhipuApiException(500, "智谱AI API调用失败: " + apiResponse.getMsg());
-            }
+            // 经上游网关调用智谱AI SDK（失败响应由网关转换为异常），启用对冲时响应过慢会再发一次请求
+            ChatCompletionResponse apiResponse = hedgedChatExecutor.complete(apiRequest, request);
+            ticket.record(apiResponse.getData().getUsage());
 
             // 转换响应
             ChatResponse response = convertResponse(apiResponse);
@@ -98,6 +207,8 @@ public class ZhipuServiceImpl implements IZhipuService {
             log.error("同步对话失败: {}", e.getMessage(), e);
             // 抛出业务异常
             throw new ZhipuApiException("智谱AI对话调用失败: " + e.getMessage(), e);
+        } finally {
+            ticket.settle();
         }
     }
 
@@ -105,99 +216,335 @@ public class ZhipuServiceImpl implements IZhipuService {
     public SseEmitter streamChat(ChatRequest request) {
         // 创建SSE发射器，设置超时时间
         SseEmitter emitter = new SseEmitter(Long.valueOf(zhipuConfig.getTimeout() * 1000));
+        EmitterFrameSubscriber subscriber = new EmitterFrameSubscriber(emitter);
+
+        // 所有帧写入重放流，由重放流推送给原始连接、合并的相同请求和续传的连接。
+        // 所有订阅者都断开后：尚未推送任何帧时立即取消上游，否则等待重连宽限期
+        StreamCancellationTracker.StreamGuard guard = openStreamGuard(request);
+        StreamReplayBuffer.ReplayStream candidate = streamReplayBuffer.create(() -> guard.cancel("所有客户端已断开"));
+
+        // 相同的请求正在生成时直接加入，先收到已生成的前缀，再接收后续内容；
+        // 已生成的前缀不可用时（未保留或已被淘汰）独立发起调用，不登记合并
+        String registeredKey = chatSingleFlight.streamKey(request);
+        StreamReplayBuffer.ReplayStream shared = chatSingleFlight.joinOrRegisterStream(registeredKey, candidate);
+        if (shared != candidate) {
+            if (shared.attach(subscriber, -1) == StreamReplayBuffer.AttachResult.ATTACHED) {
+                bindClientDisconnect(emitter, reason -> shared.detach(subscriber));
+                return emitter;
+            }
+            registeredKey = null;
+        }
+        String flightKey = registeredKey;
+        StreamReplayBuffer.ReplayStream stream = candidate;
 
-        // 异步处理流式响应
-        new Thread(() -> {
-            try {
-                // 记录请求日志
-                log.info("开始流式对话请求，模型: {}, 消息数: {}",
-                        request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel(),
-                        request.getMessages().size());
+        // 配额无法补足时在请求线程上直接拒绝，不进入调度队列；需要短暂等待时由工作线程等待。
+        // 拒绝时已加入的相同请求收到同样的错误
+        CompletableFuture<TokenQuotaManager.QuotaTicket> admission;
+        try {
+            admission = tokenQuotaManager.admitEagerly(request);
+        } catch (ZhipuApiException e) {
+            stream.fail(e);
+            chatSingleFlight.releaseStream(flightKey, stream);
+            throw e;
+        }
+        StreamMetrics.StreamRecorder recorder = streamMetrics.start("stream", request);
+
+        // 流结束信号，用于释放调度器的工作线程
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        stream.attach(subscriber, -1);
+        bindClientDisconnect(emitter, reason -> stream.detach(subscriber));
 
-                // 构建API请求参数（开启流式模式）
-                ChatCompletionCreateParams apiRequest = buildChatRequest(request, true);
+        // 流结束时通知所有订阅者并取消合并登记
+        Consumer<Throwable> finish = error -> {
+            if (error == null) {
+                stream.complete();
+            } else {
+                guard.fail();
+                stream.fail(error);
+            }
+            chatSingleFlight.releaseStream(flightKey, stream);
+            admission.thenAccept(TokenQuotaManager.QuotaTicket::settle);
+            recorder.finish(StreamMetrics.outcomeOf(error));
+            done.complete(null);
+        };
 
-                // 调用智谱AI SDK流式接口
-                ChatCompletionResponse response = zhipuAiClient.chat().createChatCompletion(apiRequest);
+        // 交给流式调度器异步处理
+        try {
+            streamDispatcher.submit("stream-chat", emitter.getTimeout(), () -> {
+                recorder.dispatched();
+                try {
+                    // 排队期间客户端已断开，不再调用上游
+                    if (guard.isCancelled()) {
+                        finish.accept(new ZhipuApiException(410, "客户端已断开"));
+                        return done;
+                    }
+                    TokenQuotaManager.QuotaTicket ticket = awaitTicket(admission);
+
+                    // 记录请求日志
+                    log.info("开始流式对话请求，模型: {}, 消息数: {}",
+                            request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel(),
+                            request.getMessages().size());
+
+                    // 构建API请求参数（开启流式模式）
+                    ChatCompletionCreateParams apiRequest = buildChatRequest(request, true);
+
+                    // 订阅流式数据（按请求设置合并增量）
+                    // 经上游网关调用智谱AI SDK流式接口，订阅时在当前工作线程上等待并发许可
+                    SseFrameEncoder frameEncoder = new SseFrameEncoder();
+                    Flux<StreamChatResponse> deltas = upstreamGateway.stream(apiRequest)
+                            .takeUntilOther(guard.cancelled())
+                            .doOnNext(guard::onData)
+                            .doOnNext(ticket::onData)
+                            .doOnNext(recorder::onData)
+                            .concatMapIterable(this::toStreamResponses);
+                    streamCoalescer.coalesce(deltas, isCoalesceEnabled(request)).subscribe(
+                            // 处理流式消息数据
+                            streamResponse -> {
+                                // 第一帧到达后响应ID已知，登记后可通过 Last-Event-ID 续传
+                                if (stream.nextSeq() == 0) {
+                                    streamReplayBuffer.register(streamResponse.getId(), stream);
+                                }
+                                // 编码带序号的 SSE 数据帧，写入重放流并推送给所有订阅者
+                                SseFrame frame = frameEncoder.encode(streamResponse, stream.nextSeq());
+                                recorder.onBytes(frame.length());
+                                stream.append(frame);
+                                log.debug("发送流式数据块: {}", streamResponse.getDelta());
+                            },
+                            // 处理流式响应错误
+                            error -> {
+                                log.error("流式对话发生错误: {}", error.getMessage(), error);
+                                finish.accept(error);
+                            },
+                            // 处理流式响应完成事件
+                            () -> {
+                                guard.complete();
+                                log.info("流式对话流完成");
+                                finish.accept(guard.isCancelled()
+                                        ? new ZhipuApiException(410, "生成已取消，请重新发起请求") : null);
+                            }
+                    );
 
-                // 检查响应是否成功
-                if (!response.isSuccess()) {
-                    throw new ZhipuApiException(500, "智谱AI流式调用失败: " + response.getMsg());
+                } catch (ZhipuApiException e) {
+                    finish.accept(e);
+                } catch (Exception e) {
+                    log.error("流式对话失败: {}", e.getMessage(), e);
+                    finish.accept(new ZhipuApiException("智谱AI流式对话调用失败: " + e.getMessage(), e));
                 }
+                return done;
+            }, finish);
+        } catch (ZhipuApiException e) {
+            finish.accept(e);
+            throw e;
+        }
 
-                // 订阅流式数据
-                response.getFlowable().subscribe(
-                        // 处理流式消息数据
-                        data -> {
-                            try {
-                                String responseId = data.getId();
-                                String model = data.getModel();
-
-                                // 获取增量内容
-                                if (data.getChoices() != null && !data.getChoices().isEmpty()) {
-                                    var choice = data.getChoices().get(0);
-                                    var delta = choice.getDelta();
-
-                                    String content = null;
-                                    if (delta != null && delta.getContent() != null) {
-                                        content = String.valueOf(delta.getContent());
-                                    }
+        return emitter;
+    }
 
-                                    if (content != null && !content.isEmpty()) {
-                                        // 构建流式响应对象
-                                        StreamChatResponse streamResponse = StreamChatResponse.chunk(
-                                                responseId,
-                                                model,
-                                                content
-                                        );
+    /**
+     * 续传流式对话
+     * <p>
+     * 补发 lastEventId 之后的数据帧，然后继续推送仍在生成中的内容。
+     * 原始连接断开后，生成会在宽限期内继续进行，等待客户端重连。
+     * </p>
+     *
+     * @param responseId  响应ID（数据帧中的 id 字段）
+     * @param lastEventId 客户端最后收到的帧序号（Last-Event-ID），为 null 时从头补发
+     * @return SSE发射器
+     */
+    @Override
+    public SseEmitter resumeStream(String responseId, Long lastEventId) {
+        StreamReplayBuffer.ReplayStream stream = streamReplayBuffer.get(responseId);
+        if (stream == null) {
+            throw new ZhipuApiException(404, "流式响应不存在或已过期: " + responseId);
+        }
 
-                                        // 发送数据块 - 使用正确的 SSE 格式
-                                        emitter.send(SseEmitter.event()
-                                                .data(streamResponse, MediaType.APPLICATION_JSON)
-                                                .build());
+        SseEmitter emitter = new SseEmitter(Long.valueOf(zhipuConfig.getTimeout() * 1000));
+        EmitterFrameSubscriber subscriber = new EmitterFrameSubscriber(emitter);
+        bindClientDisconnect(emitter, reason -> stream.detach(subscriber));
 
-                                        log.debug("发送流式数据块: {}", content);
-                                    }
+        StreamReplayBuffer.AttachResult result = stream.attach(subscriber, lastEventId != null ? lastEventId : -1);
+        if (result == StreamReplayBuffer.AttachResult.GAP) {
+            throw new ZhipuApiException(410, "部分数据已过期，无法续传，请重新发起请求");
+        }
 
-                                    // 如果是最后一个块，发送结束标记
-                                    if (choice.getFinishReason() != null && FinishReason.STOP.equals(choice.getFinishReason())) {
-                                        StreamChatResponse endResponse = StreamChatResponse.end(
-                                                responseId,
-                                                model,
-                                                choice.getFinishReason()
-                                        );
-                                        emitter.send(SseEmitter.event()
-                                                .data(endResponse, MediaType.APPLICATION_JSON)
-                                                .build());
-                                        log.info("流式对话完成，响应ID: {}", responseId);
-                                    }
-                                }
-                            } catch (IOException e) {
-                                log.error("发送SSE数据失败: {}", e.getMessage());
-                                emitter.completeWithError(e);
-                            }
-                        },
-                        // 处理流式响应错误
-                        error -> {
-                            log.error("流式对话发生错误: {}", error.getMessage(), error);
-                            emitter.completeWithError(error);
-                        },
-                        // 处理流式响应完成事件
-                        () -> {
-                            emitter.complete();
-                            log.info("流式对话流完成");
-                        }
-                );
+        log.info("客户端续传流式对话，响应ID: {}, Last-Event-ID: {}", responseId, lastEventId);
+        return emitter;
+    }
 
-            } catch (Exception e) {
-                log.error("流式对话失败: {}", e.getMessage(), e);
-                emitter.completeWithError(new ZhipuApiException("智谱AI流式对话调用失败: " + e.getMessage(), e));
-            }
-        }).start();
+    @Override
+    public Flux<ServerSentEvent<StreamChatResponse>> streamChatReactive(ChatRequest request) {
+        return streamChatReactive(request, usage -> { });
+    }
+
+    @Override
+    public Flux<ServerSentEvent<StreamChatResponse>> streamChatReactive(ChatRequest request, Consumer<TokenUsage> usageListener) {
+        return Flux.defer(() -> {
+                    log.info("开始响应式流式对话请求，模型: {}, 消息数: {}",
+                            request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel(),
+                            request.getMessages().size());
+
+                    // 构建API请求参数（开启流式模式），SDK 在订阅时才真正发起 HTTP 请求
+                    ChatCompletionCreateParams apiRequest = buildChatRequest(request, true);
+
+                    // Flowable 实现了 Reactive Streams，直接桥接即可传递背压和取消信号，
+                    // 客户端断开时取消会一直传递到 SDK，由 SDK 关闭上游 HTTP 响应。
+                    // 配额需要短暂等待时由定时器延后，不占用线程
+                    return tokenQuotaManager.admitAsync(request).flatMapMany(ticket -> {
+                        StreamCancellationTracker.StreamGuard guard = openStreamGuard(request);
+                        StreamMetrics.StreamRecorder recorder = streamMetrics.start("reactive", request);
+                        recorder.dispatched();
+                        // 发起 SDK 调用会阻塞到上游返回响应头，不能在请求线程上订阅；
+                        // 并发许可异步获取，排队期间不占用 boundedElastic 线程
+                        return upstreamGateway.stream(apiRequest)
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .doOnNext(guard::onData)
+                                .doOnNext(ticket::onData)
+                                .doOnNext(recorder::onData)
+                                .doOnNext(data -> {
+                                    if (data.getUsage() != null) {
+                                        usageListener.accept(TokenUsage.of(data.getUsage().getPromptTokens(),
+                                                data.getUsage().getCompletionTokens(), data.getUsage().getTotalTokens()));
+                                    }
+                                })
+                                .doOnComplete(guard::complete)
+                                .doOnCancel(() -> guard.cancel("客户端取消"))
+                                .doFinally(signal -> {
+                                    ticket.settle();
+                                    recorder.finish(switch (signal) {
+                                        case ON_COMPLETE -> "completed";
+                                        case CANCEL -> "cancelled";
+                                        default -> "failed";
+                                    });
+                                });
+                    });
+                })
+                .concatMapIterable(this::toStreamResponses)
+                .transform(deltas -> streamCoalescer.coalesce(deltas, isCoalesceEnabled(request)))
+                .map(streamResponse -> ServerSentEvent.builder(streamResponse).build())
+                .doOnComplete(() -> log.info("响应式流式对话完成"))
+                .doOnCancel(() -> log.info("客户端取消响应式流式对话"))
+                .onErrorMap(e -> !(e instanceof ZhipuApiException),
+                        e -> new ZhipuApiException("智谱AI流式对话调用失败: " + e.getMessage(), e))
+                .doOnError(e -> log.error("响应式流式对话失败: {}", e.getMessage()));
+    }
 
+    @Override
+    public ResponseBodyEmitter chatBatch(BatchChatRequest batch) {
+        List<ChatRequest> requests = batch.getRequests();
+        if (requests.size() > batchProperties.getMaxRequests()) {
+            throw new IllegalArgumentException("批量请求数不能超过 " + batchProperties.getMaxRequests());
+        }
+        int parallelism = Math.min(batchProperties.getMaxParallelism(),
+                batch.getParallelism() != null ? batch.getParallelism() : batchProperties.getDefaultParallelism());
+
+        // 响应超时按执行轮数估算，不受全局异步请求超时限制
+        long rounds = (requests.size() + parallelism - 1) / parallelism;
+        long timeoutSeconds = Math.min(batchProperties.getMaxDurationSeconds(),
+                Math.max(1, rounds) * zhipuConfig.getTimeout());
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(TimeUnit.SECONDS.toMillis(timeoutSeconds));
+
+        log.info("开始批量对话，请求数: {}, 并行度: {}, 超时: {}s", requests.size(), parallelism, timeoutSeconds);
+        long startMillis = System.currentTimeMillis();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        // 最多同时执行 parallelism 个请求，结果按完成顺序逐条输出，不在内存中汇总。
+        // 每个请求仍经过缓存、请求合并、调用配额和上游并发限制
+        Disposable subscription = Flux.range(0, requests.size())
+                .flatMap(index -> Mono.fromCallable(() -> BatchChatResult.success(index, chat(requests.get(index))))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .onErrorResume(e -> Mono.just(toBatchFailure(index, e))),
+                        parallelism, 1)
+                .doOnNext(result -> (Boolean.TRUE.equals(result.getSuccess()) ? succeeded : failed).incrementAndGet())
+                .doOnComplete(() -> log.info("批量对话完成，成功: {}, 失败: {}, 耗时: {}ms",
+                        succeeded.get(), failed.get(), System.currentTimeMillis() - startMillis))
+                .doOnCancel(() -> log.info("批量对话已取消，已完成: {}/{}",
+                        succeeded.get() + failed.get(), requests.size()))
+                .subscribe(
+                        // 写入失败（客户端断开）时抛出，取消剩余的请求
+                        result -> sendBatchResult(emitter, result),
+                        emitter::completeWithError,
+                        emitter::complete);
+
+        emitter.onTimeout(() -> {
+            log.warn("批量对话超时（{}s），取消剩余请求", timeoutSeconds);
+            subscription.dispose();
+            emitter.complete();
+        });
+        emitter.onError(error -> subscription.dispose());
         return emitter;
     }
 
+    /**
+     * 输出一条批量对话结果（NDJSON 的一行）
+     *
+     * @param emitter 发射器
+     * @param result  结果
+     */
+    private void sendBatchResult(ResponseBodyEmitter emitter, BatchChatResult result) {
+        byte[] line = (jsonUtils.toJson(result) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            emitter.send(line, MediaType.APPLICATION_NDJSON);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 将单个批量请求的异常转换为失败结果
+     *
+     * @param index 请求下标
+     * @param error 异常
+     * @return 失败结果
+     */
+    private BatchChatResult toBatchFailure(int index, Throwable error) {
+        if (error instanceof ZhipuApiException apiException) {
+            return BatchChatResult.failure(index, apiException.getCode(), apiException.getMessage());
+        }
+        if (error instanceof IllegalArgumentException) {
+            return BatchChatResult.failure(index, 400, error.getMessage());
+        }
+        log.error("批量对话第 {} 个请求失败: {}", index, error.getMessage(), error);
+        return BatchChatResult.failure(index, 500, "对话调用失败: " + error.getMessage());
+    }
+
+    /**
+     * 将流式数据块转换为业务层的流式响应
+     * <p>
+     * 一个上游数据块最多产生两条响应：增量内容块和结束块。
+     * 没有内容的数据块（如仅包含角色信息）不产生响应。
+     * </p>
+     *
+     * @param data SDK流式数据块
+     * @return 流式响应列表
+     */
+    private List<StreamChatResponse> toStreamResponses(ModelData data) {
+        if (data.getChoices() == null || data.getChoices().isEmpty()) {
+            return List.of();
+        }
+
+        String responseId = data.getId();
+        String model = data.getModel();
+        var choice = data.getChoices().get(0);
+        var delta = choice.getDelta();
+
+        List<StreamChatResponse> responses = new ArrayList<>(2);
+
+        // 获取增量内容
+        if (delta != null && delta.getContent() != null && !delta.getContent().isEmpty()) {
+            responses.add(StreamChatResponse.chunk(responseId, model, delta.getContent()));
+        }
+
+        // 如果是最后一个块，发送结束标记
+        if (choice.getFinishReason() != null && FinishReason.STOP.equals(choice.getFinishReason())) {
+            responses.add(StreamChatResponse.end(responseId, model, choice.getFinishReason()));
+            log.info("流式对话完成，响应ID: {}", responseId);
+        }
+
+        return responses;
+    }
+
     /**
      * 构建智谱AI API请求对象
      * <p>
@@ -222,10 +569,11 @@ public class ZhipuServiceImpl implements IZhipuService {
             throw new IllegalArgumentException("不支持的模型: " + model);
         }
 
+        // 裁剪超出预算的历史消息，并按剩余空间确定最大Token数
+        ContextBudgeter.Budget budget = contextBudgeter.fit(model, request.getMessages(), request.getMaxTokens());
+
         // 转换消息列表
-        List<ChatMessage> messages = request.getMessages().stream()
-                .map(this::convertMessage)
-                .collect(Collectors.toList());
+        List<ChatMessage> messages = convertMessages(budget.getMessages());
 
         // 构建请求参数
         var builder = ChatCompletionCreateParams.builder()
@@ -240,12 +588,8 @@ public class ZhipuServiceImpl implements IZhipuService {
             builder.temperature(zhipuConfig.getDefaultTemperature().floatValue());
         }
 
-        // 设置最大Token数
-        if (request.getMaxTokens() != null) {
-            builder.maxTokens(request.getMaxTokens());
-        } else {
-            builder.maxTokens(zhipuConfig.getMaxTokens());
-        }
+        // 设置最大Token数（已按上下文窗口收紧）
+        builder.maxTokens(budget.getMaxTokens());
 
         // 设置Top P参数
         if (request.getTopP() != null) {
@@ -260,6 +604,8 @@ public class ZhipuServiceImpl implements IZhipuService {
      * <p>
      * 支持 AI 主动调用工具获取信息后再生成回答。
      * 实现完整的工具调用流程：AI 判断 → 调用工具 → 基于结果回答。
+     * 支持多轮工具调用，轮数上限可按 Agent 配置（extra_params.maxToolRounds），
+     * 整个请求受统一的截止时间约束。
      * </p>
      *
      * @param request 对话请求对象
@@ -267,6 +613,7 @@ public class ZhipuServiceImpl implements IZhipuService {
      */
     @Override
     public ChatResponse chatWithTools(ChatRequest request) {
+        TokenQuotaManager.QuotaTicket ticket = null;
         try {
             log.info("开始工具调用对话请求，模型: {}, AgentID: {}", 
                     request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel(),
@@ -282,6 +629,9 @@ public class ZhipuServiceImpl implements IZhipuService {
             }
 
             log.info("加载到 {} 个工具", tools.size());
+
+            // 整个多轮对话申请一次配额，所有轮次的实际用量合并结算
+            ticket = tokenQuotaManager.admit(request);
             
             // 打印工具定义详情
             for (ChatTool tool : tools) {
@@ -291,102 +641,331 @@ public class ZhipuServiceImpl implements IZhipuService {
                         tool.getFunction().getParameters());
             }
 
-            // 2. 构建带工具的请求
-            ChatCompletionCreateParams requestWithTools = buildChatRequestWithTools(request, tools);
-
-            // 3. 第一次调用 AI（判断是否需要工具）
-            log.info("第一次调用 AI - 判断是否需要工具调用");
-            ChatCompletionResponse response1 = zhipuAiClient.chat().createChatCompletion(requestWithTools);
-
-            if (!response1.isSuccess()) {
-                throw new ZhipuApiException(500, "智谱AI API调用失败: " + response1.getMsg());
-            }
-
-            // 4. 检查是否有工具调用
-            var choice = response1.getData().getChoices().get(0);
-            var message = choice.getMessage();
-            var toolCalls = message.getToolCalls();
+            // 2. 多轮工具调用：直到 AI 不再请求工具、达到轮数上限或超过截止时间
+            long deadline = functionToolExecutor.newRequestDeadline();
+            int maxRounds = functionToolExecutor.resolveMaxRounds(request.getAgentId());
+            List<ChatMessage> messages = new ArrayList<>(convertMessages(budgetMessages(request)));
+            List<ToolCallRecord> toolCallRecords = new ArrayList<>();
+
+            for (int round = 1; round <= maxRounds; round++) {
+                ensureBeforeDeadline(deadline);
+
+                // 3. 调用 AI（判断是否需要工具）
+                log.info("第 {}/{} 轮调用 AI - 判断是否需要工具调用", round, maxRounds);
+                ChatCompletionResponse response = upstreamGateway.complete(
+                        buildChatRequestWithTools(request, messages, tools, false));
+                ticket.record(response.getData().getUsage());
+
+                // 4. 检查是否有工具调用
+                ChatMessage message = response.getData().getChoices().get(0).getMessage();
+                var toolCalls = message.getToolCalls();
+
+                if (toolCalls == null || toolCalls.isEmpty()) {
+                    // 无工具调用，当前回答即最终回答
+                    ChatResponse finalResponse = convertResponse(response);
+                    if (!toolCallRecords.isEmpty()) {
+                        finalResponse.setToolCalls(toolCallRecords);
+                    }
+                    log.info("工具调用对话完成，最终响应ID: {}, 轮数: {}, 调用工具数: {}",
+                            finalResponse.getId(), round, toolCallRecords.size());
+                    return finalResponse;
+                }
 
-            if (toolCalls != null && !toolCalls.isEmpty()) {
                 log.info("AI 请求调用工具，数量: {}", toolCalls.size());
 
-                // 记录工具调用信息
-                List<ToolCallRecord> toolCallRecords = new ArrayList<>();
-
-                // 5. 执行所有工具调用
+                // 5. 并行执行本轮所有工具调用
                 List<ChatMessage> toolResultMessages = functionToolExecutor.executeToolCalls(
-                        toolCalls, request.getAgentId());
-                
+                        toolCalls, request.getAgentId(), deadline);
+
                 // 记录每个工具调用的详情
-                for (int i = 0; i < toolCalls.size(); i++) {
-                    try {
-                        Object toolCall = toolCalls.get(i);
-                        String toolCallId = toolCallPropertyExtractor.getProperty(toolCall, "id");
-                        String toolName = toolCallPropertyExtractor.getProperty(toolCall, "name");
-                        String arguments = toolCallPropertyExtractor.getProperty(toolCall, "arguments");
-                        
-                        // 获取对应的工具结果
-                        String result = i < toolResultMessages.size() ? 
-                                toolResultMessages.get(i).getContent().toString() : "";
-                        
-                        toolCallRecords.add(pox.com.piteagents.entity.dto.response.ToolCallRecord.builder()
-                                .id(toolCallId)
-                                .name(toolName)
-                                .arguments(arguments)
-                                .result(result)
-                                .success(true)
-                                .build());
-                    } catch (Exception e) {
-                        log.error("记录工具调用失败: {}", e.getMessage());
-                    }
-                }
-                
-                // 6. 构建包含工具结果的完整上下文
-                // 添加工具调用结果提供给 AI
-                List<ChatMessage> messagesWithToolResult = new ArrayList<>(convertMessages(request.getMessages())); // 原始对话
-                messagesWithToolResult.add(message); // AI的工具调用请求
-                messagesWithToolResult.addAll(toolResultMessages); // 所有工具结果
-                
-                log.info("构建工具结果消息，准备第二次调用 AI");
-
-                // 7. 第二次调用 AI（基于工具结果生成回答）
-                ChatCompletionCreateParams request2 = ChatCompletionCreateParams.builder()
-                        .model(request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel())
-                        .messages(messagesWithToolResult)
-                        .temperature(request.getTemperature() != null ? 
-                                request.getTemperature().floatValue() : 
-                                zhipuConfig.getDefaultTemperature().floatValue())
-                        .maxTokens(request.getMaxTokens() != null ? 
-                                request.getMaxTokens() : 
-                                zhipuConfig.getMaxTokens())
-                        .build();
-
-                log.info("第二次调用 AI - 基于工具结果生成最终回答");
-                ChatCompletionResponse response2 = zhipuAiClient.chat().createChatCompletion(request2);
-
-                if (!response2.isSuccess()) {
-                    throw new ZhipuApiException(500, "智谱AI API第二次调用失败: " + response2.getMsg());
-                }
+                toolCallRecords.addAll(buildToolCallRecords(toolCalls, toolResultMessages));
 
-                ChatResponse finalResponse = convertResponse(response2);
-                // 添加工具调用记录
-                finalResponse.setToolCalls(toolCallRecords);
-                log.info("工具调用对话完成，最终响应ID: {}, 调用工具数: {}", 
-                        finalResponse.getId(), toolCallRecords.size());
-                log.info("AI 最终回答: {}", finalResponse.getContent());
-                
-                return finalResponse;
-            } else {
-                // 无工具调用，直接返回
-                log.info("AI 未请求调用工具，直接返回回答");
-                return convertResponse(response1);
+                // 6. 将工具调用请求和结果加入上下文，进入下一轮
+                messages.add(message);
+                messages.addAll(toolResultMessages);
             }
 
+            // 7. 达到轮数上限，不再提供工具，基于已有结果生成最终回答
+            ensureBeforeDeadline(deadline);
+            log.info("已达到最大工具调用轮数 {}，基于工具结果生成最终回答", maxRounds);
+            ChatCompletionResponse finalCall = upstreamGateway.complete(
+                    buildFollowUpRequest(request, messages, false));
+            ticket.record(finalCall.getData().getUsage());
+
+            ChatResponse finalResponse = convertResponse(finalCall);
+            finalResponse.setToolCalls(toolCallRecords);
+            log.info("工具调用对话完成，最终响应ID: {}, 调用工具数: {}",
+                    finalResponse.getId(), toolCallRecords.size());
+            return finalResponse;
+
         } catch (ZhipuApiException e) {
             throw e;
         } catch (Exception e) {
             log.error("工具调用对话失败: {}", e.getMessage(), e);
             throw new ZhipuApiException("工具调用对话失败: " + e.getMessage(), e);
+        } finally {
+            if (ticket != null) {
+                ticket.settle();
+            }
+        }
+    }
+
+    /**
+     * 带工具调用的流式对话接口
+     * <p>
+     * 每轮以流式方式调用 AI：文本增量实时推送，tool_calls 从增量中拼装。
+     * 若 AI 请求调用工具，先推送 tool_start 事件，执行工具后推送 tool_result 事件，
+     * 再进入下一轮，直到 AI 给出最终回答或达到轮数上限。
+     * </p>
+     *
+     * @param request 对话请求对象
+     * @return SSE发射器
+     */
+    @Override
+    public SseEmitter streamChatWithTools(ChatRequest request) {
+        SseEmitter emitter = new SseEmitter(Long.valueOf(zhipuConfig.getTimeout() * 1000));
+        long timeoutMs = emitter.getTimeout();
+
+        // 配额无法补足时在请求线程上直接拒绝，不进入调度队列；需要短暂等待时由工作线程等待
+        CompletableFuture<TokenQuotaManager.QuotaTicket> admission = tokenQuotaManager.admitEagerly(request);
+        StreamMetrics.StreamRecorder recorder = streamMetrics.start("stream_tools", request);
+
+        // 客户端断开时取消上游生成，并停止后续的工具调用轮次
+        StreamCancellationTracker.StreamGuard guard = openStreamGuard(request);
+        bindClientDisconnect(emitter, guard::cancel);
+
+        // 未能执行（被拒绝或排队时被挤出）时退还配额预留并结束统计
+        Consumer<Throwable> onRejected = error -> {
+            guard.fail();
+            admission.thenAccept(TokenQuotaManager.QuotaTicket::settle);
+            recorder.finish(StreamMetrics.outcomeOf(error));
+            emitter.completeWithError(error);
+        };
+
+        try {
+            streamDispatcher.submit("stream-chat-with-tools", timeoutMs, () -> {
+                recorder.dispatched();
+                String outcome = "failed";
+                try {
+                    if (guard.isCancelled()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    TokenQuotaManager.QuotaTicket ticket = awaitTicket(admission);
+
+                    log.info("开始流式工具调用对话请求，模型: {}, AgentID: {}",
+                            request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel(),
+                            request.getAgentId());
+
+                    // 1. 加载 Agent 的工具列表
+                    List<ChatTool> tools = functionToolExecutor.loadAgentTools(request.getAgentId());
+                    if (tools.isEmpty()) {
+                        log.info("未找到可用工具，使用普通流式对话模式");
+                        streamRound(buildChatRequest(request, true), emitter, guard, ticket, recorder, null, isCoalesceEnabled(request), timeoutMs);
+                        guard.complete();
+                        emitter.complete();
+                        outcome = guard.isCancelled() ? "cancelled" : "completed";
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    // 2. 多轮工具调用：每轮流式推送文本增量，同时拼装 tool_calls
+                    long deadline = functionToolExecutor.newRequestDeadline();
+                    int maxRounds = functionToolExecutor.resolveMaxRounds(request.getAgentId());
+                    List<ChatMessage> messages = new ArrayList<>(convertMessages(budgetMessages(request)));
+                    boolean answered = false;
+
+                    for (int round = 1; round <= maxRounds && !answered; round++) {
+                        ensureBeforeDeadline(deadline);
+
+                        StreamingToolCallAssembler assembler = new StreamingToolCallAssembler();
+                        streamRound(buildChatRequestWithTools(request, messages, tools, true), emitter, guard, ticket, recorder, assembler, isCoalesceEnabled(request), timeoutMs);
+
+                        if (guard.isCancelled()) {
+                            outcome = "cancelled";
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        if (!assembler.hasToolCalls()) {
+                            answered = true;
+                            continue;
+                        }
+
+                        List<ToolCalls> toolCalls = assembler.getToolCalls();
+                        log.info("第 {}/{} 轮 AI 请求调用工具，数量: {}", round, maxRounds, toolCalls.size());
+
+                        // 3. 推送工具开始事件
+                        for (ToolCallRecord record : buildToolCallRecords(toolCalls, List.of())) {
+                            record.setResult(null);
+                            sendEvent(emitter, StreamEventType.TOOL_START, record);
+                        }
+
+                        // 4. 并行执行工具并推送结果
+                        List<ChatMessage> toolResultMessages = functionToolExecutor.executeToolCalls(
+                                toolCalls, request.getAgentId(), deadline);
+                        for (ToolCallRecord record : buildToolCallRecords(toolCalls, toolResultMessages)) {
+                            sendEvent(emitter, StreamEventType.TOOL_RESULT, record);
+                        }
+
+                        messages.add(assembler.toAssistantMessage());
+                        messages.addAll(toolResultMessages);
+                    }
+
+                    // 5. 达到轮数上限，不再提供工具，流式生成最终回答
+                    if (!answered && !guard.isCancelled()) {
+                        ensureBeforeDeadline(deadline);
+                        log.info("已达到最大工具调用轮数 {}，基于工具结果流式生成最终回答", maxRounds);
+                        streamRound(buildFollowUpRequest(request, messages, true), emitter, guard, ticket, recorder, null, isCoalesceEnabled(request), timeoutMs);
+                    }
+
+                    guard.complete();
+                    emitter.complete();
+                    outcome = guard.isCancelled() ? "cancelled" : "completed";
+                } catch (UncheckedIOException e) {
+                    log.error("发送SSE数据失败: {}", e.getMessage());
+                    guard.cancel("发送失败");
+                    outcome = "cancelled";
+                    emitter.completeWithError(e.getCause());
+                } catch (Exception e) {
+                    log.error("流式工具调用对话失败: {}", e.getMessage(), e);
+                    guard.fail();
+                    emitter.completeWithError(e instanceof ZhipuApiException ? e :
+                            new ZhipuApiException("流式工具调用对话失败: " + e.getMessage(), e));
+                } finally {
+                    admission.thenAccept(TokenQuotaManager.QuotaTicket::settle);
+                    recorder.finish(outcome);
+                }
+                return CompletableFuture.completedFuture(null);
+            }, onRejected);
+        } catch (ZhipuApiException e) {
+            onRejected.accept(e);
+            throw e;
+        }
+
+        return emitter;
+    }
+
+    /**
+     * 执行一轮流式调用，并在当前线程等待其结束
+     * <p>
+     * 文本增量实时推送给客户端；如果提供了组装器，同时收集 tool_calls。
+     * 仅在调度器的工作线程中调用。
+     * </p>
+     *
+     * @param params    SDK 请求对象（流式）
+     * @param emitter   SSE发射器
+     * @param guard     流守卫，客户端断开时提前结束本轮
+     * @param ticket    配额凭证，记录本轮的实际用量
+     * @param recorder  流式指标记录器
+     * @param assembler 工具调用组装器（可为 null）
+     * @param coalesce  是否合并增量
+     * @param timeoutMs 最长等待时间（毫秒）
+     */
+    private void streamRound(ChatCompletionCreateParams params, SseEmitter emitter,
+                             StreamCancellationTracker.StreamGuard guard,
+                             TokenQuotaManager.QuotaTicket ticket, StreamMetrics.StreamRecorder recorder,
+                             StreamingToolCallAssembler assembler, boolean coalesce, long timeoutMs) {
+        recorder.newRound();
+        Flux<StreamChatResponse> deltas = upstreamGateway.stream(params)
+                .takeUntilOther(guard.cancelled())
+                .doOnNext(guard::onData)
+                .doOnNext(ticket::onData)
+                .doOnNext(recorder::onData)
+                .doOnNext(data -> {
+                    if (assembler != null && data.getChoices() != null && !data.getChoices().isEmpty()) {
+                        assembler.accept(data.getChoices().get(0).getDelta());
+                    }
+                })
+                .concatMapIterable(this::toStreamResponses);
+
+        SseFrameEncoder frameEncoder = new SseFrameEncoder();
+        streamCoalescer.coalesce(deltas, coalesce)
+                .doOnNext(streamResponse -> recorder.onBytes(sendFrame(emitter, frameEncoder, streamResponse)))
+                .blockLast(Duration.ofMillis(timeoutMs));
+    }
+
+    /**
+     * 在工作线程上等待配额凭证
+     *
+     * @param admission 配额申请
+     * @return 配额凭证
+     * @throws ZhipuApiException 配额不足时抛出（错误码 429）
+     */
+    private TokenQuotaManager.QuotaTicket awaitTicket(CompletableFuture<TokenQuotaManager.QuotaTicket> admission) {
+        try {
+            return admission.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 为流式请求创建取消守卫
+     *
+     * @param request 对话请求对象
+     * @return 流守卫
+     */
+    private StreamCancellationTracker.StreamGuard openStreamGuard(ChatRequest request) {
+        String model = request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel();
+        int maxTokens = request.getMaxTokens() != null ? request.getMaxTokens() : zhipuConfig.getMaxTokens();
+        return streamCancellationTracker.open(model, maxTokens);
+    }
+
+    /**
+     * 绑定 SSE 发射器的断开回调
+     * <p>
+     * 只在超时或连接错误时回调。onCompletion 在服务端正常结束和 completeWithError 之后也会触发，
+     * 不用于判断客户端断开；流已结束（守卫已标记结束）时的回调由调用方忽略。
+     * </p>
+     *
+     * @param emitter      SSE发射器
+     * @param onDisconnect 断开回调，参数为断开原因
+     */
+    private void bindClientDisconnect(SseEmitter emitter, Consumer<String> onDisconnect) {
+        emitter.onTimeout(() -> onDisconnect.accept("超时"));
+        emitter.onError(e -> onDisconnect.accept("连接错误"));
+    }
+
+    /**
+     * 判断请求是否启用增量合并
+     *
+     * @param request 对话请求对象
+     * @return 未显式关闭时返回 true
+     */
+    private boolean isCoalesceEnabled(ChatRequest request) {
+        return !Boolean.FALSE.equals(request.getCoalesce());
+    }
+
+    /**
+     * 发送一个预编码的增量数据帧
+     *
+     * @param emitter      SSE发射器
+     * @param frameEncoder 当前流的帧编码器
+     * @param response     流式响应对象
+     * @return 发送的字节数
+     */
+    private int sendFrame(SseEmitter emitter, SseFrameEncoder frameEncoder, StreamChatResponse response) {
+        try {
+            SseFrame frame = frameEncoder.encode(response);
+            emitter.send(frame.payload());
+            return frame.length();
+        } catch (IOException e) {
+            throw new UncheckedIOException("发送SSE数据失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 发送一条 SSE 事件
+     *
+     * @param emitter SSE发射器
+     * @param name    事件名
+     * @param data    事件数据
+     */
+    private void sendEvent(SseEmitter emitter, String name, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            throw new UncheckedIOException("发送SSE数据失败: " + e.getMessage(), e);
         }
     }
 
@@ -394,13 +973,17 @@ public class ZhipuServiceImpl implements IZhipuService {
      * 构建带工具的 API 请求对象
      * <p>
      * 在标准请求基础上添加工具定义列表。
+     * 多轮工具调用时，messages 包含之前各轮的工具调用请求和结果。
      * </p>
      *
-     * @param request 业务请求对象
-     * @param tools   工具列表
+     * @param request  业务请求对象
+     * @param messages 当前轮次的完整上下文
+     * @param tools    工具列表
+     * @param stream   是否使用流式模式
      * @return SDK 请求对象
      */
-    private ChatCompletionCreateParams buildChatRequestWithTools(ChatRequest request, List<ChatTool> tools) {
+    private ChatCompletionCreateParams buildChatRequestWithTools(ChatRequest request, List<ChatMessage> messages,
+                                                                 List<ChatTool> tools, boolean stream) {
         String model = request.getModel();
         if (model == null || model.trim().isEmpty()) {
             model = zhipuConfig.getDefaultModel();
@@ -411,15 +994,12 @@ public class ZhipuServiceImpl implements IZhipuService {
             throw new IllegalArgumentException("不支持的模型: " + model);
         }
 
-        // 转换消息列表
-        List<ChatMessage> messages = convertMessages(request.getMessages());
-
         // 构建请求参数（添加工具定义）
         var builder = ChatCompletionCreateParams.builder()
                 .model(model)
                 .messages(messages)
                 .tools(tools)  // 关键：添加工具定义
-                .stream(false); // 工具调用不使用流式
+                .stream(stream);
 
         // 设置温度参数
         if (request.getTemperature() != null) {
@@ -428,12 +1008,9 @@ public class ZhipuServiceImpl implements IZhipuService {
             builder.temperature(zhipuConfig.getDefaultTemperature().floatValue());
         }
 
-        // 设置最大Token数
-        if (request.getMaxTokens() != null) {
-            builder.maxTokens(request.getMaxTokens());
-        } else {
-            builder.maxTokens(zhipuConfig.getMaxTokens());
-        }
+        // 设置最大Token数（上下文随工具调用轮次增长，每轮重新计算剩余空间）
+        builder.maxTokens(contextBudgeter.clampMaxTokens(model,
+                glmTokenEstimator.estimateChatMessages(messages), request.getMaxTokens()));
 
         // 设置Top P参数
         if (request.getTopP() != null) {
@@ -443,6 +1020,74 @@ public class ZhipuServiceImpl implements IZhipuService {
         return builder.build();
     }
 
+    /**
+     * 构建工具调用后的后续请求对象
+     * <p>
+     * 上下文已包含工具调用请求和工具结果，不再附带工具定义。
+     * </p>
+     *
+     * @param request  业务请求对象
+     * @param messages 包含工具结果的完整上下文
+     * @param stream   是否使用流式模式
+     * @return SDK 请求对象
+     */
+    private ChatCompletionCreateParams buildFollowUpRequest(ChatRequest request, List<ChatMessage> messages, boolean stream) {
+        String model = request.getModel() != null ? request.getModel() : zhipuConfig.getDefaultModel();
+        return ChatCompletionCreateParams.builder()
+                .model(model)
+                .messages(messages)
+                .stream(stream)
+                .temperature(request.getTemperature() != null ?
+                        request.getTemperature().floatValue() :
+                        zhipuConfig.getDefaultTemperature().floatValue())
+                .maxTokens(contextBudgeter.clampMaxTokens(model,
+                        glmTokenEstimator.estimateChatMessages(messages), request.getMaxTokens()))
+                .build();
+    }
+
+    /**
+     * 检查工具调用请求是否已超过截止时间
+     *
+     * @param deadlineNanos 截止时间（{@link System#nanoTime()} 基准）
+     * @throws ZhipuApiException 超过截止时间时抛出（错误码 504）
+     */
+    private void ensureBeforeDeadline(long deadlineNanos) {
+        if (System.nanoTime() - deadlineNanos >= 0) {
+            throw new ZhipuApiException(504, "工具调用对话超时，请稍后重试");
+        }
+    }
+
+    /**
+     * 构建工具调用记录
+     *
+     * @param toolCalls          AI 返回的工具调用列表
+     * @param toolResultMessages 工具执行结果消息（与 toolCalls 顺序一致）
+     * @return 工具调用记录列表
+     */
+    private List<ToolCallRecord> buildToolCallRecords(List<?> toolCalls, List<ChatMessage> toolResultMessages) {
+        List<ToolCallRecord> toolCallRecords = new ArrayList<>();
+        for (int i = 0; i < toolCalls.size(); i++) {
+            try {
+                Object toolCall = toolCalls.get(i);
+
+                // 获取对应的工具结果
+                String result = i < toolResultMessages.size() ?
+                        toolResultMessages.get(i).getContent().toString() : "";
+
+                toolCallRecords.add(ToolCallRecord.builder()
+                        .id(toolCallPropertyExtractor.getProperty(toolCall, "id"))
+                        .name(toolCallPropertyExtractor.getProperty(toolCall, "name"))
+                        .arguments(toolCallPropertyExtractor.getProperty(toolCall, "arguments"))
+                        .result(result)
+                        .success(true)
+                        .build());
+            } catch (Exception e) {
+                log.error("记录工具调用失败: {}", e.getMessage());
+            }
+        }
+        return toolCallRecords;
+    }
+
     /**
      * 转换消息列表
      * <p>
@@ -458,6 +1103,23 @@ public class ZhipuServiceImpl implements IZhipuService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * 裁剪超出提示词预算的历史消息
+     * <p>
+     * 工具调用对话在首轮调用前裁剪一次，之后的工具调用和结果不再裁剪。
+     * </p>
+     *
+     * @param request 业务请求对象
+     * @return 裁剪后的消息列表
+     */
+    private List<Message> budgetMessages(ChatRequest request) {
+        String model = request.getModel();
+        if (model == null || model.trim().isEmpty()) {
+            model = zhipuConfig.getDefaultModel();
+        }
+        return contextBudgeter.fit(model, request.getMessages(), request.getMaxTokens()).getMessages();
+    }
+
     /**
      * 转换消息对象
      * <p>
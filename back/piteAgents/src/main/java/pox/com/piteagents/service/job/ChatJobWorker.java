@@ -0,0 +1,224 @@
+package pox.com.piteagents.service.job;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.utils.JsonUtils;
+import pox.com.piteagents.config.ChatJobProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ChatJobPO;
+import pox.com.piteagents.service.IChatJobService;
+import pox.com.piteagents.service.IZhipuService;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步对话任务工作线程
+ * <p>
+ * 每个节点运行一个领取线程和一个执行线程池：
+ * - 领取线程按空闲执行槽位数领取任务，不会领取超出本节点处理能力的任务
+ * - 没有可领取的任务时按 pollIntervalMs 休眠
+ * - 每隔 leaseRenewIntervalSeconds 为执行中的任务续期租约，长任务不会因租约到期被其他节点重复执行
+ * - 定期回收租约到期的任务（执行节点宕机或被强制停止）
+ * </p>
+ * <p>
+ * 关闭时停止领取并中断执行中的任务，最多等待 shutdownWaitSeconds，之后未完成的任务立即放回队列，
+ * 由其他节点重新执行；只有进程被强制终止时才需要等待租约到期。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatJobWorker {
+
+    private final IChatJobService chatJobService;
+    private final IZhipuService zhipuService;
+    private final ChatJobProperties chatJobProperties;
+    private final JsonUtils jsonUtils;
+
+    /**
+     * 当前节点标识（进程名 + 随机后缀，同一主机上的多个实例互不冲突）
+     */
+    private final String workerId = ManagementFactory.getRuntimeMXBean().getName()
+            + "-" + UUID.randomUUID().toString().substring(0, 8);
+
+    /**
+     * 执行中的任务数
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 执行中的任务（按任务 ID），用于续期租约和关闭时放回队列
+     */
+    private final Map<Long, ChatJobPO> runningJobs = new ConcurrentHashMap<>();
+
+    /**
+     * 任务执行线程池
+     */
+    private ExecutorService executor;
+
+    /**
+     * 任务领取线程
+     */
+    private Thread poller;
+
+    private volatile boolean running;
+
+    /**
+     * 启动领取线程和执行线程池
+     */
+    @PostConstruct
+    public void start() {
+        if (!chatJobProperties.isWorkerEnabled()) {
+            log.info("异步对话任务工作线程未启用，当前节点只接收任务");
+            return;
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(chatJobProperties.getWorkerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "chat-job-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        running = true;
+        poller = new Thread(this::pollLoop, "chat-job-poller");
+        poller.setDaemon(true);
+        poller.start();
+
+        log.info("异步对话任务工作线程已启动，节点: {}, 执行线程数: {}", workerId, chatJobProperties.getWorkerThreads());
+    }
+
+    /**
+     * 停止领取并关闭执行线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        long waitMs = TimeUnit.SECONDS.toMillis(chatJobProperties.getShutdownWaitSeconds());
+        try {
+            if (poller != null) {
+                poller.interrupt();
+                // 等待领取线程退出，避免关闭线程池后仍有刚领取的任务无法提交
+                poller.join(waitMs);
+            }
+            if (executor != null) {
+                executor.shutdownNow();
+                executor.awaitTermination(waitMs, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // 未响应中断的任务（如阻塞在上游调用中）直接放回队列，不等租约到期
+        for (ChatJobPO job : runningJobs.values()) {
+            releaseQuietly(job);
+        }
+    }
+
+    private void pollLoop() {
+        long nextLeaseCheck = 0;
+        long nextLeaseRenew = 0;
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                if (now >= nextLeaseRenew) {
+                    renewLeases();
+                    nextLeaseRenew = now + TimeUnit.SECONDS.toMillis(chatJobProperties.getLeaseRenewIntervalSeconds());
+                }
+                if (now >= nextLeaseCheck) {
+                    chatJobService.recoverExpiredJobs();
+                    nextLeaseCheck = now + TimeUnit.SECONDS.toMillis(chatJobProperties.getLeaseCheckIntervalSeconds());
+                }
+
+                int freeSlots = chatJobProperties.getWorkerThreads() - inFlight.get();
+                List<ChatJobPO> jobs = freeSlots > 0 ? chatJobService.claimJobs(workerId, freeSlots) : List.of();
+                for (ChatJobPO job : jobs) {
+                    inFlight.incrementAndGet();
+                    runningJobs.put(job.getId(), job);
+                    executor.execute(() -> execute(job));
+                }
+
+                // 领满时立即继续领取，否则等待新任务
+                if (jobs.isEmpty() || jobs.size() < freeSlots) {
+                    Thread.sleep(chatJobProperties.getPollIntervalMs());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("领取异步对话任务失败: {}", e.getMessage(), e);
+                try {
+                    Thread.sleep(chatJobProperties.getPollIntervalMs());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void execute(ChatJobPO job) {
+        try {
+            ChatRequest request = jsonUtils.fromJson(job.getRequestJson(), ChatRequest.class);
+            if (request == null) {
+                throw new IllegalArgumentException("任务请求内容无法解析");
+            }
+
+            ChatResponse response = Boolean.TRUE.equals(job.getWithTools())
+                    ? zhipuService.chatWithTools(request)
+                    : zhipuService.chat(request);
+            chatJobService.completeJob(job, workerId, response);
+        } catch (Exception e) {
+            if (!running) {
+                // 节点关闭中，清除中断标记后放回队列，由其他节点重新执行
+                Thread.interrupted();
+                releaseQuietly(job);
+                return;
+            }
+            try {
+                chatJobService.failJob(job, workerId, e);
+            } catch (Exception ex) {
+                log.error("记录任务失败结果时出错，任务ID: {}, 错误: {}", job.getId(), ex.getMessage(), ex);
+            }
+        } finally {
+            runningJobs.remove(job.getId());
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void renewLeases() {
+        if (runningJobs.isEmpty()) {
+            return;
+        }
+        try {
+            chatJobService.renewLeases(new ArrayList<>(runningJobs.keySet()), workerId);
+        } catch (Exception e) {
+            // 下一个续期周期重试，租约时长应容忍偶发的续期失败
+            log.error("续期任务租约失败: {}", e.getMessage(), e);
+        }
+    }
+
+    private void releaseQuietly(ChatJobPO job) {
+        try {
+            chatJobService.releaseJob(job, workerId);
+        } catch (Exception e) {
+            log.warn("放回任务失败，将在租约到期后重新执行，任务ID: {}, 错误: {}", job.getId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.SessionCounterProperties;
+import pox.com.piteagents.entity.po.ConversationSessionPO;
+import pox.com.piteagents.mapper.ConversationSessionMapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话计数聚合器
+ * <p>
+ * 替代原来的 AFTER INSERT 触发器维护 conversation_session 的 message_count、total_tokens 和 updated_at：
+ * - 消息事务提交后按会话累加增量，累加在 ConcurrentHashMap.compute 内完成，与空闲计数器的回收互斥，
+ *   不会累加到已回收的计数器上；锁只覆盖单个哈希桶，持有时间为两次加法
+ * - 定时取出所有会话的增量（sumThenReset），合并为一条批量 UPDATE 写回，会话行锁每个周期只获取一次
+ * - 写回失败时把增量加回计数器，下个周期重试
+ * - 关闭应用时写回剩余的增量
+ * </p>
+ * <p>
+ * 会话列表中的计数和更新时间最多滞后一个刷新周期。进程异常退出会丢失未写回的增量，
+ * 由 {@link SessionCounterReconciler} 按消息表重新核对修正。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionCounterAggregator {
+
+    private final ConversationSessionMapper sessionMapper;
+    private final SessionCounterProperties sessionCounterProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 各会话尚未写回的增量
+     */
+    private final Map<Long, SessionDelta> deltas = new ConcurrentHashMap<>();
+
+    /**
+     * 刷新定时器
+     */
+    private ScheduledExecutorService scheduler;
+
+    private Timer flushTimer;
+
+    /**
+     * 启动定时刷新并注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        flushTimer = Timer.builder("pite.session.counters.flush")
+                .description("会话计数增量批量写回的耗时")
+                .register(meterRegistry);
+        Gauge.builder("pite.session.counters.tracked", deltas, Map::size)
+                .description("内存中跟踪计数增量的会话数")
+                .register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-counter-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = sessionCounterProperties.getFlushIntervalMs();
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时刷新并写回剩余的增量
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        flushQuietly();
+    }
+
+    /**
+     * 累加会话计数（应在消息事务提交后调用）
+     *
+     * @param sessionId 会话 ID
+     * @param messages 新增消息数
+     * @param tokens 新增 Token 数
+     */
+    public void record(Long sessionId, long messages, long tokens) {
+        deltas.compute(sessionId, (id, current) -> {
+            SessionDelta delta = current == null || current.retired ? new SessionDelta() : current;
+            delta.messages.add(messages);
+            delta.tokens.add(tokens);
+            delta.lastRecordedNanos = System.nanoTime();
+            return delta;
+        });
+    }
+
+    /**
+     * 写回所有会话的增量
+     */
+    public void flush() {
+        long now = System.nanoTime();
+        long idleNanos = TimeUnit.SECONDS.toNanos(sessionCounterProperties.getIdleEvictSeconds());
+        List<ConversationSessionPO> pending = new ArrayList<>();
+        for (Map.Entry<Long, SessionDelta> entry : deltas.entrySet()) {
+            SessionDelta delta = entry.getValue();
+            // sumThenReset 逐个计数单元原子地取出并清零，并发累加的增量要么计入本次，要么留到下次
+            long messages = delta.messages.sumThenReset();
+            long tokens = delta.tokens.sumThenReset();
+            if (messages != 0 || tokens != 0) {
+                pending.add(ConversationSessionPO.builder()
+                        .id(entry.getKey())
+                        .messageCount(Math.toIntExact(messages))
+                        .totalTokens(Math.toIntExact(tokens))
+                        .build());
+            } else if (now - delta.lastRecordedNanos > idleNanos) {
+                retireIfIdle(entry.getKey(), delta, idleNanos);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // 按会话 ID 升序更新，多节点同时刷新时加锁顺序一致
+        pending.sort(Comparator.comparing(ConversationSessionPO::getId));
+        int chunkSize = Math.max(1, sessionCounterProperties.getMaxSessionsPerUpdate());
+        for (int from = 0; from < pending.size(); from += chunkSize) {
+            List<ConversationSessionPO> chunk = pending.subList(from, Math.min(from + chunkSize, pending.size()));
+            long startNanos = System.nanoTime();
+            try {
+                sessionMapper.addCounters(chunk);
+                flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                meterRegistry.counter("pite.session.counters.flushed").increment(chunk.size());
+            } catch (Exception e) {
+                // 加回计数器，下个周期重试
+                chunk.forEach(d -> record(d.getId(), d.getMessageCount(), d.getTotalTokens()));
+                meterRegistry.counter("pite.session.counters.flush.failed").increment();
+                log.warn("会话计数写回失败，{} 个会话的增量将在下个周期重试，错误: {}", chunk.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 回收空闲已久的会话计数器
+     * <p>
+     * 在 compute 内重新检查：取出增量之后又有累加的计数器不回收，留到下个周期写回。
+     * 回收的计数器标记为 retired，此后的累加创建新的计数器。
+     * </p>
+     */
+    private void retireIfIdle(Long sessionId, SessionDelta delta, long idleNanos) {
+        deltas.computeIfPresent(sessionId, (id, current) -> {
+            if (current != delta || current.messages.sum() != 0 || current.tokens.sum() != 0
+                    || System.nanoTime() - current.lastRecordedNanos <= idleNanos) {
+                return current;
+            }
+            current.retired = true;
+            return null;
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("会话计数刷新异常: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 单个会话的计数增量
+     */
+    private static final class SessionDelta {
+
+        private final LongAdder messages = new LongAdder();
+        private final LongAdder tokens = new LongAdder();
+        private volatile long lastRecordedNanos = System.nanoTime();
+        private volatile boolean retired;
+    }
+}
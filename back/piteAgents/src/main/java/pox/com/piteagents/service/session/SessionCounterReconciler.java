@@ -0,0 +1,184 @@
+package pox.com.piteagents.service.session;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.SessionCounterProperties;
+import pox.com.piteagents.entity.dto.response.SessionCounterReconcileResult;
+import pox.com.piteagents.entity.po.ConversationSessionPO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.mapper.ConversationMessageMapper;
+import pox.com.piteagents.mapper.ConversationSessionMapper;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 会话计数对账器
+ * <p>
+ * 按 conversation_message 重新统计会话的 message_count 和 total_tokens，用于验证和修正
+ * {@link SessionCounterAggregator} 维护的计数：
+ * - 按会话 ID 分批核对，每批一次分组统计，走 (session_id, created_at) 索引
+ * - 最近 reconcileSettleSeconds 内有新消息的会话可能还有未写回的增量（包括其他节点上的），本次跳过
+ * - 修正时校验计数仍为核对时读到的值，期间有增量写回的会话留到下次
+ * </p>
+ * <p>
+ * 按 reconcileIntervalMinutes 定时执行，也可通过接口手动触发；同一节点同时只执行一次。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionCounterReconciler {
+
+    private static final int MAX_REPORTED_SESSIONS = 100;
+
+    private final ConversationSessionMapper sessionMapper;
+    private final ConversationMessageMapper messageMapper;
+    private final SessionCounterProperties sessionCounterProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 是否正在对账
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * 定时对账线程
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 启动定时对账
+     */
+    @PostConstruct
+    public void initialize() {
+        int interval = sessionCounterProperties.getReconcileIntervalMinutes();
+        if (interval <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-counter-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile(sessionCounterProperties.isReconcileFix());
+            } catch (Exception e) {
+                log.error("会话计数对账失败: {}", e.getMessage(), e);
+            }
+        }, interval, interval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 停止定时对账
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 执行一次对账
+     *
+     * @param fix 是否修正有偏差的计数
+     * @return 对账结果
+     * @throws ZhipuApiException 本节点已有对账在执行时抛出（409）
+     */
+    public SessionCounterReconcileResult reconcile(boolean fix) {
+        if (!running.compareAndSet(false, true)) {
+            throw new ZhipuApiException(409, "会话计数对账正在执行");
+        }
+        try {
+            return doReconcile(fix);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private SessionCounterReconcileResult doReconcile(boolean fix) {
+        long startNanos = System.nanoTime();
+        int batchSize = Math.max(1, sessionCounterProperties.getReconcileBatchSize());
+        int checked = 0;
+        int skipped = 0;
+        int drifted = 0;
+        int fixed = 0;
+        List<Long> driftedIds = new ArrayList<>();
+
+        long afterId = 0;
+        while (true) {
+            List<ConversationSessionPO> sessions = sessionMapper.selectCounterPage(afterId, batchSize);
+            if (sessions.isEmpty()) {
+                break;
+            }
+            afterId = sessions.get(sessions.size() - 1).getId();
+
+            Set<Long> ids = sessions.stream().map(ConversationSessionPO::getId).collect(Collectors.toSet());
+            Set<Long> active = new HashSet<>(messageMapper.selectRecentlyActiveSessionIds(ids,
+                    sessionCounterProperties.getReconcileSettleSeconds()));
+            Map<Long, ConversationSessionPO> stats = messageMapper.selectCounterStats(ids).stream()
+                    .collect(Collectors.toMap(ConversationSessionPO::getId, Function.identity()));
+
+            for (ConversationSessionPO session : sessions) {
+                if (active.contains(session.getId())) {
+                    skipped++;
+                    continue;
+                }
+                checked++;
+
+                ConversationSessionPO actual = stats.get(session.getId());
+                int actualCount = actual != null ? actual.getMessageCount() : 0;
+                int actualTokens = actual != null ? actual.getTotalTokens() : 0;
+                if (Objects.equals(session.getMessageCount(), actualCount)
+                        && Objects.equals(session.getTotalTokens(), actualTokens)) {
+                    continue;
+                }
+
+                drifted++;
+                if (driftedIds.size() < MAX_REPORTED_SESSIONS) {
+                    driftedIds.add(session.getId());
+                }
+                log.warn("会话计数偏差，会话ID: {}, 消息数: {} -> {}, Token: {} -> {}",
+                        session.getId(), session.getMessageCount(), actualCount, session.getTotalTokens(), actualTokens);
+                if (fix && sessionMapper.updateCountersIfUnchanged(session.getId(), session.getMessageCount(),
+                        session.getTotalTokens(), actualCount, actualTokens) > 0) {
+                    fixed++;
+                }
+            }
+        }
+
+        meterRegistry.counter("pite.session.counters.drifted").increment(drifted);
+        meterRegistry.counter("pite.session.counters.fixed").increment(fixed);
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        log.info("会话计数对账完成，核对: {}, 跳过活跃会话: {}, 偏差: {}, 修正: {}, 耗时: {} ms",
+                checked, skipped, drifted, fixed, durationMs);
+
+        return SessionCounterReconcileResult.builder()
+                .checked(checked)
+                .skippedActive(skipped)
+                .drifted(drifted)
+                .fixed(fixed)
+                .driftedSessionIds(driftedIds)
+                .durationMs(durationMs)
+                .build();
+    }
+}
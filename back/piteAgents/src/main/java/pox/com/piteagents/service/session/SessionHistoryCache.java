@@ -0,0 +1,485 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.HistoryCacheProperties;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话历史缓存
+ * <p>
+ * 缓存活跃会话摘要水位线之后的最近消息，会话对话每轮组装上下文时不必重新查询全部历史：
+ * - 未命中时由调用方查库后放入；消息事务提交后追加到已缓存的会话，摘要推进后裁掉已折叠的消息，会话删除后移出
+ * - 按会话访问顺序（LRU）和估算的总字节数淘汰，超过单会话上限的会话不缓存
+ * - 缓存项可能只包含最近一段消息（按条数加载时），只用于不超过该长度的查询
+ * </p>
+ * <p>
+ * 每个会话对应一个槽位（{@link Slot}），缓存项的读写在槽位自身的锁内进行，不同会话互不阻塞。
+ * 淘汰顺序和总字节数由单独的 LRU 维护，其锁内只做 O(1) 的登记、移动和移除；
+ * 槽位的创建和移除只在 LRU 锁内进行，锁顺序固定为先槽位、后 LRU。
+ * </p>
+ * <p>
+ * 查库与写入并发时，查到的可能是写入前的历史。槽位带有版本号（取自全局递增序列，不会重复），
+ * 每次写入、摘要都会换新版本号，删除和淘汰会移除槽位。调用方在查库前取版本号（同时创建槽位），
+ * 放入时槽位的版本号已变化或槽位已被移除则丢弃本次结果，下次重新加载；只有同一会话的写入会使加载失效。
+ * </p>
+ * <p>
+ * 缓存只感知本节点的写入，多节点部署时其他节点写入的消息在缓存过期（ttlSeconds）后可见。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+@RequiredArgsConstructor
+public class SessionHistoryCache {
+
+    /**
+     * 单条消息的固定开销估算（字节）
+     */
+    private static final long MESSAGE_OVERHEAD_BYTES = 64;
+
+    /**
+     * 单个缓存项（槽位）的固定开销估算（字节），尚未放入缓存项的槽位也按此计入
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private static final Comparator<CachedMessage> BY_ID = Comparator.comparing(CachedMessage::id);
+
+    private final HistoryCacheProperties historyCacheProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 会话 ID -> 槽位（无锁查找，增删只在 lruLock 内进行，与 lru 保持一致）
+     */
+    private final Map<Long, Slot> slots = new ConcurrentHashMap<>();
+
+    /**
+     * 槽位的淘汰顺序（按访问顺序排列，最久未访问的在前），所有读写都在 lruLock 内进行
+     */
+    private final LinkedHashMap<Long, Slot> lru = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final Object lruLock = new Object();
+
+    /**
+     * 版本号序列
+     */
+    private final AtomicLong versions = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 槽位的估算总字节数（lruLock 内读写）
+     */
+    private long residentBytes;
+
+    private Counter evictions;
+
+    /**
+     * 注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        FunctionCounter.builder("pite.session.history.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit")
+                .description("会话历史缓存查询次数")
+                .register(meterRegistry);
+        FunctionCounter.builder("pite.session.history.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss")
+                .description("会话历史缓存查询次数")
+                .register(meterRegistry);
+        Gauge.builder("pite.session.history.cache.hit.ratio", this, SessionHistoryCache::hitRatio)
+                .description("会话历史缓存命中率（启动以来）")
+                .register(meterRegistry);
+        Gauge.builder("pite.session.history.cache.resident.bytes", this, SessionHistoryCache::residentBytes)
+                .description("会话历史缓存占用的估算字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("pite.session.history.cache.sessions", this, SessionHistoryCache::size)
+                .description("会话历史缓存中的会话数（含正在加载的会话）")
+                .register(meterRegistry);
+        evictions = Counter.builder("pite.session.history.cache.evictions")
+                .description("因容量淘汰的会话数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查询缓存的会话历史
+     *
+     * @param sessionId 会话 ID
+     * @param limit 最近消息数（null 或不大于 0 表示水位线之后的全部消息）
+     * @return 缓存的历史，未命中返回 null
+     */
+    public HistorySnapshot get(Long sessionId, Integer limit) {
+        if (!historyCacheProperties.isEnabled()) {
+            return null;
+        }
+        Slot slot = slots.get(sessionId);
+        HistorySnapshot snapshot = null;
+        if (slot != null) {
+            synchronized (slot) {
+                Entry entry = slot.entry;
+                if (entry != null && isExpired(entry)) {
+                    removeSlot(sessionId, slot);
+                    entry = null;
+                }
+                boolean all = limit == null || limit <= 0;
+                if (entry != null && (entry.complete || (!all && entry.messages.size() >= limit))) {
+                    int size = entry.messages.size();
+                    int from = all ? 0 : Math.max(0, size - limit);
+                    snapshot = new HistorySnapshot(entry.summary, entry.watermark,
+                            new ArrayList<>(entry.messages.subList(from, size)));
+                }
+            }
+        }
+        if (snapshot == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        synchronized (lruLock) {
+            lru.get(sessionId);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 取会话当前的版本号（查库前调用）
+     * <p>
+     * 会话尚无槽位时创建一个，之后该会话的写入都会使本次加载失效。
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @return 版本号
+     */
+    public long stamp(Long sessionId) {
+        if (!historyCacheProperties.isEnabled()) {
+            return 0;
+        }
+        Slot slot = slots.get(sessionId);
+        if (slot == null) {
+            slot = createSlot(sessionId);
+        }
+        synchronized (slot) {
+            return slot.version;
+        }
+    }
+
+    /**
+     * 放入查库得到的会话历史
+     *
+     * @param sessionId 会话 ID
+     * @param stamp 查库前取得的版本号
+     * @param summary 会话摘要
+     * @param watermark 摘要水位线
+     * @param messages 水位线之后的消息（按 ID 升序）
+     * @param complete 是否包含水位线之后的全部消息
+     */
+    public void put(Long sessionId, long stamp, String summary, Long watermark,
+                    List<ConversationMessagePO> messages, boolean complete) {
+        if (!historyCacheProperties.isEnabled()) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.summary = summary;
+        entry.watermark = watermark;
+        entry.complete = complete;
+        entry.messages = new ArrayList<>(messages.size() + 2);
+        for (ConversationMessagePO message : messages) {
+            entry.messages.add(CachedMessage.of(message));
+        }
+        entry.loadedAtNanos = System.nanoTime();
+        entry.bytes = weigh(entry);
+        if (entry.bytes > historyCacheProperties.getMaxEntryBytes()) {
+            return;
+        }
+
+        Slot slot = slots.get(sessionId);
+        if (slot == null) {
+            // 查库期间槽位被删除或淘汰
+            return;
+        }
+        synchronized (slot) {
+            if (slot.version != stamp) {
+                // 查库期间有写入或摘要，结果可能已过期
+                return;
+            }
+            slot.entry = entry;
+            resize(sessionId, slot, entry.bytes);
+        }
+    }
+
+    /**
+     * 追加已提交的消息（消息事务提交后调用）
+     *
+     * @param sessionId 会话 ID
+     * @param messages 新写入的消息（需已回填 ID）
+     */
+    public void append(Long sessionId, List<ConversationMessagePO> messages) {
+        Slot slot = slots.get(sessionId);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            slot.version = versions.incrementAndGet();
+            Entry entry = slot.entry;
+            if (entry == null) {
+                return;
+            }
+            for (ConversationMessagePO message : messages) {
+                if (message.getId() == null) {
+                    // 无法确定位置，放弃整个缓存项
+                    removeSlot(sessionId, slot);
+                    return;
+                }
+                if (entry.watermark != null && message.getId() <= entry.watermark) {
+                    continue;
+                }
+                CachedMessage cached = CachedMessage.of(message);
+                int index = Collections.binarySearch(entry.messages, cached, BY_ID);
+                if (index >= 0) {
+                    continue;
+                }
+                int insertAt = -index - 1;
+                if (insertAt == 0 && !entry.complete && !entry.messages.isEmpty()) {
+                    // 只缓存了最近一段消息时，早于这一段的消息不在缓存范围内
+                    continue;
+                }
+                // 并发事务可能晚于 ID 更大的消息提交，按 ID 插入保持顺序
+                entry.messages.add(insertAt, cached);
+                entry.bytes += weigh(cached);
+            }
+            if (entry.bytes > historyCacheProperties.getMaxEntryBytes()) {
+                removeSlot(sessionId, slot);
+                return;
+            }
+            resize(sessionId, slot, entry.bytes);
+        }
+    }
+
+    /**
+     * 摘要水位线推进后裁掉已折叠的消息
+     *
+     * @param sessionId 会话 ID
+     * @param summary 新摘要
+     * @param watermark 新水位线
+     */
+    public void applySummary(Long sessionId, String summary, Long watermark) {
+        Slot slot = slots.get(sessionId);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            slot.version = versions.incrementAndGet();
+            Entry entry = slot.entry;
+            if (entry == null) {
+                return;
+            }
+            int before = entry.messages.size();
+            entry.messages.removeIf(m -> m.id() <= watermark);
+            if (entry.messages.size() < before) {
+                // 缓存的最近一段已覆盖到水位线，即包含水位线之后的全部消息
+                entry.complete = true;
+            }
+            entry.summary = summary;
+            entry.watermark = watermark;
+            entry.bytes = weigh(entry);
+            resize(sessionId, slot, entry.bytes);
+        }
+    }
+
+    /**
+     * 移出会话（会话删除后调用）
+     *
+     * @param sessionId 会话 ID
+     */
+    public void invalidate(Long sessionId) {
+        Slot slot = slots.get(sessionId);
+        if (slot != null) {
+            removeSlot(sessionId, slot);
+        }
+    }
+
+    /**
+     * 启动以来的命中率
+     *
+     * @return 命中率，没有查询时为 0
+     */
+    public double hitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 缓存占用的估算字节数
+     *
+     * @return 字节数
+     */
+    public long residentBytes() {
+        synchronized (lruLock) {
+            return residentBytes;
+        }
+    }
+
+    /**
+     * 缓存中的会话数（含正在加载、尚未放入缓存项的会话）
+     *
+     * @return 会话数
+     */
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * 创建槽位并登记到 LRU
+     */
+    private Slot createSlot(Long sessionId) {
+        Slot created = new Slot(versions.incrementAndGet());
+        synchronized (lruLock) {
+            Slot existing = slots.putIfAbsent(sessionId, created);
+            if (existing != null) {
+                return existing;
+            }
+            lru.put(sessionId, created);
+            created.weight = ENTRY_OVERHEAD_BYTES;
+            residentBytes += created.weight;
+            evictOverCapacity();
+            return created;
+        }
+    }
+
+    /**
+     * 更新槽位的字节数并移到 LRU 队尾（槽位已被移除时忽略）
+     */
+    private void resize(Long sessionId, Slot slot, long bytes) {
+        synchronized (lruLock) {
+            if (lru.get(sessionId) != slot) {
+                return;
+            }
+            residentBytes += bytes - slot.weight;
+            slot.weight = bytes;
+            evictOverCapacity();
+        }
+    }
+
+    /**
+     * 移除槽位，之后以旧版本号放入的结果都会被丢弃
+     */
+    private void removeSlot(Long sessionId, Slot slot) {
+        synchronized (lruLock) {
+            if (lru.remove(sessionId, slot)) {
+                slots.remove(sessionId, slot);
+                residentBytes -= slot.weight;
+            }
+        }
+    }
+
+    /**
+     * 淘汰最久未访问的槽位直到不超过总字节数上限（lruLock 内调用）
+     */
+    private void evictOverCapacity() {
+        Iterator<Map.Entry<Long, Slot>> iterator = lru.entrySet().iterator();
+        while (residentBytes > historyCacheProperties.getMaxBytes() && iterator.hasNext()) {
+            Map.Entry<Long, Slot> victim = iterator.next();
+            iterator.remove();
+            slots.remove(victim.getKey(), victim.getValue());
+            residentBytes -= victim.getValue().weight;
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        int ttl = historyCacheProperties.getTtlSeconds();
+        return ttl > 0 && System.nanoTime() - entry.loadedAtNanos > TimeUnit.SECONDS.toNanos(ttl);
+    }
+
+    private static long weigh(Entry entry) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * length(entry.summary);
+        for (CachedMessage message : entry.messages) {
+            bytes += weigh(message);
+        }
+        return bytes;
+    }
+
+    private static long weigh(CachedMessage message) {
+        // 按 UTF-16 估算，中文内容基本如此
+        return MESSAGE_OVERHEAD_BYTES + 2L * (length(message.role()) + length(message.content()));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    /**
+     * 缓存的消息
+     *
+     * @param id 消息 ID
+     * @param role 角色
+     * @param content 内容
+     */
+    public record CachedMessage(Long id, String role, String content) {
+
+        static CachedMessage of(ConversationMessagePO message) {
+            return new CachedMessage(message.getId(), message.getRole(), message.getContent());
+        }
+    }
+
+    /**
+     * 缓存命中时返回的会话历史
+     *
+     * @param summary 会话摘要
+     * @param watermark 摘要水位线
+     * @param messages 水位线之后的消息（按 ID 升序）
+     */
+    public record HistorySnapshot(String summary, Long watermark, List<CachedMessage> messages) {
+    }
+
+    /**
+     * 单个会话的槽位
+     * <p>
+     * version 和 entry 在槽位锁内读写，weight 在 lruLock 内读写。
+     * </p>
+     */
+    private static final class Slot {
+
+        private long version;
+        private Entry entry;
+        private long weight;
+
+        private Slot(long version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * 单个会话的缓存项
+     */
+    private static final class Entry {
+
+        private String summary;
+        private Long watermark;
+        private List<CachedMessage> messages;
+        private boolean complete;
+        private long bytes;
+        private long loadedAtNanos;
+    }
+}
@@ -0,0 +1,378 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.constant.MessageRole;
+import pox.com.piteagents.config.SessionChatProperties;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IConversationService;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 会话消息组提交写入器
+ * <p>
+ * 会话对话在响应发出后才持久化本轮的用户消息和助手回复，用户不等待 MySQL 写入。
+ * 所有会话的待写消息进入同一个有界队列，由单个写入线程组提交：
+ * - 取到第一条后最多再等待 flushIntervalMs，或攒满 maxBatchRows 行，合并为一条多行 INSERT 在一个事务中写入
+ * - 每次提交返回一个 Future，所在批次提交后完成；一轮对话的两条消息作为一次提交，不会被拆到两个批次
+ * - 所有提交只经过队列，由单个写入线程按提交顺序写入，同一会话的消息不会乱序
+ * - 队列满时提交线程最多等待 writerEnqueueTimeoutMs（背压），仍无空位时本次提交以 503 失败；
+ *   提交线程从不直接写库，因此不能在 Reactor 的非阻塞线程上调用 {@link #submit}
+ * </p>
+ * <p>
+ * 与逐条写入（每条消息一次会话查询 + 一次单行插入 + 一次事务提交）相比，
+ * 一个批次只需一次会话查询、一次插入和一次提交，事务提交（redo log 刷盘）的次数按批次大小成倍减少。
+ * 批次写入失败时逐次提交重试，只让有问题的提交失败。关闭应用时等待队列中的消息写完。
+ * </p>
+ * <p>
+ * 写入在响应之后完成，同一会话紧接着的下一轮对话可能在上一轮写入前就开始加载历史。
+ * 每个会话最近一次尚未完成的提交会被记录，下一轮组装上下文前通过 {@link #awaitPending} 等待它写入。
+ * 只覆盖本节点的提交，多节点部署时同一会话的连续请求应路由到同一节点。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SessionMessageWriter {
+
+    private final IConversationService conversationService;
+    private final SessionChatProperties sessionChatProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 待写入队列
+     */
+    private BlockingQueue<PendingWrite> queue;
+
+    /**
+     * 各会话最近一次尚未完成的提交
+     */
+    private final Map<Long, CompletableFuture<Void>> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * 写入线程
+     */
+    private Thread flusher;
+
+    private volatile boolean running;
+
+    private DistributionSummary batchRowsSummary;
+    private Timer flushTimer;
+    private Timer lagTimer;
+
+    /**
+     * 启动写入线程
+     */
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(sessionChatProperties.getWriterQueueCapacity());
+        meterRegistry.gauge("pite.session.writer.queue", queue, BlockingQueue::size);
+        batchRowsSummary = DistributionSummary.builder("pite.session.writer.batch.rows")
+                .description("每个组提交批次写入的消息行数")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("pite.session.writer.flush")
+                .description("组提交批次的写入耗时（含事务提交）")
+                .register(meterRegistry);
+        lagTimer = Timer.builder("pite.session.writer.lag")
+                .description("消息从提交到写入完成的时长")
+                .register(meterRegistry);
+
+        running = true;
+        flusher = new Thread(this::flushLoop, sessionChatProperties.getWriterThreadName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * 停止接收并等待队列中的消息写完
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(sessionChatProperties.getShutdownTimeoutSeconds()));
+        if (flusher.isAlive()) {
+            flusher.interrupt();
+            List<PendingWrite> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            ZhipuApiException error = new ZhipuApiException(503, "应用关闭，消息未写入");
+            remaining.forEach(write -> write.future.completeExceptionally(error));
+            log.error("关闭时仍有 {} 次会话消息提交未写入", remaining.size());
+        }
+    }
+
+    /**
+     * 提交一轮对话的写入（异步执行，立即返回）
+     * <p>
+     * 提示词 Token 计入用户消息，生成 Token 计入助手回复，会话累计 Token 数即为本轮调用的总用量。
+     * </p>
+     *
+     * @param sessionId        会话 ID
+     * @param userContent      用户消息内容
+     * @param assistantContent 助手回复内容
+     * @param promptTokens     提示词 Token 数
+     * @param completionTokens 生成内容 Token 数
+     * @param firstTurn        是否为会话的第一轮对话（会话仍是默认标题时用用户消息生成标题）
+     * @return 本轮消息所在批次提交后完成的 Future
+     */
+    public CompletableFuture<Void> submitTurn(Long sessionId, String userContent, String assistantContent,
+                                              Integer promptTokens, Integer completionTokens, boolean firstTurn) {
+        int prompt = promptTokens != null ? promptTokens : 0;
+        int completion = completionTokens != null ? completionTokens : 0;
+        List<ConversationMessagePO> messages = List.of(
+                ConversationMessagePO.builder()
+                        .sessionId(sessionId)
+                        .role(MessageRole.USER)
+                        .content(userContent)
+                        .promptTokens(prompt)
+                        .completionTokens(0)
+                        .totalTokens(prompt)
+                        .build(),
+                ConversationMessagePO.builder()
+                        .sessionId(sessionId)
+                        .role(MessageRole.ASSISTANT)
+                        .content(assistantContent)
+                        .promptTokens(0)
+                        .completionTokens(completion)
+                        .totalTokens(completion)
+                        .build());
+        return submit(messages, firstTurn);
+    }
+
+    /**
+     * 提交消息写入（异步执行，立即返回）
+     * <p>
+     * 同一次提交的消息写入同一批次。队列满时在当前线程上等待，调用方需保证不在非阻塞线程上调用。
+     * </p>
+     *
+     * @param messages    同一会话的消息（按写入顺序）
+     * @param updateTitle 会话仍是默认标题时是否用第一条用户消息生成标题
+     * @return 消息所在批次提交后完成的 Future；会话不存在或已删除时以 404 异常完成，
+     *         队列等待超时或应用关闭时以 503 异常完成
+     */
+    public CompletableFuture<Void> submit(List<ConversationMessagePO> messages, boolean updateTitle) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        PendingWrite write = new PendingWrite(messages, updateTitle);
+        trackPending(write);
+        if (!running) {
+            reject(write, "应用关闭，消息未写入");
+            return write.future;
+        }
+        if (queue.offer(write)) {
+            return write.future;
+        }
+
+        // 队列已满：数据库写入跟不上，让提交方等待（背压），不绕过队列写入，保证同一会话按顺序写入
+        meterRegistry.counter("pite.session.writes", "outcome", "backpressure").increment();
+        try {
+            if (!queue.offer(write, sessionChatProperties.getWriterEnqueueTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                reject(write, "消息写入队列已满，请稍后重试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(write, "消息写入被中断");
+        }
+        return write.future;
+    }
+
+    /**
+     * 等待会话最近一次提交写入完成
+     * <p>
+     * 组装下一轮对话的上下文前调用，保证加载的历史包含上一轮的消息。
+     * 写入失败或等待超时时直接返回，由调用方按已写入的历史继续。
+     * </p>
+     *
+     * @param sessionId 会话 ID
+     * @param timeoutMs 最长等待时间（毫秒）
+     */
+    public void awaitPending(Long sessionId, long timeoutMs) {
+        CompletableFuture<Void> pending = pendingWrites.get(sessionId);
+        if (pending == null || pending.isDone()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            pending.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TimeoutException e) {
+            log.warn("等待会话上一轮消息写入超时，按已写入的历史继续，会话ID: {}", sessionId);
+        } catch (ExecutionException e) {
+            // 上一轮写入失败，提交方已记录错误
+        }
+        meterRegistry.timer("pite.session.writer.pending.wait").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void trackPending(PendingWrite write) {
+        Long sessionId = write.sessionId();
+        pendingWrites.put(sessionId, write.future);
+        write.future.whenComplete((result, error) -> pendingWrites.remove(sessionId, write.future));
+    }
+
+    private void flushLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        PendingWrite carry = null;
+        while (running || !queue.isEmpty() || carry != null) {
+            try {
+                PendingWrite first = carry != null ? carry : queue.poll(100, TimeUnit.MILLISECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                carry = collect(batch, first.messages.size());
+                flush(batch);
+            } catch (InterruptedException e) {
+                // 关闭超时被中断，已取出但未写入的提交以失败完成
+                ZhipuApiException error = new ZhipuApiException(503, "应用关闭，消息未写入");
+                batch.forEach(write -> write.future.completeExceptionally(error));
+                if (carry != null) {
+                    carry.future.completeExceptionally(error);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // flush 已处理写入异常，这里只兜底，避免写入线程退出
+                log.error("会话消息写入线程异常: {}", e.getMessage(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在时间窗口内继续收集待写消息，直到攒满行数上限
+     *
+     * @return 等待期间取到但放不进本批次的提交（作为下一批次的第一个），没有时返回 null
+     */
+    private PendingWrite collect(List<PendingWrite> batch, int rows) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sessionChatProperties.getFlushIntervalMs());
+        while (rows < sessionChatProperties.getMaxBatchRows()) {
+            PendingWrite next = queue.peek();
+            if (next != null) {
+                if (rows + next.messages.size() > sessionChatProperties.getMaxBatchRows()) {
+                    return null;
+                }
+                queue.poll();
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || (next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                    return null;
+                }
+                if (rows + next.messages.size() > sessionChatProperties.getMaxBatchRows()) {
+                    return next;
+                }
+            }
+            batch.add(next);
+            rows += next.messages.size();
+        }
+        return null;
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        if (batch.size() == 1) {
+            writeAlone(batch.get(0));
+            return;
+        }
+
+        List<ConversationMessagePO> rows = new ArrayList<>();
+        Set<Long> titleSessionIds = new HashSet<>();
+        for (PendingWrite write : batch) {
+            rows.addAll(write.messages);
+            if (write.updateTitle) {
+                titleSessionIds.add(write.sessionId());
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        Set<Long> missing;
+        try {
+            missing = conversationService.saveMessageBatch(rows, titleSessionIds);
+        } catch (Exception e) {
+            // 整批回滚，逐次重试，只让有问题的提交失败
+            log.warn("会话消息批量写入失败，逐次重试，批次大小: {}, 错误: {}", batch.size(), e.getMessage());
+            batch.forEach(this::writeAlone);
+            return;
+        }
+        flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        batchRowsSummary.record(rows.size());
+        batch.forEach(write -> complete(write, missing));
+    }
+
+    private void reject(PendingWrite write, String message) {
+        meterRegistry.counter("pite.session.writes", "outcome", "rejected").increment();
+        log.error("会话消息未写入，会话ID: {}, 原因: {}", write.sessionId(), message);
+        write.future.completeExceptionally(new ZhipuApiException(503, message));
+    }
+
+    /**
+     * 单独写入一次提交（批次只有一次提交、批次失败后重试）
+     */
+    private void writeAlone(PendingWrite write) {
+        try {
+            Set<Long> missing = conversationService.saveMessageBatch(write.messages,
+                    write.updateTitle ? Set.of(write.sessionId()) : Set.of());
+            batchRowsSummary.record(write.messages.size());
+            complete(write, missing);
+        } catch (Exception e) {
+            meterRegistry.counter("pite.session.writes", "outcome", "failed").increment();
+            log.error("会话消息写入失败，会话ID: {}, 错误: {}", write.sessionId(), e.getMessage(), e);
+            write.future.completeExceptionally(e);
+        }
+    }
+
+    private void complete(PendingWrite write, Set<Long> missingSessionIds) {
+        lagTimer.record(System.nanoTime() - write.submittedNanos, TimeUnit.NANOSECONDS);
+        if (missingSessionIds.contains(write.sessionId())) {
+            meterRegistry.counter("pite.session.writes", "outcome", "session_missing").increment();
+            log.warn("会话不存在或已删除，消息未写入，会话ID: {}", write.sessionId());
+            write.future.completeExceptionally(new ZhipuApiException(404, "会话不存在，ID: " + write.sessionId()));
+            return;
+        }
+        meterRegistry.counter("pite.session.writes", "outcome", "saved").increment();
+        write.future.complete(null);
+    }
+
+    /**
+     * 一次待写入的提交
+     */
+    private static final class PendingWrite {
+
+        private final List<ConversationMessagePO> messages;
+        private final boolean updateTitle;
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingWrite(List<ConversationMessagePO> messages, boolean updateTitle) {
+            this.messages = messages;
+            this.updateTitle = updateTitle;
+        }
+
+        Long sessionId() {
+            return messages.get(0).getSessionId();
+        }
+    }
+}
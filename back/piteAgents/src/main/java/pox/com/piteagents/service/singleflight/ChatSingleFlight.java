@@ -0,0 +1,210 @@
+package pox.com.piteagents.service.singleflight;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.utils.ChatRequestDigester;
+import pox.com.piteagents.config.SingleFlightProperties;
+import pox.com.piteagents.entity.dto.common.TokenUsage;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.dto.response.ToolCallRecord;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.streaming.StreamReplayBuffer;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 对话请求合并器（single-flight）
+ * <p>
+ * 仪表盘刷新和客户端重试经常在同一时刻发出完全相同的请求。
+ * 对请求做规范化后计算指纹（{@link ChatRequestDigester}），指纹相同且仍在进行中的请求共享一次上游调用：
+ * - 同步对话：后到的请求等待第一个请求的结果，各自得到一份副本，调用方修改响应互不影响
+ * - 流式对话：共享同一个重放流，后到的请求先收到已生成的前缀，再接收后续内容；
+ *   未启用续传时重放流不保留已推送的帧，只有尚未产生内容的流可以加入
+ * </p>
+ * <p>
+ * 只合并同时进行中的请求，不缓存已完成的结果。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatSingleFlight {
+
+    private static final String KIND_CHAT = "chat";
+    private static final String KIND_STREAM = "stream";
+
+    private final SingleFlightProperties singleFlightProperties;
+    private final ChatRequestDigester chatRequestDigester;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 进行中的同步对话：指纹 -> 结果
+     */
+    private final Map<String, CompletableFuture<ChatResponse>> inflightChats = new ConcurrentHashMap<>();
+
+    /**
+     * 进行中的流式对话：指纹 -> 重放流
+     */
+    private final Map<String, StreamReplayBuffer.ReplayStream> inflightStreams = new ConcurrentHashMap<>();
+
+    /**
+     * 注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        Gauge.builder("pite.singleflight.inflight", inflightChats, Map::size)
+                .description("进行中的可合并同步对话数")
+                .tag("kind", KIND_CHAT)
+                .register(meterRegistry);
+        Gauge.builder("pite.singleflight.inflight", inflightStreams, Map::size)
+                .description("进行中的可合并流式对话数")
+                .tag("kind", KIND_STREAM)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 执行同步对话，相同请求共享一次调用
+     *
+     * @param request 对话请求
+     * @param call    实际的上游调用
+     * @return 对话响应（合并的请求各自返回一份副本）
+     */
+    public ChatResponse execute(ChatRequest request, Supplier<ChatResponse> call) {
+        if (!singleFlightProperties.isChatEnabled()) {
+            return call.get();
+        }
+
+        String key = chatRequestDigester.digest(request, "single-flight-" + KIND_CHAT, false);
+        CompletableFuture<ChatResponse> future = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> existing = inflightChats.putIfAbsent(key, future);
+
+        if (existing != null) {
+            record(KIND_CHAT, false);
+            log.info("合并相同的同步对话请求，指纹: {}", key);
+            try {
+                return copyOf(existing.join());
+            } catch (CompletionException e) {
+                throw unwrap(e.getCause());
+            }
+        }
+
+        record(KIND_CHAT, true);
+        try {
+            ChatResponse response = call.get();
+            // 合并的请求从快照复制，不受调用方随后修改 response 的影响
+            future.complete(copyOf(response));
+            return response;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflightChats.remove(key, future);
+        }
+    }
+
+    /**
+     * 加入进行中的相同流式对话，没有时登记新的流式对话
+     * <p>
+     * 查找和登记是同一个原子操作，同时到达的相同请求只有一个成为发起方，其余都加入它的重放流。
+     * 返回值不是 candidate 时，调用方应订阅返回的流，不再调用上游。
+     * </p>
+     *
+     * @param key       请求指纹（{@link #streamKey(ChatRequest)}，为 null 时不合并）
+     * @param candidate 本请求新建的重放流
+     * @return 进行中的相同流式对话的重放流，本请求成为发起方时返回 candidate
+     */
+    public StreamReplayBuffer.ReplayStream joinOrRegisterStream(String key, StreamReplayBuffer.ReplayStream candidate) {
+        if (key == null) {
+            return candidate;
+        }
+        StreamReplayBuffer.ReplayStream stream = inflightStreams.compute(key,
+                (k, existing) -> existing != null && !existing.isFinished() ? existing : candidate);
+        boolean leader = stream == candidate;
+        record(KIND_STREAM, leader);
+        if (!leader) {
+            log.info("合并相同的流式对话请求，指纹: {}", key);
+        }
+        return stream;
+    }
+
+    /**
+     * 流式对话结束后取消登记
+     *
+     * @param key    请求指纹（为 null 时忽略）
+     * @param stream 重放流
+     */
+    public void releaseStream(String key, StreamReplayBuffer.ReplayStream stream) {
+        if (key != null) {
+            inflightStreams.remove(key, stream);
+        }
+    }
+
+    /**
+     * 计算流式对话的请求指纹
+     *
+     * @param request 对话请求
+     * @return 请求指纹，未启用流式合并时返回 null
+     */
+    public String streamKey(ChatRequest request) {
+        return singleFlightProperties.isStreamEnabled() ? chatRequestDigester.digest(request, "single-flight-" + KIND_STREAM, true) : null;
+    }
+
+    private void record(String kind, boolean leader) {
+        Counter.builder("pite.singleflight.requests")
+                .description("可合并请求数，follower 占比即合并率")
+                .tag("kind", kind)
+                .tag("role", leader ? "leader" : "follower")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private ChatResponse copyOf(ChatResponse response) {
+        if (response == null) {
+            return null;
+        }
+        return ChatResponse.builder()
+                .id(response.getId())
+                .model(response.getModel())
+                .content(response.getContent())
+                .finishReason(response.getFinishReason())
+                .usage(response.getUsage() != null
+                        ? TokenUsage.of(response.getUsage().getPromptTokens(),
+                                response.getUsage().getCompletionTokens(), response.getUsage().getTotalTokens())
+                        : null)
+                .toolCalls(response.getToolCalls() != null
+                        ? response.getToolCalls().stream()
+                                .map(call -> ToolCallRecord.builder()
+                                        .id(call.getId())
+                                        .name(call.getName())
+                                        .arguments(call.getArguments())
+                                        .result(call.getResult())
+                                        .success(call.getSuccess())
+                                        .errorMessage(call.getErrorMessage())
+                                        .build())
+                                .collect(Collectors.toList())
+                        : null)
+                .cached(response.getCached())
+                .build();
+    }
+
+    private RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        return new ZhipuApiException("合并请求执行失败: " + cause.getMessage(), cause);
+    }
+}
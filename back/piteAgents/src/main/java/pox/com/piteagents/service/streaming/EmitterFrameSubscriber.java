@@ -0,0 +1,36 @@
+package pox.com.piteagents.service.streaming;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * 将重放流的帧推送到 SSE 发射器的订阅者
+ * <p>
+ * 帧已是完整的 SSE 字节，直接发送帧自带的发送项，多个订阅者共享同一个对象。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public class EmitterFrameSubscriber implements StreamReplayBuffer.FrameSubscriber {
+
+    private final SseEmitter emitter;
+
+    public EmitterFrameSubscriber(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void onFrame(SseFrame frame) throws Exception {
+        emitter.send(frame.payload());
+    }
+
+    @Override
+    public void onComplete() {
+        emitter.complete();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        emitter.completeWithError(error);
+    }
+}
@@ -0,0 +1,54 @@
+package pox.com.piteagents.service.streaming;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.util.Set;
+
+/**
+ * 已编码的 SSE 帧
+ * <p>
+ * 持有完整的帧字节，以及交给 {@link ResponseBodyEmitter#send(Set)} 的发送项：
+ * - 发送项在编码时创建一次，推送给多个订阅者、续传时补发都复用同一个对象
+ * - 媒体类型为 text/event-stream，发射器选择字节数组转换器原样写出
+ * </p>
+ * <p>
+ * 帧字节在创建后不再修改，可被重放缓冲区长期持有。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public final class SseFrame {
+
+    private final byte[] bytes;
+    private final Set<ResponseBodyEmitter.DataWithMediaType> payload;
+
+    /**
+     * 包装已编码的帧字节
+     *
+     * @param bytes 完整的 SSE 帧字节（调用方不得再修改）
+     */
+    public SseFrame(byte[] bytes) {
+        this.bytes = bytes;
+        this.payload = Set.of(new ResponseBodyEmitter.DataWithMediaType(bytes, MediaType.TEXT_EVENT_STREAM));
+    }
+
+    /**
+     * 帧字节数
+     *
+     * @return 字节数
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * 发射器的发送项
+     *
+     * @return 供 {@link ResponseBodyEmitter#send(Set)} 使用的单帧数据
+     */
+    public Set<ResponseBodyEmitter.DataWithMediaType> payload() {
+        return payload;
+    }
+}
@@ -0,0 +1,213 @@
+package pox.com.piteagents.service.streaming;
+
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * SSE 数据帧编码器
+ * <p>
+ * 将 StreamChatResponse 直接编码为完整的 SSE 帧字节（{@code data:{...}\n\n}），
+ * 绕过 Jackson 消息转换和 SseEventBuilder 的多段写入：
+ * - id、model 组成的 JSON 前缀每个流只编码一次（响应ID变化时重新编码）
+ * - 只对 delta 文本做 JSON 转义，写入可复用的字节缓冲区
+ * - 整帧作为一个字节数组交给发射器，由 ByteArrayHttpMessageConverter 原样写出；
+ *   发送项随帧一起创建（{@link SseFrame}），推送给多个订阅者时不再逐次包装
+ * </p>
+ * <p>
+ * 输出与 Jackson 序列化 StreamChatResponse 的结果一致（字段顺序相同，包含 null 字段），
+ * 客户端无需任何改动。非线程安全，每个流创建一个实例。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+public class SseFrameEncoder {
+
+    private static final byte[] ID_PREFIX = bytes("id:");
+    private static final byte[] DATA_PREFIX = bytes("data:{\"id\":");
+    private static final byte[] MODEL_FIELD = bytes(",\"model\":");
+    private static final byte[] DELTA_FIELD = bytes(",\"delta\":");
+    private static final byte[] FINISH_REASON_FIELD = bytes(",\"finishReason\":");
+    private static final byte[] DONE_FALSE = bytes(",\"done\":false}\n\n");
+    private static final byte[] DONE_TRUE = bytes(",\"done\":true}\n\n");
+    private static final byte[] DONE_NULL = bytes(",\"done\":null}\n\n");
+    private static final byte[] NULL = bytes("null");
+    private static final byte[] HEX = bytes("0123456789ABCDEF");
+
+    /**
+     * 可复用的编码缓冲区
+     */
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    /**
+     * 缓存的帧前缀（data:{"id":...,"model":...,"delta":）
+     */
+    private byte[] prefix;
+    private String prefixId;
+    private String prefixModel;
+
+    /**
+     * 编码为完整的 SSE 帧字节
+     *
+     * @param response 流式响应对象
+     * @return 帧（帧字节为新数组，可安全交给发射器或重放缓冲区持有）
+     */
+    public SseFrame encode(StreamChatResponse response) {
+        length = 0;
+        return encodeData(response);
+    }
+
+    /**
+     * 编码为带序号的完整 SSE 帧字节（{@code id:<seq>\ndata:{...}\n\n}）
+     * <p>
+     * 序号写入 SSE 的 id 字段，客户端重连时通过 Last-Event-ID 请求头带回。
+     * </p>
+     *
+     * @param response 流式响应对象
+     * @param seq      帧序号
+     * @return 帧（帧字节为新数组，可安全交给发射器或重放缓冲区持有）
+     */
+    public SseFrame encode(StreamChatResponse response, long seq) {
+        length = 0;
+        write(ID_PREFIX);
+        writeAscii(Long.toString(seq));
+        buffer[length++] = '\n';
+        return encodeData(response);
+    }
+
+    /**
+     * 编码 data 字段，追加在缓冲区当前位置之后
+     */
+    private SseFrame encodeData(StreamChatResponse response) {
+        write(prefixFor(response.getId(), response.getModel()));
+        writeString(response.getDelta());
+        write(FINISH_REASON_FIELD);
+        writeString(response.getFinishReason());
+        write(response.getDone() == null ? DONE_NULL : response.getDone() ? DONE_TRUE : DONE_FALSE);
+        // 缓冲区在编码下一帧时复用，帧字节必须复制一份
+        return new SseFrame(Arrays.copyOf(buffer, length));
+    }
+
+    /**
+     * 获取帧前缀，id 或 model 变化时重新编码
+     */
+    private byte[] prefixFor(String id, String model) {
+        if (prefix == null || !Objects.equals(id, prefixId) || !Objects.equals(model, prefixModel)) {
+            int start = length;
+            write(DATA_PREFIX);
+            writeString(id);
+            write(MODEL_FIELD);
+            writeString(model);
+            write(DELTA_FIELD);
+            prefix = Arrays.copyOfRange(buffer, start, length);
+            prefixId = id;
+            prefixModel = model;
+            length = start;
+        }
+        return prefix;
+    }
+
+    /**
+     * 写入 JSON 字符串（含引号），null 写为 null 字面量
+     * <p>
+     * 与 Jackson 默认行为一致：转义引号、反斜杠和控制字符，非 ASCII 字符按 UTF-8 原样写出。
+     * 不成对的代理字符（如增量在代理对中间被截断）无法编码为合法的 UTF-8，转义为 \\uXXXX，
+     * 客户端解析 JSON 后得到原字符。
+     * </p>
+     */
+    private void writeString(String text) {
+        if (text == null) {
+            write(NULL);
+            return;
+        }
+
+        // 最坏情况：每个字符转义为 \\u00XX（6 字节）
+        ensureCapacity(text.length() * 6 + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer[length++] = '\\';
+                }
+                buffer[length++] = (byte) c;
+            } else if (c < 0x20) {
+                writeControl(c);
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                writeUnicodeEscape(c);
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * 写入转义后的控制字符
+     */
+    private void writeControl(char c) {
+        buffer[length++] = '\\';
+        switch (c) {
+            case '\n' -> buffer[length++] = 'n';
+            case '\r' -> buffer[length++] = 'r';
+            case '\t' -> buffer[length++] = 't';
+            case '\b' -> buffer[length++] = 'b';
+            case '\f' -> buffer[length++] = 'f';
+            default -> {
+                length--;
+                writeUnicodeEscape(c);
+            }
+        }
+    }
+
+    /**
+     * 写入 \\uXXXX 转义
+     */
+    private void writeUnicodeEscape(char c) {
+        buffer[length++] = '\\';
+        buffer[length++] = 'u';
+        buffer[length++] = HEX[(c >> 12) & 0xF];
+        buffer[length++] = HEX[(c >> 8) & 0xF];
+        buffer[length++] = HEX[(c >> 4) & 0xF];
+        buffer[length++] = HEX[c & 0xF];
+    }
+
+    private void writeAscii(String text) {
+        ensureCapacity(text.length() + 1);
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
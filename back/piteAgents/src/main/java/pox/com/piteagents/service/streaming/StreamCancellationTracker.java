@@ -0,0 +1,164 @@
+package pox.com.piteagents.service.streaming;
+
+import ai.z.openapi.service.model.Delta;
+import ai.z.openapi.service.model.ModelData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
+import pox.com.piteagents.service.upstream.CompletionTokenStats;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 流式请求取消跟踪器
+ * <p>
+ * 客户端断开（关闭页面、超时、网络错误）时通知上游停止生成，
+ * 避免继续为无人接收的 token 付费并占用工作线程：
+ * - 每个流通过 {@link #open(String, int)} 获得一个 {@link StreamGuard}
+ * - 流管道使用 {@code takeUntilOther(guard.cancelled())} 接收取消信号，
+ *   取消会传递到 SDK 的 Flowable，由 SDK 关闭上游 HTTP 响应
+ * - 取消时根据该模型的平均生成长度（{@link CompletionTokenStats}）与已生成内容的估算 token 数
+ *   （{@link GlmTokenEstimator}，上游只在结束时返回用量）估算节省的 token 数
+ * - 只有客户端断开才计为取消；上游失败等服务端原因结束的流通过 {@link StreamGuard#fail()} 标记，不计入
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamCancellationTracker {
+
+    private final MeterRegistry meterRegistry;
+    private final CompletionTokenStats completionTokenStats;
+    private final GlmTokenEstimator glmTokenEstimator;
+
+    /**
+     * 开始跟踪一个流
+     *
+     * @param model     使用的模型
+     * @param maxTokens 本次请求的最大生成 token 数
+     * @return 流守卫
+     */
+    public StreamGuard open(String model, int maxTokens) {
+        return new StreamGuard(model, maxTokens);
+    }
+
+    private void recordCancelled(String model, int maxTokens, int emittedTokens) {
+        Counter.builder("pite.streaming.cancelled")
+                .description("因客户端断开而提前取消的流数")
+                .tag("model", model)
+                .register(meterRegistry)
+                .increment();
+
+        Double average = completionTokenStats.getAverage(model);
+        if (average == null) {
+            log.info("流式请求已取消，模型: {}, 已生成约 {} token，暂无历史数据估算节省量", model, emittedTokens);
+            return;
+        }
+
+        long saved = Math.max(0, Math.round(Math.min(average, maxTokens)) - emittedTokens);
+        Counter.builder("pite.streaming.tokens.saved")
+                .description("提前取消上游生成估算节省的 token 数")
+                .tag("model", model)
+                .register(meterRegistry)
+                .increment(saved);
+        log.info("流式请求已取消，模型: {}, 已生成约 {} token，估算节省 {} token", model, emittedTokens, saved);
+    }
+
+    /**
+     * 单个流的守卫
+     * <p>
+     * 上游线程调用 {@link #onData(ModelData)}；客户端断开回调调用 {@link #cancel(String)}。
+     * 流正常结束或失败后的取消调用会被忽略。
+     * </p>
+     */
+    public class StreamGuard {
+
+        private final String model;
+        private final int maxTokens;
+        private final Sinks.Empty<Void> cancelSignal = Sinks.empty();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean cancelled;
+        /**
+         * 已生成内容的估算权重（只由上游线程写入）
+         */
+        private volatile long emittedWeight;
+
+        private StreamGuard(String model, int maxTokens) {
+            this.model = model;
+            this.maxTokens = maxTokens;
+        }
+
+        /**
+         * 取消信号，供 takeUntilOther 使用
+         *
+         * @return 取消时完成的 Mono
+         */
+        public Mono<Void> cancelled() {
+            return cancelSignal.asMono();
+        }
+
+        /**
+         * 记录一个上游数据块
+         * <p>
+         * 数据块与 token 不是一一对应的，按增量的文本内容（含推理内容）估算已生成的 token 数。
+         * </p>
+         *
+         * @param data 上游数据块
+         */
+        public void onData(ModelData data) {
+            if (data.getChoices() == null || data.getChoices().isEmpty()) {
+                return;
+            }
+            Delta delta = data.getChoices().get(0).getDelta();
+            if (delta != null) {
+                emittedWeight += glmTokenEstimator.estimateWeight(delta.getContent())
+                        + glmTokenEstimator.estimateWeight(delta.getReasoningContent());
+            }
+        }
+
+        /**
+         * 标记流正常结束
+         */
+        public void complete() {
+            finished.set(true);
+        }
+
+        /**
+         * 标记流因服务端原因（上游失败、超时等）结束，之后的断开回调不再计为取消
+         */
+        public void fail() {
+            finished.set(true);
+        }
+
+        /**
+         * 客户端断开时取消上游
+         *
+         * @param reason 取消原因（用于日志）
+         */
+        public void cancel(String reason) {
+            if (finished.compareAndSet(false, true)) {
+                log.info("客户端已断开（{}），取消上游生成，模型: {}", reason, model);
+                cancelled = true;
+                cancelSignal.tryEmitEmpty();
+                recordCancelled(model, maxTokens, glmTokenEstimator.toTokens(emittedWeight));
+            }
+        }
+
+        /**
+         * 是否已被取消
+         *
+         * @return true 表示流因客户端断开而终止
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
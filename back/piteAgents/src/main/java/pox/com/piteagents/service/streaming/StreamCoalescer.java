@@ -0,0 +1,334 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式增量合并器
+ * <p>
+ * 将时间窗口内连续到达的增量合并为一个数据块再推送，减少 SSE 帧数、
+ * JSON 序列化次数和 flush 系统调用：
+ * - 窗口从缓冲区收到第一个增量时开始计时，到期后推送
+ * - 缓冲内容达到字节阈值时立即推送
+ * - 结束块（done=true）到达时先推送缓冲内容，再立即推送结束块
+ * </p>
+ * <p>
+ * 合并只拼接 delta 文本，id 和 model 取自窗口内的第一个增量。
+ * </p>
+ * <p>
+ * 向上游逐个请求增量，只在下游仍有需求时才请求下一个：客户端读得慢时上游的读取随之暂停，
+ * 内存中最多积压一个合并块和一个结束块，不会无限缓冲。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamCoalescer {
+
+    private final StreamingProperties streamingProperties;
+    private final MeterRegistry meterRegistry;
+
+    private Counter deltaCounter;
+    private Counter frameCounter;
+
+    /**
+     * 注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        deltaCounter = Counter.builder("pite.streaming.coalesce.deltas")
+                .description("进入合并器的上游增量数")
+                .register(meterRegistry);
+        frameCounter = Counter.builder("pite.streaming.coalesce.frames")
+                .description("合并后推送给客户端的数据块数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 对增量流应用合并
+     *
+     * @param deltas  上游增量流
+     * @param enabled 是否启用合并（请求可关闭以获得最低延迟）
+     * @return 合并后的数据流；未启用或窗口为 0 时原样返回
+     */
+    public Flux<StreamChatResponse> coalesce(Flux<StreamChatResponse> deltas, boolean enabled) {
+        long windowMs = streamingProperties.getCoalesceWindowMs();
+        if (!enabled || windowMs <= 0) {
+            return deltas;
+        }
+
+        return Flux.create(sink -> {
+            DeltaBuffer buffer = new DeltaBuffer(sink, windowMs, streamingProperties.getCoalesceMaxBytes());
+            UpstreamSubscriber upstream = new UpstreamSubscriber(sink, buffer);
+            sink.onRequest(upstream::onDownstreamRequest);
+            sink.onDispose(() -> {
+                upstream.dispose();
+                buffer.cancelTimer();
+            });
+            deltas.subscribe(upstream);
+        }, FluxSink.OverflowStrategy.BUFFER);
+    }
+
+    /**
+     * 按下游需求向上游请求增量的订阅者
+     * <p>
+     * 每次只向上游请求一个增量，处理完后下游仍有需求才请求下一个；
+     * 下游没有需求时暂停，下游再次请求时恢复。
+     * </p>
+     */
+    private static class UpstreamSubscriber extends BaseSubscriber<StreamChatResponse> {
+
+        private final FluxSink<StreamChatResponse> sink;
+        private final DeltaBuffer buffer;
+
+        /**
+         * 因下游没有需求而暂停请求
+         */
+        private final AtomicBoolean stalled = new AtomicBoolean();
+
+        UpstreamSubscriber(FluxSink<StreamChatResponse> sink, DeltaBuffer buffer) {
+            this.sink = sink;
+            this.buffer = buffer;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            requestNext();
+        }
+
+        @Override
+        protected void hookOnNext(StreamChatResponse value) {
+            buffer.offer(value);
+            requestNext();
+        }
+
+        @Override
+        protected void hookOnError(Throwable error) {
+            buffer.terminate(error);
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            buffer.terminate(null);
+        }
+
+        void onDownstreamRequest(long n) {
+            if (stalled.compareAndSet(true, false)) {
+                request(1);
+            }
+        }
+
+        private void requestNext() {
+            if (sink.requestedFromDownstream() > 0) {
+                request(1);
+                return;
+            }
+            stalled.set(true);
+            // 设置暂停标记前下游可能刚好发出请求，重新检查一次
+            if (sink.requestedFromDownstream() > 0 && stalled.compareAndSet(true, false)) {
+                request(1);
+            }
+        }
+    }
+
+    /**
+     * 单个流的合并缓冲区
+     * <p>
+     * 上游线程和定时器线程都会访问：缓冲区状态在实例锁内修改，待推送的块按产生顺序放入就绪队列；
+     * 推送在锁外进行，同一时刻只有一个线程推送（另一线程放入队列后直接返回，由正在推送的线程一并推送），
+     * 客户端写出阻塞时不会占住锁，块的顺序也不会因两个线程交错而打乱。
+     * </p>
+     */
+    private class DeltaBuffer {
+
+        private final FluxSink<StreamChatResponse> sink;
+        private final long windowMs;
+        private final int maxBytes;
+
+        private final StringBuilder pending = new StringBuilder();
+        private int pendingBytes;
+        private String id;
+        private String model;
+        private Disposable timer;
+
+        /**
+         * 待推送的块，按产生顺序排列
+         */
+        private final Queue<StreamChatResponse> ready = new ArrayDeque<>();
+
+        /**
+         * 上游是否已结束，以及结束时的错误（正常完成时为 null）
+         */
+        private boolean terminated;
+        private Throwable terminal;
+
+        /**
+         * 推送工作计数，非 0 表示已有线程在推送
+         */
+        private final AtomicInteger wip = new AtomicInteger();
+
+        DeltaBuffer(FluxSink<StreamChatResponse> sink, long windowMs, int maxBytes) {
+            this.sink = sink;
+            this.windowMs = windowMs;
+            this.maxBytes = maxBytes;
+        }
+
+        void offer(StreamChatResponse response) {
+            synchronized (this) {
+                if (Boolean.TRUE.equals(response.getDone())) {
+                    takePending();
+                    ready.add(response);
+                } else {
+                    append(response);
+                }
+            }
+            drain();
+        }
+
+        void flush() {
+            synchronized (this) {
+                takePending();
+            }
+            drain();
+        }
+
+        /**
+         * 上游结束：推送缓冲内容后向下游发出结束信号
+         *
+         * @param error 上游错误，正常完成时为 null
+         */
+        void terminate(Throwable error) {
+            synchronized (this) {
+                takePending();
+                terminal = error;
+                terminated = true;
+            }
+            drain();
+        }
+
+        synchronized void cancelTimer() {
+            if (timer != null) {
+                timer.dispose();
+                timer = null;
+            }
+        }
+
+        private void append(StreamChatResponse response) {
+            deltaCounter.increment();
+            if (pending.length() == 0) {
+                id = response.getId();
+                model = response.getModel();
+            }
+            pending.append(response.getDelta());
+            pendingBytes += utf8Length(response.getDelta());
+
+            if (pendingBytes >= maxBytes) {
+                takePending();
+            } else if (timer == null) {
+                // 到期推送会阻塞写出客户端连接，不能占用 parallel 调度器的非阻塞线程
+                timer = Schedulers.boundedElastic().schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * 将缓冲内容作为一个块放入就绪队列，调用方持有实例锁
+         */
+        private void takePending() {
+            cancelTimer();
+            if (pending.length() == 0) {
+                return;
+            }
+            frameCounter.increment();
+            ready.add(StreamChatResponse.chunk(id, model, pending.toString()));
+            pending.setLength(0);
+            pendingBytes = 0;
+        }
+
+        /**
+         * 在锁外按顺序推送就绪队列中的块，已有线程在推送时直接返回
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            while (true) {
+                StreamChatResponse next;
+                while ((next = poll()) != null) {
+                    sink.next(next);
+                }
+                if (emitTerminal()) {
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized StreamChatResponse poll() {
+            return ready.poll();
+        }
+
+        /**
+         * 队列已空且上游已结束时向下游发出结束信号
+         *
+         * @return 是否已发出
+         */
+        private boolean emitTerminal() {
+            Throwable error;
+            synchronized (this) {
+                if (!terminated || !ready.isEmpty()) {
+                    return false;
+                }
+                error = terminal;
+            }
+            if (error != null) {
+                sink.error(error);
+            } else {
+                sink.complete();
+            }
+            return true;
+        }
+
+        private int utf8Length(String text) {
+            int bytes = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    bytes += 1;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c)) {
+                    bytes += 4;
+                    i++;
+                } else {
+                    bytes += 3;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 流式请求调度器
+ * <p>
+ * 为每个 SSE 流式请求分配工作线程，替代"每个请求新建一个线程"的方式：
+ * - 并发流数有上限，超出后进入有界队列排队
+ * - 队列满时按配置的拒绝策略处理（拒绝、限时等待空位或挤掉最早排队的请求），流式任务从不在请求线程上执行
+ * - JDK 21+ 使用虚拟线程，JDK 17 使用固定大小的平台线程池
+ * - 通过 Micrometer 暴露队列深度、活跃流数和拒绝次数
+ * </p>
+ * <p>
+ * 工作线程会一直持有到流结束（完成、出错或超时），
+ * 因此线程池的活跃数即为当前正在生成的流数量。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamDispatcher {
+
+    private final StreamingProperties streamingProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 流式任务线程池
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 当前活跃的流数量
+     */
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    /**
+     * 累计被拒绝的流数量（只统计没有被执行的请求）
+     */
+    private final AtomicLong rejectedStreams = new AtomicLong();
+
+    /**
+     * 是否使用虚拟线程
+     */
+    private boolean virtualThreads;
+
+    private Counter submittedCounter;
+    private Counter rejectedCounter;
+
+    /**
+     * 初始化线程池并注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        ThreadFactory virtualFactory = resolveVirtualThreadFactory();
+        virtualThreads = virtualFactory != null;
+
+        int poolSize = virtualThreads
+                ? streamingProperties.getMaxActiveStreams()
+                : streamingProperties.getPlatformPoolSize();
+        ThreadFactory threadFactory = virtualThreads ? virtualFactory : platformThreadFactory();
+
+        executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                streamingProperties.getKeepAliveSeconds(),
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(streamingProperties.getQueueCapacity()),
+                threadFactory,
+                new StreamRejectionHandler());
+        executor.allowCoreThreadTimeOut(true);
+
+        registerMetrics();
+
+        log.info("流式调度器初始化完成，线程模式: {}, 最大并发流: {}, 队列容量: {}, 拒绝策略: {}",
+                virtualThreads ? "VIRTUAL" : "PLATFORM",
+                poolSize,
+                streamingProperties.getQueueCapacity(),
+                streamingProperties.getRejectionPolicy());
+    }
+
+    /**
+     * 提交流式任务
+     * <p>
+     * 任务启动后返回的 Future 完成前，工作线程不会被释放。
+     * 如果任务在排队期间被挤出队列（DISCARD_OLDEST），会回调 onRejected。
+     * </p>
+     *
+     * @param name          任务名称（用于日志）
+     * @param maxDurationMs 流的最长持续时间（毫秒），超时后释放工作线程
+     * @param work          流式任务
+     * @param onRejected    任务被拒绝时的回调
+     * @throws ZhipuApiException 当调度器已满且拒绝策略为 ABORT 时抛出（错误码 503）
+     */
+    public void submit(String name, long maxDurationMs, StreamWork work, Consumer<Throwable> onRejected) {
+        DispatchedStream task = new DispatchedStream(name, maxDurationMs, work, onRejected);
+        try {
+            executor.execute(task);
+            submittedCounter.increment();
+        } catch (RejectedExecutionException e) {
+            log.warn("流式请求被拒绝，任务: {}, 活跃流: {}, 排队: {}",
+                    name, activeStreams.get(), executor.getQueue().size());
+            throw new ZhipuApiException(503, "当前流式请求过多，请稍后重试", e);
+        }
+    }
+
+    /**
+     * 获取当前活跃流数量
+     *
+     * @return 活跃流数量
+     */
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    /**
+     * 获取当前排队中的流数量
+     *
+     * @return 排队数量
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 获取累计被拒绝的流数量
+     *
+     * @return 拒绝次数
+     */
+    public long getRejectedStreams() {
+        return rejectedStreams.get();
+    }
+
+    /**
+     * 关闭线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        log.info("正在关闭流式调度器，活跃流: {}, 排队: {}", activeStreams.get(), executor.getQueue().size());
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 注册监控指标
+     */
+    private void registerMetrics() {
+        Gauge.builder("pite.streaming.queue.depth", executor, e -> e.getQueue().size())
+                .description("等待调度的流式请求数")
+                .register(meterRegistry);
+        Gauge.builder("pite.streaming.active", activeStreams, AtomicInteger::get)
+                .description("正在生成的流式请求数")
+                .register(meterRegistry);
+        submittedCounter = Counter.builder("pite.streaming.submitted")
+                .description("已提交的流式请求数")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("pite.streaming.rejected")
+                .description("被拒绝的流式请求数")
+                .tag("policy", streamingProperties.getRejectionPolicy().name())
+                .register(meterRegistry);
+    }
+
+    /**
+     * 解析虚拟线程工厂
+     * <p>
+     * 项目以 JDK 17 编译，因此通过反射调用 Thread.ofVirtual()。
+     * 运行在 JDK 21 以下时返回 null，回退为平台线程池。
+     * </p>
+     *
+     * @return 虚拟线程工厂，不可用时返回 null
+     */
+    private ThreadFactory resolveVirtualThreadFactory() {
+        StreamingProperties.ThreadMode mode = streamingProperties.getThreadMode();
+        if (mode == StreamingProperties.ThreadMode.PLATFORM) {
+            return null;
+        }
+
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(builder, streamingProperties.getThreadNamePrefix(), 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            if (mode == StreamingProperties.ThreadMode.VIRTUAL) {
+                throw new IllegalStateException("当前 JDK 不支持虚拟线程: " + Runtime.version(), e);
+            }
+            log.info("当前 JDK {} 不支持虚拟线程，使用平台线程池", Runtime.version());
+            return null;
+        }
+    }
+
+    /**
+     * 创建平台线程工厂
+     *
+     * @return 平台线程工厂
+     */
+    private ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, streamingProperties.getThreadNamePrefix() + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 流式任务
+     */
+    @FunctionalInterface
+    public interface StreamWork {
+
+        /**
+         * 启动流式处理
+         *
+         * @return 流结束（完成、出错或取消）时完成的 Future
+         * @throws Exception 启动失败时抛出
+         */
+        CompletableFuture<?> start() throws Exception;
+    }
+
+    /**
+     * 已提交到线程池的流式任务
+     */
+    private class DispatchedStream implements Runnable {
+
+        private final String name;
+        private final long maxDurationMs;
+        private final StreamWork work;
+        private final Consumer<Throwable> onRejected;
+
+        DispatchedStream(String name, long maxDurationMs, StreamWork work, Consumer<Throwable> onRejected) {
+            this.name = name;
+            this.maxDurationMs = maxDurationMs;
+            this.work = work;
+            this.onRejected = onRejected;
+        }
+
+        @Override
+        public void run() {
+            activeStreams.incrementAndGet();
+            CompletableFuture<?> done = null;
+            try {
+                done = work.start();
+                done.get(maxDurationMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.warn("流式任务超时，释放工作线程: {}", name);
+                done.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // 流内部的错误已由任务自身处理，这里只记录
+                log.debug("流式任务结束时出现异常: {}, 错误: {}", name, e.getMessage());
+            } finally {
+                activeStreams.decrementAndGet();
+            }
+        }
+
+        void reject(Throwable cause) {
+            try {
+                onRejected.accept(cause);
+            } catch (Exception e) {
+                log.warn("执行拒绝回调失败: {}, 错误: {}", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按配置执行拒绝策略
+     */
+    private class StreamRejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor pool) {
+            if (pool.isShutdown()) {
+                countRejected();
+                throw new RejectedExecutionException("流式调度器已关闭");
+            }
+
+            switch (streamingProperties.getRejectionPolicy()) {
+                case WAIT -> waitForSlot(runnable, pool);
+                case DISCARD_OLDEST -> {
+                    Runnable oldest = pool.getQueue().poll();
+                    if (oldest instanceof DispatchedStream dropped) {
+                        countRejected();
+                        log.warn("队列已满，丢弃等待最久的流式请求: {}", dropped.name);
+                        dropped.reject(new ZhipuApiException(503, "排队超时，请稍后重试"));
+                    }
+                    pool.execute(runnable);
+                }
+                default -> {
+                    countRejected();
+                    throw new RejectedExecutionException("流式请求队列已满");
+                }
+            }
+        }
+
+        /**
+         * 在请求线程上限时等待队列空位，任务仍由工作线程执行
+         */
+        private void waitForSlot(Runnable runnable, ThreadPoolExecutor pool) {
+            boolean queued;
+            try {
+                queued = pool.getQueue().offer(runnable, streamingProperties.getRejectionWaitMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                countRejected();
+                throw new RejectedExecutionException("流式请求队列已满，等待空位超时");
+            }
+            if (pool.isShutdown() && pool.getQueue().remove(runnable)) {
+                countRejected();
+                throw new RejectedExecutionException("流式调度器已关闭");
+            }
+            // 绕过 execute 直接入队，确保至少有一个工作线程取队列
+            if (pool.getPoolSize() == 0) {
+                pool.prestartCoreThread();
+            }
+        }
+
+        private void countRejected() {
+            rejectedStreams.incrementAndGet();
+            rejectedCounter.increment();
+        }
+    }
+}
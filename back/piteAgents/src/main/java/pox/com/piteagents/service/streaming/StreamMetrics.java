@@ -0,0 +1,309 @@
+package pox.com.piteagents.service.streaming;
+
+import ai.z.openapi.service.model.Choice;
+import ai.z.openapi.service.model.Delta;
+import ai.z.openapi.service.model.ModelData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.enums.ZhipuModelEnum;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.config.ZhipuConfig;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式对话延迟指标
+ * <p>
+ * 将一次流式对话的耗时拆分为几个阶段，区分慢在哪里：
+ * - pite.stream.queue.wait：提交到调度器至开始调用上游（调度器排队）
+ * - pite.stream.ttft：开始调用上游至收到第一个增量（含上游并发许可等待和模型首 token 延迟）
+ * - pite.stream.inter.token：相邻两个增量之间的间隔（生成速度）
+ * - pite.stream.duration：从接收请求到流结束的总时长，按结果分类
+ * - pite.stream.tokens.per.second：生成阶段的 token 速率
+ * - pite.stream.frame.bytes：编码出的 SSE 帧字节数。每个响应计一次；/stream 的帧写入重放流后分发给所有订阅者，
+ *   合并的相同请求和续传连接重复收到的部分不计入，不等于每个客户端实际收到的字节数
+ * - pite.stream.requests：结束的流式对话数，按结果分类
+ * - pite.stream.completion.tokens：生成的 token 总数
+ * </p>
+ * <p>
+ * 所有指标按 path（接口）和 model 打标签，model 只取 {@link ZhipuModelEnum} 中的模型代码，
+ * 客户端传入的其他值归入 other，避免任意字符串产生新的时间序列。计时器和分布摘要发布分位数直方图，
+ * 可在 Prometheus 中聚合分位数。
+ * </p>
+ * <p>
+ * 最后两个计数器另按 agent 打标签，用于区分各 Agent 的调用量和 token 消耗：最先出现的 metricsMaxAgents 个 Agent
+ * 使用各自的 ID，其余归入 other，未指定 Agent 的请求为 none。直方图不按 Agent 打标签，
+ * 每个标签组合都有数十个桶，乘以 Agent 数会使时间序列数成倍增长。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+@RequiredArgsConstructor
+public class StreamMetrics {
+
+    /**
+     * 未在模型枚举中的模型和超出上限的 Agent 使用的标签值
+     */
+    private static final String OTHER = "other";
+
+    private final MeterRegistry meterRegistry;
+    private final ZhipuConfig zhipuConfig;
+    private final StreamingProperties streamingProperties;
+
+    /**
+     * 单独打 agent 标签的 Agent
+     */
+    private final Set<Long> taggedAgents = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 开始记录一次流式对话
+     *
+     * @param path    接口标识（stream / stream_tools / reactive）
+     * @param request 对话请求
+     * @return 本次流的记录器
+     */
+    public StreamRecorder start(String path, ChatRequest request) {
+        String model = request.getModel() != null && !request.getModel().trim().isEmpty()
+                ? request.getModel() : zhipuConfig.getDefaultModel();
+        return new StreamRecorder(path, ZhipuModelEnum.isValidCode(model) ? model : OTHER,
+                agentTag(request.getAgentId()));
+    }
+
+    /**
+     * 获取 Agent 的标签值，单独打标签的 Agent 数达到上限后新出现的 Agent 归入 other
+     */
+    private String agentTag(Long agentId) {
+        if (agentId == null) {
+            return "none";
+        }
+        if (!taggedAgents.contains(agentId)) {
+            synchronized (taggedAgents) {
+                if (taggedAgents.size() >= streamingProperties.getMetricsMaxAgents()) {
+                    return OTHER;
+                }
+                taggedAgents.add(agentId);
+            }
+        }
+        return String.valueOf(agentId);
+    }
+
+    /**
+     * 根据流结束时的异常判断结果
+     *
+     * @param error 异常，正常结束时为 null
+     * @return completed / cancelled / failed
+     */
+    public static String outcomeOf(Throwable error) {
+        if (error == null) {
+            return "completed";
+        }
+        if (error instanceof ZhipuApiException apiException && Integer.valueOf(410).equals(apiException.getCode())) {
+            return "cancelled";
+        }
+        return "failed";
+    }
+
+    private Timer timer(String name, String description, String path, String model, Duration max) {
+        return Timer.builder(name)
+                .description(description)
+                .tag("path", path)
+                .tag("model", model)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(max)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 单个流的指标记录器
+     * <p>
+     * 上游线程回调 {@link #onData(ModelData)}，工具调用对话的各轮可能在不同线程上，
+     * 帧字节数在推送线程（含合并器的定时器线程）上累加，{@link #finish(String)} 可能在其他线程上调用，只生效一次。
+     * 计时状态的读写都在实例锁内完成（每个流只有一个上游线程，锁几乎无竞争），字节数使用 LongAdder。
+     * </p>
+     */
+    public class StreamRecorder {
+
+        private final String path;
+        private final String model;
+        private final String agent;
+        private final long createdNanos = System.nanoTime();
+        private final Timer interTokenTimer;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final LongAdder bytes = new LongAdder();
+
+        private volatile long upstreamStartNanos;
+        private boolean firstTokenSeen;
+        private long lastTokenNanos;
+        private long roundFirstTokenNanos;
+        private long generationNanos;
+        private long completionTokens;
+
+        StreamRecorder(String path, String model, String agent) {
+            this.path = path;
+            this.model = model;
+            this.agent = agent;
+            this.interTokenTimer = timer("pite.stream.inter.token", "相邻两个流式增量之间的间隔",
+                    path, model, Duration.ofSeconds(30));
+        }
+
+        /**
+         * 调度器开始执行，记录排队时长
+         */
+        public void dispatched() {
+            upstreamStartNanos = System.nanoTime();
+            timer("pite.stream.queue.wait", "流式请求在调度器中的排队时长", path, model, Duration.ofSeconds(60))
+                    .record(upstreamStartNanos - createdNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 开始新一轮上游调用（工具调用对话的每一轮）
+         * <p>
+         * 轮次之间包含工具执行时间，不计入增量间隔和生成时长。
+         * </p>
+         */
+        public synchronized void newRound() {
+            closeRound();
+            lastTokenNanos = 0;
+        }
+
+        /**
+         * 收到上游数据块
+         *
+         * @param data 上游数据块
+         */
+        public synchronized void onData(ModelData data) {
+            if (data.getUsage() != null) {
+                // 每轮的用量在该轮最后一个数据块中返回
+                completionTokens += data.getUsage().getCompletionTokens();
+            }
+            if (!hasDelta(data)) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            if (!firstTokenSeen) {
+                firstTokenSeen = true;
+                long start = upstreamStartNanos != 0 ? upstreamStartNanos : createdNanos;
+                timer("pite.stream.ttft", "开始调用上游至收到第一个增量的时长", path, model, Duration.ofSeconds(120))
+                        .record(now - start, TimeUnit.NANOSECONDS);
+            }
+            if (lastTokenNanos != 0) {
+                interTokenTimer.record(now - lastTokenNanos, TimeUnit.NANOSECONDS);
+            } else {
+                roundFirstTokenNanos = now;
+            }
+            lastTokenNanos = now;
+        }
+
+        /**
+         * 记录编码出的 SSE 帧字节数
+         *
+         * @param length 字节数
+         */
+        public void onBytes(int length) {
+            bytes.add(length);
+        }
+
+        /**
+         * 流结束，记录总时长、token 速率和字节数
+         *
+         * @param outcome 结果（completed / cancelled / failed）
+         */
+        public void finish(String outcome) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            long tokens;
+            long generation;
+            synchronized (this) {
+                closeRound();
+                tokens = completionTokens;
+                generation = generationNanos;
+            }
+
+            Timer.builder("pite.stream.duration")
+                    .description("流式对话从接收请求到结束的总时长")
+                    .tag("path", path)
+                    .tag("model", model)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(10))
+                    .maximumExpectedValue(Duration.ofMinutes(10))
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - createdNanos, TimeUnit.NANOSECONDS);
+            Counter.builder("pite.stream.requests")
+                    .description("结束的流式对话数")
+                    .tag("path", path)
+                    .tag("model", model)
+                    .tag("agent", agent)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .increment();
+            if (tokens > 0) {
+                Counter.builder("pite.stream.completion.tokens")
+                        .description("流式对话生成的 token 数")
+                        .baseUnit("tokens")
+                        .tag("path", path)
+                        .tag("model", model)
+                        .tag("agent", agent)
+                        .register(meterRegistry)
+                        .increment(tokens);
+            }
+
+            if (tokens > 0 && generation > 0) {
+                summary("pite.stream.tokens.per.second", "生成阶段每秒生成的 token 数", "tokens/s")
+                        .record(tokens * 1e9 / generation);
+            }
+            long frameBytes = bytes.sum();
+            if (frameBytes > 0) {
+                summary("pite.stream.frame.bytes", "单次流式对话编码出的 SSE 帧字节数（每个响应计一次）", "bytes")
+                        .record(frameBytes);
+            }
+        }
+
+        private void closeRound() {
+            if (lastTokenNanos != 0 && roundFirstTokenNanos != 0) {
+                generationNanos += lastTokenNanos - roundFirstTokenNanos;
+            }
+            roundFirstTokenNanos = 0;
+        }
+
+        private DistributionSummary summary(String name, String description, String unit) {
+            return DistributionSummary.builder(name)
+                    .description(description)
+                    .baseUnit(unit)
+                    .tag("path", path)
+                    .tag("model", model)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+        }
+
+        private boolean hasDelta(ModelData data) {
+            if (data.getChoices() == null || data.getChoices().isEmpty()) {
+                return false;
+            }
+            Choice choice = data.getChoices().get(0);
+            Delta delta = choice.getDelta();
+            if (delta == null) {
+                return false;
+            }
+            return (delta.getContent() != null && !delta.getContent().isEmpty())
+                    || (delta.getReasoningContent() != null && !delta.getReasoningContent().isEmpty())
+                    || (delta.getTool_calls() != null && !delta.getTool_calls().isEmpty());
+        }
+    }
+}
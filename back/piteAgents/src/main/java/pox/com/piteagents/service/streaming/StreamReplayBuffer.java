@@ -0,0 +1,603 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.StreamingProperties;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式响应重放缓冲区
+ * <p>
+ * 按响应ID保存最近推送的 SSE 帧，支持客户端断线后通过 Last-Event-ID 续传：
+ * - 每个响应保留最近 N 帧（环形缓冲，超出后丢弃最旧的帧）
+ * - 所有响应占用的总字节数有上限，超出时优先淘汰最早结束的响应，再淘汰最久未更新的生成中响应
+ * - 响应结束后保留一段时间（TTL）再清理
+ * - 生成过程中所有订阅者都断开时，等待一段宽限期；宽限期内无人重连才取消上游
+ * - 未启用续传时不保留已推送的帧，重放流只负责向当前订阅者分发，不占用缓冲内存
+ * </p>
+ * <p>
+ * 原始请求本身也是一个订阅者，因此续传的连接、合并的相同请求与原始连接收到的帧完全一致。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamReplayBuffer {
+
+    private final StreamingProperties streamingProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 响应ID -> 重放流
+     */
+    private final Map<String, ReplayStream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * 所有重放流占用的总字节数
+     */
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    /**
+     * 已登记响应的淘汰顺序
+     */
+    private final EvictionOrder evictionOrder = new EvictionOrder();
+
+    /**
+     * 清理和宽限期定时器
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 启动定时清理并注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-replay-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::evictExpired, 10, 10, TimeUnit.SECONDS);
+
+        Gauge.builder("pite.streaming.replay.streams", streams, Map::size)
+                .description("可续传的流式响应数")
+                .register(meterRegistry);
+        Gauge.builder("pite.streaming.replay.bytes", residentBytes, AtomicLong::get)
+                .description("重放缓冲区占用的字节数")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 关闭定时器
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 是否启用续传
+     *
+     * @return true 表示启用
+     */
+    public boolean isEnabled() {
+        return streamingProperties.isReplayEnabled();
+    }
+
+    /**
+     * 创建重放流
+     * <p>
+     * 响应ID在第一帧到达后才知道，此时流尚不能续传；
+     * 调用 {@link #register(String, ReplayStream)} 后才能通过响应ID找到。
+     * 未启用续传时创建的流不保留帧，产生第一帧后新的订阅者无法加入（返回 {@link AttachResult#GAP}）。
+     * </p>
+     *
+     * @param onAbandoned 所有订阅者断开且宽限期内无人重连时的回调（取消上游）
+     * @return 重放流
+     */
+    public ReplayStream create(Runnable onAbandoned) {
+        return new ReplayStream(onAbandoned, isEnabled());
+    }
+
+    /**
+     * 按响应ID登记重放流，使其可以续传
+     * <p>
+     * 未启用续传时不登记，流仍可用于多个订阅者之间的分发。
+     * </p>
+     *
+     * @param responseId 响应ID
+     * @param stream     重放流
+     */
+    public void register(String responseId, ReplayStream stream) {
+        if (!isEnabled() || responseId == null) {
+            return;
+        }
+        synchronized (stream) {
+            stream.responseId = responseId;
+            stream.registered = true;
+            residentBytes.addAndGet(stream.bytes);
+        }
+        ReplayStream previous = streams.put(responseId, stream);
+        if (previous != null && previous != stream) {
+            release(previous);
+        }
+        evictionOrder.track(stream);
+    }
+
+    /**
+     * 获取重放流
+     *
+     * @param responseId 响应ID
+     * @return 重放流，不存在或已过期时返回 null
+     */
+    public ReplayStream get(String responseId) {
+        return streams.get(responseId);
+    }
+
+    /**
+     * 清理过期的响应
+     */
+    private void evictExpired() {
+        long ttlMillis = TimeUnit.SECONDS.toMillis(streamingProperties.getReplayTtlSeconds());
+        long now = System.currentTimeMillis();
+        for (ReplayStream stream : streams.values()) {
+            if (stream.isFinished() && now - stream.lastActivity > ttlMillis) {
+                remove(stream);
+            }
+        }
+    }
+
+    /**
+     * 总字节数超过上限时淘汰响应：先淘汰最早结束的，再淘汰最久未更新的
+     * <p>
+     * 按 {@link EvictionOrder} 从队首依次取出，每次淘汰只涉及被淘汰的响应。
+     * 被淘汰的响应仍会推送给已连接的订阅者，只是不能再续传。
+     * </p>
+     */
+    private void enforceMemoryCap() {
+        long maxBytes = streamingProperties.getReplayMaxBytes();
+        while (residentBytes.get() > maxBytes) {
+            ReplayStream victim = evictionOrder.poll();
+            if (victim == null) {
+                return;
+            }
+            log.debug("重放缓冲区超出上限，淘汰响应: {}", victim.responseId);
+            remove(victim);
+        }
+    }
+
+    private void remove(ReplayStream stream) {
+        if (streams.remove(stream.responseId, stream)) {
+            release(stream);
+        }
+    }
+
+    private void release(ReplayStream stream) {
+        evictionOrder.forget(stream);
+        synchronized (stream) {
+            if (stream.registered) {
+                residentBytes.addAndGet(-stream.bytes);
+                stream.registered = false;
+            }
+            stream.bytes = 0;
+            stream.frames.clear();
+        }
+    }
+
+    /**
+     * 帧订阅者
+     */
+    public interface FrameSubscriber {
+
+        /**
+         * 收到一帧
+         *
+         * @param frame 已编码的 SSE 帧
+         * @throws Exception 推送失败时抛出，订阅者会被移除
+         */
+        void onFrame(SseFrame frame) throws Exception;
+
+        /**
+         * 流正常结束
+         */
+        void onComplete();
+
+        /**
+         * 流异常结束
+         *
+         * @param error 错误
+         */
+        void onError(Throwable error);
+    }
+
+    /**
+     * 续传结果
+     */
+    public enum AttachResult {
+        /**
+         * 已补发缺失的帧并订阅后续帧（流已结束时直接完成）
+         */
+        ATTACHED,
+        /**
+         * 缺失的帧已被淘汰，无法完整续传
+         */
+        GAP
+    }
+
+    /**
+     * 淘汰顺序
+     * <p>
+     * 已结束的响应按结束先后排列，生成中的响应按最后追加时间排列（访问顺序的 LinkedHashMap，
+     * 追加时移到队尾），淘汰时先取已结束的队首，再取生成中的队首，均为 O(1)。
+     * 重放流持锁期间不调用本类，锁顺序固定为先淘汰顺序、后重放流（{@link #track} 读取流状态）。
+     * </p>
+     */
+    private static class EvictionOrder {
+
+        private final LinkedHashMap<ReplayStream, Boolean> finished = new LinkedHashMap<>();
+        private final LinkedHashMap<ReplayStream, Boolean> active = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * 开始跟踪已登记的响应
+         */
+        synchronized void track(ReplayStream stream) {
+            if (stream.isFinished()) {
+                finished.put(stream, Boolean.TRUE);
+            } else {
+                active.put(stream, Boolean.TRUE);
+            }
+        }
+
+        /**
+         * 生成中的响应追加了新帧，移到队尾（未跟踪的响应不受影响）
+         */
+        synchronized void touch(ReplayStream stream) {
+            active.get(stream);
+        }
+
+        /**
+         * 响应结束，移到已结束队列的队尾
+         */
+        synchronized void finished(ReplayStream stream) {
+            if (active.remove(stream) != null) {
+                finished.put(stream, Boolean.TRUE);
+            }
+        }
+
+        /**
+         * 停止跟踪
+         */
+        synchronized void forget(ReplayStream stream) {
+            finished.remove(stream);
+            active.remove(stream);
+        }
+
+        /**
+         * 取出下一个淘汰对象
+         *
+         * @return 重放流，没有可淘汰的响应时返回 null
+         */
+        synchronized ReplayStream poll() {
+            Map<ReplayStream, Boolean> queue = finished.isEmpty() ? active : finished;
+            Iterator<ReplayStream> iterator = queue.keySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            ReplayStream stream = iterator.next();
+            iterator.remove();
+            return stream;
+        }
+    }
+
+    /**
+     * 单个响应的重放流
+     * <p>
+     * 帧的追加、补发和订阅者的增减在实例锁内完成，锁内只把帧放入各订阅的待发送队列；
+     * 实际推送在锁外进行（见 {@link Subscription}），慢速客户端不会阻塞续传、断开和其他流程。
+     * </p>
+     */
+    public class ReplayStream {
+
+        private volatile String responseId;
+        private final Runnable onAbandoned;
+        private final boolean retainFrames;
+        private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private long nextSeq;
+        private long bytes;
+        private boolean registered;
+        private boolean finished;
+        private Throwable error;
+        private ScheduledFuture<?> abandonTask;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        private ReplayStream(Runnable onAbandoned, boolean retainFrames) {
+            this.onAbandoned = onAbandoned;
+            this.retainFrames = retainFrames;
+        }
+
+        /**
+         * 获取下一帧的序号
+         *
+         * @return 帧序号
+         */
+        public synchronized long nextSeq() {
+            return nextSeq;
+        }
+
+        /**
+         * 追加一帧并推送给所有订阅者
+         *
+         * @param frame 使用 {@link #nextSeq()} 编码的 SSE 帧
+         */
+        public void append(SseFrame frame) {
+            List<Subscription> targets;
+            synchronized (this) {
+                long seq = nextSeq++;
+                long delta = 0;
+                if (retainFrames) {
+                    frames.addLast(new Frame(seq, frame));
+                    delta = frame.length();
+                }
+                while (frames.size() > streamingProperties.getReplayMaxFramesPerStream()) {
+                    delta -= frames.removeFirst().data.length();
+                }
+                bytes += delta;
+                if (registered) {
+                    residentBytes.addAndGet(delta);
+                }
+                lastActivity = System.currentTimeMillis();
+
+                targets = List.copyOf(subscriptions);
+                for (Subscription subscription : targets) {
+                    subscription.enqueue(frame);
+                }
+            }
+            drain(targets);
+            if (retainFrames) {
+                evictionOrder.touch(this);
+                enforceMemoryCap();
+            }
+        }
+
+        /**
+         * 标记流正常结束
+         */
+        public void complete() {
+            finish(null);
+        }
+
+        /**
+         * 标记流异常结束
+         *
+         * @param cause 错误
+         */
+        public void fail(Throwable cause) {
+            finish(cause);
+        }
+
+        /**
+         * 订阅流，先补发 lastSeq 之后的帧
+         *
+         * @param subscriber 订阅者
+         * @param lastSeq    客户端最后收到的帧序号，-1 表示从头开始
+         * @return 续传结果
+         */
+        public AttachResult attach(FrameSubscriber subscriber, long lastSeq) {
+            Subscription subscription = new Subscription(this, subscriber);
+            synchronized (this) {
+                long oldestSeq = frames.isEmpty() ? nextSeq : frames.peekFirst().seq;
+                if (lastSeq + 1 < oldestSeq) {
+                    return AttachResult.GAP;
+                }
+
+                for (Frame frame : frames) {
+                    if (frame.seq > lastSeq) {
+                        subscription.enqueue(frame.data);
+                    }
+                }
+
+                if (finished) {
+                    subscription.terminate(error);
+                } else {
+                    subscriptions.add(subscription);
+                    if (abandonTask != null) {
+                        abandonTask.cancel(false);
+                        abandonTask = null;
+                        log.info("客户端已重连，继续推送响应: {}", responseId);
+                    }
+                }
+            }
+            subscription.drain();
+            return AttachResult.ATTACHED;
+        }
+
+        /**
+         * 取消订阅
+         * <p>
+         * 生成过程中最后一个订阅者断开时开始计算宽限期；
+         * 尚未产生任何帧时没有可续传的内容，直接取消。
+         * </p>
+         *
+         * @param subscriber 订阅者
+         */
+        public synchronized void detach(FrameSubscriber subscriber) {
+            if (!subscriptions.removeIf(subscription -> subscription.subscriber == subscriber)
+                    || finished || !subscriptions.isEmpty() || abandonTask != null) {
+                return;
+            }
+            if (nextSeq == 0) {
+                abandonTask = scheduler.schedule(this::abandonIfUnattended, 0, TimeUnit.SECONDS);
+                return;
+            }
+
+            long graceSeconds = streamingProperties.getResumeGraceSeconds();
+            log.info("响应 {} 的所有客户端已断开，{} 秒内未重连将取消生成", responseId, graceSeconds);
+            abandonTask = scheduler.schedule(this::abandonIfUnattended, graceSeconds, TimeUnit.SECONDS);
+        }
+
+        /**
+         * 是否已结束
+         *
+         * @return true 表示已结束
+         */
+        public synchronized boolean isFinished() {
+            return finished;
+        }
+
+        private void abandonIfUnattended() {
+            synchronized (this) {
+                abandonTask = null;
+                if (finished || !subscriptions.isEmpty()) {
+                    return;
+                }
+            }
+            onAbandoned.run();
+        }
+
+        private void finish(Throwable cause) {
+            List<Subscription> targets;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                error = cause;
+                lastActivity = System.currentTimeMillis();
+                if (abandonTask != null) {
+                    abandonTask.cancel(false);
+                    abandonTask = null;
+                }
+                targets = List.copyOf(subscriptions);
+                for (Subscription subscription : targets) {
+                    subscription.terminate(cause);
+                }
+                subscriptions.clear();
+            }
+            drain(targets);
+            evictionOrder.finished(this);
+        }
+
+        private void drain(List<Subscription> targets) {
+            for (Subscription subscription : targets) {
+                subscription.drain();
+            }
+        }
+    }
+
+    /**
+     * 单个订阅者的待发送队列
+     * <p>
+     * 重放流在锁内按序入队，入队后由调用线程在锁外推送；
+     * 同一时刻只有一个线程推送（其他线程发现正在推送时直接返回，由推送中的线程继续取队列），
+     * 因此订阅者收到的帧与入队顺序一致，不会并发调用同一个订阅者。
+     * 推送失败后清空队列并取消订阅，之后的帧和结束信号都被丢弃。
+     * </p>
+     */
+    private static class Subscription {
+
+        private final ReplayStream stream;
+        private final FrameSubscriber subscriber;
+        private final ArrayDeque<SseFrame> pending = new ArrayDeque<>();
+        private boolean terminated;
+        private Throwable error;
+        private boolean closed;
+        private boolean draining;
+
+        Subscription(ReplayStream stream, FrameSubscriber subscriber) {
+            this.stream = stream;
+            this.subscriber = subscriber;
+        }
+
+        synchronized void enqueue(SseFrame frame) {
+            if (!closed && !terminated) {
+                pending.addLast(frame);
+            }
+        }
+
+        synchronized void terminate(Throwable cause) {
+            if (!terminated) {
+                terminated = true;
+                error = cause;
+            }
+        }
+
+        void drain() {
+            synchronized (this) {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            while (true) {
+                SseFrame frame;
+                synchronized (this) {
+                    frame = closed ? null : pending.pollFirst();
+                    if (frame == null) {
+                        if (closed || !terminated) {
+                            draining = false;
+                            return;
+                        }
+                        closed = true;
+                    }
+                }
+                if (frame == null) {
+                    notifyFinished();
+                    synchronized (this) {
+                        draining = false;
+                    }
+                    return;
+                }
+                try {
+                    subscriber.onFrame(frame);
+                } catch (Exception e) {
+                    log.debug("推送帧失败，移除订阅者，响应: {}, 错误: {}", stream.responseId, e.getMessage());
+                    synchronized (this) {
+                        closed = true;
+                        pending.clear();
+                    }
+                    stream.detach(subscriber);
+                }
+            }
+        }
+
+        private void notifyFinished() {
+            try {
+                if (error == null) {
+                    subscriber.onComplete();
+                } else {
+                    subscriber.onError(error);
+                }
+            } catch (Exception e) {
+                log.debug("通知订阅者结束失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 已缓存的帧
+     */
+    private record Frame(long seq, SseFrame data) {
+    }
+}
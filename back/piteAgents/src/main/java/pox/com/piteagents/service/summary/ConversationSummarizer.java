@@ -0,0 +1,242 @@
+package pox.com.piteagents.service.summary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.SummaryProperties;
+import pox.com.piteagents.entity.dto.common.Message;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
+import pox.com.piteagents.entity.po.ConversationSessionPO;
+import pox.com.piteagents.mapper.ConversationMessageMapper;
+import pox.com.piteagents.mapper.ConversationSessionMapper;
+import pox.com.piteagents.service.IZhipuService;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
+import pox.com.piteagents.service.session.SessionHistoryCache;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 会话滚动摘要器
+ * <p>
+ * 长会话每轮都回放全部历史，提示词随对话增长。消息写入后在后台检查会话：
+ * - 水位线（summary_message_id）之后的消息预估 token 数超过 triggerTokens 时触发摘要
+ * - 将已有摘要和较早的消息合并生成新摘要，最近 keepRecentMessages 条消息保留原文
+ * - 摘要与新的水位线一起写回，获取历史时返回摘要 + 水位线之后的消息
+ * </p>
+ * <p>
+ * 同一会话同时只有一个摘要任务；写回时校验水位线未被推进，多节点并发摘要时只有一个生效。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationSummarizer {
+
+    private static final String ROLE_USER = "user";
+
+    /**
+     * 单次折叠的消息 token 上限（按 triggerTokens 的倍数计）
+     * <p>
+     * 历史很长的旧会话首次摘要时分多次折叠，避免单次摘要请求超出上下文窗口
+     * </p>
+     */
+    private static final int MAX_FOLD_MULTIPLIER = 4;
+
+    private static final String SUMMARY_PROMPT = "你是对话摘要助手。请将已有摘要与新增的对话记录合并为一份新的摘要，"
+            + "保留用户的目标、偏好、已确认的事实和结论、尚未解决的问题，省略寒暄和重复内容。"
+            + "直接输出摘要正文，不要添加标题或解释。";
+
+    private final ConversationSessionMapper sessionMapper;
+    private final ConversationMessageMapper messageMapper;
+    private final IZhipuService zhipuService;
+    private final GlmTokenEstimator glmTokenEstimator;
+    private final SummaryProperties summaryProperties;
+    private final MeterRegistry meterRegistry;
+    private final SessionHistoryCache sessionHistoryCache;
+
+    /**
+     * 正在摘要或等待摘要的会话
+     */
+    private final Set<Long> pendingSessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 摘要线程池
+     */
+    private ThreadPoolExecutor summaryExecutor;
+
+    /**
+     * 初始化摘要线程池
+     */
+    @PostConstruct
+    public void initialize() {
+        AtomicInteger counter = new AtomicInteger();
+        summaryExecutor = new ThreadPoolExecutor(
+                summaryProperties.getPoolSize(),
+                summaryProperties.getPoolSize(),
+                60L,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(summaryProperties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, summaryProperties.getThreadNamePrefix() + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        summaryExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 关闭摘要线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdownNow();
+    }
+
+    /**
+     * 请求检查会话是否需要摘要（异步执行，立即返回）
+     *
+     * @param sessionId 会话 ID
+     */
+    public void requestSummary(Long sessionId) {
+        if (!summaryProperties.isEnabled() || !pendingSessions.add(sessionId)) {
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    // 首次摘要的旧会话可能需要多次折叠
+                    while (summarizeOnce(sessionId)) {
+                        log.debug("会话 {} 仍有待折叠的消息，继续摘要", sessionId);
+                    }
+                } catch (Exception e) {
+                    meterRegistry.counter("pite.summary.runs", "outcome", "failed").increment();
+                    log.warn("会话摘要失败，会话ID: {}, 错误: {}", sessionId, e.getMessage());
+                } finally {
+                    pendingSessions.remove(sessionId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingSessions.remove(sessionId);
+            meterRegistry.counter("pite.summary.runs", "outcome", "rejected").increment();
+            log.debug("摘要队列已满，跳过本次摘要，会话ID: {}", sessionId);
+        }
+    }
+
+    /**
+     * 执行一次摘要
+     *
+     * @param sessionId 会话 ID
+     * @return true 表示已推进水位线且仍有待折叠的消息
+     */
+    private boolean summarizeOnce(Long sessionId) {
+        ConversationSessionPO session = sessionMapper.selectById(sessionId);
+        if (session == null) {
+            // 会话已删除
+            return false;
+        }
+
+        List<ConversationMessagePO> messages = messageMapper.selectAfterId(sessionId, session.getSummaryMessageId());
+        int keepRecent = Math.max(0, summaryProperties.getKeepRecentMessages());
+        if (messages.size() <= keepRecent) {
+            return false;
+        }
+
+        int unsummarizedTokens = 0;
+        for (ConversationMessagePO message : messages) {
+            unsummarizedTokens += GlmTokenEstimator.TOKENS_PER_MESSAGE + glmTokenEstimator.estimateText(message.getContent());
+        }
+        if (unsummarizedTokens < summaryProperties.getTriggerTokens()) {
+            return false;
+        }
+
+        // 保留的最近消息从用户消息开始，不拆开一问一答
+        int foldEnd = messages.size() - keepRecent;
+        while (foldEnd < messages.size() - 1 && !ROLE_USER.equals(messages.get(foldEnd).getRole())) {
+            foldEnd++;
+        }
+
+        // 单次折叠的消息量受上限约束，剩余部分下次继续
+        long maxFoldTokens = (long) summaryProperties.getTriggerTokens() * MAX_FOLD_MULTIPLIER;
+        StringBuilder transcript = new StringBuilder();
+        int folded = 0;
+        long foldedTokens = 0;
+        while (folded < foldEnd) {
+            ConversationMessagePO message = messages.get(folded);
+            int tokens = GlmTokenEstimator.TOKENS_PER_MESSAGE + glmTokenEstimator.estimateText(message.getContent());
+            if (folded > 0 && foldedTokens + tokens > maxFoldTokens) {
+                break;
+            }
+            transcript.append(roleLabel(message.getRole())).append(": ").append(message.getContent()).append('\n');
+            foldedTokens += tokens;
+            folded++;
+        }
+        if (folded == 0) {
+            return false;
+        }
+
+        long startNanos = System.nanoTime();
+        String summary = generateSummary(session, transcript);
+        Long watermark = messages.get(folded - 1).getId();
+
+        int updated = sessionMapper.updateSummary(sessionId, summary, watermark, session.getSummaryMessageId());
+        if (updated == 0) {
+            // 会话已删除，或其他节点已推进水位线
+            meterRegistry.counter("pite.summary.runs", "outcome", "conflict").increment();
+            log.debug("会话摘要未写回（水位线已变更或会话已删除），会话ID: {}", sessionId);
+            return false;
+        }
+
+        sessionHistoryCache.applySummary(sessionId, summary, watermark);
+        meterRegistry.counter("pite.summary.runs", "outcome", "summarized").increment();
+        meterRegistry.timer("pite.summary.duration").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        log.info("会话摘要已更新，会话ID: {}, 折叠消息数: {}, 水位线: {} -> {}",
+                sessionId, folded, session.getSummaryMessageId(), watermark);
+        return folded < foldEnd;
+    }
+
+    private String generateSummary(ConversationSessionPO session, CharSequence transcript) {
+        StringBuilder content = new StringBuilder();
+        if (session.getSummary() != null && !session.getSummary().isBlank()) {
+            content.append("【已有摘要】\n").append(session.getSummary()).append("\n\n");
+        }
+        content.append("【新增对话记录】\n").append(transcript);
+
+        ChatRequest request = ChatRequest.builder()
+                .agentId(session.getAgentId())
+                .model(summaryProperties.getModel())
+                .temperature(0.3)
+                .maxTokens(summaryProperties.getMaxSummaryTokens())
+                .stream(false)
+                .messages(List.of(
+                        Message.builder().role("system").content(SUMMARY_PROMPT).build(),
+                        Message.builder().role(ROLE_USER).content(content.toString()).build()))
+                .build();
+
+        ChatResponse response = zhipuService.chat(request);
+        return response.getContent().trim();
+    }
+
+    private String roleLabel(String role) {
+        return switch (role) {
+            case "user" -> "用户";
+            case "assistant" -> "助手";
+            default -> "系统";
+        };
+    }
+}
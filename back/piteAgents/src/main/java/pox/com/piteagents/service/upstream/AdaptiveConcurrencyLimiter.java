@@ -0,0 +1,446 @@
+package pox.com.piteagents.service.upstream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.enums.ZhipuModelEnum;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 上游自适应并发限制器
+ * <p>
+ * 为每个模型（{@link ZhipuModelEnum}）维护独立的并发上限和 FIFO 等待队列，
+ * 按 AIMD 算法根据上游的限流响应和延迟动态调整上限：
+ * - 成功且延迟正常：limit += 1 / limit（每轮约加 1），仅在并发接近上限时增长
+ * - 上游限流（429 等）：limit *= backoffRatio
+ * - 延迟超过基线 latencyTolerance 倍：limit *= latencyBackoffRatio
+ * </p>
+ * <p>
+ * 乘性减小每个窗口只生效一次：上限减小后，减小之前获得的许可再报告过载或高延迟不再继续减小。
+ * 一次限流突发会让同时进行的多个调用几乎同时失败，逐个减小会把上限直接压到最小值。
+ * </p>
+ * <p>
+ * 等待许可的请求按 FIFO 排队，释放许可时依次唤醒。{@link #acquireAsync(String)} 排队时不占用线程，
+ * 供响应式链路使用；{@link #acquire(String)} 在调用线程上等待，用于本身就阻塞等待上游响应的同步调用。
+ * 两者共用同一队列。
+ * </p>
+ * <p>
+ * 未知模型共用一个独立的限制器，避免影响已知模型。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * 未知模型共用的限制器名称
+     */
+    private static final String OTHER_MODEL = "other";
+
+    /**
+     * 延迟基线的指数移动平均平滑系数
+     */
+    private static final double BASELINE_ALPHA = 0.05;
+
+    private final UpstreamProperties upstreamProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 模型 -> 限制器
+     */
+    private final Map<String, ModelLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * 为所有已知模型创建限制器
+     */
+    @PostConstruct
+    public void initialize() {
+        for (ZhipuModelEnum model : ZhipuModelEnum.values()) {
+            limits.put(model.getCode(), new ModelLimit(model.getCode()));
+        }
+        limits.put(OTHER_MODEL, new ModelLimit(OTHER_MODEL));
+    }
+
+    /**
+     * 获取调用许可，超过并发上限时排队等待
+     *
+     * @param model 模型代码
+     * @return 调用许可，调用结束后必须释放
+     * @throws ZhipuApiException 队列已满或排队超时（错误码 503）
+     */
+    public Permit acquire(String model) {
+        if (!upstreamProperties.getLimiter().isEnabled()) {
+            return new Permit(null, 0);
+        }
+        return resolve(model).acquire();
+    }
+
+    /**
+     * 获取调用许可，不阻塞线程
+     * <p>
+     * 超过并发上限时进入同一 FIFO 队列，由释放许可的线程或超时定时器完成，排队期间不占用线程，
+     * 排队后获得的许可在 boundedElastic 上发出。排队时取消订阅会退出队列；许可已分配但订阅已取消时自动释放。
+     * </p>
+     *
+     * @param model 模型代码
+     * @return 调用许可，调用结束后必须释放；队列已满或排队超时以 503 的 {@link ZhipuApiException} 结束
+     */
+    public Mono<Permit> acquireAsync(String model) {
+        if (!upstreamProperties.getLimiter().isEnabled()) {
+            return Mono.fromSupplier(() -> new Permit(null, 0));
+        }
+        return Mono.defer(() -> {
+            ModelLimit limit = resolve(model);
+            Waiter waiter = limit.enqueue();
+            Mono<Permit> permit = Mono.create(sink -> {
+                sink.onCancel(() -> limit.abandon(waiter));
+                waiter.future.whenComplete((granted, error) -> {
+                    if (error instanceof CancellationException) {
+                        return;
+                    }
+                    if (error != null) {
+                        sink.error(error);
+                    } else {
+                        sink.success(granted);
+                    }
+                });
+            });
+            // 排队的许可由释放许可的线程或超时定时器完成，后续逻辑（如发起可能阻塞的上游调用）不能在这些线程上执行
+            return waiter.future.isDone() ? permit : permit.publishOn(Schedulers.boundedElastic());
+        });
+    }
+
+    /**
+     * 获取模型当前的并发上限
+     *
+     * @param model 模型代码
+     * @return 并发上限
+     */
+    public int getLimit(String model) {
+        return (int) resolve(model).limit;
+    }
+
+    private ModelLimit resolve(String model) {
+        return limits.getOrDefault(model, limits.get(OTHER_MODEL));
+    }
+
+    /**
+     * 单个模型的并发限制
+     * <p>
+     * 状态在锁内修改，唤醒等待者（完成其 Future）在锁外进行，避免在锁内执行等待者的后续逻辑。
+     * </p>
+     */
+    private class ModelLimit {
+
+        private final String model;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private final Timer queueWaitTimer;
+        private final Counter rejectedCounter;
+
+        private volatile double limit;
+        private volatile int inFlight;
+        private volatile int waiting;
+        private double latencyBaselineNanos;
+
+        /**
+         * 乘性减小的次数，许可记录获得时的值，用于忽略减小之前获得的许可报告的拥塞
+         */
+        private long decreaseEpoch;
+
+        ModelLimit(String model) {
+            this.model = model;
+            this.limit = upstreamProperties.getLimiter().getInitialLimit();
+
+            Gauge.builder("pite.upstream.limit", this, l -> l.limit)
+                    .description("上游当前并发上限")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            Gauge.builder("pite.upstream.inflight", this, l -> l.inFlight)
+                    .description("上游进行中的调用数")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            Gauge.builder("pite.upstream.queue.depth", this, l -> l.waiting)
+                    .description("等待上游调用许可的请求数")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            queueWaitTimer = Timer.builder("pite.upstream.queue.wait")
+                    .description("等待上游调用许可的时间")
+                    .tag("model", model)
+                    .register(meterRegistry);
+            rejectedCounter = Counter.builder("pite.upstream.rejected")
+                    .description("因排队已满或超时被拒绝的上游调用数")
+                    .tag("model", model)
+                    .register(meterRegistry);
+        }
+
+        Permit acquire() {
+            Waiter waiter = enqueue();
+            try {
+                // 排队超时由定时器完成 Future，这里无需再设超时
+                return waiter.future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new ZhipuApiException(503, "等待上游调用许可失败", e.getCause());
+            } catch (InterruptedException e) {
+                abandon(waiter);
+                Thread.currentThread().interrupt();
+                throw new ZhipuApiException(503, "等待上游调用许可时被中断", e);
+            }
+        }
+
+        /**
+         * 申请许可：有空闲且无人排队时立即分配，否则进入队列并设置排队超时
+         *
+         * @return 排队项，其 Future 在分配许可或被拒绝时完成
+         */
+        Waiter enqueue() {
+            UpstreamProperties.Limiter config = upstreamProperties.getLimiter();
+            Waiter waiter = new Waiter();
+            lock.lock();
+            try {
+                if (waiters.isEmpty() && inFlight < (int) limit) {
+                    inFlight++;
+                    waiter.future.complete(new Permit(this, decreaseEpoch));
+                    queueWaitTimer.record(0, TimeUnit.NANOSECONDS);
+                    return waiter;
+                }
+                if (waiters.size() >= config.getMaxQueueSize()) {
+                    rejectedCounter.increment();
+                    waiter.future.completeExceptionally(
+                            new ZhipuApiException(503, "模型 " + model + " 当前请求过多，请稍后重试"));
+                    return waiter;
+                }
+                waiters.addLast(waiter);
+                waiting = waiters.size();
+                waiter.timeout = Schedulers.parallel().schedule(() -> expire(waiter),
+                        config.getMaxQueueWaitMs(), TimeUnit.MILLISECONDS);
+            } finally {
+                lock.unlock();
+            }
+            return waiter;
+        }
+
+        /**
+         * 排队超时
+         */
+        private void expire(Waiter waiter) {
+            lock.lock();
+            try {
+                if (!waiters.remove(waiter)) {
+                    return;
+                }
+                waiting = waiters.size();
+            } finally {
+                lock.unlock();
+            }
+            rejectedCounter.increment();
+            waiter.future.completeExceptionally(new ZhipuApiException(503, "模型 " + model + " 排队超时，请稍后重试"));
+        }
+
+        /**
+         * 等待者放弃（取消订阅或线程被中断）：仍在队列中时移出，已分配的许可直接释放
+         */
+        void abandon(Waiter waiter) {
+            lock.lock();
+            try {
+                if (waiters.remove(waiter)) {
+                    waiting = waiters.size();
+                    waiter.cancelTimeout();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!waiter.future.cancel(false)) {
+                Permit permit = waiter.future.getNow(null);
+                if (permit != null) {
+                    permit.release(Outcome.IGNORED, 0);
+                }
+            }
+        }
+
+        void release(Permit permit, Outcome outcome, long latencyNanos) {
+            UpstreamProperties.Limiter config = upstreamProperties.getLimiter();
+            List<Waiter> granted;
+            lock.lock();
+            try {
+                int inFlightBefore = inFlight;
+                inFlight--;
+                double previous = limit;
+                // 上限在该许可获得之后已经减小过：这次拥塞很可能来自同一次突发，不再重复减小
+                boolean decreasedSinceAcquired = permit.epoch != decreaseEpoch;
+
+                switch (outcome) {
+                    case OVERLOADED -> {
+                        if (!decreasedSinceAcquired) {
+                            decrease(config.getBackoffRatio());
+                        }
+                    }
+                    case SUCCESS -> {
+                        boolean congested = latencyNanos > 0 && latencyBaselineNanos > 0
+                                && latencyNanos > latencyBaselineNanos * config.getLatencyTolerance();
+                        if (latencyNanos > 0) {
+                            latencyBaselineNanos = latencyBaselineNanos == 0 ? latencyNanos
+                                    : latencyBaselineNanos + BASELINE_ALPHA * (latencyNanos - latencyBaselineNanos);
+                        }
+                        if (congested) {
+                            if (!decreasedSinceAcquired) {
+                                decrease(config.getLatencyBackoffRatio());
+                            }
+                        } else if (inFlightBefore >= (int) limit * 0.8) {
+                            // 只有并发接近上限时才增长，避免空闲时上限无意义地膨胀
+                            limit = Math.min(config.getMaxLimit(), limit + 1.0 / limit);
+                        }
+                    }
+                    default -> {
+                        // 与容量无关的失败（参数错误、客户端取消等）不调整上限
+                    }
+                }
+
+                if ((int) previous != (int) limit) {
+                    log.debug("模型 {} 并发上限调整: {} -> {}（{}）", model, (int) previous, (int) limit, outcome);
+                }
+                granted = grant();
+            } finally {
+                lock.unlock();
+            }
+            complete(granted);
+        }
+
+        private void decrease(double ratio) {
+            limit = Math.max(upstreamProperties.getLimiter().getMinLimit(), limit * ratio);
+            decreaseEpoch++;
+        }
+
+        /**
+         * 按 FIFO 顺序为等待者分配空闲许可，调用方持有锁
+         */
+        private List<Waiter> grant() {
+            List<Waiter> granted = new ArrayList<>();
+            while (!waiters.isEmpty() && inFlight < (int) limit) {
+                Waiter waiter = waiters.pollFirst();
+                waiter.cancelTimeout();
+                inFlight++;
+                waiter.permit = new Permit(this, decreaseEpoch);
+                granted.add(waiter);
+            }
+            waiting = waiters.size();
+            return granted;
+        }
+
+        /**
+         * 在锁外唤醒获得许可的等待者，等待者已放弃时归还许可
+         */
+        private void complete(List<Waiter> granted) {
+            for (Waiter waiter : granted) {
+                queueWaitTimer.record(System.nanoTime() - waiter.enqueuedAt, TimeUnit.NANOSECONDS);
+                if (!waiter.future.complete(waiter.permit)) {
+                    waiter.permit.release(Outcome.IGNORED, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * 排队等待许可的请求
+     */
+    private static class Waiter {
+
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        private Disposable timeout;
+        private Permit permit;
+
+        void cancelTimeout() {
+            if (timeout != null) {
+                timeout.dispose();
+            }
+        }
+    }
+
+    /**
+     * 调用结果
+     */
+    public enum Outcome {
+        /**
+         * 调用成功
+         */
+        SUCCESS,
+        /**
+         * 上游限流或过载
+         */
+        OVERLOADED,
+        /**
+         * 与容量无关的失败或取消
+         */
+        IGNORED
+    }
+
+    /**
+     * 上游调用许可
+     * <p>
+     * 可重复调用 release，只有第一次生效。
+     * </p>
+     */
+    public static class Permit {
+
+        private final ModelLimit limit;
+        private final long epoch;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ModelLimit limit, long epoch) {
+            this.limit = limit;
+            this.epoch = epoch;
+        }
+
+        /**
+         * 获取许可后经过的时间
+         *
+         * @return 纳秒
+         */
+        public long elapsedNanos() {
+            return System.nanoTime() - acquiredAt;
+        }
+
+        /**
+         * 释放许可
+         *
+         * @param outcome      调用结果
+         * @param latencyNanos 延迟样本（流式调用为首个数据块的延迟），未知时传 0
+         */
+        public void release(Outcome outcome, long latencyNanos) {
+            if (limit != null && released.compareAndSet(false, true)) {
+                limit.release(this, outcome, latencyNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package pox.com.piteagents.service.upstream;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.UpstreamProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 熔断器管理端点
+ * <p>
+ * GET /actuator/circuitbreakers 查看各模型的熔断状态和降级路由；
+ * POST /actuator/circuitbreakers/{model} 手动关闭指定模型的熔断器。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+@RequiredArgsConstructor
+@Endpoint(id = "circuitbreakers")
+public class CircuitBreakerEndpoint {
+
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final UpstreamProperties upstreamProperties;
+
+    /**
+     * 查看熔断状态
+     *
+     * @return 熔断器配置、各模型状态和降级路由
+     */
+    @ReadOperation
+    public Map<String, Object> breakers() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", upstreamProperties.getCircuitBreaker().isEnabled());
+        result.put("models", circuitBreakerRegistry.snapshot());
+        result.put("fallbackModels", upstreamProperties.getFallbackModels());
+        return result;
+    }
+
+    /**
+     * 手动关闭指定模型的熔断器
+     *
+     * @param model 模型代码
+     * @return 重置后的状态
+     */
+    @WriteOperation
+    public Map<String, Object> reset(@Selector String model) {
+        boolean reset = circuitBreakerRegistry.reset(model);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("model", model);
+        result.put("reset", reset);
+        return result;
+    }
+}
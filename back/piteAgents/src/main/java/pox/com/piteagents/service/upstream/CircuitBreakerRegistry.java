@@ -0,0 +1,250 @@
+package pox.com.piteagents.service.upstream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.UpstreamProperties;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按模型的熔断器注册表
+ * <p>
+ * 上游持续故障时，每个请求都要等到超时才失败。熔断器在连续失败达到阈值后打开，
+ * 打开期间直接拒绝该模型的调用（由 {@link UpstreamGateway} 改走降级模型或立即失败）：
+ * - CLOSED：正常放行，记录连续失败次数
+ * - OPEN：拒绝调用，持续 openDurationMs
+ * - HALF_OPEN：放行 halfOpenMaxCalls 个探测请求，成功则关闭，失败则重新打开
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CircuitBreakerRegistry {
+
+    private final UpstreamProperties upstreamProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 各模型的熔断器
+     */
+    private final Map<String, ModelBreaker> breakers = new ConcurrentHashMap<>();
+
+    /**
+     * 申请调用许可
+     *
+     * @param model 模型代码
+     * @return true 表示可以调用；false 表示熔断器打开，应降级或直接失败
+     */
+    public boolean tryAcquire(String model) {
+        if (!upstreamProperties.getCircuitBreaker().isEnabled()) {
+            return true;
+        }
+        boolean permitted = breaker(model).tryAcquire();
+        if (!permitted) {
+            Counter.builder("pite.upstream.breaker.rejected")
+                    .description("熔断器打开时被直接拒绝的调用数")
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .increment();
+        }
+        return permitted;
+    }
+
+    /**
+     * 记录调用成功
+     *
+     * @param model 模型代码
+     */
+    public void onSuccess(String model) {
+        if (upstreamProperties.getCircuitBreaker().isEnabled()) {
+            breaker(model).onSuccess();
+        }
+    }
+
+    /**
+     * 记录调用失败（仅统计上游故障，不含参数错误等请求自身的问题）
+     *
+     * @param model 模型代码
+     */
+    public void onFailure(String model) {
+        if (upstreamProperties.getCircuitBreaker().isEnabled()) {
+            breaker(model).onFailure();
+        }
+    }
+
+    /**
+     * 释放未产生结果的许可（如调用被取消），不影响熔断状态
+     *
+     * @param model 模型代码
+     */
+    public void onIgnored(String model) {
+        if (upstreamProperties.getCircuitBreaker().isEnabled()) {
+            breaker(model).onIgnored();
+        }
+    }
+
+    /**
+     * 判断模型的熔断器是否处于打开状态
+     *
+     * @param model 模型代码
+     * @return true 表示打开
+     */
+    public boolean isOpen(String model) {
+        ModelBreaker breaker = breakers.get(model);
+        return breaker != null && breaker.currentState() == State.OPEN;
+    }
+
+    /**
+     * 获取所有模型的熔断器状态快照
+     *
+     * @return 模型代码 → 状态信息
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        breakers.forEach((model, breaker) -> result.put(model, breaker.describe()));
+        return result;
+    }
+
+    /**
+     * 手动关闭模型的熔断器
+     *
+     * @param model 模型代码
+     * @return true 表示存在该模型的熔断器并已重置
+     */
+    public boolean reset(String model) {
+        ModelBreaker breaker = breakers.get(model);
+        if (breaker == null) {
+            return false;
+        }
+        breaker.reset();
+        return true;
+    }
+
+    private ModelBreaker breaker(String model) {
+        return breakers.computeIfAbsent(model, key -> {
+            ModelBreaker breaker = new ModelBreaker(key);
+            Gauge.builder("pite.upstream.breaker.state", breaker, b -> b.currentState().ordinal())
+                    .description("熔断器状态（0=CLOSED，1=OPEN，2=HALF_OPEN）")
+                    .tag("model", key)
+                    .register(meterRegistry);
+            return breaker;
+        });
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 单个模型的熔断器
+     */
+    private class ModelBreaker {
+
+        private final String model;
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private int halfOpenCalls;
+        private long openedAtMillis;
+        private long openCount;
+
+        ModelBreaker(String model) {
+            this.model = model;
+        }
+
+        synchronized boolean tryAcquire() {
+            UpstreamProperties.CircuitBreaker config = upstreamProperties.getCircuitBreaker();
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAtMillis < config.getOpenDurationMs()) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (halfOpenCalls >= config.getHalfOpenMaxCalls()) {
+                    return false;
+                }
+                halfOpenCalls++;
+            }
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                transition(State.CLOSED);
+            }
+        }
+
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN
+                    || (state == State.CLOSED
+                    && consecutiveFailures >= upstreamProperties.getCircuitBreaker().getFailureThreshold())) {
+                transition(State.OPEN);
+            }
+        }
+
+        synchronized void onIgnored() {
+            if (state == State.HALF_OPEN && halfOpenCalls > 0) {
+                halfOpenCalls--;
+            }
+        }
+
+        synchronized void reset() {
+            consecutiveFailures = 0;
+            transition(State.CLOSED);
+        }
+
+        synchronized State currentState() {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAtMillis
+                    >= upstreamProperties.getCircuitBreaker().getOpenDurationMs()) {
+                // 打开时长已过，下一次调用时转为半开
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        synchronized Map<String, Object> describe() {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("state", currentState().name());
+            info.put("consecutiveFailures", consecutiveFailures);
+            info.put("openCount", openCount);
+            if (openedAtMillis > 0) {
+                info.put("lastOpenedAt", Instant.ofEpochMilli(openedAtMillis).toString());
+            }
+            if (state == State.OPEN) {
+                long remaining = upstreamProperties.getCircuitBreaker().getOpenDurationMs()
+                        - (System.currentTimeMillis() - openedAtMillis);
+                info.put("retryAfterSeconds", Math.max(0, TimeUnit.MILLISECONDS.toSeconds(remaining)));
+            }
+            return info;
+        }
+
+        private void transition(State next) {
+            if (state == next) {
+                return;
+            }
+            log.warn("模型 {} 熔断器状态变更: {} -> {}，连续失败: {}", model, state, next, consecutiveFailures);
+            state = next;
+            halfOpenCalls = 0;
+            if (next == State.OPEN) {
+                openedAtMillis = System.currentTimeMillis();
+                openCount++;
+            }
+        }
+    }
+}
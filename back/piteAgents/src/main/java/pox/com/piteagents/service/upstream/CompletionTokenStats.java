@@ -0,0 +1,56 @@
+package pox.com.piteagents.service.upstream;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各模型生成长度统计
+ * <p>
+ * 按模型维护每次调用实际生成 token 数（completion_tokens）的指数移动平均：
+ * - 同步、流式、批量、任务、摘要和工具调用对话在结算配额时都会记录一个样本，工具调用的多轮合计为一个样本
+ * - 未收到用量的调用（如生成被取消）不记录，避免被截断的生成拉低平均值
+ * - 用于预留调用配额，以及估算取消流式生成节省的 token 数
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Component
+public class CompletionTokenStats {
+
+    /**
+     * 指数移动平均的平滑系数
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * 各模型生成 token 数的指数移动平均
+     */
+    private final Map<String, Double> completionTokensEwma = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次调用的实际生成 token 数
+     *
+     * @param model 模型代码
+     * @param completionTokens 生成 token 数
+     */
+    public void record(String model, long completionTokens) {
+        if (model == null || completionTokens < 0) {
+            return;
+        }
+        completionTokensEwma.merge(model, (double) completionTokens,
+                (previous, sample) -> previous + EWMA_ALPHA * (sample - previous));
+    }
+
+    /**
+     * 获取模型的平均生成 token 数
+     *
+     * @param model 模型代码
+     * @return 平均生成 token 数，尚无样本时返回 null
+     */
+    public Double getAverage(String model) {
+        return completionTokensEwma.get(model);
+    }
+}
@@ -0,0 +1,345 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.service.model.ChatCompletionCreateParams;
+import ai.z.openapi.service.model.ChatCompletionResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对冲请求执行器
+ * <p>
+ * 降低同步对话的长尾延迟：
+ * - 每个模型记录最近的调用延迟，等待时间超过配置的分位数后再发出一个相同的请求
+ * - 采用先成功返回的结果，另一个请求通过中断调用线程取消（SDK 会随之取消 HTTP 调用）
+ * - 先返回的请求失败时继续等待另一个请求
+ * - 对冲次数受预算限制：每个请求积累 budgetRatio 次对冲额度，最多累积 maxBurst 次
+ * </p>
+ * <p>
+ * 两个请求各自经过 {@link UpstreamGateway}，分别占用并发许可和调用配额：原请求的配额由调用方申请和结算，
+ * 对冲请求发出前通过 {@link TokenQuotaManager#tryAdmit(ChatRequest)} 向同一 Agent 申请，配额不足时不发出，
+ * 结束（含被取消）时按该请求的实际用量结算。
+ * 通过 pite.upstream.hedge.latency 按结果（未对冲 / 原请求胜出 / 对冲请求胜出）对比延迟，
+ * 评估对冲的实际收益。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HedgedChatExecutor {
+
+    private final UpstreamGateway upstreamGateway;
+    private final TokenQuotaManager tokenQuotaManager;
+    private final UpstreamProperties upstreamProperties;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 对冲调用线程池
+     * <p>
+     * 不设排队队列，线程用尽时原请求直接在调用线程上执行，对冲请求则放弃
+     * </p>
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * 各模型的延迟样本
+     */
+    private final Map<String, LatencyWindow> latencyWindows = new ConcurrentHashMap<>();
+
+    /**
+     * 剩余对冲额度
+     */
+    private double hedgeCredits;
+
+    /**
+     * 初始化线程池
+     */
+    @PostConstruct
+    public void initialize() {
+        UpstreamProperties.Hedge hedge = upstreamProperties.getHedge();
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+                hedge.getPoolSize(),
+                hedge.getPoolSize(),
+                60L,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, hedge.getThreadNamePrefix() + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        log.info("对冲请求执行器初始化完成，启用: {}, 分位数: {}, 预算比例: {}",
+                hedge.isEnabled(), hedge.getPercentile(), hedge.getBudgetRatio());
+    }
+
+    /**
+     * 同步对话调用，等待过久时发出对冲请求
+     *
+     * @param params  SDK 请求对象（非流式）
+     * @param request 原始对话请求，用于为对冲请求申请配额
+     * @return 成功的 SDK 响应
+     * @throws ZhipuApiException 所有请求都失败时抛出
+     */
+    public ChatCompletionResponse complete(ChatCompletionCreateParams params, ChatRequest request) {
+        UpstreamProperties.Hedge hedge = upstreamProperties.getHedge();
+        if (!hedge.isEnabled()) {
+            return upstreamGateway.complete(params);
+        }
+
+        String model = params.getModel();
+        LatencyWindow window = latencyWindows.computeIfAbsent(model, key -> new LatencyWindow(hedge.getSampleWindow()));
+        depositCredit(hedge);
+        long startNanos = System.nanoTime();
+
+        // 样本不足时无法判断何时算"慢"，直接调用
+        long hedgeDelayNanos = window.hedgeDelayNanos(hedge);
+        if (hedgeDelayNanos < 0) {
+            ChatCompletionResponse response = upstreamGateway.complete(params);
+            long latency = System.nanoTime() - startNanos;
+            window.record(latency);
+            recordLatency(model, "not_hedged", latency);
+            return response;
+        }
+
+        ExecutorCompletionService<ChatCompletionResponse> completion = new ExecutorCompletionService<>(executor);
+        Future<ChatCompletionResponse> primary;
+        try {
+            primary = completion.submit(() -> timedCall(params, window));
+        } catch (RejectedExecutionException e) {
+            // 线程池已满，不做对冲
+            return upstreamGateway.complete(params);
+        }
+
+        Future<ChatCompletionResponse> hedged = null;
+        try {
+            Future<ChatCompletionResponse> first = completion.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (first == null) {
+                hedged = submitHedge(completion, params, request, window, model, hedge);
+                first = completion.take();
+            }
+
+            try {
+                ChatCompletionResponse response = first.get();
+                recordOutcome(model, hedged == null ? "not_hedged" : first == primary ? "primary_won" : "hedge_won",
+                        startNanos);
+                return response;
+            } catch (ExecutionException e) {
+                if (hedged == null) {
+                    throw unwrap(e);
+                }
+                // 先返回的请求失败，等待另一个
+                Future<ChatCompletionResponse> second = completion.take();
+                ChatCompletionResponse response = getOrThrow(second);
+                recordOutcome(model, second == primary ? "primary_won" : "hedge_won", startNanos);
+                return response;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZhipuApiException("等待智谱AI响应时被中断", e);
+        } finally {
+            // 取消尚未结束的请求；被取消的慢请求以已等待的时间作为延迟样本（实际延迟只会更长），
+            // 避免只记录胜出者导致分位数持续偏低
+            if (hedged != null && !primary.isDone()) {
+                window.record(System.nanoTime() - startNanos);
+            }
+            primary.cancel(true);
+            if (hedged != null) {
+                hedged.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 获取模型当前的对冲等待时间
+     *
+     * @param model 模型代码
+     * @return 对冲等待时间（毫秒），样本不足时返回 -1
+     */
+    public long getHedgeDelayMs(String model) {
+        LatencyWindow window = latencyWindows.get(model);
+        if (window == null) {
+            return -1;
+        }
+        long nanos = window.hedgeDelayNanos(upstreamProperties.getHedge());
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * 关闭线程池
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Future<ChatCompletionResponse> submitHedge(ExecutorCompletionService<ChatCompletionResponse> completion,
+                                                       ChatCompletionCreateParams params, ChatRequest request,
+                                                       LatencyWindow window, String model,
+                                                       UpstreamProperties.Hedge hedge) {
+        if (!withdrawCredit()) {
+            counter("pite.upstream.hedge.skipped", "未能发出的对冲请求数", model, "budget").increment();
+            return null;
+        }
+        TokenQuotaManager.QuotaTicket ticket = tokenQuotaManager.tryAdmit(request);
+        if (ticket == null) {
+            refundCredit();
+            counter("pite.upstream.hedge.skipped", "未能发出的对冲请求数", model, "quota").increment();
+            return null;
+        }
+        try {
+            Future<ChatCompletionResponse> future = completion.submit(() -> chargedCall(params, window, ticket));
+            counter("pite.upstream.hedge.issued", "已发出的对冲请求数", model, null).increment();
+            log.debug("同步对话等待超过 P{} 延迟，发出对冲请求，模型: {}",
+                    Math.round(hedge.getPercentile() * 100), model);
+            return future;
+        } catch (RejectedExecutionException e) {
+            refundCredit();
+            // 未发出调用，不记录用量，按预估值结算
+            ticket.settle();
+            counter("pite.upstream.hedge.skipped", "未能发出的对冲请求数", model, "pool").increment();
+            return null;
+        }
+    }
+
+    /**
+     * 对冲请求：按实际用量结算其配额，被取消时未收到用量，保留预估扣除
+     */
+    private ChatCompletionResponse chargedCall(ChatCompletionCreateParams params, LatencyWindow window,
+                                               TokenQuotaManager.QuotaTicket ticket) {
+        try {
+            ChatCompletionResponse response = timedCall(params, window);
+            if (response.getData() != null) {
+                ticket.record(response.getData().getUsage());
+            }
+            return response;
+        } finally {
+            ticket.settle();
+        }
+    }
+
+    private ChatCompletionResponse timedCall(ChatCompletionCreateParams params, LatencyWindow window) {
+        long start = System.nanoTime();
+        ChatCompletionResponse response = upstreamGateway.complete(params);
+        window.record(System.nanoTime() - start);
+        return response;
+    }
+
+    private ChatCompletionResponse getOrThrow(Future<ChatCompletionResponse> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new ZhipuApiException("智谱AI对话调用失败: " + cause.getMessage(), cause);
+    }
+
+    private synchronized void depositCredit(UpstreamProperties.Hedge hedge) {
+        hedgeCredits = Math.min(hedge.getMaxBurst(), hedgeCredits + hedge.getBudgetRatio());
+    }
+
+    private synchronized boolean withdrawCredit() {
+        if (hedgeCredits < 1) {
+            return false;
+        }
+        hedgeCredits -= 1;
+        return true;
+    }
+
+    private synchronized void refundCredit() {
+        hedgeCredits += 1;
+    }
+
+    private void recordOutcome(String model, String outcome, long startNanos) {
+        recordLatency(model, outcome, System.nanoTime() - startNanos);
+    }
+
+    private void recordLatency(String model, String outcome, long latencyNanos) {
+        Timer.builder("pite.upstream.hedge.latency")
+                .description("同步对话的端到端上游延迟，按对冲结果分类")
+                .tag("model", model)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Counter counter(String name, String description, String model, String reason) {
+        Counter.Builder builder = Counter.builder(name)
+                .description(description)
+                .tag("model", model);
+        if (reason != null) {
+            builder.tag("reason", reason);
+        }
+        return builder.register(meterRegistry);
+    }
+
+    /**
+     * 最近的延迟样本（环形缓冲区）
+     */
+    private static class LatencyWindow {
+
+        private final long[] samples;
+        private int next;
+        private int size;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[Math.max(1, capacity)];
+        }
+
+        synchronized void record(long latencyNanos) {
+            samples[next] = latencyNanos;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        /**
+         * 计算对冲等待时间
+         *
+         * @return 等待纳秒数，样本不足时返回 -1
+         */
+        long hedgeDelayNanos(UpstreamProperties.Hedge hedge) {
+            long[] sorted;
+            synchronized (this) {
+                if (size < hedge.getMinSamples()) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, size);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(hedge.getPercentile() * sorted.length) - 1);
+            return Math.max(TimeUnit.MILLISECONDS.toNanos(hedge.getMinDelayMs()), sorted[Math.max(0, index)]);
+        }
+    }
+}
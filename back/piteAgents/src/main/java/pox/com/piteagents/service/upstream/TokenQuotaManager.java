@@ -0,0 +1,550 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.service.model.ModelData;
+import ai.z.openapi.service.model.Usage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import pox.com.piteagents.common.utils.ChatRequestDigester;
+import pox.com.piteagents.config.QuotaProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IAgentService;
+import pox.com.piteagents.service.context.ContextBudgeter;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 调用配额管理器
+ * <p>
+ * 使用令牌桶在本地限制全局和每个 Agent 的 RPM / TPM，
+ * 避免单个 Agent 耗尽整个账号的 token 额度：
+ * - 准入时扣除 1 次请求和预估的 token 数（提示词估算 + 预计生成长度）
+ * - 预计生成长度取该模型所有已结算调用的平均值，尚无样本时取 defaultCompletionEstimate，而不是模型的最大生成长度
+ * - 调用结束后按响应中的实际 TokenUsage 多退少补，超出部分记为欠额，从后续配额中扣回，并记录生成长度样本
+ * - 配额不足时，若在 maxDeferMs 内可补足则短暂等待，否则立即返回 429，不进入长时间排队
+ * </p>
+ * <p>
+ * 等待不占用线程：{@link #admitAsync(ChatRequest)} 用定时器延后重试，供响应式和 SSE 链路使用；
+ * {@link #admit(ChatRequest)} 在调用线程上等待结果，仅用于本身就阻塞等待上游响应的同步调用。
+ * </p>
+ * <p>
+ * RPM 按用户请求计数：工具调用对话的多轮上游调用只计一次请求，但所有轮次的 token 都会计入 TPM。
+ * 对冲请求是额外的一次完整调用，通过 {@link #tryAdmit(ChatRequest)} 单独扣除请求数和 token 数。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TokenQuotaManager {
+
+    /**
+     * Agent 每分钟请求数上限参数名（agent_config.extra_params）
+     */
+    private static final String RPM_LIMIT_PARAM = "rpmLimit";
+
+    /**
+     * Agent 每分钟 token 数上限参数名（agent_config.extra_params）
+     */
+    private static final String TPM_LIMIT_PARAM = "tpmLimit";
+
+    private final QuotaProperties quotaProperties;
+    private final IAgentService agentService;
+    private final ChatRequestDigester chatRequestDigester;
+    private final CompletionTokenStats completionTokenStats;
+    private final GlmTokenEstimator glmTokenEstimator;
+    private final ContextBudgeter contextBudgeter;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 全局请求数令牌桶
+     */
+    private TokenBucket globalRequests;
+
+    /**
+     * 全局 token 数令牌桶
+     */
+    private TokenBucket globalTokens;
+
+    /**
+     * 各 Agent 的配额
+     */
+    private final Map<Long, AgentQuota> agentQuotas = new ConcurrentHashMap<>();
+
+    private Counter admittedCounter;
+    private Counter deferredCounter;
+
+    /**
+     * 初始化全局令牌桶并注册监控指标
+     */
+    @PostConstruct
+    public void initialize() {
+        globalRequests = TokenBucket.perMinute(quotaProperties.getGlobalRpm());
+        globalTokens = TokenBucket.perMinute(quotaProperties.getGlobalTpm());
+
+        admittedCounter = Counter.builder("pite.quota.admitted")
+                .description("通过配额检查的请求数")
+                .register(meterRegistry);
+        deferredCounter = Counter.builder("pite.quota.deferred")
+                .description("配额不足、短暂等待后通过的请求数")
+                .register(meterRegistry);
+        if (globalRequests != null) {
+            Gauge.builder("pite.quota.available", globalRequests, TokenBucket::available)
+                    .description("全局剩余配额")
+                    .tag("dimension", "rpm")
+                    .register(meterRegistry);
+        }
+        if (globalTokens != null) {
+            Gauge.builder("pite.quota.available", globalTokens, TokenBucket::available)
+                    .description("全局剩余配额")
+                    .tag("dimension", "tpm")
+                    .register(meterRegistry);
+        }
+
+        log.info("调用配额管理器初始化完成，启用: {}, 全局 RPM: {}, 全局 TPM: {}, Agent 默认 RPM: {}, TPM: {}",
+                quotaProperties.isEnabled(), quotaProperties.getGlobalRpm(), quotaProperties.getGlobalTpm(),
+                quotaProperties.getAgentRpm(), quotaProperties.getAgentTpm());
+    }
+
+    /**
+     * 申请调用配额（在调用线程上等待）
+     * <p>
+     * 配额需要短暂等待时阻塞调用线程，最多 maxDeferMs，只应在本身就阻塞等待上游响应的同步调用中使用。
+     * 调用方必须在调用结束后执行 {@link QuotaTicket#settle()}，按实际用量结算。
+     * </p>
+     *
+     * @param request 对话请求
+     * @return 配额凭证
+     * @throws ZhipuApiException 配额不足且无法在 maxDeferMs 内补足时抛出（错误码 429）
+     */
+    public QuotaTicket admit(ChatRequest request) {
+        return admitAsync(request).block();
+    }
+
+    /**
+     * 申请调用配额（不阻塞线程）
+     * <p>
+     * 订阅时立即尝试扣除；配额需要短暂等待时由定时器在补足后重试，不占用任何线程。
+     * 调用方必须在调用结束后执行 {@link QuotaTicket#settle()}，按实际用量结算。
+     * </p>
+     *
+     * @param request 对话请求
+     * @return 配额凭证，配额不足且无法在 maxDeferMs 内补足时以 429 的 {@link ZhipuApiException} 结束
+     */
+    public Mono<QuotaTicket> admitAsync(ChatRequest request) {
+        return Mono.defer(() -> {
+            String model = chatRequestDigester.resolveModel(request);
+            if (!quotaProperties.isEnabled()) {
+                return Mono.just(new QuotaTicket(List.of(), 0, model, completionTokenStats));
+            }
+            return attempt(prepare(request, model, quotaProperties.getMaxDeferMs()), false);
+        });
+    }
+
+    /**
+     * 尝试申请额外一次上游调用的配额，不等待也不计为拒绝
+     * <p>
+     * 用于可以放弃的附加调用（如对冲请求）：与原请求一样扣除 1 次请求和预估的 token 数，
+     * 配额不足时直接放弃该调用。调用方必须在调用结束后执行 {@link QuotaTicket#settle()}。
+     * </p>
+     *
+     * @param request 对话请求
+     * @return 配额凭证，配额不足时返回 null
+     */
+    public QuotaTicket tryAdmit(ChatRequest request) {
+        String model = chatRequestDigester.resolveModel(request);
+        if (!quotaProperties.isEnabled()) {
+            return new QuotaTicket(List.of(), 0, model, completionTokenStats);
+        }
+        Admission admission = prepare(request, model, 0);
+        if (tryAcquire(admission.requestBuckets, admission.tokenBuckets, admission.estimatedTokens) != null) {
+            return null;
+        }
+        admittedCounter.increment();
+        return new QuotaTicket(admission.tokenBuckets, admission.estimatedTokens, model, completionTokenStats);
+    }
+
+    /**
+     * 收集本次调用涉及的令牌桶并预估 token 数
+     */
+    private Admission prepare(ChatRequest request, String model, long maxDeferMs) {
+        List<TokenBucket> requestBuckets = new ArrayList<>(2);
+        List<TokenBucket> tokenBuckets = new ArrayList<>(2);
+        addIfLimited(requestBuckets, globalRequests);
+        addIfLimited(tokenBuckets, globalTokens);
+        if (request.getAgentId() != null) {
+            AgentQuota agentQuota = resolveAgentQuota(request.getAgentId());
+            addIfLimited(requestBuckets, agentQuota.requests);
+            addIfLimited(tokenBuckets, agentQuota.tokens);
+        }
+        return new Admission(request, model, estimateTokens(request, model), requestBuckets, tokenBuckets,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDeferMs));
+    }
+
+    /**
+     * 申请调用配额，不在当前线程等待
+     * <p>
+     * 配额立即可用时返回已完成的 Future；无法在 maxDeferMs 内补足时直接抛出 429，调用方可在请求线程上返回错误；
+     * 需要短暂等待时返回未完成的 Future，由调用方在工作线程上等待。
+     * </p>
+     *
+     * @param request 对话请求
+     * @return 配额凭证
+     * @throws ZhipuApiException 配额不足且无法在 maxDeferMs 内补足时抛出（错误码 429）
+     */
+    public CompletableFuture<QuotaTicket> admitEagerly(ChatRequest request) {
+        CompletableFuture<QuotaTicket> admission = admitAsync(request).toFuture();
+        if (admission.isCompletedExceptionally()) {
+            // 首次尝试即被拒绝，在调用线程上抛出原始异常（join 会包装为 CompletionException）
+            try {
+                admission.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+        return admission;
+    }
+
+    /**
+     * 尝试扣除，不足且可在截止时间内补足时延后重试
+     */
+    private Mono<QuotaTicket> attempt(Admission admission, boolean deferred) {
+        Shortage shortage = tryAcquire(admission.requestBuckets, admission.tokenBuckets, admission.estimatedTokens);
+        if (shortage == null) {
+            admittedCounter.increment();
+            if (deferred) {
+                deferredCounter.increment();
+            }
+            return Mono.just(new QuotaTicket(admission.tokenBuckets, admission.estimatedTokens,
+                    admission.model, completionTokenStats));
+        }
+        if (System.nanoTime() + shortage.waitNanos > admission.deferDeadlineNanos) {
+            return Mono.error(reject(admission.request, shortage));
+        }
+        // 在 boundedElastic 上重试，后续的上游订阅可能阻塞等待并发许可，不能落在 parallel 线程上
+        return Mono.delay(Duration.ofNanos(shortage.waitNanos), Schedulers.boundedElastic())
+                .then(Mono.defer(() -> attempt(admission, true)));
+    }
+
+    /**
+     * 依次扣除所有令牌桶，任一不足时退回已扣除的部分
+     *
+     * @return 不足时返回缺口信息，全部扣除成功返回 null
+     */
+    private Shortage tryAcquire(List<TokenBucket> requestBuckets, List<TokenBucket> tokenBuckets, long estimatedTokens) {
+        List<TokenBucket> acquired = new ArrayList<>(requestBuckets.size());
+        for (TokenBucket bucket : requestBuckets) {
+            long waitNanos = bucket.tryConsume(1);
+            if (waitNanos > 0) {
+                acquired.forEach(b -> b.refund(1));
+                return new Shortage(bucket, "rpm", waitNanos);
+            }
+            acquired.add(bucket);
+        }
+
+        List<TokenBucket> acquiredTokens = new ArrayList<>(tokenBuckets.size());
+        for (TokenBucket bucket : tokenBuckets) {
+            long waitNanos = bucket.tryConsume(estimatedTokens);
+            if (waitNanos > 0) {
+                acquired.forEach(b -> b.refund(1));
+                acquiredTokens.forEach(b -> b.refund(estimatedTokens));
+                return new Shortage(bucket, "tpm", waitNanos);
+            }
+            acquiredTokens.add(bucket);
+        }
+        return null;
+    }
+
+    private ZhipuApiException reject(ChatRequest request, Shortage shortage) {
+        boolean global = shortage.bucket == globalRequests || shortage.bucket == globalTokens;
+        String scope = global ? "global" : "agent";
+        Counter.builder("pite.quota.rejected")
+                .description("因配额不足被拒绝的请求数")
+                .tag("scope", scope)
+                .tag("dimension", shortage.dimension)
+                .register(meterRegistry)
+                .increment();
+
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(shortage.waitNanos) + 1);
+        String what = "rpm".equals(shortage.dimension) ? "每分钟请求数" : "每分钟 token 数";
+        log.warn("调用配额不足，范围: {}, AgentID: {}, 类型: {}, 预计 {} 秒后恢复",
+                scope, request.getAgentId(), shortage.dimension, retryAfterSeconds);
+        return new ZhipuApiException(429, String.format("%s超出%s配额，请约 %d 秒后重试",
+                global ? "服务" : "Agent", what, retryAfterSeconds));
+    }
+
+    /**
+     * 解析 Agent 的配额，配置变化时重建令牌桶
+     */
+    private AgentQuota resolveAgentQuota(Long agentId) {
+        long now = System.currentTimeMillis();
+        long refreshMillis = TimeUnit.SECONDS.toMillis(quotaProperties.getPolicyRefreshSeconds());
+        AgentQuota current = agentQuotas.get(agentId);
+        if (current != null && now - current.loadedAtMillis <= refreshMillis) {
+            return current;
+        }
+
+        Map<String, Object> extraParams = agentService.getAgentExtraParams(agentId);
+        long rpm = readLimit(agentId, extraParams, RPM_LIMIT_PARAM, quotaProperties.getAgentRpm());
+        long tpm = readLimit(agentId, extraParams, TPM_LIMIT_PARAM, quotaProperties.getAgentTpm());
+
+        AgentQuota refreshed = current != null && current.rpm == rpm && current.tpm == tpm
+                ? new AgentQuota(rpm, tpm, current.requests, current.tokens, now)
+                : new AgentQuota(rpm, tpm, TokenBucket.perMinute(rpm), TokenBucket.perMinute(tpm), now);
+        agentQuotas.put(agentId, refreshed);
+        return refreshed;
+    }
+
+    private long readLimit(Long agentId, Map<String, Object> extraParams, String param, long defaultLimit) {
+        Object value = extraParams.get(param);
+        if (value instanceof Number number && number.longValue() >= 0) {
+            return number.longValue();
+        }
+        if (value instanceof String text && StringUtils.hasText(text)) {
+            try {
+                long limit = Long.parseLong(text.trim());
+                if (limit >= 0) {
+                    return limit;
+                }
+            } catch (NumberFormatException e) {
+                // 按无效配置处理
+            }
+            log.warn("Agent {} 的 {} 配置无效: {}", agentId, param, text);
+        }
+        return defaultLimit;
+    }
+
+    private void addIfLimited(List<TokenBucket> buckets, TokenBucket bucket) {
+        if (bucket != null) {
+            buckets.add(bucket);
+        }
+    }
+
+    /**
+     * 预估一次调用消耗的 token 数
+     * <p>
+     * 提示词部分：由 {@link GlmTokenEstimator} 估算（裁剪前的完整上下文，偏保守）；
+     * 生成部分：取该模型已结算调用的平均生成长度，尚无样本时取 defaultCompletionEstimate，且不超过 maxTokens。
+     * 按最大生成长度预留会让单次调用占满 Agent 的 TPM，预估偏差在结算时多退少补。
+     * </p>
+     *
+     * @param request 对话请求
+     * @param model 实际使用的模型
+     * @return 预估 token 数
+     */
+    private long estimateTokens(ChatRequest request, String model) {
+        int promptTokens = glmTokenEstimator.estimateMessages(request.getMessages());
+
+        int maxTokens = contextBudgeter.maxCompletionTokens(model, request.getMaxTokens());
+        Double average = completionTokenStats.getAverage(model);
+        long expected = average != null ? Math.round(average) : quotaProperties.getDefaultCompletionEstimate();
+        return promptTokens + Math.max(0, Math.min(maxTokens, expected));
+    }
+
+    /**
+     * 配额凭证
+     * <p>
+     * 记录调用过程中响应返回的实际用量，结束时按实际用量与预估值的差额结算，并记录生成长度样本。
+     * 未收到用量信息（如生成被取消）时保留预估扣除，也不记录样本。
+     * </p>
+     */
+    public static class QuotaTicket {
+
+        private final List<TokenBucket> tokenBuckets;
+        private final long estimatedTokens;
+        private final String model;
+        private final CompletionTokenStats completionTokenStats;
+        private long actualTokens;
+        private long completionTokens;
+        private boolean usageReported;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        QuotaTicket(List<TokenBucket> tokenBuckets, long estimatedTokens, String model,
+                    CompletionTokenStats completionTokenStats) {
+            this.tokenBuckets = tokenBuckets;
+            this.estimatedTokens = estimatedTokens;
+            this.model = model;
+            this.completionTokenStats = completionTokenStats;
+        }
+
+        /**
+         * 记录一次上游调用的实际用量
+         *
+         * @param usage SDK 用量信息，可为 null
+         */
+        public synchronized void record(Usage usage) {
+            if (usage == null) {
+                return;
+            }
+            actualTokens += usage.getTotalTokens();
+            completionTokens += usage.getCompletionTokens();
+            usageReported = true;
+        }
+
+        /**
+         * 记录流式数据块中的用量（通常在最后一个数据块中返回）
+         *
+         * @param data SDK 流式数据块
+         */
+        public void onData(ModelData data) {
+            record(data.getUsage());
+        }
+
+        /**
+         * 按实际用量结算，可重复调用，只生效一次
+         */
+        public void settle() {
+            if (!settled.compareAndSet(false, true)) {
+                return;
+            }
+            long difference;
+            synchronized (this) {
+                if (!usageReported) {
+                    return;
+                }
+                difference = actualTokens - estimatedTokens;
+                completionTokenStats.record(model, completionTokens);
+            }
+            if (difference != 0) {
+                tokenBuckets.forEach(bucket -> bucket.adjust(difference));
+            }
+        }
+    }
+
+    /**
+     * 按分钟补充的令牌桶
+     * <p>
+     * 容量等于每分钟上限，匀速补充。结算时允许余额为负（欠额），
+     * 但最多欠一个容量，避免单次超大请求长期锁死配额。
+     * </p>
+     */
+    static class TokenBucket {
+
+        private final double capacity;
+        private final double refillPerNano;
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(double capacity) {
+            this.capacity = capacity;
+            this.refillPerNano = capacity / TimeUnit.MINUTES.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        /**
+         * 创建每分钟上限为 limit 的令牌桶
+         *
+         * @param limit 每分钟上限，0 表示不限制
+         * @return 令牌桶，不限制时返回 null
+         */
+        static TokenBucket perMinute(long limit) {
+            return limit > 0 ? new TokenBucket(limit) : null;
+        }
+
+        /**
+         * 尝试扣除
+         * <p>
+         * 超过容量的申请按容量计算，否则永远无法通过；超出部分在结算时作为欠额扣回。
+         * </p>
+         *
+         * @param amount 扣除数量
+         * @return 0 表示扣除成功，否则为预计可扣除前需要等待的纳秒数
+         */
+        synchronized long tryConsume(double amount) {
+            refill();
+            double required = Math.min(amount, capacity);
+            if (tokens >= required) {
+                tokens -= amount;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((required - tokens) / refillPerNano));
+        }
+
+        synchronized void refund(double amount) {
+            tokens = Math.min(capacity, tokens + amount);
+        }
+
+        synchronized void adjust(double extra) {
+            refill();
+            tokens = Math.max(-capacity, Math.min(capacity, tokens - extra));
+        }
+
+        synchronized double available() {
+            refill();
+            return tokens;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * refillPerNano);
+            lastRefillNanos = now;
+        }
+    }
+
+    /**
+     * Agent 的配额
+     */
+    private static class AgentQuota {
+
+        private final long rpm;
+        private final long tpm;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final long loadedAtMillis;
+
+        AgentQuota(long rpm, long tpm, TokenBucket requests, TokenBucket tokens, long loadedAtMillis) {
+            this.rpm = rpm;
+            this.tpm = tpm;
+            this.requests = requests;
+            this.tokens = tokens;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+
+    /**
+     * 一次配额申请
+     */
+    private record Admission(ChatRequest request, String model, long estimatedTokens,
+                             List<TokenBucket> requestBuckets, List<TokenBucket> tokenBuckets,
+                             long deferDeadlineNanos) {
+    }
+
+    /**
+     * 配额缺口
+     */
+    private static class Shortage {
+
+        private final TokenBucket bucket;
+        private final String dimension;
+        private final long waitNanos;
+
+        Shortage(TokenBucket bucket, String dimension, long waitNanos) {
+            this.bucket = bucket;
+            this.dimension = dimension;
+            this.waitNanos = waitNanos;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.ZhipuAiClient;
+import ai.z.openapi.service.model.ChatCompletionCreateParams;
+import ai.z.openapi.service.model.ChatCompletionResponse;
+import ai.z.openapi.service.model.ModelData;
+import ai.z.openapi.service.model.ZAiHttpException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import pox.com.piteagents.common.enums.ZhipuModelEnum;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上游调用网关
+ * <p>
+ * 所有发往智谱AI的对话调用都经过这里，统一处理：
+ * - 按模型获取并发许可（{@link AdaptiveConcurrencyLimiter}）
+ * - 识别上游限流响应并反馈给限制器
+ * - 可重试的错误（上游 5xx、限流、网络异常）按指数退避加随机抖动重试
+ * - 按模型熔断（{@link CircuitBreakerRegistry}），熔断时按配置改用降级模型，无可用模型时立即失败
+ * - 把失败响应转换为 ZhipuApiException
+ * </p>
+ * <p>
+ * 同步调用在返回前释放许可；流式调用在流结束、出错或取消时释放许可，
+ * 以首个数据块的延迟作为延迟样本。流式调用只在收到首个数据块之前重试，
+ * 已推送给客户端的内容不会重复。
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UpstreamGateway {
+
+    /**
+     * 智谱AI的限流错误码（并发数过高、频率过高、额度不足等）
+     */
+    private static final Set<Integer> OVERLOAD_CODES = Set.of(429, 1302, 1303, 1305);
+
+    private final ZhipuAiClient zhipuAiClient;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final UpstreamProperties upstreamProperties;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 校验降级路由配置
+     */
+    @PostConstruct
+    public void validateFallbackModels() {
+        upstreamProperties.getFallbackModels().forEach((model, fallback) -> {
+            if (!ZhipuModelEnum.isValidCode(model) || !ZhipuModelEnum.isValidCode(fallback)) {
+                throw new IllegalStateException("降级路由包含不支持的模型: " + model + " -> " + fallback);
+            }
+        });
+        if (!upstreamProperties.getFallbackModels().isEmpty()) {
+            log.info("模型降级路由: {}", upstreamProperties.getFallbackModels());
+        }
+    }
+
+    /**
+     * 同步对话调用
+     *
+     * @param params SDK 请求对象（非流式）
+     * @return 成功的 SDK 响应
+     * @throws ZhipuApiException 上游返回失败、被限流或熔断且无可用的降级模型
+     */
+    public ChatCompletionResponse complete(ChatCompletionCreateParams params) {
+        RuntimeException lastError = null;
+        for (String model : resolveRoute(params.getModel())) {
+            if (!model.equals(params.getModel())) {
+                recordFallback(params.getModel(), model);
+            }
+            try {
+                return completeWithRetry(routeTo(params, model));
+            } catch (CircuitOpenException e) {
+                lastError = lastError != null ? lastError : e;
+            } catch (RuntimeException e) {
+                // 重试耗尽后熔断器已打开，改用降级模型；否则直接失败
+                if (classify(e) != FailureKind.RETRYABLE || !circuitBreakerRegistry.isOpen(model)) {
+                    throw e;
+                }
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * 流式对话调用
+     * <p>
+     * 订阅时异步获取许可，排队期间不占用线程。获得许可后在订阅线程（排队后为 boundedElastic）上发起 SDK 调用，
+     * 建立连接会阻塞，因此应在可阻塞的线程上订阅。流结束、出错或被取消时释放许可。
+     * </p>
+     *
+     * @param params SDK 请求对象（流式）
+     * @return 上游数据流
+     */
+    public Flux<ModelData> stream(ChatCompletionCreateParams params) {
+        UpstreamProperties.Retry retry = upstreamProperties.getRetry();
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> streamOnce(params))
+                    .doOnNext(data -> emitted.set(true))
+                    .retryWhen(Retry.backoff(Math.max(0, retry.getMaxAttempts() - 1),
+                                    Duration.ofMillis(retry.getInitialBackoffMs()))
+                            .maxBackoff(Duration.ofMillis(retry.getMaxBackoffMs()))
+                            .jitter(0.5)
+                            // 重试时在定时器线程上重新发起 SDK 调用（建立连接会阻塞），不能占用 parallel 调度器
+                            .scheduler(Schedulers.boundedElastic())
+                            .filter(e -> !emitted.get() && classify(e) == FailureKind.RETRYABLE)
+                            .doBeforeRetry(signal -> recordRetry(params.getModel(), signal.failure()))
+                            .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        });
+    }
+
+    /**
+     * 发起一次流式调用，熔断时按降级路由选择模型
+     */
+    private Flux<ModelData> streamOnce(ChatCompletionCreateParams params) {
+        String model = acquireRoute(params.getModel());
+        if (model == null) {
+            return Flux.error(circuitOpen(params.getModel()));
+        }
+        ChatCompletionCreateParams routed = routeTo(params, model);
+        AtomicBoolean recorded = new AtomicBoolean();
+
+        return Flux.usingWhen(
+                acquirePermitAsync(model),
+                permit -> Flux.defer(() -> {
+                    ChatCompletionResponse response = zhipuAiClient.chat().createChatCompletion(routed);
+                    if (!response.isSuccess()) {
+                        permit.release(isOverloaded(response)
+                                ? AdaptiveConcurrencyLimiter.Outcome.OVERLOADED
+                                : AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+                        return Flux.error(toException(response, "智谱AI流式调用失败"));
+                    }
+
+                    AtomicLong firstChunkNanos = new AtomicLong();
+                    return Flux.from(response.getFlowable())
+                            .doOnNext(data -> {
+                                if (firstChunkNanos.compareAndSet(0, permit.elapsedNanos())) {
+                                    recordBreakerOutcome(model, null, recorded);
+                                }
+                            })
+                            .doOnComplete(() -> permit.release(
+                                    AdaptiveConcurrencyLimiter.Outcome.SUCCESS, firstChunkNanos.get()))
+                            .doOnError(e -> permit.release(isOverloaded(e)
+                                    ? AdaptiveConcurrencyLimiter.Outcome.OVERLOADED
+                                    : AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0));
+                }),
+                permit -> releaseIgnored(permit),
+                (permit, e) -> releaseIgnored(permit),
+                permit -> releaseIgnored(permit))
+                .doOnComplete(() -> recordBreakerOutcome(model, null, recorded))
+                .doOnError(e -> recordBreakerOutcome(model, e, recorded))
+                .doOnCancel(() -> {
+                    if (recorded.compareAndSet(false, true)) {
+                        circuitBreakerRegistry.onIgnored(model);
+                    }
+                });
+    }
+
+    /**
+     * 带重试的同步调用（单个模型）
+     */
+    private ChatCompletionResponse completeWithRetry(ChatCompletionCreateParams params) {
+        String model = params.getModel();
+        int maxAttempts = Math.max(1, upstreamProperties.getRetry().getMaxAttempts());
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreakerRegistry.tryAcquire(model)) {
+                throw circuitOpen(model);
+            }
+            try {
+                ChatCompletionResponse response = completeOnce(params);
+                circuitBreakerRegistry.onSuccess(model);
+                return response;
+            } catch (RuntimeException e) {
+                FailureKind kind = classify(e);
+                recordBreakerOutcome(model, kind);
+                if (kind != FailureKind.RETRYABLE || attempt >= maxAttempts) {
+                    throw e;
+                }
+                recordRetry(model, e);
+                sleepBackoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * 单次同步调用
+     */
+    private ChatCompletionResponse completeOnce(ChatCompletionCreateParams params) {
+        AdaptiveConcurrencyLimiter.Permit permit = acquirePermit(params.getModel());
+        AdaptiveConcurrencyLimiter.Outcome outcome = AdaptiveConcurrencyLimiter.Outcome.IGNORED;
+        try {
+            ChatCompletionResponse response = zhipuAiClient.chat().createChatCompletion(params);
+            if (!response.isSuccess()) {
+                outcome = isOverloaded(response) ? AdaptiveConcurrencyLimiter.Outcome.OVERLOADED : outcome;
+                throw toException(response, "智谱AI API调用失败");
+            }
+            outcome = AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+            return response;
+        } catch (RuntimeException e) {
+            if (isOverloaded(e)) {
+                outcome = AdaptiveConcurrencyLimiter.Outcome.OVERLOADED;
+            }
+            throw e;
+        } finally {
+            permit.release(outcome, outcome == AdaptiveConcurrencyLimiter.Outcome.SUCCESS ? permit.elapsedNanos() : 0);
+        }
+    }
+
+    /**
+     * 获取并发许可，本地排队被拒绝时标记为非上游错误
+     */
+    private AdaptiveConcurrencyLimiter.Permit acquirePermit(String model) {
+        try {
+            return concurrencyLimiter.acquire(model);
+        } catch (ZhipuApiException e) {
+            throw new LocalRejectionException(e);
+        }
+    }
+
+    /**
+     * 异步获取并发许可，本地排队被拒绝时标记为非上游错误
+     */
+    private Mono<AdaptiveConcurrencyLimiter.Permit> acquirePermitAsync(String model) {
+        return concurrencyLimiter.acquireAsync(model)
+                .onErrorMap(ZhipuApiException.class, LocalRejectionException::new);
+    }
+
+    /**
+     * 流结束时兜底释放许可（已按结果释放时不生效）
+     */
+    private Mono<Void> releaseIgnored(AdaptiveConcurrencyLimiter.Permit permit) {
+        return Mono.fromRunnable(() -> permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0));
+    }
+
+    /**
+     * 解析调用路由：原模型及其降级链
+     */
+    private List<String> resolveRoute(String model) {
+        Set<String> route = new LinkedHashSet<>();
+        String current = model;
+        while (current != null && route.add(current)) {
+            current = upstreamProperties.getFallbackModels().get(current);
+        }
+        return new ArrayList<>(route);
+    }
+
+    /**
+     * 按降级路由选择第一个熔断器允许调用的模型
+     *
+     * @return 模型代码，全部熔断时返回 null
+     */
+    private String acquireRoute(String model) {
+        for (String candidate : resolveRoute(model)) {
+            if (circuitBreakerRegistry.tryAcquire(candidate)) {
+                if (!candidate.equals(model)) {
+                    recordFallback(model, candidate);
+                }
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 复制请求参数并替换模型
+     */
+    private ChatCompletionCreateParams routeTo(ChatCompletionCreateParams params, String model) {
+        if (model.equals(params.getModel())) {
+            return params;
+        }
+        ChatCompletionCreateParams routed = objectMapper.convertValue(params, ChatCompletionCreateParams.class);
+        routed.setModel(model);
+        return routed;
+    }
+
+    private void recordBreakerOutcome(String model, Throwable error, AtomicBoolean recorded) {
+        if (recorded.compareAndSet(false, true)) {
+            recordBreakerOutcome(model, error == null ? null : classify(error));
+        }
+    }
+
+    /**
+     * 向熔断器反馈调用结果
+     *
+     * @param kind 失败类型，成功时为 null
+     */
+    private void recordBreakerOutcome(String model, FailureKind kind) {
+        if (kind == null || kind == FailureKind.FATAL) {
+            // 请求自身的错误（如参数错误）说明上游可用
+            circuitBreakerRegistry.onSuccess(model);
+        } else if (kind == FailureKind.RETRYABLE) {
+            circuitBreakerRegistry.onFailure(model);
+        } else {
+            circuitBreakerRegistry.onIgnored(model);
+        }
+    }
+
+    /**
+     * 判断错误类型
+     */
+    private FailureKind classify(Throwable error) {
+        if (error instanceof UpstreamFailureException failure) {
+            return failure.retryable ? FailureKind.RETRYABLE : FailureKind.FATAL;
+        }
+        if (error instanceof LocalRejectionException || error instanceof CircuitOpenException) {
+            return FailureKind.IGNORED;
+        }
+        if (error instanceof ZAiHttpException httpException) {
+            return httpException.statusCode >= 500 || isOverloaded(error) ? FailureKind.RETRYABLE : FailureKind.FATAL;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                return FailureKind.IGNORED;
+            }
+            if (cause instanceof IOException) {
+                return FailureKind.RETRYABLE;
+            }
+        }
+        return FailureKind.FATAL;
+    }
+
+    /**
+     * 按指数退避等待，等待时间在 [base/2, base] 之间随机
+     */
+    private void sleepBackoff(int attempt) {
+        UpstreamProperties.Retry retry = upstreamProperties.getRetry();
+        double base = Math.min(retry.getMaxBackoffMs(),
+                retry.getInitialBackoffMs() * Math.pow(retry.getMultiplier(), attempt - 1));
+        long delayMs = (long) (base / 2 + ThreadLocalRandom.current().nextDouble() * base / 2);
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ZhipuApiException("等待重试时被中断", e);
+        }
+    }
+
+    private void recordRetry(String model, Throwable error) {
+        log.warn("上游调用失败，准备重试，模型: {}, 错误: {}", model, error.getMessage());
+        Counter.builder("pite.upstream.retries")
+                .description("上游调用的重试次数")
+                .tag("model", model)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private void recordFallback(String model, String fallback) {
+        log.warn("模型 {} 已熔断，降级为 {}", model, fallback);
+        Counter.builder("pite.upstream.fallbacks")
+                .description("因熔断改用降级模型的调用数")
+                .tag("model", model)
+                .tag("fallback", fallback)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private CircuitOpenException circuitOpen(String model) {
+        return new CircuitOpenException("模型 " + model + " 暂时不可用（已熔断），请稍后重试");
+    }
+
+    /**
+     * 判断失败响应是否为上游限流
+     */
+    private boolean isOverloaded(ChatCompletionResponse response) {
+        if (OVERLOAD_CODES.contains(response.getCode())) {
+            return true;
+        }
+        return response.getError() != null && response.getError().getCode() != null
+                && OVERLOAD_CODES.contains(response.getError().getCode());
+    }
+
+    /**
+     * 判断异常是否为上游限流
+     */
+    private boolean isOverloaded(Throwable error) {
+        if (error instanceof ZAiHttpException httpException) {
+            return httpException.statusCode == 429 || (httpException.code != null
+                    && OVERLOAD_CODES.stream().anyMatch(code -> String.valueOf(code).equals(httpException.code)));
+        }
+        if (error instanceof ZhipuApiException apiException) {
+            return apiException.getCode() != null && OVERLOAD_CODES.contains(apiException.getCode());
+        }
+        return false;
+    }
+
+    private ZhipuApiException toException(ChatCompletionResponse response, String message) {
+        boolean overloaded = isOverloaded(response);
+        return new UpstreamFailureException(overloaded ? 429 : 500, message + ": " + response.getMsg(),
+                overloaded || response.getCode() >= 500);
+    }
+
+    /**
+     * 错误类型
+     */
+    private enum FailureKind {
+
+        /**
+         * 上游故障，可重试，计入熔断
+         */
+        RETRYABLE,
+
+        /**
+         * 请求自身的错误，不重试，不计入熔断
+         */
+        FATAL,
+
+        /**
+         * 本地拒绝、取消或中断，与上游状态无关
+         */
+        IGNORED
+    }
+
+    /**
+     * 上游返回的失败响应
+     */
+    private static class UpstreamFailureException extends ZhipuApiException {
+
+        private final boolean retryable;
+
+        UpstreamFailureException(int code, String message, boolean retryable) {
+            super(code, message);
+            this.retryable = retryable;
+        }
+    }
+
+    /**
+     * 本地并发限制器拒绝
+     */
+    private static class LocalRejectionException extends ZhipuApiException {
+
+        LocalRejectionException(ZhipuApiException cause) {
+            super(cause.getCode(), cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 熔断器打开，调用被直接拒绝
+     */
+    private static class CircuitOpenException extends ZhipuApiException {
+
+        CircuitOpenException(String message) {
+            super(503, message);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+-- ----------------------------
+-- 异步对话任务表
+-- 提交后由任意节点的工作线程通过 SELECT ... FOR UPDATE SKIP LOCKED 领取执行，
+-- 执行节点失联时租约到期，任务重新回到待执行状态
+-- ----------------------------
+CREATE TABLE IF NOT EXISTS `chat_job` (
+  `id` bigint NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+  `agent_id` bigint DEFAULT NULL COMMENT '关联的 Agent ID',
+  `with_tools` tinyint(1) NOT NULL DEFAULT '0' COMMENT '是否启用工具调用',
+  `status` varchar(20) COLLATE utf8mb4_unicode_ci NOT NULL DEFAULT 'PENDING' COMMENT '状态（PENDING/RUNNING/SUCCEEDED/FAILED）',
+  `request_json` mediumtext COLLATE utf8mb4_unicode_ci NOT NULL COMMENT '对话请求（JSON）',
+  `result_json` mediumtext COLLATE utf8mb4_unicode_ci COMMENT '对话响应（JSON）',
+  `error_code` int DEFAULT NULL COMMENT '错误码',
+  `error_message` varchar(1000) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '错误信息',
+  `attempts` int NOT NULL DEFAULT '0' COMMENT '已执行次数',
+  `max_attempts` int NOT NULL DEFAULT '3' COMMENT '最大执行次数',
+  `worker_id` varchar(100) COLLATE utf8mb4_unicode_ci DEFAULT NULL COMMENT '当前执行节点',
+  `available_at` datetime(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '可被领取的时间（重试时延后）',
+  `lease_expires_at` datetime(3) DEFAULT NULL COMMENT '执行租约到期时间',
+  `started_at` datetime(3) DEFAULT NULL COMMENT '最近一次开始执行的时间',
+  `finished_at` datetime(3) DEFAULT NULL COMMENT '结束时间',
+  `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`),
+  KEY `idx_status_available_at` (`status`,`available_at`),
+  KEY `idx_status_lease_expires_at` (`status`,`lease_expires_at`),
+  KEY `idx_agent_id` (`agent_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='异步对话任务表';
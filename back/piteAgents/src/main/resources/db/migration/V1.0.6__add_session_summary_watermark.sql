@@ -0,0 +1,11 @@
+-- ----------------------------
+-- 会话滚动摘要
+-- summary 覆盖 id 不大于 summary_message_id 的全部消息，
+-- 获取历史时返回摘要 + 水位线之后的消息
+-- ----------------------------
+ALTER TABLE `conversation_session`
+  ADD COLUMN `summary_message_id` bigint DEFAULT NULL COMMENT '摘要覆盖到的最后一条消息 ID' AFTER `summary`,
+  ADD COLUMN `summarized_at` datetime DEFAULT NULL COMMENT '摘要更新时间' AFTER `summary_message_id`;
+
+-- 按消息 ID 读取水位线之后的消息
+CREATE INDEX `idx_session_id_id` ON `conversation_message` (`session_id`, `id`);
@@ -0,0 +1,8 @@
+-- ----------------------------
+-- 会话计数改由应用维护
+-- 触发器对每条消息插入执行一次 UPDATE conversation_session，
+-- 同一会话的并发写入在会话行锁上串行，且写入量翻倍。
+-- message_count / total_tokens / updated_at 改为由应用按会话累加增量、定期批量更新，
+-- 并由对账任务按 conversation_message 重新核对
+-- ----------------------------
+DROP TRIGGER IF EXISTS `trg_message_insert_update_session`;
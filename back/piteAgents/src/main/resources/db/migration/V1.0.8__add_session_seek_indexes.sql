@@ -0,0 +1,9 @@
+-- ----------------------------
+-- 游标分页索引
+-- 会话列表按 (updated_at, id) 倒序定位下一页，未删除的会话在 deleted_at IS NULL 上等值过滤，
+-- 按 Agent 筛选时再加 agent_id 等值条件，两种查询各用一个索引，读一页只扫描一页的索引项。
+-- 消息按 (created_at, id) 定位，已有的 idx_session_id_created_at 在 InnoDB 中隐含主键，
+-- 等同于 (session_id, created_at, id)，无需新增
+-- ----------------------------
+CREATE INDEX `idx_deleted_at_updated_at_id` ON `conversation_session` (`deleted_at`, `updated_at`, `id`);
+CREATE INDEX `idx_agent_id_deleted_at_updated_at_id` ON `conversation_session` (`agent_id`, `deleted_at`, `updated_at`, `id`);
@@ -0,0 +1,94 @@
+package pox.com.piteagents.common.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import pox.com.piteagents.config.PaginationProperties;
+import pox.com.piteagents.controller.ConversationController;
+import pox.com.piteagents.entity.dto.response.CursorPage;
+import pox.com.piteagents.exception.GlobalExceptionHandler;
+import pox.com.piteagents.service.IConversationService;
+import pox.com.piteagents.service.ISessionChatService;
+import pox.com.piteagents.service.session.SessionCounterReconciler;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class PaginationUtilsTest {
+
+    private final PaginationUtils paginationUtils =
+            new PaginationUtils(new PaginationProperties(), new StringConversionUtils());
+
+    @Test
+    void cursorRoundTrip() {
+        LocalDateTime sortValue = LocalDateTime.of(2026, 10, 18, 9, 30, 15, 123_000_000);
+
+        String cursor = paginationUtils.encodeCursor(sortValue, 42L);
+
+        assertThat(cursor).doesNotContain("=", "+", "/");
+        assertThat(paginationUtils.decodeCursor(cursor)).isEqualTo(new PaginationUtils.SeekKey(sortValue, 42L));
+    }
+
+    @Test
+    void cursorRoundTripWithWholeSeconds() {
+        LocalDateTime sortValue = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+        String cursor = paginationUtils.encodeCursor(sortValue, Long.MAX_VALUE);
+
+        assertThat(paginationUtils.decodeCursor(cursor)).isEqualTo(new PaginationUtils.SeekKey(sortValue, Long.MAX_VALUE));
+    }
+
+    @Test
+    void blankCursorMeansFirstPage() {
+        assertThat(paginationUtils.decodeCursor(null)).isNull();
+        assertThat(paginationUtils.decodeCursor("")).isNull();
+        assertThat(paginationUtils.decodeCursor("  ")).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"not base64!", "|1", "no-separator", "2026-01-01T00:00|abc", "yesterday|1"})
+    void malformedCursorIsRejected(String raw) {
+        String cursor = raw.equals("not base64!") ? raw : encode(raw);
+
+        assertThatThrownBy(() -> paginationUtils.decodeCursor(cursor))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("无效的分页游标");
+    }
+
+    @Test
+    void malformedCursorIsBadRequest() throws Exception {
+        IConversationService conversationService = mock(IConversationService.class);
+        when(conversationService.listSessionsByCursor(any(), any(), anyInt(), anyBoolean())).thenAnswer(invocation -> {
+            paginationUtils.decodeCursor(invocation.getArgument(1));
+            return CursorPage.builder().build();
+        });
+        ConversationController controller = new ConversationController(conversationService,
+                mock(ISessionChatService.class), paginationUtils, mock(SessionCounterReconciler.class));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        mockMvc.perform(get("/api/sessions/cursor").param("cursor", encode("garbage")))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value(400))
+                .andExpect(jsonPath("$.message").value("无效的分页游标"));
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,68 @@
+package pox.com.piteagents.service.context;
+
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.entity.dto.common.Message;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GlmTokenEstimatorTest {
+
+    private final GlmTokenEstimator estimator = new GlmTokenEstimator();
+
+    @Test
+    void emptyTextHasNoTokens() {
+        assertThat(estimator.estimateText(null)).isZero();
+        assertThat(estimator.estimateText("")).isZero();
+    }
+
+    @Test
+    void weighsByCharacterClass() {
+        assertThat(estimator.estimateWeight("你好")).isEqualTo(200);
+        assertThat(estimator.estimateWeight("こんにちは")).isEqualTo(500);
+        assertThat(estimator.estimateWeight("abcd")).isEqualTo(100);
+        assertThat(estimator.estimateWeight("123")).isEqualTo(105);
+        assertThat(estimator.estimateWeight(".,")).isEqualTo(100);
+        assertThat(estimator.estimateWeight(" \n")).isEqualTo(20);
+        assertThat(estimator.estimateWeight("，。")).isEqualTo(200);
+    }
+
+    @Test
+    void surrogatePairCountsAsOneCharacter() {
+        assertThat(estimator.estimateWeight("😀")).isEqualTo(150);
+        assertThat(estimator.estimateText("😀")).isEqualTo(2);
+    }
+
+    @Test
+    void roundsUpToWholeTokens() {
+        assertThat(estimator.estimateText("a")).isEqualTo(1);
+        assertThat(estimator.estimateText("abcde")).isEqualTo(2);
+        assertThat(estimator.toTokens(0)).isZero();
+        assertThat(estimator.toTokens(100)).isEqualTo(1);
+        assertThat(estimator.toTokens(101)).isEqualTo(2);
+    }
+
+    @Test
+    void accumulatedWeightAvoidsPerChunkRounding() {
+        long weight = 0;
+        int perChunkTokens = 0;
+        for (int i = 0; i < 10; i++) {
+            weight += estimator.estimateWeight("ab");
+            perChunkTokens += estimator.estimateText("ab");
+        }
+
+        assertThat(estimator.toTokens(weight)).isEqualTo(estimator.estimateText("ab".repeat(10))).isEqualTo(5);
+        assertThat(perChunkTokens).isEqualTo(10);
+    }
+
+    @Test
+    void messagesIncludeFormattingOverhead() {
+        Message message = Message.builder().role("user").content("你好").build();
+
+        assertThat(estimator.estimateMessage(message)).isEqualTo(GlmTokenEstimator.TOKENS_PER_MESSAGE + 1 + 2);
+        assertThat(estimator.estimateMessages(null)).isEqualTo(GlmTokenEstimator.TOKENS_PER_REQUEST);
+        assertThat(estimator.estimateMessages(List.of(message, message)))
+                .isEqualTo(GlmTokenEstimator.TOKENS_PER_REQUEST + 2 * estimator.estimateMessage(message));
+    }
+}
@@ -0,0 +1,146 @@
+package pox.com.piteagents.service.functiontool;
+
+import ai.z.openapi.service.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+import pox.com.piteagents.common.utils.JsonUtils;
+import pox.com.piteagents.common.utils.StringConversionUtils;
+import pox.com.piteagents.common.utils.ToolCallPropertyExtractor;
+import pox.com.piteagents.config.ToolExecutionProperties;
+import pox.com.piteagents.entity.po.FunctionToolDefinitionPO;
+import pox.com.piteagents.exception.FunctionToolExecutionException;
+import pox.com.piteagents.service.IAgentService;
+import pox.com.piteagents.service.IFunctionToolService;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FunctionToolExecutorTest {
+
+    private ToolExecutionProperties properties;
+    private FunctionToolRegistry registry;
+    private FunctionToolExecutor executor;
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ToolExecutionProperties();
+        registry = mock(FunctionToolRegistry.class);
+        ToolCallPropertyExtractor extractor = mock(ToolCallPropertyExtractor.class);
+        when(extractor.getProperty(any(), anyString())).thenAnswer(invocation -> {
+            String call = invocation.getArgument(0);
+            String property = invocation.getArgument(1);
+            return switch (property) {
+                case "name" -> "slow";
+                case "id" -> call;
+                default -> "{}";
+            };
+        });
+        executor = new FunctionToolExecutor(new RestTemplate(), new ObjectMapper(), registry,
+                mock(FunctionToolConverter.class), mock(IFunctionToolService.class), mock(JsonUtils.class),
+                new StringConversionUtils(), extractor, mock(IAgentService.class), properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void callsRejectedByFullQueueTimeOutInsteadOfRunningOnCaller() throws Exception {
+        properties.setPoolSize(1);
+        properties.setQueueCapacity(1);
+        executor.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        registerTool(parameters -> {
+            threads.add(Thread.currentThread().getName());
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "ok";
+        });
+
+        long start = System.nanoTime();
+        List<ChatMessage> results = executor.executeToolCalls(List.of("call-1", "call-2", "call-3"), null,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300));
+        release.countDown();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+        assertThat(results).extracting(ChatMessage::getToolCallId).containsExactly("call-1", "call-2", "call-3");
+        assertThat(results.get(2).getContent()).isEqualTo("工具执行失败: 工具执行超时（执行队列已满）");
+        assertThat(threads).allMatch(name -> name.startsWith(properties.getThreadNamePrefix()));
+    }
+
+    @Test
+    void callsWithinDeadlineReturnInOrder() {
+        executor.initialize();
+        registerTool(parameters -> "ok");
+
+        List<ChatMessage> results = executor.executeToolCalls(List.of("call-1", "call-2"), null);
+
+        assertThat(results).extracting(ChatMessage::getToolCallId).containsExactly("call-1", "call-2");
+        assertThat(results).extracting(message -> (String) message.getContent()).containsOnly("ok");
+    }
+
+    @Test
+    void httpToolIsAbortedAtItsTimeout() throws Exception {
+        executor.initialize();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(3000);
+                exchange.sendResponseHeaders(200, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        FunctionToolDefinitionPO tool = FunctionToolDefinitionPO.builder()
+                .name("slow-http")
+                .toolType("HTTP")
+                .method("GET")
+                .endpoint("http://127.0.0.1:" + server.getAddress().getPort() + "/slow")
+                .timeout(200)
+                .build();
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> executor.execute(tool, "{}"))
+                .isInstanceOf(FunctionToolExecutionException.class)
+                .hasMessageContaining("HTTP调用失败");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+    }
+
+    private void registerTool(Function<Map<String, Object>, String> body) {
+        GLMUnifiedTool tool = mock(GLMUnifiedTool.class);
+        when(tool.getToolType()).thenReturn(GLMUnifiedTool.ToolType.BUILTIN);
+        when(tool.execute(any())).thenAnswer(invocation -> body.apply(invocation.getArgument(0)));
+        when(registry.hasTool(eq("slow"))).thenReturn(true);
+        when(registry.getTool(eq("slow"))).thenReturn(tool);
+    }
+}
@@ -0,0 +1,136 @@
+package pox.com.piteagents.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcProperties;
+import pox.com.piteagents.common.utils.JsonUtils;
+import pox.com.piteagents.config.ChatJobProperties;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ChatJobPO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.mapper.ChatJobMapper;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatJobServiceImplTest {
+
+    private static final String WORKER = "node-1";
+
+    private ChatJobProperties properties;
+    private ChatJobMapper chatJobMapper;
+    private ChatJobServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatJobProperties();
+        chatJobMapper = mock(ChatJobMapper.class);
+        service = new ChatJobServiceImpl(chatJobMapper, properties, new JsonUtils(new ObjectMapper()),
+                new WebMvcProperties());
+    }
+
+    @Test
+    void claimLocksRowsThenMarksThemRunningUnderLease() {
+        List<ChatJobPO> claimed = List.of(job(1L, 1), job(2L, 1));
+        when(chatJobMapper.lockClaimableIds(2)).thenReturn(List.of(1L, 2L));
+        when(chatJobMapper.selectBatchIds(List.of(1L, 2L))).thenReturn(claimed);
+
+        assertThat(service.claimJobs(WORKER, 2)).isSameAs(claimed);
+
+        InOrder order = inOrder(chatJobMapper);
+        order.verify(chatJobMapper).lockClaimableIds(2);
+        order.verify(chatJobMapper).markRunning(List.of(1L, 2L), WORKER, properties.getLeaseSeconds());
+        order.verify(chatJobMapper).selectBatchIds(List.of(1L, 2L));
+    }
+
+    @Test
+    void claimWithNothingLockedDoesNotUpdate() {
+        when(chatJobMapper.lockClaimableIds(4)).thenReturn(List.of());
+
+        assertThat(service.claimJobs(WORKER, 4)).isEmpty();
+
+        verify(chatJobMapper, never()).markRunning(anyList(), anyString(), anyInt());
+    }
+
+    @Test
+    void renewExtendsLeasesHeldByThisWorker() {
+        when(chatJobMapper.renewLeases(List.of(1L, 2L), WORKER, properties.getLeaseSeconds())).thenReturn(1);
+
+        assertThat(service.renewLeases(List.of(1L, 2L), WORKER)).isEqualTo(1);
+        assertThat(service.renewLeases(List.of(), WORKER)).isZero();
+        verify(chatJobMapper).renewLeases(anyList(), anyString(), anyInt());
+    }
+
+    @Test
+    void completionIsWrittenOnlyForTheLeaseHolder() {
+        ChatJobPO job = job(1L, 1);
+
+        service.completeJob(job, WORKER, ChatResponse.builder().content("ok").build());
+
+        verify(chatJobMapper).markSucceeded(eq(1L), eq(WORKER), contains("\"content\":\"ok\""));
+    }
+
+    @Test
+    void retryableFailureIsRequeuedWithDelay() {
+        when(chatJobMapper.requeue(any(), any(), any(), any(), any())).thenReturn(1);
+
+        service.failJob(job(1L, 1), WORKER, new ZhipuApiException(503, "upstream busy"));
+
+        verify(chatJobMapper).requeue(1L, WORKER, 503, "upstream busy", properties.getRetryDelaySeconds());
+        verify(chatJobMapper, never()).markFailed(any(), any(), any(), any());
+    }
+
+    @Test
+    void failureAfterLastAttemptIsFinal() {
+        service.failJob(job(1L, properties.getMaxAttempts()), WORKER, new ZhipuApiException(503, "upstream busy"));
+
+        verify(chatJobMapper).markFailed(1L, WORKER, 503, "upstream busy");
+        verify(chatJobMapper, never()).requeue(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void requestErrorIsNotRetriedAndMessageIsTruncated() {
+        service.failJob(job(1L, 1), WORKER, new IllegalArgumentException("x".repeat(2000)));
+
+        verify(chatJobMapper).markFailed(eq(1L), eq(WORKER), eq(400), argThat(message -> message.length() == 1000));
+    }
+
+    @Test
+    void releaseRequeuesImmediatelyWithoutError() {
+        service.releaseJob(job(1L, 1), WORKER);
+
+        verify(chatJobMapper).requeue(eq(1L), eq(WORKER), isNull(), anyString(), eq(0));
+    }
+
+    @Test
+    void recoverRequeuesOrFailsExpiredLeases() {
+        when(chatJobMapper.requeueExpiredLeases()).thenReturn(2);
+        when(chatJobMapper.failExpiredLeases(anyString())).thenReturn(1);
+
+        assertThat(service.recoverExpiredJobs()).isEqualTo(3);
+    }
+
+    private ChatJobPO job(Long id, int attempts) {
+        return ChatJobPO.builder()
+                .id(id)
+                .attempts(attempts)
+                .maxAttempts(properties.getMaxAttempts())
+                .build();
+    }
+}
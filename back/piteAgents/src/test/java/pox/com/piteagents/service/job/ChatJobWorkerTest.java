@@ -0,0 +1,150 @@
+package pox.com.piteagents.service.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.common.utils.JsonUtils;
+import pox.com.piteagents.config.ChatJobProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.entity.po.ChatJobPO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IChatJobService;
+import pox.com.piteagents.service.IZhipuService;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatJobWorkerTest {
+
+    private final JsonUtils jsonUtils = new JsonUtils(new ObjectMapper());
+
+    private ChatJobProperties properties;
+    private IChatJobService chatJobService;
+    private IZhipuService zhipuService;
+    private ChatJobWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        properties = new ChatJobProperties();
+        properties.setWorkerThreads(1);
+        properties.setPollIntervalMs(10);
+        properties.setShutdownWaitSeconds(1);
+        chatJobService = mock(IChatJobService.class);
+        zhipuService = mock(IZhipuService.class);
+        when(chatJobService.claimJobs(anyString(), anyInt())).thenReturn(List.of());
+        worker = new ChatJobWorker(chatJobService, zhipuService, properties, jsonUtils);
+    }
+
+    @AfterEach
+    void tearDown() {
+        worker.shutdown();
+    }
+
+    @Test
+    void claimedJobIsExecutedAndCompletedUnderTheSameWorker() {
+        ChatJobPO job = job(1L, false);
+        ChatResponse response = ChatResponse.builder().content("ok").build();
+        when(chatJobService.claimJobs(anyString(), eq(1))).thenReturn(List.of(job), List.of());
+        when(zhipuService.chat(any())).thenReturn(response);
+
+        worker.start();
+
+        verify(chatJobService, timeout(5000)).completeJob(eq(job), anyString(), eq(response));
+        verify(zhipuService, never()).chatWithTools(any());
+    }
+
+    @Test
+    void failedJobIsReportedForRetryDecision() {
+        ChatJobPO job = job(1L, true);
+        ZhipuApiException error = new ZhipuApiException(503, "upstream busy");
+        when(chatJobService.claimJobs(anyString(), eq(1))).thenReturn(List.of(job), List.of());
+        when(zhipuService.chatWithTools(any())).thenThrow(error);
+
+        worker.start();
+
+        verify(chatJobService, timeout(5000)).failJob(eq(job), anyString(), eq(error));
+    }
+
+    @Test
+    void busyWorkerRenewsLeasesAndDoesNotClaimBeyondFreeSlots() throws Exception {
+        properties.setLeaseRenewIntervalSeconds(0);
+        ChatJobPO job = job(7L, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(chatJobService.claimJobs(anyString(), eq(1))).thenReturn(List.of(job), List.of());
+        when(zhipuService.chat(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return ChatResponse.builder().build();
+        });
+
+        worker.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        verify(chatJobService, timeout(5000).atLeast(2)).renewLeases(eq(List.of(7L)), anyString());
+        verify(chatJobService, times(1)).claimJobs(anyString(), anyInt());
+        release.countDown();
+        verify(chatJobService, timeout(5000)).completeJob(eq(job), anyString(), any());
+    }
+
+    @Test
+    void shutdownReleasesRunningJobsInsteadOfFailingThem() throws Exception {
+        ChatJobPO job = job(1L, false);
+        CountDownLatch started = new CountDownLatch(1);
+        when(chatJobService.claimJobs(anyString(), eq(1))).thenReturn(List.of(job), List.of());
+        when(zhipuService.chat(any())).thenAnswer(invocation -> {
+            started.countDown();
+            Thread.sleep(10_000);
+            return ChatResponse.builder().build();
+        });
+
+        worker.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        worker.shutdown();
+
+        verify(chatJobService, timeout(5000).atLeastOnce()).releaseJob(eq(job), anyString());
+        verify(chatJobService, never()).failJob(any(), any(), any());
+    }
+
+    @Test
+    void disabledWorkerNeverClaims() throws Exception {
+        properties.setWorkerEnabled(false);
+
+        worker.start();
+        Thread.sleep(50);
+
+        verify(chatJobService, never()).claimJobs(anyString(), anyInt());
+    }
+
+    @Test
+    void expiredLeasesAreRecoveredByThePoller() {
+        worker.start();
+
+        verify(chatJobService, timeout(5000).atLeastOnce()).recoverExpiredJobs();
+    }
+
+    private ChatJobPO job(Long id, boolean withTools) {
+        return ChatJobPO.builder()
+                .id(id)
+                .withTools(withTools)
+                .attempts(1)
+                .maxAttempts(3)
+                .requestJson(jsonUtils.toJson(ChatRequest.builder().agentId(1L).model("glm-4.6").build()))
+                .build();
+    }
+}
@@ -0,0 +1,171 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.SessionCounterProperties;
+import pox.com.piteagents.entity.po.ConversationSessionPO;
+import pox.com.piteagents.mapper.ConversationSessionMapper;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class SessionCounterAggregatorTest {
+
+    private SessionCounterProperties properties;
+    private ConversationSessionMapper sessionMapper;
+    private SimpleMeterRegistry meterRegistry;
+    private SessionCounterAggregator aggregator;
+    private final List<List<ConversationSessionPO>> updates = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean failUpdates = new AtomicBoolean();
+
+    @BeforeEach
+    void setUp() {
+        properties = new SessionCounterProperties();
+        properties.setFlushIntervalMs(3_600_000);
+        sessionMapper = mock(ConversationSessionMapper.class);
+        doAnswer(invocation -> {
+            if (failUpdates.get()) {
+                throw new IllegalStateException("lock wait timeout");
+            }
+            List<ConversationSessionPO> chunk = invocation.getArgument(0);
+            updates.add(List.copyOf(chunk));
+            return chunk.size();
+        }).when(sessionMapper).addCounters(any());
+        meterRegistry = new SimpleMeterRegistry();
+        aggregator = new SessionCounterAggregator(sessionMapper, properties, meterRegistry);
+        aggregator.initialize();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        aggregator.shutdown();
+    }
+
+    @Test
+    void deltasAreSummedAndWrittenInOneSortedUpdate() {
+        aggregator.record(3L, 2, 100);
+        aggregator.record(1L, 2, 50);
+        aggregator.record(3L, 2, 30);
+
+        aggregator.flush();
+
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0)).extracting(ConversationSessionPO::getId).containsExactly(1L, 3L);
+        assertThat(updates.get(0)).extracting(ConversationSessionPO::getMessageCount).containsExactly(2, 4);
+        assertThat(updates.get(0)).extracting(ConversationSessionPO::getTotalTokens).containsExactly(50, 130);
+    }
+
+    @Test
+    void flushWithoutDeltasSkipsTheUpdate() {
+        aggregator.record(1L, 1, 1);
+        aggregator.flush();
+        updates.clear();
+
+        aggregator.flush();
+
+        assertThat(updates).isEmpty();
+    }
+
+    @Test
+    void updatesAreChunkedBySessionLimit() {
+        properties.setMaxSessionsPerUpdate(2);
+        for (long sessionId = 1; sessionId <= 5; sessionId++) {
+            aggregator.record(sessionId, 1, 1);
+        }
+
+        aggregator.flush();
+
+        assertThat(updates).extracting(List::size).containsExactly(2, 2, 1);
+        assertThat(meterRegistry.get("pite.session.counters.flushed").counter().count()).isEqualTo(5);
+    }
+
+    @Test
+    void failedUpdateIsRetriedWithLaterDeltas() {
+        aggregator.record(1L, 2, 100);
+        failUpdates.set(true);
+        aggregator.flush();
+        failUpdates.set(false);
+        aggregator.record(1L, 2, 40);
+
+        aggregator.flush();
+
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0).get(0).getMessageCount()).isEqualTo(4);
+        assertThat(updates.get(0).get(0).getTotalTokens()).isEqualTo(140);
+        assertThat(meterRegistry.get("pite.session.counters.flush.failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void idleCountersAreRetiredAndRecreatedOnNextRecord() {
+        properties.setIdleEvictSeconds(0);
+        aggregator.record(1L, 1, 1);
+        aggregator.flush();
+
+        aggregator.flush();
+        assertThat(tracked()).isZero();
+
+        aggregator.record(1L, 1, 5);
+        aggregator.flush();
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(1).get(0).getTotalTokens()).isEqualTo(5);
+    }
+
+    @Test
+    void concurrentRecordsAreNeitherLostNorDoubleCounted() throws Exception {
+        properties.setIdleEvictSeconds(0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        int perThread = 5_000;
+        try {
+            List<Future<?>> writers = new CopyOnWriteArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                writers.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        aggregator.record((long) (i % 3), 1, 2);
+                    }
+                }));
+            }
+            while (writers.stream().anyMatch(writer -> !writer.isDone())) {
+                aggregator.flush();
+            }
+            for (Future<?> writer : writers) {
+                writer.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        aggregator.flush();
+
+        long messages = updates.stream().flatMap(List::stream).mapToLong(ConversationSessionPO::getMessageCount).sum();
+        long tokens = updates.stream().flatMap(List::stream).mapToLong(ConversationSessionPO::getTotalTokens).sum();
+        assertThat(messages).isEqualTo(4L * perThread);
+        assertThat(tokens).isEqualTo(8L * perThread);
+    }
+
+    @Test
+    void shutdownWritesRemainingDeltas() throws Exception {
+        aggregator.record(1L, 2, 10);
+        verify(sessionMapper, never()).addCounters(any());
+
+        aggregator.shutdown();
+
+        assertThat(updates).hasSize(1);
+    }
+
+    private double tracked() {
+        return meterRegistry.get("pite.session.counters.tracked").gauge().value();
+    }
+}
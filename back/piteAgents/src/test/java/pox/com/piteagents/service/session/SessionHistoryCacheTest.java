@@ -0,0 +1,181 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.HistoryCacheProperties;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SessionHistoryCacheTest {
+
+    private HistoryCacheProperties properties;
+    private SessionHistoryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        properties = new HistoryCacheProperties();
+        cache = new SessionHistoryCache(properties, new SimpleMeterRegistry());
+        cache.initialize();
+    }
+
+    @Test
+    void loadWithCurrentStampIsCached() {
+        long stamp = cache.stamp(1L);
+        cache.put(1L, stamp, "摘要", 10L, List.of(message(11), message(12)), true);
+
+        SessionHistoryCache.HistorySnapshot snapshot = cache.get(1L, null);
+
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.summary()).isEqualTo("摘要");
+        assertThat(snapshot.watermark()).isEqualTo(10L);
+        assertThat(ids(snapshot)).containsExactly(11L, 12L);
+    }
+
+    @Test
+    void staleLoadIsDiscardedAfterConcurrentWrite() {
+        long stamp = cache.stamp(1L);
+        // 查库期间有消息提交
+        cache.append(1L, List.of(message(3)));
+        cache.put(1L, stamp, null, null, List.of(message(1), message(2)), true);
+
+        assertThat(cache.get(1L, null)).isNull();
+
+        long retry = cache.stamp(1L);
+        cache.put(1L, retry, null, null, List.of(message(1), message(2), message(3)), true);
+        assertThat(ids(cache.get(1L, null))).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    void staleLoadIsDiscardedAfterSummaryOrDelete() {
+        long summarized = cache.stamp(1L);
+        cache.applySummary(1L, "摘要", 5L);
+        cache.put(1L, summarized, null, null, List.of(message(1)), true);
+        assertThat(cache.get(1L, null)).isNull();
+
+        long deleted = cache.stamp(2L);
+        cache.invalidate(2L);
+        cache.put(2L, deleted, null, null, List.of(message(1)), true);
+        assertThat(cache.get(2L, null)).isNull();
+    }
+
+    @Test
+    void writeToAnotherSessionDoesNotDiscardLoad() {
+        long stamp = cache.stamp(1L);
+        cache.stamp(2L);
+        cache.append(2L, List.of(message(100)));
+        cache.invalidate(3L);
+        cache.put(1L, stamp, null, null, List.of(message(1)), true);
+
+        assertThat(cache.get(1L, null)).isNotNull();
+    }
+
+    @Test
+    void appendKeepsMessagesOrderedById() {
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(1), message(3)), true);
+
+        // 晚提交的较小 ID、重复消息和水位线之前的消息
+        cache.append(1L, List.of(message(5), message(2), message(3)));
+
+        assertThat(ids(cache.get(1L, null))).containsExactly(1L, 2L, 3L, 5L);
+    }
+
+    @Test
+    void appendSkipsMessagesAtOrBeforeWatermark() {
+        cache.put(1L, cache.stamp(1L), "摘要", 10L, List.of(message(11)), true);
+
+        cache.append(1L, List.of(message(9), message(10), message(12)));
+
+        assertThat(ids(cache.get(1L, null))).containsExactly(11L, 12L);
+    }
+
+    @Test
+    void appendWithoutIdDropsEntry() {
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(1)), true);
+
+        cache.append(1L, List.of(ConversationMessagePO.builder().role("user").content("no id").build()));
+
+        assertThat(cache.get(1L, null)).isNull();
+    }
+
+    @Test
+    void partialSliceServesOnlyShorterQueries() {
+        // 按条数加载，只包含最近 3 条
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(4), message(5), message(6)), false);
+
+        assertThat(ids(cache.get(1L, 2))).containsExactly(5L, 6L);
+        assertThat(ids(cache.get(1L, 3))).containsExactly(4L, 5L, 6L);
+        assertThat(cache.get(1L, 4)).isNull();
+        assertThat(cache.get(1L, null)).isNull();
+    }
+
+    @Test
+    void partialSliceIgnoresMessagesOlderThanSlice() {
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(4), message(5)), false);
+
+        cache.append(1L, List.of(message(2), message(7)));
+
+        assertThat(ids(cache.get(1L, 3))).containsExactly(4L, 5L, 7L);
+    }
+
+    @Test
+    void summaryCoveringSliceMakesItComplete() {
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(4), message(5), message(6)), false);
+
+        cache.applySummary(1L, "摘要", 4L);
+
+        SessionHistoryCache.HistorySnapshot snapshot = cache.get(1L, null);
+        assertThat(snapshot).isNotNull();
+        assertThat(snapshot.summary()).isEqualTo("摘要");
+        assertThat(ids(snapshot)).containsExactly(5L, 6L);
+    }
+
+    @Test
+    void oversizedEntryIsNotCached() {
+        properties.setMaxEntryBytes(512);
+
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(1, "很长的内容".repeat(100))), true);
+
+        assertThat(cache.get(1L, null)).isNull();
+    }
+
+    @Test
+    void leastRecentlyUsedSessionIsEvictedOverCapacity() {
+        properties.setMaxBytes(1024);
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(1, "x".repeat(100))), true);
+        cache.put(2L, cache.stamp(2L), null, null, List.of(message(2, "x".repeat(100))), true);
+        // 访问会话 1，会话 2 变为最久未访问
+        cache.get(1L, null);
+
+        cache.put(3L, cache.stamp(3L), null, null, List.of(message(3, "x".repeat(100))), true);
+
+        assertThat(cache.get(2L, null)).isNull();
+        assertThat(cache.get(1L, null)).isNotNull();
+        assertThat(cache.get(3L, null)).isNotNull();
+        assertThat(cache.residentBytes()).isLessThanOrEqualTo(1024);
+    }
+
+    @Test
+    void disabledCacheNeverHits() {
+        properties.setEnabled(false);
+
+        cache.put(1L, cache.stamp(1L), null, null, List.of(message(1)), true);
+
+        assertThat(cache.get(1L, null)).isNull();
+    }
+
+    private static ConversationMessagePO message(long id) {
+        return message(id, "消息" + id);
+    }
+
+    private static ConversationMessagePO message(long id, String content) {
+        return ConversationMessagePO.builder().id(id).role("user").content(content).build();
+    }
+
+    private static List<Long> ids(SessionHistoryCache.HistorySnapshot snapshot) {
+        return snapshot.messages().stream().map(SessionHistoryCache.CachedMessage::id).toList();
+    }
+}
@@ -0,0 +1,179 @@
+package pox.com.piteagents.service.session;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.SessionChatProperties;
+import pox.com.piteagents.entity.po.ConversationMessagePO;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IConversationService;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionMessageWriterTest {
+
+    private SessionChatProperties properties;
+    private IConversationService conversationService;
+    private SimpleMeterRegistry meterRegistry;
+    private SessionMessageWriter writer;
+    private final List<Batch> batches = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new SessionChatProperties();
+        conversationService = mock(IConversationService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new SessionMessageWriter(conversationService, properties, meterRegistry);
+        when(conversationService.saveMessageBatch(any(), any())).thenAnswer(invocation -> {
+            batches.add(new Batch(List.copyOf(invocation.getArgument(0)), Set.copyOf(invocation.getArgument(1))));
+            return Set.of();
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        writer.shutdown();
+    }
+
+    @Test
+    void turnsSubmittedWithinWindowAreWrittenInOneBatch() throws Exception {
+        properties.setFlushIntervalMs(300);
+        writer.start();
+
+        CompletableFuture<Void> first = writer.submitTurn(1L, "q1", "a1", 10, 20, true);
+        CompletableFuture<Void> second = writer.submitTurn(2L, "q2", "a2", 10, 20, false);
+        CompletableFuture<Void> third = writer.submitTurn(1L, "q3", "a3", 10, 20, false);
+        CompletableFuture.allOf(first, second, third).get(5, TimeUnit.SECONDS);
+
+        assertThat(batches).hasSize(1);
+        assertThat(batches.get(0).rows()).extracting(ConversationMessagePO::getContent)
+                .containsExactly("q1", "a1", "q2", "a2", "q3", "a3");
+        assertThat(batches.get(0).titleSessionIds()).containsExactly(1L);
+        assertThat(meterRegistry.get("pite.session.writes").tag("outcome", "saved").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    void batchIsSplitAtMaxRowsWithoutSplittingATurn() throws Exception {
+        properties.setFlushIntervalMs(300);
+        properties.setMaxBatchRows(3);
+        writer.start();
+
+        CompletableFuture.allOf(writer.submitTurn(1L, "q1", "a1", 1, 1, false),
+                writer.submitTurn(1L, "q2", "a2", 1, 1, false)).get(5, TimeUnit.SECONDS);
+
+        assertThat(batches).extracting(batch -> batch.rows().size()).containsExactly(2, 2);
+    }
+
+    @Test
+    void failedBatchIsRetriedPerSubmissionAndOnlyTheBadOneFails() throws Exception {
+        properties.setFlushIntervalMs(300);
+        doAnswer(invocation -> {
+            List<ConversationMessagePO> rows = invocation.getArgument(0);
+            batches.add(new Batch(List.copyOf(rows), Set.of()));
+            if (rows.stream().anyMatch(row -> row.getSessionId() == 2L)) {
+                throw new IllegalStateException("constraint violation");
+            }
+            return Set.of();
+        }).when(conversationService).saveMessageBatch(any(), any());
+        writer.start();
+
+        CompletableFuture<Void> first = writer.submitTurn(1L, "q1", "a1", 1, 1, false);
+        CompletableFuture<Void> bad = writer.submitTurn(2L, "q2", "a2", 1, 1, false);
+        CompletableFuture<Void> third = writer.submitTurn(3L, "q3", "a3", 1, 1, false);
+
+        first.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        assertThatThrownBy(() -> bad.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(batches).extracting(batch -> batch.rows().size()).containsExactly(6, 2, 2, 2);
+    }
+
+    @Test
+    void missingSessionCompletesWith404() {
+        doReturn(Set.of(1L)).when(conversationService).saveMessageBatch(any(), any());
+        writer.start();
+
+        CompletableFuture<Void> future = writer.submitTurn(1L, "q", "a", 1, 1, false);
+
+        assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                .cause().isInstanceOf(ZhipuApiException.class).extracting("code").isEqualTo(404);
+    }
+
+    @Test
+    void fullQueueRejectsAfterBackpressureTimeout() throws Exception {
+        properties.setWriterQueueCapacity(1);
+        properties.setWriterEnqueueTimeoutMs(50);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWrites(writing, release);
+        writer.start();
+
+        CompletableFuture<Void> inFlight = writer.submitTurn(1L, "q1", "a1", 1, 1, false);
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<Void> queued = writer.submitTurn(2L, "q2", "a2", 1, 1, false);
+        CompletableFuture<Void> rejected = writer.submitTurn(3L, "q3", "a3", 1, 1, false);
+
+        assertThatThrownBy(() -> rejected.get(1, TimeUnit.SECONDS))
+                .cause().isInstanceOf(ZhipuApiException.class).extracting("code").isEqualTo(503);
+        release.countDown();
+        CompletableFuture.allOf(inFlight, queued).get(5, TimeUnit.SECONDS);
+        assertThat(meterRegistry.get("pite.session.writes").tag("outcome", "backpressure").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void awaitPendingWaitsForTheSessionsLastSubmission() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        blockWrites(writing, release);
+        writer.start();
+
+        CompletableFuture<Void> future = writer.submitTurn(1L, "q", "a", 1, 1, false);
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        writer.awaitPending(1L, 20);
+        assertThat(future).isNotDone();
+
+        CompletableFuture<Void> waiter = CompletableFuture.runAsync(() -> writer.awaitPending(1L, 5_000));
+        release.countDown();
+        waiter.get(5, TimeUnit.SECONDS);
+
+        assertThat(future).isCompleted();
+    }
+
+    @Test
+    void shutdownDrainsQueueAndRejectsLaterSubmissions() throws Exception {
+        properties.setFlushIntervalMs(200);
+        writer.start();
+
+        CompletableFuture<Void> queued = writer.submitTurn(1L, "q", "a", 1, 1, false);
+        writer.shutdown();
+
+        assertThat(queued).isCompleted();
+        assertThatThrownBy(() -> writer.submitTurn(1L, "q", "a", 1, 1, false).get())
+                .cause().isInstanceOf(ZhipuApiException.class).extracting("code").isEqualTo(503);
+    }
+
+    private void blockWrites(CountDownLatch writing, CountDownLatch release) {
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Set.of();
+        }).when(conversationService).saveMessageBatch(any(), any());
+    }
+
+    private record Batch(List<ConversationMessagePO> rows, Set<Long> titleSessionIds) {
+    }
+}
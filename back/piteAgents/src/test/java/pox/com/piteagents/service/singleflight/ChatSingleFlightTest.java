@@ -0,0 +1,194 @@
+package pox.com.piteagents.service.singleflight;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.common.utils.ChatRequestDigester;
+import pox.com.piteagents.config.SingleFlightProperties;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.entity.dto.response.ChatResponse;
+import pox.com.piteagents.service.streaming.StreamReplayBuffer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatSingleFlightTest {
+
+    private final ChatRequest request = ChatRequest.builder().agentId(1L).model("glm-4.6").build();
+
+    private SingleFlightProperties properties;
+    private ChatRequestDigester digester;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatSingleFlight singleFlight;
+    private StreamReplayBuffer replayBuffer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        properties = new SingleFlightProperties();
+        digester = mock(ChatRequestDigester.class);
+        when(digester.digest(any(), anyString(), anyBoolean()))
+                .thenAnswer(invocation -> invocation.getArgument(1) + ":key");
+        meterRegistry = new SimpleMeterRegistry();
+        singleFlight = new ChatSingleFlight(properties, digester, meterRegistry);
+        singleFlight.initialize();
+        replayBuffer = new StreamReplayBuffer(new StreamingProperties(), new SimpleMeterRegistry());
+        replayBuffer.initialize();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        replayBuffer.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentIdenticalChatsShareOneCallAndGetCopies() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        ChatResponse leaderResponse = ChatResponse.builder().id("c1").content("answer").build();
+
+        Future<ChatResponse> leader = executor.submit(() -> singleFlight.execute(request, () -> {
+            calls.incrementAndGet();
+            await(release);
+            return leaderResponse;
+        }));
+        awaitRequests("leader", 1);
+        Future<ChatResponse> follower = executor.submit(() -> singleFlight.execute(request, () -> {
+            calls.incrementAndGet();
+            return ChatResponse.builder().build();
+        }));
+        awaitRequests("follower", 1);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isSameAs(leaderResponse);
+        ChatResponse copy = follower.get(5, TimeUnit.SECONDS);
+        assertThat(copy).isNotSameAs(leaderResponse);
+        assertThat(copy.getContent()).isEqualTo("answer");
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(inflight("chat")).isZero();
+    }
+
+    @Test
+    void leaderFailureIsRethrownToFollowers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("upstream down");
+
+        Future<ChatResponse> leader = executor.submit(() -> singleFlight.execute(request, () -> {
+            await(release);
+            throw failure;
+        }));
+        awaitRequests("leader", 1);
+        CompletableFuture<ChatResponse> follower = CompletableFuture.supplyAsync(
+                () -> singleFlight.execute(request, ChatResponse.builder()::build), executor);
+        awaitRequests("follower", 1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS)).hasCause(failure);
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS)).hasCause(failure);
+    }
+
+    @Test
+    void completedChatsAreNotCached() {
+        AtomicInteger calls = new AtomicInteger();
+
+        singleFlight.execute(request, () -> ChatResponse.builder().content("" + calls.incrementAndGet()).build());
+        ChatResponse second = singleFlight.execute(request,
+                () -> ChatResponse.builder().content("" + calls.incrementAndGet()).build());
+
+        assertThat(second.getContent()).isEqualTo("2");
+        assertThat(requests("chat", "leader")).isEqualTo(2);
+    }
+
+    @Test
+    void disabledChatCallsThroughWithoutDigest() {
+        properties.setChatEnabled(false);
+
+        singleFlight.execute(request, ChatResponse.builder()::build);
+
+        verify(digester, never()).digest(any(), anyString(), anyBoolean());
+    }
+
+    @Test
+    void identicalStreamJoinsTheRunningStream() {
+        String key = singleFlight.streamKey(request);
+        StreamReplayBuffer.ReplayStream first = replayBuffer.create(() -> { });
+        StreamReplayBuffer.ReplayStream second = replayBuffer.create(() -> { });
+
+        assertThat(singleFlight.joinOrRegisterStream(key, first)).isSameAs(first);
+        assertThat(singleFlight.joinOrRegisterStream(key, second)).isSameAs(first);
+        assertThat(requests("stream", "follower")).isEqualTo(1);
+
+        singleFlight.releaseStream(key, first);
+        assertThat(singleFlight.joinOrRegisterStream(key, second)).isSameAs(second);
+    }
+
+    @Test
+    void finishedStreamIsReplacedByNewLeader() {
+        String key = singleFlight.streamKey(request);
+        StreamReplayBuffer.ReplayStream finished = replayBuffer.create(() -> { });
+        singleFlight.joinOrRegisterStream(key, finished);
+        finished.complete();
+        StreamReplayBuffer.ReplayStream next = replayBuffer.create(() -> { });
+
+        assertThat(singleFlight.joinOrRegisterStream(key, next)).isSameAs(next);
+        assertThat(requests("stream", "leader")).isEqualTo(2);
+    }
+
+    @Test
+    void disabledStreamHasNoKeyAndIsNeverJoined() {
+        properties.setStreamEnabled(false);
+        StreamReplayBuffer.ReplayStream first = replayBuffer.create(() -> { });
+        StreamReplayBuffer.ReplayStream second = replayBuffer.create(() -> { });
+
+        String key = singleFlight.streamKey(request);
+        singleFlight.joinOrRegisterStream(key, first);
+
+        assertThat(key).isNull();
+        assertThat(singleFlight.joinOrRegisterStream(key, second)).isSameAs(second);
+        assertThat(inflight("stream")).isZero();
+    }
+
+    private void awaitRequests(String role, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.find("pite.singleflight.requests").tag("role", role).counters().stream()
+                .mapToDouble(counter -> counter.count()).sum() < count) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private double requests(String kind, String role) {
+        return meterRegistry.get("pite.singleflight.requests").tag("kind", kind).tag("role", role).counter().count();
+    }
+
+    private double inflight(String kind) {
+        return meterRegistry.get("pite.singleflight.inflight").tag("kind", kind).gauge().value();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
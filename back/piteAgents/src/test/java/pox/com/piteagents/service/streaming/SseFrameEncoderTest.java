@@ -0,0 +1,103 @@
+package pox.com.piteagents.service.streaming;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseFrameEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SseFrameEncoder encoder = new SseFrameEncoder();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "hello", "你好，世界", "say \"hi\"", "C:\\path", "a\nb\r\tc", "\b\f\u0001\u001f",
+            "emoji 😀 ok", "é ß ñ", "</script>"})
+    void chunkMatchesJackson(String delta) throws Exception {
+        StreamChatResponse response = StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", delta);
+
+        assertThat(text(encoder.encode(response))).isEqualTo(expected(response));
+    }
+
+    @Test
+    void nullFieldsAndEndFrameMatchJackson() throws Exception {
+        StreamChatResponse empty = StreamChatResponse.builder().done(false).build();
+        StreamChatResponse end = StreamChatResponse.end("chatcmpl-1", "glm-4.6", "stop");
+
+        assertThat(text(encoder.encode(empty))).isEqualTo(expected(empty));
+        assertThat(text(encoder.encode(end))).isEqualTo(expected(end));
+    }
+
+    @Test
+    void nullDoneIsWrittenAsNull() throws Exception {
+        StreamChatResponse response = StreamChatResponse.builder().id("chatcmpl-1").done(null).build();
+
+        assertThat(text(encoder.encode(response))).isEqualTo(expected(response)).contains("\"done\":null");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"a\uD83Db", "\uDE00", "x\uD83D", "\uDE00\uD83D"})
+    void loneSurrogatesAreEscaped(String delta) throws Exception {
+        StreamChatResponse response = StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", delta);
+        byte[] bytes = (byte[]) encoder.encode(response).payload().iterator().next().getData();
+
+        String frame = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes)).toString();
+        delta.chars().filter(c -> Character.isSurrogate((char) c))
+                .forEach(c -> assertThat(frame).contains(String.format("\\u%04X", c)));
+        String json = frame.substring("data:".length(), frame.length() - 2);
+        assertThat(objectMapper.readValue(json, StreamChatResponse.class).getDelta()).isEqualTo(delta);
+    }
+
+    @Test
+    void sequencedFrameCarriesEventId() throws Exception {
+        StreamChatResponse response = StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", "hi");
+
+        assertThat(text(encoder.encode(response, 42))).isEqualTo("id:42\n" + expected(response));
+    }
+
+    @Test
+    void prefixIsReencodedWhenResponseIdChanges() throws Exception {
+        StreamChatResponse first = StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", "a");
+        StreamChatResponse second = StreamChatResponse.chunk("chatcmpl-2", "glm-4.5", "b");
+
+        encoder.encode(first);
+
+        assertThat(text(encoder.encode(second))).isEqualTo(expected(second));
+    }
+
+    @Test
+    void earlierFramesAreNotOverwrittenByBufferReuse() throws Exception {
+        StreamChatResponse first = StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", "first");
+        SseFrame frame = encoder.encode(first);
+
+        encoder.encode(StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", "x".repeat(1000)));
+
+        assertThat(text(frame)).isEqualTo(expected(first));
+    }
+
+    @Test
+    void payloadIsBuiltOncePerFrame() {
+        SseFrame frame = encoder.encode(StreamChatResponse.chunk("chatcmpl-1", "glm-4.6", "hi"));
+
+        assertThat(frame.payload()).isSameAs(frame.payload()).hasSize(1);
+        ResponseBodyEmitter.DataWithMediaType item = frame.payload().iterator().next();
+        assertThat(item.getMediaType()).isEqualTo(MediaType.TEXT_EVENT_STREAM);
+        assertThat((byte[]) item.getData()).hasSize(frame.length());
+    }
+
+    private String expected(StreamChatResponse response) throws Exception {
+        return "data:" + objectMapper.writeValueAsString(response) + "\n\n";
+    }
+
+    private static String text(SseFrame frame) {
+        return new String((byte[]) frame.payload().iterator().next().getData(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Signal;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamCoalescerTest {
+
+    private StreamingProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private StreamCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        properties = new StreamingProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new StreamCoalescer(properties, meterRegistry);
+        coalescer.initialize();
+    }
+
+    @Test
+    void deltasWithinWindowAreMergedAndEndIsKept() {
+        properties.setCoalesceWindowMs(10_000);
+
+        List<StreamChatResponse> frames = coalescer
+                .coalesce(Flux.just(delta("你好"), delta("，"), delta("世界"), end()), true)
+                .collectList().block();
+
+        assertThat(frames).hasSize(2);
+        assertThat(frames.get(0).getDelta()).isEqualTo("你好，世界");
+        assertThat(frames.get(0).getId()).isEqualTo("id");
+        assertThat(frames.get(1).getDone()).isTrue();
+        assertThat(meterRegistry.get("pite.streaming.coalesce.deltas").counter().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("pite.streaming.coalesce.frames").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void bufferReachingMaxBytesIsFlushedImmediately() {
+        properties.setCoalesceWindowMs(10_000);
+        properties.setCoalesceMaxBytes(3);
+
+        List<String> deltas = coalescer
+                .coalesce(Flux.just(delta("ab"), delta("c"), delta("你"), delta("d")), true)
+                .map(StreamChatResponse::getDelta)
+                .collectList().block();
+
+        assertThat(deltas).containsExactly("abc", "你", "d");
+    }
+
+    @Test
+    void windowExpiryFlushesOffTheParallelScheduler() {
+        properties.setCoalesceWindowMs(20);
+        List<String> threads = new CopyOnWriteArrayList<>();
+
+        List<String> deltas = coalescer
+                .coalesce(Flux.concat(Flux.just(delta("a")),
+                        Flux.just(delta("b")).delaySubscription(Duration.ofMillis(300))), true)
+                .doOnNext(frame -> threads.add(Thread.currentThread().getName()))
+                .map(StreamChatResponse::getDelta)
+                .collectList().block(Duration.ofSeconds(5));
+
+        assertThat(deltas).containsExactly("a", "b");
+        assertThat(threads.get(0)).startsWith("boundedElastic");
+    }
+
+    @Test
+    void pendingDeltasArePushedBeforeError() {
+        properties.setCoalesceWindowMs(10_000);
+
+        List<Signal<StreamChatResponse>> signals = coalescer
+                .coalesce(Flux.concat(Flux.just(delta("a"), delta("b")),
+                        Flux.error(new IllegalStateException("boom"))), true)
+                .materialize()
+                .collectList().block();
+
+        assertThat(signals).hasSize(2);
+        assertThat(signals.get(0).get().getDelta()).isEqualTo("ab");
+        assertThat(signals.get(1).getThrowable()).hasMessage("boom");
+    }
+
+    @Test
+    void disabledOrZeroWindowPassesThrough() {
+        Flux<StreamChatResponse> deltas = Flux.just(delta("a"), delta("b"));
+
+        assertThat(coalescer.coalesce(deltas, false).collectList().block()).hasSize(2);
+        properties.setCoalesceWindowMs(0);
+        assertThat(coalescer.coalesce(deltas, true).collectList().block()).hasSize(2);
+    }
+
+    private static StreamChatResponse delta(String text) {
+        return StreamChatResponse.chunk("id", "glm-4.6", text);
+    }
+
+    private static StreamChatResponse end() {
+        return StreamChatResponse.end("id", "glm-4.6", "stop");
+    }
+}
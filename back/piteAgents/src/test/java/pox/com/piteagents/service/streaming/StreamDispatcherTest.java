@@ -0,0 +1,119 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamDispatcherTest {
+
+    private final List<CompletableFuture<Void>> running = new ArrayList<>();
+    private final List<String> executedOn = new CopyOnWriteArrayList<>();
+    private final List<Throwable> rejected = new CopyOnWriteArrayList<>();
+    private StreamDispatcher dispatcher;
+
+    private void start(StreamingProperties.RejectionPolicy policy) {
+        StreamingProperties properties = new StreamingProperties();
+        properties.setThreadMode(StreamingProperties.ThreadMode.PLATFORM);
+        properties.setPlatformPoolSize(1);
+        properties.setQueueCapacity(1);
+        properties.setRejectionPolicy(policy);
+        properties.setRejectionWaitMs(2000);
+        dispatcher = new StreamDispatcher(properties, new SimpleMeterRegistry());
+        dispatcher.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        running.forEach(future -> future.complete(null));
+        dispatcher.shutdown();
+    }
+
+    private CompletableFuture<Void> submit(String name) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        running.add(done);
+        dispatcher.submit(name, 10_000, () -> {
+            executedOn.add(Thread.currentThread().getName());
+            return done;
+        }, rejected::add);
+        return done;
+    }
+
+    @Test
+    void abortRejectsWhenQueueIsFull() {
+        start(StreamingProperties.RejectionPolicy.ABORT);
+        submit("active");
+        submit("queued");
+
+        assertThatThrownBy(() -> submit("overflow"))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> assertThat(e.getCode()).isEqualTo(503));
+        assertThat(dispatcher.getRejectedStreams()).isEqualTo(1);
+    }
+
+    @Test
+    void discardOldestRejectsQueuedRequestAndAcceptsNewOne() throws Exception {
+        start(StreamingProperties.RejectionPolicy.DISCARD_OLDEST);
+        CompletableFuture<Void> active = submit("active");
+        submit("queued");
+
+        submit("newest");
+
+        assertThat(rejected).hasSize(1);
+        assertThat(dispatcher.getRejectedStreams()).isEqualTo(1);
+        active.complete(null);
+        awaitExecuted(2);
+        assertThat(dispatcher.getQueueDepth()).isZero();
+    }
+
+    @Test
+    void waitQueuesOnWorkerThreadOnceSlotFrees() throws Exception {
+        start(StreamingProperties.RejectionPolicy.WAIT);
+        CompletableFuture<Void> active = submit("active");
+        CompletableFuture<Void> queued = submit("queued");
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> active.complete(null));
+
+        submit("waiting");
+
+        awaitExecuted(2);
+        queued.complete(null);
+        awaitExecuted(3);
+        assertThat(executedOn).allMatch(name -> name.startsWith("sse-stream-"));
+        assertThat(dispatcher.getRejectedStreams()).isZero();
+    }
+
+    @Test
+    void waitRejectsAfterTimeout() {
+        StreamingProperties properties = new StreamingProperties();
+        properties.setThreadMode(StreamingProperties.ThreadMode.PLATFORM);
+        properties.setPlatformPoolSize(1);
+        properties.setQueueCapacity(1);
+        properties.setRejectionPolicy(StreamingProperties.RejectionPolicy.WAIT);
+        properties.setRejectionWaitMs(50);
+        dispatcher = new StreamDispatcher(properties, new SimpleMeterRegistry());
+        dispatcher.initialize();
+        submit("active");
+        submit("queued");
+
+        assertThatThrownBy(() -> submit("overflow")).isInstanceOf(ZhipuApiException.class);
+        assertThat(dispatcher.getRejectedStreams()).isEqualTo(1);
+        assertThat(executedOn).doesNotContain(Thread.currentThread().getName());
+    }
+
+    private void awaitExecuted(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executedOn.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(executedOn).hasSize(count);
+    }
+}
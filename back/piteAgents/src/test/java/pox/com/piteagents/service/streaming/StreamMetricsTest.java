@@ -0,0 +1,77 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.StreamingProperties;
+import pox.com.piteagents.config.ZhipuConfig;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private StreamingProperties streamingProperties;
+    private StreamMetrics streamMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        streamingProperties = new StreamingProperties();
+        ZhipuConfig zhipuConfig = new ZhipuConfig();
+        zhipuConfig.setDefaultModel("glm-4.6");
+        streamMetrics = new StreamMetrics(meterRegistry, zhipuConfig, streamingProperties);
+    }
+
+    @Test
+    void unknownModelIsFoldedIntoOther() {
+        streamMetrics.start("stream", request("glm-4.6", 1L)).finish("completed");
+        streamMetrics.start("stream", request("random-" + System.nanoTime(), 1L)).finish("completed");
+        streamMetrics.start("stream", request(null, 1L)).finish("completed");
+
+        assertThat(meterRegistry.get("pite.stream.duration").tag("model", "glm-4.6").timer().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("pite.stream.duration").tag("model", "other").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("pite.stream.duration").timers()).hasSize(2);
+    }
+
+    @Test
+    void agentsBeyondLimitAreFoldedIntoOther() {
+        streamingProperties.setMetricsMaxAgents(2);
+
+        for (long agentId = 1; agentId <= 4; agentId++) {
+            streamMetrics.start("stream", request("glm-4.6", agentId)).finish("completed");
+        }
+        streamMetrics.start("stream", request("glm-4.6", 1L)).finish("completed");
+        streamMetrics.start("stream", request("glm-4.6", null)).finish("completed");
+
+        assertThat(requests("1")).isEqualTo(2);
+        assertThat(requests("2")).isEqualTo(1);
+        assertThat(requests("other")).isEqualTo(2);
+        assertThat(requests("none")).isEqualTo(1);
+    }
+
+    @Test
+    void histogramsAreNotTaggedByAgent() {
+        streamMetrics.start("stream", request("glm-4.6", 1L)).finish("completed");
+
+        assertThat(meterRegistry.get("pite.stream.duration").timer().getId().getTag("agent")).isNull();
+        assertThat(meterRegistry.get("pite.stream.requests").counter().getId().getTag("agent")).isEqualTo("1");
+    }
+
+    @Test
+    void outcomeDistinguishesCancelledFromFailed() {
+        assertThat(StreamMetrics.outcomeOf(null)).isEqualTo("completed");
+        assertThat(StreamMetrics.outcomeOf(new ZhipuApiException(410, "cancelled"))).isEqualTo("cancelled");
+        assertThat(StreamMetrics.outcomeOf(new ZhipuApiException(503, "busy"))).isEqualTo("failed");
+    }
+
+    private double requests(String agent) {
+        return meterRegistry.get("pite.stream.requests").tag("agent", agent).counter().count();
+    }
+
+    private static ChatRequest request(String model, Long agentId) {
+        return ChatRequest.builder().model(model).agentId(agentId).build();
+    }
+}
@@ -0,0 +1,204 @@
+package pox.com.piteagents.service.streaming;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.StreamingProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamReplayBufferTest {
+
+    private StreamingProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private StreamReplayBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        properties = new StreamingProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        buffer = new StreamReplayBuffer(properties, meterRegistry);
+        buffer.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        buffer.shutdown();
+    }
+
+    @Test
+    void attachReplaysFramesAfterLastSeqAndFollowsLiveFrames() {
+        StreamReplayBuffer.ReplayStream stream = buffer.create(() -> { });
+        buffer.register("r1", stream);
+        append(stream, "a", "b", "c");
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        assertThat(buffer.get("r1").attach(subscriber, 0)).isEqualTo(StreamReplayBuffer.AttachResult.ATTACHED);
+        append(stream, "d");
+        stream.complete();
+
+        assertThat(subscriber.frames).containsExactly("b", "c", "d");
+        assertThat(subscriber.completed).isEqualTo(1);
+    }
+
+    @Test
+    void attachAfterFinishReplaysAndCompletesImmediately() {
+        StreamReplayBuffer.ReplayStream stream = buffer.create(() -> { });
+        buffer.register("r1", stream);
+        append(stream, "a", "b");
+        IllegalStateException error = new IllegalStateException("boom");
+        stream.fail(error);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+
+        assertThat(stream.attach(subscriber, -1)).isEqualTo(StreamReplayBuffer.AttachResult.ATTACHED);
+
+        assertThat(subscriber.frames).containsExactly("a", "b");
+        assertThat(subscriber.errors).containsExactly(error);
+    }
+
+    @Test
+    void trimmedFramesReportGap() {
+        properties.setReplayMaxFramesPerStream(2);
+        StreamReplayBuffer.ReplayStream stream = buffer.create(() -> { });
+        buffer.register("r1", stream);
+        append(stream, "a", "b", "c");
+
+        assertThat(stream.attach(new RecordingSubscriber(), -1)).isEqualTo(StreamReplayBuffer.AttachResult.GAP);
+        assertThat(stream.attach(new RecordingSubscriber(), 0)).isEqualTo(StreamReplayBuffer.AttachResult.ATTACHED);
+        assertThat(bytes()).isEqualTo(2 * frame("x").length());
+    }
+
+    @Test
+    void memoryCapEvictsFinishedStreamsBeforeActiveOnes() {
+        properties.setReplayMaxBytes(frame("x").length() * 3L);
+        StreamReplayBuffer.ReplayStream active = buffer.create(() -> { });
+        buffer.register("active", active);
+        append(active, "a");
+        StreamReplayBuffer.ReplayStream finished = buffer.create(() -> { });
+        buffer.register("finished", finished);
+        append(finished, "b", "c");
+        finished.complete();
+
+        append(active, "d");
+
+        assertThat(buffer.get("finished")).isNull();
+        assertThat(buffer.get("active")).isSameAs(active);
+        assertThat(bytes()).isEqualTo(2 * frame("x").length());
+    }
+
+    @Test
+    void abandonedAfterGraceWithoutReconnect() throws Exception {
+        properties.setResumeGraceSeconds(0);
+        CountDownLatch abandoned = new CountDownLatch(1);
+        StreamReplayBuffer.ReplayStream stream = buffer.create(abandoned::countDown);
+        buffer.register("r1", stream);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.attach(subscriber, -1);
+        append(stream, "a");
+
+        stream.detach(subscriber);
+
+        assertThat(abandoned.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void reconnectWithinGraceKeepsGenerating() throws Exception {
+        properties.setResumeGraceSeconds(1);
+        AtomicInteger abandoned = new AtomicInteger();
+        StreamReplayBuffer.ReplayStream stream = buffer.create(abandoned::incrementAndGet);
+        buffer.register("r1", stream);
+        RecordingSubscriber first = new RecordingSubscriber();
+        stream.attach(first, -1);
+        append(stream, "a");
+
+        stream.detach(first);
+        RecordingSubscriber second = new RecordingSubscriber();
+        stream.attach(second, 0);
+        append(stream, "b");
+        Thread.sleep(1500);
+
+        assertThat(abandoned.get()).isZero();
+        assertThat(second.frames).containsExactly("b");
+    }
+
+    @Test
+    void failingSubscriberIsDetachedWithoutAffectingOthers() {
+        StreamReplayBuffer.ReplayStream stream = buffer.create(() -> { });
+        RecordingSubscriber healthy = new RecordingSubscriber();
+        RecordingSubscriber broken = new RecordingSubscriber();
+        broken.failOnFrame = true;
+        stream.attach(healthy, -1);
+        stream.attach(broken, -1);
+
+        append(stream, "a", "b");
+        stream.complete();
+
+        assertThat(healthy.frames).containsExactly("a", "b");
+        assertThat(healthy.completed).isEqualTo(1);
+        assertThat(broken.frames).isEmpty();
+        assertThat(broken.completed).isZero();
+    }
+
+    @Test
+    void disabledReplayRetainsNothingAndIsNotRegistered() {
+        properties.setReplayEnabled(false);
+        StreamReplayBuffer.ReplayStream stream = buffer.create(() -> { });
+        buffer.register("r1", stream);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        stream.attach(subscriber, -1);
+        append(stream, "a");
+
+        assertThat(buffer.get("r1")).isNull();
+        assertThat(subscriber.frames).containsExactly("a");
+        assertThat(stream.attach(new RecordingSubscriber(), -1)).isEqualTo(StreamReplayBuffer.AttachResult.GAP);
+        assertThat(bytes()).isZero();
+    }
+
+    private void append(StreamReplayBuffer.ReplayStream stream, String... texts) {
+        for (String text : texts) {
+            stream.append(frame(text));
+        }
+    }
+
+    private double bytes() {
+        return meterRegistry.get("pite.streaming.replay.bytes").gauge().value();
+    }
+
+    private static SseFrame frame(String text) {
+        return new SseFrame(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class RecordingSubscriber implements StreamReplayBuffer.FrameSubscriber {
+
+        private final List<String> frames = new CopyOnWriteArrayList<>();
+        private final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        private int completed;
+        private boolean failOnFrame;
+
+        @Override
+        public void onFrame(SseFrame frame) throws Exception {
+            if (failOnFrame) {
+                throw new IllegalStateException("client gone");
+            }
+            frames.add(new String((byte[]) frame.payload().iterator().next().getData(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onComplete() {
+            completed++;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            errors.add(error);
+        }
+    }
+}
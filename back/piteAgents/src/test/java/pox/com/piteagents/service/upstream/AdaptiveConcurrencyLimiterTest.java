@@ -0,0 +1,237 @@
+package pox.com.piteagents.service.upstream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final String MODEL = "glm-4.6";
+
+    private UpstreamProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveConcurrencyLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        properties = new UpstreamProperties();
+    }
+
+    private void start(int initialLimit) {
+        properties.getLimiter().setInitialLimit(initialLimit);
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new AdaptiveConcurrencyLimiter(properties, meterRegistry);
+        limiter.initialize();
+    }
+
+    @Test
+    void overloadBacksOffMultiplicativelyDownToMinimum() {
+        start(20);
+
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(10);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        }
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(properties.getLimiter().getMinLimit());
+    }
+
+    @Test
+    void successAtLimitGrowsAdditively() {
+        start(1);
+
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, 0);
+
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(2);
+    }
+
+    @Test
+    void successFarBelowLimitDoesNotGrow() {
+        start(10);
+
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, 0);
+
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(10);
+    }
+
+    @Test
+    void latencyAboveBaselineBacksOff() {
+        start(10);
+        long baseline = TimeUnit.MILLISECONDS.toNanos(100);
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, baseline);
+
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS, baseline * 3);
+
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(9);
+    }
+
+    @Test
+    void ignoredOutcomeAndRepeatedReleaseDoNotAdjust() {
+        start(20);
+
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(MODEL);
+        permit.release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        permit.release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(10);
+    }
+
+    @Test
+    void rejectsImmediatelyWhenQueueIsFull() {
+        properties.getLimiter().setMaxQueueSize(0);
+        start(1);
+        limiter.acquire(MODEL);
+
+        assertThatThrownBy(() -> limiter.acquire(MODEL))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> assertThat(e.getCode()).isEqualTo(503));
+    }
+
+    @Test
+    void rejectsWhenQueueWaitTimesOut() {
+        properties.getLimiter().setMaxQueueWaitMs(50);
+        start(1);
+        limiter.acquire(MODEL);
+
+        assertThatThrownBy(() -> limiter.acquire(MODEL))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> {
+                    assertThat(e.getCode()).isEqualTo(503);
+                    assertThat(e.getMessage()).contains("排队超时");
+                });
+    }
+
+    @Test
+    void waiterProceedsWhenPermitIsReleased() throws Exception {
+        start(1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(MODEL);
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiter = CompletableFuture.supplyAsync(() -> limiter.acquire(MODEL));
+        Thread.sleep(50);
+        assertThat(waiter).isNotDone();
+
+        first.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @Test
+    void concurrentOverloadBacksOffOncePerWindow() {
+        start(20);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(MODEL);
+        AdaptiveConcurrencyLimiter.Permit second = limiter.acquire(MODEL);
+        AdaptiveConcurrencyLimiter.Permit third = limiter.acquire(MODEL);
+
+        first.release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        second.release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        third.release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(10);
+
+        // 减小之后获得的许可再次过载，开始新的窗口
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(5);
+    }
+
+    @Test
+    void asyncWaiterIsGrantedOnReleaseWithoutHoldingThread() throws Exception {
+        start(1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(MODEL);
+
+        CompletableFuture<String> grantedOn = limiter.acquireAsync(MODEL)
+                .map(permit -> Thread.currentThread().getName())
+                .toFuture();
+        assertThat(grantedOn).isNotDone();
+        assertThat(queueDepth()).isEqualTo(1);
+
+        first.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+        assertThat(grantedOn.get(5, TimeUnit.SECONDS)).startsWith("boundedElastic");
+        assertThat(queueDepth()).isZero();
+    }
+
+    @Test
+    void immediateAsyncPermitStaysOnCallingThread() {
+        start(1);
+
+        String thread = limiter.acquireAsync(MODEL).map(permit -> Thread.currentThread().getName()).block();
+
+        assertThat(thread).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    void cancelledAsyncWaiterLeavesQueue() {
+        start(1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(MODEL);
+
+        limiter.acquireAsync(MODEL).subscribe().dispose();
+        assertThat(queueDepth()).isZero();
+
+        first.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+        assertThat(inFlight()).isZero();
+        assertThat(limiter.acquireAsync(MODEL).block()).isNotNull();
+    }
+
+    @Test
+    void asyncWaiterTimesOut() {
+        properties.getLimiter().setMaxQueueWaitMs(50);
+        start(1);
+        limiter.acquire(MODEL);
+
+        assertThatThrownBy(() -> limiter.acquireAsync(MODEL).block(Duration.ofSeconds(5)))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> assertThat(e.getMessage()).contains("排队超时"));
+        assertThat(queueDepth()).isZero();
+    }
+
+    @Test
+    void syncAndAsyncWaitersAreServedInOrder() throws Exception {
+        start(1);
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(MODEL);
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> async = limiter.acquireAsync(MODEL).toFuture();
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> sync = CompletableFuture.supplyAsync(() -> limiter.acquire(MODEL));
+        while (queueDepth() < 2) {
+            Thread.sleep(5);
+        }
+
+        first.release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+        async.get(5, TimeUnit.SECONDS).release(AdaptiveConcurrencyLimiter.Outcome.IGNORED, 0);
+
+        assertThat(sync.get(5, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @Test
+    void unknownModelsShareSeparateLimiter() {
+        properties.getLimiter().setMaxQueueSize(0);
+        start(1);
+        limiter.acquire("unknown-a");
+
+        assertThatThrownBy(() -> limiter.acquire("unknown-b")).isInstanceOf(ZhipuApiException.class);
+        assertThat(limiter.acquire(MODEL)).isNotNull();
+    }
+
+    @Test
+    void disabledLimiterNeverBlocks() {
+        properties.getLimiter().setEnabled(false);
+        properties.getLimiter().setMaxQueueSize(0);
+        start(1);
+
+        limiter.acquire(MODEL);
+        limiter.acquire(MODEL).release(AdaptiveConcurrencyLimiter.Outcome.OVERLOADED, 0);
+
+        assertThat(limiter.getLimit(MODEL)).isEqualTo(1);
+    }
+
+    private double queueDepth() {
+        return meterRegistry.get("pite.upstream.queue.depth").tag("model", MODEL).gauge().value();
+    }
+
+    private double inFlight() {
+        return meterRegistry.get("pite.upstream.inflight").tag("model", MODEL).gauge().value();
+    }
+}
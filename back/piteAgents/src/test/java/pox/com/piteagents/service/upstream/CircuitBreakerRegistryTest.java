@@ -0,0 +1,111 @@
+package pox.com.piteagents.service.upstream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.UpstreamProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerRegistryTest {
+
+    private static final String MODEL = "glm-4.6";
+
+    private UpstreamProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private CircuitBreakerRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new UpstreamProperties();
+        properties.getCircuitBreaker().setFailureThreshold(3);
+        meterRegistry = new SimpleMeterRegistry();
+        registry = new CircuitBreakerRegistry(properties, meterRegistry);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailuresAndRejects() {
+        fail(2);
+        registry.onSuccess(MODEL);
+        fail(2);
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+
+        fail(1);
+
+        assertThat(registry.isOpen(MODEL)).isTrue();
+        assertThat(registry.tryAcquire(MODEL)).isFalse();
+        assertThat(meterRegistry.get("pite.upstream.breaker.rejected").tag("model", MODEL).counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("pite.upstream.breaker.state").tag("model", MODEL).gauge().value())
+                .isEqualTo(CircuitBreakerRegistry.State.OPEN.ordinal());
+    }
+
+    @Test
+    void halfOpenAdmitsLimitedProbesAndClosesOnSuccess() throws Exception {
+        openBriefly();
+
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+        assertThat(registry.tryAcquire(MODEL)).isFalse();
+        registry.onSuccess(MODEL);
+
+        assertThat(registry.snapshot().get(MODEL)).containsEntry("state", "CLOSED");
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+    }
+
+    @Test
+    void failedProbeReopens() throws Exception {
+        openBriefly();
+
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+        properties.getCircuitBreaker().setOpenDurationMs(60_000);
+        registry.onFailure(MODEL);
+
+        assertThat(registry.isOpen(MODEL)).isTrue();
+        assertThat(registry.snapshot().get(MODEL)).containsEntry("openCount", 2L);
+    }
+
+    @Test
+    void ignoredProbeFreesTheSlotWithoutChangingState() throws Exception {
+        openBriefly();
+
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+        registry.onIgnored(MODEL);
+
+        assertThat(registry.snapshot().get(MODEL)).containsEntry("state", "HALF_OPEN");
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+    }
+
+    @Test
+    void resetClosesTheBreaker() {
+        fail(3);
+
+        assertThat(registry.reset(MODEL)).isTrue();
+        assertThat(registry.reset("glm-4.5")).isFalse();
+        assertThat(registry.isOpen(MODEL)).isFalse();
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+    }
+
+    @Test
+    void disabledBreakerAlwaysAdmits() {
+        properties.getCircuitBreaker().setEnabled(false);
+
+        fail(10);
+
+        assertThat(registry.tryAcquire(MODEL)).isTrue();
+        assertThat(registry.snapshot()).isEmpty();
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            registry.onFailure(MODEL);
+        }
+    }
+
+    private void openBriefly() throws InterruptedException {
+        properties.getCircuitBreaker().setOpenDurationMs(20);
+        fail(3);
+        assertThat(registry.tryAcquire(MODEL)).isFalse();
+        Thread.sleep(40);
+    }
+}
@@ -0,0 +1,120 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.service.model.ChatCompletionCreateParams;
+import ai.z.openapi.service.model.ChatCompletionResponse;
+import ai.z.openapi.service.model.ModelData;
+import ai.z.openapi.service.model.Usage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HedgedChatExecutorTest {
+
+    private static final String MODEL = "glm-4.6";
+
+    private UpstreamGateway upstreamGateway;
+    private TokenQuotaManager tokenQuotaManager;
+    private SimpleMeterRegistry meterRegistry;
+    private HedgedChatExecutor executor;
+    private final ChatCompletionCreateParams params = ChatCompletionCreateParams.builder().model(MODEL).build();
+    private final ChatRequest request = ChatRequest.builder().agentId(1L).model(MODEL).build();
+
+    @BeforeEach
+    void setUp() {
+        UpstreamProperties properties = new UpstreamProperties();
+        UpstreamProperties.Hedge hedge = properties.getHedge();
+        hedge.setEnabled(true);
+        hedge.setMinSamples(1);
+        hedge.setMinDelayMs(20);
+        hedge.setBudgetRatio(1);
+        hedge.setPoolSize(4);
+        upstreamGateway = mock(UpstreamGateway.class);
+        tokenQuotaManager = mock(TokenQuotaManager.class);
+        meterRegistry = new SimpleMeterRegistry();
+        executor = new HedgedChatExecutor(upstreamGateway, tokenQuotaManager, properties, meterRegistry);
+        executor.initialize();
+
+        // 第一次调用没有延迟样本，不对冲
+        when(upstreamGateway.complete(any())).thenReturn(response(1));
+        executor.complete(params, request);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void hedgeIsChargedToQuotaAndSettledWithItsUsage() throws Exception {
+        TokenQuotaManager.QuotaTicket hedgeTicket = mock(TokenQuotaManager.QuotaTicket.class);
+        when(tokenQuotaManager.tryAdmit(request)).thenReturn(hedgeTicket);
+        ChatCompletionResponse hedged = response(2);
+        CountDownLatch primaryCancelled = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        when(upstreamGateway.complete(any())).thenAnswer(invocation -> {
+            if (calls.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(5_000);
+                } catch (InterruptedException e) {
+                    primaryCancelled.countDown();
+                }
+                throw new IllegalStateException("cancelled");
+            }
+            return hedged;
+        });
+
+        assertThat(executor.complete(params, request)).isSameAs(hedged);
+
+        verify(hedgeTicket).record(hedged.getData().getUsage());
+        verify(hedgeTicket).settle();
+        assertThat(primaryCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(meterRegistry.get("pite.upstream.hedge.latency").tag("outcome", "hedge_won").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void hedgeIsSkippedWhenQuotaIsShort() {
+        when(tokenQuotaManager.tryAdmit(request)).thenReturn(null);
+        when(upstreamGateway.complete(any())).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return response(3);
+        });
+
+        executor.complete(params, request);
+
+        verify(upstreamGateway, timeout(1000).times(2)).complete(any());
+        assertThat(meterRegistry.get("pite.upstream.hedge.skipped").tag("reason", "quota").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void fastCallIsNotHedged() {
+        executor.complete(params, request);
+
+        verify(tokenQuotaManager, never()).tryAdmit(any());
+    }
+
+    private static ChatCompletionResponse response(int completionTokens) {
+        Usage usage = new Usage();
+        usage.setCompletionTokens(completionTokens);
+        usage.setTotalTokens(completionTokens + 10);
+        ModelData data = new ModelData();
+        data.setUsage(usage);
+        return ChatCompletionResponse.builder().success(true).data(data).build();
+    }
+}
@@ -0,0 +1,218 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.service.model.Usage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pox.com.piteagents.common.utils.ChatRequestDigester;
+import pox.com.piteagents.config.QuotaProperties;
+import pox.com.piteagents.entity.dto.request.ChatRequest;
+import pox.com.piteagents.exception.ZhipuApiException;
+import pox.com.piteagents.service.IAgentService;
+import pox.com.piteagents.service.context.ContextBudgeter;
+import pox.com.piteagents.service.context.GlmTokenEstimator;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TokenQuotaManagerTest {
+
+    private static final String MODEL = "glm-4.6";
+    private static final int PROMPT_TOKENS = 100;
+
+    private QuotaProperties properties;
+    private IAgentService agentService;
+    private CompletionTokenStats completionTokenStats;
+    private SimpleMeterRegistry meterRegistry;
+    private TokenQuotaManager quotaManager;
+
+    @BeforeEach
+    void setUp() {
+        properties = new QuotaProperties();
+        properties.setGlobalRpm(0);
+        properties.setGlobalTpm(0);
+        properties.setAgentRpm(0);
+        properties.setAgentTpm(0);
+        properties.setDefaultCompletionEstimate(400);
+        properties.setMaxDeferMs(0);
+        agentService = mock(IAgentService.class);
+        when(agentService.getAgentExtraParams(any())).thenReturn(Map.of());
+        completionTokenStats = new CompletionTokenStats();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    private void start() {
+        ChatRequestDigester digester = mock(ChatRequestDigester.class);
+        when(digester.resolveModel(any())).thenReturn(MODEL);
+        GlmTokenEstimator estimator = mock(GlmTokenEstimator.class);
+        when(estimator.estimateMessages(any())).thenReturn(PROMPT_TOKENS);
+        ContextBudgeter budgeter = mock(ContextBudgeter.class);
+        when(budgeter.maxCompletionTokens(anyString(), any())).thenReturn(4096);
+        quotaManager = new TokenQuotaManager(properties, agentService, digester, completionTokenStats,
+                estimator, budgeter, meterRegistry);
+        quotaManager.initialize();
+    }
+
+    @Test
+    void requestsOverRpmAreRejectedWith429() {
+        properties.setGlobalRpm(2);
+        start();
+
+        quotaManager.admit(request(null));
+        quotaManager.admit(request(null));
+
+        assertThatThrownBy(() -> quotaManager.admit(request(null)))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> {
+                    assertThat(e.getCode()).isEqualTo(429);
+                    assertThat(e.getMessage()).startsWith("服务超出每分钟请求数配额");
+                });
+        assertThat(meterRegistry.get("pite.quota.rejected").tag("scope", "global").tag("dimension", "rpm")
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void agentOverrideLimitsOnlyThatAgent() {
+        when(agentService.getAgentExtraParams(1L)).thenReturn(Map.of("rpmLimit", "1"));
+        start();
+
+        quotaManager.admit(request(1L));
+
+        assertThatThrownBy(() -> quotaManager.admit(request(1L)))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> {
+                    assertThat(e.getCode()).isEqualTo(429);
+                    assertThat(e.getMessage()).startsWith("Agent超出每分钟请求数配额");
+                });
+        assertThat(quotaManager.admit(request(2L))).isNotNull();
+    }
+
+    @Test
+    void rejectedTokenAdmissionRefundsRequestBucket() {
+        properties.setGlobalRpm(2);
+        properties.setAgentTpm(600);
+        start();
+        quotaManager.admit(request(1L));
+
+        assertThatThrownBy(() -> quotaManager.admit(request(1L)))
+                .isInstanceOfSatisfying(ZhipuApiException.class,
+                        e -> assertThat(e.getMessage()).startsWith("Agent超出每分钟 token 数配额"));
+
+        // 被 TPM 拒绝时已扣除的全局请求数被退回
+        assertThat(quotaManager.admit(request(null))).isNotNull();
+    }
+
+    @Test
+    void settleRefundsOverEstimate() {
+        properties.setGlobalTpm(1000);
+        start();
+
+        TokenQuotaManager.QuotaTicket ticket = quotaManager.admit(request(null));
+        assertThat(availableTokens()).isCloseTo(500, within(5.0));
+
+        ticket.record(usage(60, 40));
+        ticket.settle();
+
+        assertThat(availableTokens()).isCloseTo(900, within(5.0));
+        assertThat(completionTokenStats.getAverage(MODEL)).isEqualTo(40.0);
+    }
+
+    @Test
+    void overrunIsChargedAsDebt() {
+        properties.setGlobalTpm(1000);
+        start();
+
+        TokenQuotaManager.QuotaTicket ticket = quotaManager.admit(request(null));
+        ticket.record(usage(1000, 500));
+        ticket.settle();
+
+        assertThat(availableTokens()).isCloseTo(-500, within(5.0));
+        assertThatThrownBy(() -> quotaManager.admit(request(null)))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> assertThat(e.getCode()).isEqualTo(429));
+    }
+
+    @Test
+    void settleWithoutUsageKeepsEstimateAndRunsOnce() {
+        properties.setGlobalTpm(1000);
+        start();
+
+        TokenQuotaManager.QuotaTicket unreported = quotaManager.admit(request(null));
+        unreported.settle();
+        assertThat(availableTokens()).isCloseTo(500, within(5.0));
+        assertThat(completionTokenStats.getAverage(MODEL)).isNull();
+
+        TokenQuotaManager.QuotaTicket ticket = quotaManager.admit(request(null));
+        ticket.record(usage(60, 40));
+        ticket.settle();
+        ticket.settle();
+        assertThat(availableTokens()).isCloseTo(400, within(5.0));
+    }
+
+    @Test
+    void estimateUsesAverageCompletionOfModel() {
+        properties.setGlobalTpm(1000);
+        completionTokenStats.record(MODEL, 50);
+        start();
+
+        quotaManager.admit(request(null));
+
+        assertThat(availableTokens()).isCloseTo(1000 - PROMPT_TOKENS - 50, within(5.0));
+    }
+
+    @Test
+    void eagerAdmissionThrowsOnCallingThread() {
+        properties.setGlobalRpm(1);
+        start();
+
+        assertThat(quotaManager.admitEagerly(request(null))).isCompleted();
+        assertThatThrownBy(() -> quotaManager.admitEagerly(request(null)))
+                .isInstanceOfSatisfying(ZhipuApiException.class, e -> assertThat(e.getCode()).isEqualTo(429));
+    }
+
+    @Test
+    void tryAdmitChargesLikeAdmitButNeverRejects() {
+        properties.setGlobalRpm(2);
+        properties.setGlobalTpm(1000);
+        start();
+        quotaManager.admit(request(null));
+
+        TokenQuotaManager.QuotaTicket hedge = quotaManager.tryAdmit(request(null));
+        assertThat(hedge).isNotNull();
+        assertThat(availableTokens()).isCloseTo(0, within(5.0));
+
+        assertThat(quotaManager.tryAdmit(request(null))).isNull();
+        assertThat(meterRegistry.find("pite.quota.rejected").counter()).isNull();
+    }
+
+    @Test
+    void disabledQuotaAdmitsEverything() {
+        properties.setEnabled(false);
+        properties.setGlobalRpm(1);
+        start();
+
+        for (int i = 0; i < 5; i++) {
+            quotaManager.admit(request(1L)).settle();
+        }
+    }
+
+    private double availableTokens() {
+        return meterRegistry.get("pite.quota.available").tag("dimension", "tpm").gauge().value();
+    }
+
+    private static ChatRequest request(Long agentId) {
+        return ChatRequest.builder().agentId(agentId).model(MODEL).build();
+    }
+
+    private static Usage usage(int promptTokens, int completionTokens) {
+        Usage usage = new Usage();
+        usage.setPromptTokens(promptTokens);
+        usage.setCompletionTokens(completionTokens);
+        usage.setTotalTokens(promptTokens + completionTokens);
+        return usage;
+    }
+}
@@ -0,0 +1,182 @@
+package pox.com.piteagents.service.upstream;
+
+import ai.z.openapi.ZhipuAiClient;
+import ai.z.openapi.service.chat.ChatService;
+import ai.z.openapi.service.model.ChatCompletionCreateParams;
+import ai.z.openapi.service.model.ChatCompletionResponse;
+import ai.z.openapi.service.model.ModelData;
+import ai.z.openapi.service.model.ZAiHttpException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.reactivex.rxjava3.core.Flowable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import pox.com.piteagents.config.UpstreamProperties;
+import pox.com.piteagents.exception.ZhipuApiException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UpstreamGatewayTest {
+
+    private static final String MODEL = "glm-4.6";
+    private static final String FALLBACK = "glm-4.5";
+
+    private UpstreamProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+    private ChatService chatService;
+    private CircuitBreakerRegistry circuitBreakerRegistry;
+    private UpstreamGateway gateway;
+
+    @BeforeEach
+    void setUp() {
+        properties = new UpstreamProperties();
+        properties.getRetry().setInitialBackoffMs(1);
+        properties.getRetry().setMaxBackoffMs(2);
+        properties.getCircuitBreaker().setFailureThreshold(3);
+        meterRegistry = new SimpleMeterRegistry();
+        chatService = mock(ChatService.class);
+        ZhipuAiClient client = mock(ZhipuAiClient.class);
+        when(client.chat()).thenReturn(chatService);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(properties, meterRegistry);
+        limiter.initialize();
+        circuitBreakerRegistry = new CircuitBreakerRegistry(properties, meterRegistry);
+        gateway = new UpstreamGateway(client, limiter, circuitBreakerRegistry, properties, new ObjectMapper(),
+                meterRegistry);
+    }
+
+    @Test
+    void retryableFailureIsRetriedUntilSuccess() {
+        ChatCompletionResponse success = success();
+        when(chatService.createChatCompletion(any(ChatCompletionCreateParams.class)))
+                .thenReturn(failure(500), failure(1302), success);
+
+        assertThat(gateway.complete(params())).isSameAs(success);
+
+        assertThat(meterRegistry.get("pite.upstream.retries").tag("model", MODEL).counter().count()).isEqualTo(2);
+        assertThat(circuitBreakerRegistry.snapshot().get(MODEL)).containsEntry("consecutiveFailures", 0);
+    }
+
+    @Test
+    void requestErrorIsNotRetriedAndKeepsBreakerClosed() {
+        when(chatService.createChatCompletion(any(ChatCompletionCreateParams.class))).thenReturn(failure(400));
+
+        assertThatThrownBy(() -> gateway.complete(params())).isInstanceOf(ZhipuApiException.class);
+
+        verify(chatService, times(1)).createChatCompletion(any(ChatCompletionCreateParams.class));
+        assertThat(circuitBreakerRegistry.snapshot().get(MODEL)).containsEntry("consecutiveFailures", 0);
+    }
+
+    @Test
+    void exhaustedRetriesOpenBreakerAndFallBack() {
+        properties.getFallbackModels().put(MODEL, FALLBACK);
+        ChatCompletionResponse success = success();
+        when(chatService.createChatCompletion(argThat(p -> p != null && MODEL.equals(p.getModel()))))
+                .thenReturn(failure(503));
+        when(chatService.createChatCompletion(argThat(p -> p != null && FALLBACK.equals(p.getModel()))))
+                .thenReturn(success);
+
+        assertThat(gateway.complete(params())).isSameAs(success);
+
+        assertThat(circuitBreakerRegistry.isOpen(MODEL)).isTrue();
+        assertThat(fallbacks()).isEqualTo(1);
+
+        assertThat(gateway.complete(params())).isSameAs(success);
+        verify(chatService, times(3)).createChatCompletion(argThat(p -> p != null && MODEL.equals(p.getModel())));
+    }
+
+    @Test
+    void openBreakerWithoutFallbackFailsFast() {
+        for (int i = 0; i < 3; i++) {
+            circuitBreakerRegistry.onFailure(MODEL);
+        }
+
+        assertThatThrownBy(() -> gateway.complete(params()))
+                .isInstanceOf(ZhipuApiException.class)
+                .extracting("code").isEqualTo(503);
+        assertThatThrownBy(() -> gateway.stream(streamParams()).blockLast(Duration.ofSeconds(5)))
+                .isInstanceOf(ZhipuApiException.class);
+        verify(chatService, never()).createChatCompletion(any(ChatCompletionCreateParams.class));
+    }
+
+    @Test
+    void streamIsRetriedBeforeFirstChunk() {
+        ModelData chunk = new ModelData();
+        when(chatService.createChatCompletion(any(ChatCompletionCreateParams.class)))
+                .thenThrow(new ZAiHttpException("unavailable", "500", null, 503))
+                .thenReturn(streaming(Flowable.just(chunk)));
+
+        List<ModelData> chunks = gateway.stream(streamParams()).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(chunks).containsExactly(chunk);
+        assertThat(meterRegistry.get("pite.upstream.retries").tag("model", MODEL).counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void streamIsNotRetriedAfterFirstChunk() {
+        ModelData chunk = new ModelData();
+        when(chatService.createChatCompletion(any(ChatCompletionCreateParams.class)))
+                .thenReturn(streaming(Flowable.concat(Flowable.just(chunk),
+                        Flowable.error(new UncheckedIOException(new IOException("reset"))))));
+
+        assertThatThrownBy(() -> gateway.stream(streamParams()).blockLast(Duration.ofSeconds(5)))
+                .hasRootCauseInstanceOf(IOException.class);
+
+        verify(chatService, times(1)).createChatCompletion(any(ChatCompletionCreateParams.class));
+    }
+
+    @Test
+    void streamFallsBackWhenBreakerIsOpen() {
+        properties.getFallbackModels().put(MODEL, FALLBACK);
+        for (int i = 0; i < 3; i++) {
+            circuitBreakerRegistry.onFailure(MODEL);
+        }
+        when(chatService.createChatCompletion(any(ChatCompletionCreateParams.class)))
+                .thenReturn(streaming(Flowable.just(new ModelData())));
+
+        gateway.stream(streamParams()).blockLast(Duration.ofSeconds(5));
+
+        ArgumentCaptor<ChatCompletionCreateParams> captor = ArgumentCaptor.forClass(ChatCompletionCreateParams.class);
+        verify(chatService).createChatCompletion(captor.capture());
+        assertThat(captor.getValue().getModel()).isEqualTo(FALLBACK);
+        assertThat(fallbacks()).isEqualTo(1);
+    }
+
+    private double fallbacks() {
+        return meterRegistry.get("pite.upstream.fallbacks").tag("model", MODEL).tag("fallback", FALLBACK)
+                .counter().count();
+    }
+
+    private static ChatCompletionCreateParams params() {
+        return ChatCompletionCreateParams.builder().model(MODEL).build();
+    }
+
+    private static ChatCompletionCreateParams streamParams() {
+        return ChatCompletionCreateParams.builder().model(MODEL).stream(true).build();
+    }
+
+    private static ChatCompletionResponse success() {
+        return ChatCompletionResponse.builder().success(true).code(200).data(new ModelData()).build();
+    }
+
+    private static ChatCompletionResponse failure(int code) {
+        return ChatCompletionResponse.builder().success(false).code(code).msg("error " + code).build();
+    }
+
+    private static ChatCompletionResponse streaming(Flowable<ModelData> flowable) {
+        return ChatCompletionResponse.builder().success(true).code(200).flowable(flowable).build();
+    }
+}
@@ -0,0 +1,104 @@
+package pox.com.piteagents.service.streaming;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import pox.com.piteagents.entity.dto.response.StreamChatResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SSE 帧编码微基准
+ * <p>
+ * 对比一帧从 StreamChatResponse 到发射器发送项（含写出的字节）的两种路径：
+ * - eventBuilder：原实现，每次发送都由 SseEmitter.event().data(response) 构建事件，
+ *   消息转换器逐段写出（Jackson 序列化响应对象）
+ * - encoderFrame：编码器输出 SseFrame，帧字节和发送项随帧创建一次，所有订阅者共享
+ * </p>
+ * <p>
+ * 运行：mvn -Pjmh test-compile exec:exec -Djmh.args="SseFrameEncoderBenchmark"
+ * </p>
+ *
+ * @author piteAgents
+ * @since 2.0.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseFrameEncoderBenchmark {
+
+    private static final String[] DELTAS = {
+            "你好", "，我是", "智能助手", "。", "Here is", " the code", ":\n```java\n",
+            "System.out.println(\"hi\");", "\n```\n", "如需", "进一步", "说明", "请告诉我", "。"
+    };
+
+    /**
+     * 每帧推送的订阅者数（1 为普通流，大于 1 为合并请求的跟随者）
+     */
+    @Param({"1", "4"})
+    private int subscribers;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private StreamChatResponse[] responses;
+    private SseFrameEncoder encoder;
+    private int index;
+
+    @Setup
+    public void setup() {
+        responses = new StreamChatResponse[DELTAS.length];
+        for (int i = 0; i < DELTAS.length; i++) {
+            responses[i] = StreamChatResponse.builder()
+                    .id("chatcmpl-20261018120000-a1b2c3d4")
+                    .model("glm-4-flash")
+                    .delta(DELTAS[i])
+                    .done(false)
+                    .build();
+        }
+        encoder = new SseFrameEncoder();
+    }
+
+    private StreamChatResponse next() {
+        StreamChatResponse response = responses[index];
+        index = (index + 1) % responses.length;
+        return response;
+    }
+
+    @Benchmark
+    public void eventBuilder(Blackhole blackhole) throws Exception {
+        StreamChatResponse response = next();
+        for (int i = 0; i < subscribers; i++) {
+            Set<ResponseBodyEmitter.DataWithMediaType> items = SseEmitter.event().data(response).build();
+            for (ResponseBodyEmitter.DataWithMediaType item : items) {
+                Object data = item.getData();
+                blackhole.consume(data instanceof String text
+                        ? text.getBytes(StandardCharsets.UTF_8)
+                        : objectMapper.writeValueAsBytes(data));
+            }
+        }
+    }
+
+    @Benchmark
+    public void encoderFrame(Blackhole blackhole) {
+        SseFrame frame = encoder.encode(next());
+        for (int i = 0; i < subscribers; i++) {
+            blackhole.consume(frame.payload());
+        }
+    }
+}